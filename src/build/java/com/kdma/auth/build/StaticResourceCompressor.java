@@ -0,0 +1,76 @@
+
+package com.kdma.auth.build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzip variant next to every compressible static resource, for the resource chain to serve to clients that
+ * accept it instead of compressing the same bytes on every request. Run by the build as a single source file when
+ * packaging, so it stays out of the application.
+ */
+public final class StaticResourceCompressor {
+
+  private static final List<String> EXTENSIONS = Arrays.asList(".css", ".js", ".svg", ".html", ".json", ".txt");
+
+  private StaticResourceCompressor() {
+  }
+
+  /**
+   * Compresses the resources under the given directories.
+   *
+   * @param args the directories
+   * @throws IOException if a resource cannot be read or written
+   */
+  public static void main(String[] args) throws IOException {
+    for (String arg : args) {
+      Path root = Paths.get(arg);
+      if (!Files.isDirectory(root)) {
+        continue;
+      }
+      List<Path> resources;
+      try (Stream<Path> files = Files.walk(root)) {
+        resources = files.filter(Files::isRegularFile).filter(StaticResourceCompressor::isCompressible)
+                         .collect(Collectors.toList());
+      }
+      for (Path resource : resources) {
+        compress(resource);
+      }
+    }
+  }
+
+  private static boolean isCompressible(Path file) {
+    String name = file.getFileName().toString();
+    return EXTENSIONS.stream().anyMatch(name::endsWith);
+  }
+
+  private static void compress(Path resource) throws IOException {
+    byte[] content = Files.readAllBytes(resource);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = new GZIPOutputStream(compressed) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }) {
+      out.write(content);
+    }
+    Path variant = resource.resolveSibling(resource.getFileName() + ".gz");
+    // Not worth a second file, or the header overhead, for tiny resources
+    if (compressed.size() < content.length) {
+      Files.write(variant, compressed.toByteArray());
+      System.out.printf("%s: %d -> %d bytes%n", resource, content.length, compressed.size());
+    } else {
+      Files.deleteIfExists(variant);
+    }
+  }
+}
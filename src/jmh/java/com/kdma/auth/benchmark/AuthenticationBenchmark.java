@@ -0,0 +1,105 @@
+
+package com.kdma.auth.benchmark;
+
+import com.kdma.auth.AuthApplication;
+import com.kdma.auth.service.UserService;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.config.annotation.web.configuration.AuthorizationServerEndpointsConfiguration;
+import org.springframework.security.oauth2.provider.TokenGranter;
+import org.springframework.security.oauth2.provider.TokenRequest;
+
+/**
+ * Runs the password grant and the user lookup behind it in the application itself, started on a random port with
+ * its in-memory H2 database and development data. The grant goes through the same granter as {@code /oauth/token}:
+ * loading the client, checking the password with BCrypt at a fixed strength and returning the user's current access
+ * token, which after the first grant is read back rather than issued again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthenticationBenchmark {
+
+  private static final String CLIENT_ID = "gigy";
+
+  private static final String USERNAME = "john@example.com";
+
+  private static final String PASSWORD = "password";
+
+  @Param({"true", "false"})
+  private boolean userCache;
+
+  private ConfigurableApplicationContext context;
+
+  private TokenGranter tokenGranter;
+
+  private UserService userService;
+
+  private TokenRequest tokenRequest;
+
+  /**
+   * Starts the application.
+   *
+   * @throws Exception if the token granter cannot be built
+   */
+  @Setup
+  public void setUp() throws Exception {
+    // As arguments, so they override application.properties
+    context = new SpringApplicationBuilder(AuthApplication.class)
+        .run("--server.port=0", "--auth.password.strength=10", "--auth.user.cache.enabled=" + userCache,
+             "--logging.level.root=WARN", "--logging.level.com.kdma.auth=WARN", "--spring.jpa.show-sql=false");
+    tokenGranter = context.getBean(AuthorizationServerEndpointsConfiguration.class).getEndpointsConfigurer()
+                          .getTokenGranter();
+    userService = context.getBean(UserService.class);
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+    parameters.put("grant_type", "password");
+    parameters.put("username", USERNAME);
+    parameters.put("password", PASSWORD);
+    tokenRequest = new TokenRequest(parameters, CLIENT_ID, new HashSet<>(Arrays.asList("read", "write")),
+                                    "password");
+  }
+
+  /**
+   * Stops the application.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public OAuth2AccessToken passwordGrant() {
+    return tokenGranter.grant("password", tokenRequest);
+  }
+
+  @Benchmark
+  public UserDetails loadUserByUsername() {
+    return userService.loadUserByUsername(USERNAME);
+  }
+}
@@ -0,0 +1,93 @@
+
+package com.kdma.auth.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result with the result of an earlier run, such as the last release's, and fails when a
+ * benchmark got slower by more than the tolerance and by more than both runs' error margins together.
+ *
+ * <p>
+ * Arguments: the current result, the tolerance as a fraction, and the baseline result. Without a baseline the
+ * comparison is skipped.
+ * </p>
+ */
+public final class BenchmarkComparison {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private BenchmarkComparison() {
+  }
+
+  /**
+   * Compares the results and exits with status 1 on a regression.
+   *
+   * @param args the current result, the tolerance and the baseline result
+   * @throws IOException if a result cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3 || args[2].trim().isEmpty()) {
+      System.out.println("No baseline given with -Djmh.baseline, not comparing benchmark results");
+      return;
+    }
+    double tolerance = Double.parseDouble(args[1]);
+    Map<String, JsonNode> current = read(Paths.get(args[0]));
+    Map<String, JsonNode> baseline = read(Paths.get(args[2]));
+
+    int regressions = 0;
+    System.out.printf("%n%-90s %14s %14s %8s%n", "Benchmark", "Baseline", "Current", "Change");
+    for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+      JsonNode result = entry.getValue();
+      JsonNode metric = result.path("primaryMetric");
+      double score = metric.path("score").asDouble();
+      JsonNode previous = baseline.get(entry.getKey());
+      if (previous == null) {
+        System.out.printf("%-90s %14s %14.3f %8s%n", entry.getKey(), "-", score, "new");
+        continue;
+      }
+      JsonNode previousMetric = previous.path("primaryMetric");
+      double previousScore = previousMetric.path("score").asDouble();
+      double change = (score - previousScore) / previousScore;
+      // Throughput drops when things get slower, every other mode measures time
+      double slowdown = "thrpt".equals(result.path("mode").asText()) ? -change : change;
+      double margin = error(metric) + error(previousMetric);
+      boolean regression = slowdown > tolerance && Math.abs(score - previousScore) > margin;
+      if (regression) {
+        regressions++;
+      }
+      System.out.printf("%-90s %14.3f %14.3f %+7.1f%% %s%n", entry.getKey(), previousScore, score, change * 100,
+                        regression ? "REGRESSION" : "");
+    }
+
+    if (regressions > 0) {
+      System.out.printf("%d benchmark(s) regressed by more than %.0f%%%n", regressions, tolerance * 100);
+      System.exit(1);
+    }
+  }
+
+  private static Map<String, JsonNode> read(Path file) throws IOException {
+    Map<String, JsonNode> results = new LinkedHashMap<>();
+    for (JsonNode result : MAPPER.readTree(Files.readAllBytes(file))) {
+      Map<String, String> params = new TreeMap<>();
+      result.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+      String key = result.path("benchmark").asText() + (params.isEmpty() ? "" : params.toString());
+      results.put(key, result);
+    }
+    return results;
+  }
+
+  private static double error(JsonNode metric) {
+    // Runs with too few iterations report no error
+    double error = metric.path("scoreError").asDouble(0);
+    return Double.isNaN(error) ? 0 : error;
+  }
+}
@@ -0,0 +1,75 @@
+
+package com.kdma.auth.benchmark;
+
+import com.kdma.auth.service.MailContentBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.net.ultraq.thymeleaf.LayoutDialect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring5.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+/**
+ * Compares rendering the e-mail template in full for every e-mail, as the mail content builder used to, with putting
+ * the link into the cached skeleton. The engine is set up like the application's, with the layout dialect and
+ * template caching on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailContentBuilderBenchmark {
+
+  private static final String MESSAGE = "Please click on the link below to confirm your registration.";
+
+  private static final String LINK = "http://localhost:9000/auth/confirmRedirect?token=";
+
+  private SpringTemplateEngine templateEngine;
+
+  private MailContentBuilder builder;
+
+  private long sequence;
+
+  /**
+   * Sets up the template engine.
+   */
+  @Setup
+  public void setUp() {
+    ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+    resolver.setPrefix("templates/");
+    resolver.setSuffix(".html");
+    resolver.setTemplateMode(TemplateMode.HTML);
+    templateEngine = new SpringTemplateEngine();
+    templateEngine.setTemplateResolver(resolver);
+    templateEngine.addDialect(new LayoutDialect());
+    builder = new MailContentBuilder(templateEngine);
+  }
+
+  @Benchmark
+  public String fullRendering() {
+    Context context = new Context();
+    context.setVariable("message", MESSAGE);
+    context.setVariable("link", LINK + sequence++);
+    return templateEngine.process("mail/mail", context);
+  }
+
+  @Benchmark
+  public String cachedSkeleton() {
+    return builder.build(MESSAGE, LINK + sequence++);
+  }
+}
@@ -0,0 +1,115 @@
+
+package com.kdma.auth.benchmark;
+
+import com.kdma.auth.service.TokenServiceImpl;
+import com.kdma.auth.token.CompactJdbcTokenStore;
+import com.kdma.auth.token.TokenCodec;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+/**
+ * Revokes every token of a user holding the given number of access and refresh token pairs, one per client, through
+ * the {@link TokenServiceImpl} on the {@link CompactJdbcTokenStore} in an in-memory H2 database migrated like
+ * production. Other users' tokens stay in the tables, so the deletes do not run against empty tables.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RevokeTokensBenchmark {
+
+  private static final String USER = "user@example.com";
+
+  private static final int OTHER_USERS = 1000;
+
+  @Param({"1", "10", "100"})
+  private int tokens;
+
+  private EmbeddedDatabase database;
+
+  private CompactJdbcTokenStore tokenStore;
+
+  private TokenServiceImpl tokenService;
+
+  /**
+   * Migrates the database and issues tokens to other users.
+   */
+  @Setup
+  public void setUp() {
+    database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+    Flyway.configure().dataSource(database).locations("classpath:db/migration").load().migrate();
+    tokenStore = new CompactJdbcTokenStore(database, new TokenCodec());
+    tokenService = new TokenServiceImpl(tokenStore);
+    for (int i = 0; i < OTHER_USERS; i++) {
+      issue(UUID.randomUUID() + "@example.com", "client");
+    }
+  }
+
+  /**
+   * Issues the user's tokens again before each revocation.
+   */
+  @Setup(Level.Invocation)
+  public void issueTokens() {
+    for (int i = 0; i < tokens; i++) {
+      issue(USER, "client-" + i);
+    }
+  }
+
+  /**
+   * Drops the database.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    database.shutdown();
+  }
+
+  @Benchmark
+  public int revokeTokens() {
+    return tokenService.revokeTokens(USER);
+  }
+
+  private void issue(String userName, String clientId) {
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), clientId,
+                                              AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    OAuth2Authentication authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(
+        userName, null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+    OAuth2RefreshToken refreshToken = new DefaultExpiringOAuth2RefreshToken(
+        UUID.randomUUID().toString(), new Date(System.currentTimeMillis() + 2_592_000_000L));
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+    accessToken.setExpiration(new Date(System.currentTimeMillis() + 43_200_000L));
+    accessToken.setRefreshToken(refreshToken);
+    tokenStore.storeAccessToken(accessToken, authentication);
+    tokenStore.storeRefreshToken(refreshToken, authentication);
+  }
+}
@@ -0,0 +1,139 @@
+
+package com.kdma.auth.benchmark;
+
+import com.kdma.auth.token.TokenCodec;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+/**
+ * Compares the {@link TokenCodec} with the Java serialization the stock JdbcTokenStore uses, for a token row as
+ * written by the password grant. The encoded size of each row is printed at the end of every fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenCodecBenchmark {
+
+  private final TokenCodec codec = new TokenCodec();
+
+  private OAuth2AccessToken accessToken;
+
+  private OAuth2Authentication authentication;
+
+  private byte[] compactToken;
+
+  private byte[] compactAuthentication;
+
+  private byte[] serializedToken;
+
+  private byte[] serializedAuthentication;
+
+  /**
+   * Builds a token and authentication shaped like the ones issued by the password grant.
+   */
+  @Setup
+  public void setUp() {
+    DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+    token.setExpiration(new Date(System.currentTimeMillis() + 43_200_000L));
+    token.setScope(new HashSet<>(Arrays.asList("read", "write")));
+    token.setRefreshToken(new DefaultExpiringOAuth2RefreshToken(UUID.randomUUID().toString(),
+                                                                new Date(System.currentTimeMillis() + 2_592_000_000L)));
+    accessToken = token;
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+    parameters.put("grant_type", "password");
+    parameters.put("scope", "read write");
+    parameters.put("username", "user@example.com");
+    OAuth2Request request = new OAuth2Request(parameters, "client",
+                                              AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true,
+                                              token.getScope(), Collections.singleton("auth"), null, null, null);
+    authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(
+        "user@example.com", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+    compactToken = codec.encodeAccessToken(accessToken);
+    compactAuthentication = codec.encodeAuthentication(authentication);
+    serializedToken = SerializationUtils.serialize(accessToken);
+    serializedAuthentication = SerializationUtils.serialize(authentication);
+  }
+
+  /**
+   * Prints the bytes written per token row in each format.
+   */
+  @TearDown(Level.Trial)
+  public void reportSizes() {
+    System.out.printf("%nBytes per row: compact token=%d authentication=%d, java token=%d authentication=%d%n",
+                      compactToken.length, compactAuthentication.length, serializedToken.length,
+                      serializedAuthentication.length);
+  }
+
+  @Benchmark
+  public byte[] encodeTokenCompact() {
+    return codec.encodeAccessToken(accessToken);
+  }
+
+  @Benchmark
+  public byte[] encodeTokenJava() {
+    return SerializationUtils.serialize(accessToken);
+  }
+
+  @Benchmark
+  public OAuth2AccessToken decodeTokenCompact() {
+    return codec.decodeAccessToken(compactToken);
+  }
+
+  @Benchmark
+  public OAuth2AccessToken decodeTokenJava() {
+    return SerializationUtils.deserialize(serializedToken);
+  }
+
+  @Benchmark
+  public byte[] encodeAuthenticationCompact() {
+    return codec.encodeAuthentication(authentication);
+  }
+
+  @Benchmark
+  public byte[] encodeAuthenticationJava() {
+    return SerializationUtils.serialize(authentication);
+  }
+
+  @Benchmark
+  public OAuth2Authentication decodeAuthenticationCompact() {
+    return codec.decodeAuthentication(compactAuthentication);
+  }
+
+  @Benchmark
+  public OAuth2Authentication decodeAuthenticationJava() {
+    return SerializationUtils.deserialize(serializedAuthentication);
+  }
+}
@@ -0,0 +1,150 @@
+
+package com.kdma.auth.benchmark;
+
+import com.kdma.auth.token.CompactJdbcTokenStore;
+import com.kdma.auth.token.JournaledTokenStore;
+import com.kdma.auth.token.TokenCodec;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Compares the stock {@link JdbcTokenStore} and the {@link CompactJdbcTokenStore}, on an in-memory H2 database migrated
+ * like production, with the {@link JournaledTokenStore} journaling to a temporary directory. Issuing stores an access
+ * and a refresh token the way the password grant does, for a new user each time since a store holds one access token
+ * per authentication; introspecting reads a token and its authentication the way check_token does, and each read is
+ * also measured on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenStoreBenchmark {
+
+  @Param({"jdbc", "compact", "journal"})
+  private String store;
+
+  private TokenStore tokenStore;
+
+  private EmbeddedDatabase database;
+
+  private Path directory;
+
+  private OAuth2Request request;
+
+  private String tokenValue;
+
+  /**
+   * Opens the store and issues one token to introspect.
+   *
+   * @throws IOException if the journal cannot be created
+   */
+  @Setup
+  public void setUp() throws IOException {
+    if (!"journal".equals(store)) {
+      database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+      Flyway.configure().dataSource(database).locations("classpath:db/migration").load().migrate();
+      tokenStore = "jdbc".equals(store) ? new JdbcTokenStore(database)
+          : new CompactJdbcTokenStore(database, new TokenCodec());
+    } else {
+      directory = Files.createTempDirectory("tokens");
+      tokenStore = new JournaledTokenStore(directory, new TokenCodec(), 64, Duration.ofMinutes(5));
+    }
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+    parameters.put("grant_type", "password");
+    parameters.put("scope", "read write");
+    parameters.put("username", "user@example.com");
+    request = new OAuth2Request(parameters, "client", AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true,
+                                new HashSet<>(Arrays.asList("read", "write")), Collections.singleton("auth"), null,
+                                null, null);
+    tokenValue = issue();
+  }
+
+  /**
+   * Closes the store and removes what it wrote.
+   *
+   * @throws IOException if the journal cannot be closed
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (database != null) {
+      database.shutdown();
+    } else {
+      ((JournaledTokenStore) tokenStore).close();
+      FileSystemUtils.deleteRecursively(directory);
+    }
+  }
+
+  @Benchmark
+  public String issue() {
+    OAuth2Authentication authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(
+        UUID.randomUUID() + "@example.com", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+    OAuth2RefreshToken refreshToken = new DefaultExpiringOAuth2RefreshToken(
+        UUID.randomUUID().toString(), new Date(System.currentTimeMillis() + 2_592_000_000L));
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+    accessToken.setExpiration(new Date(System.currentTimeMillis() + 43_200_000L));
+    accessToken.setScope(request.getScope());
+    accessToken.setRefreshToken(refreshToken);
+    tokenStore.storeAccessToken(accessToken, authentication);
+    tokenStore.storeRefreshToken(refreshToken, authentication);
+    return accessToken.getValue();
+  }
+
+  @Benchmark
+  public OAuth2Authentication introspect() {
+    tokenStore.readAccessToken(tokenValue);
+    return tokenStore.readAuthentication(tokenValue);
+  }
+
+  @Benchmark
+  public OAuth2AccessToken readAccessToken() {
+    return tokenStore.readAccessToken(tokenValue);
+  }
+
+  @Benchmark
+  public OAuth2Authentication readAuthentication() {
+    return tokenStore.readAuthentication(tokenValue);
+  }
+}
@@ -0,0 +1,200 @@
+
+package com.kdma.auth.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the operations against the server, asynchronously, for a fixed set of users whose current tokens it keeps.
+ * Each operation completes with the status of its last response.
+ */
+public class AuthClient {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final Pattern CSRF = Pattern.compile("name=\"_csrf\"\\s+value=\"([^\"]+)\"");
+
+  private static final Pattern SESSION = Pattern.compile("(JSESSIONID=[^;]+)");
+
+  private final HttpClient httpClient;
+
+  private final URI base;
+
+  private final String clientAuthorization;
+
+  private final String[] users;
+
+  private final String password;
+
+  private final Duration timeout;
+
+  private final AtomicReferenceArray<Tokens> tokens;
+
+  /**
+   * Instantiates a new auth client.
+   *
+   * @param base the server URL, including the context path
+   * @param clientId the OAuth2 client
+   * @param clientSecret the client's secret
+   * @param users the users' e-mail addresses
+   * @param password the users' password
+   * @param timeout how long a response may take
+   */
+  public AuthClient(URI base, String clientId, String clientSecret, String[] users, String password,
+                    Duration timeout) {
+    // HTTP/1.1 like browsers and most clients of an authorization server, without trying an upgrade first
+    this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(timeout).build();
+    this.base = base;
+    this.clientAuthorization = "Basic " + Base64.getEncoder().encodeToString(
+        (clientId + ":" + clientSecret).getBytes(StandardCharsets.UTF_8));
+    this.users = users.clone();
+    this.password = password;
+    this.timeout = timeout;
+    this.tokens = new AtomicReferenceArray<>(users.length);
+  }
+
+  public int getUsers() {
+    return users.length;
+  }
+
+  /**
+   * Runs an operation for the given user.
+   *
+   * @param operation the operation
+   * @param user the index of the user
+   * @return the status of the last response
+   */
+  public CompletableFuture<Integer> execute(Operation operation, int user) {
+    Tokens current = tokens.get(user);
+    if (current == null && operation != Operation.REGISTER && operation != Operation.PASSWORD_RESET) {
+      return passwordGrant(user);
+    }
+    switch (operation) {
+      case PASSWORD_GRANT:
+        return passwordGrant(user);
+      case REFRESH_GRANT:
+        return refreshGrant(user, current);
+      case CHECK_TOKEN:
+        return send(post("/oauth/check_token", form("token", current.access))
+                        .header("Authorization", clientAuthorization).build())
+            .thenApply(HttpResponse::statusCode);
+      case USER:
+        return send(request("/user").header("Authorization", "Bearer " + current.access).build())
+            .thenApply(HttpResponse::statusCode);
+      case REGISTER:
+        return submitForm("/register", "load-" + UUID.randomUUID() + "@example.com");
+      case PASSWORD_RESET:
+        return submitForm("/forgotten", users[user]);
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+  }
+
+  /**
+   * Runs the password grant for the given user, keeping the tokens issued.
+   *
+   * @param user the index of the user
+   * @return the status of the response
+   */
+  public CompletableFuture<Integer> passwordGrant(int user) {
+    return grant(user, form("grant_type", "password", "username", users[user], "password", password));
+  }
+
+  private CompletableFuture<Integer> refreshGrant(int user, Tokens current) {
+    return grant(user, form("grant_type", "refresh_token", "refresh_token", current.refresh));
+  }
+
+  private CompletableFuture<Integer> grant(int user, String form) {
+    return send(post("/oauth/token", form).header("Authorization", clientAuthorization).build())
+        .thenApply(response -> {
+          if (response.statusCode() == 200) {
+            JsonNode body = read(response.body());
+            tokens.set(user, new Tokens(body.path("access_token").asText(), body.path("refresh_token").asText()));
+          }
+          return response.statusCode();
+        });
+  }
+
+  private CompletableFuture<Integer> submitForm(String path, String email) {
+    return send(request(path).build()).thenCompose(page -> {
+      Matcher csrf = CSRF.matcher(page.body());
+      Matcher session = SESSION.matcher(String.join(";", page.headers().allValues("Set-Cookie")));
+      if (page.statusCode() != 200) {
+        return CompletableFuture.completedFuture(page.statusCode());
+      }
+      if (!csrf.find()) {
+        throw new IllegalStateException("No CSRF token on " + path);
+      }
+      HttpRequest.Builder submit = post(path, form("email", email, "_csrf", csrf.group(1)));
+      if (session.find()) {
+        submit.header("Cookie", session.group(1));
+      }
+      return send(submit.build()).thenApply(HttpResponse::statusCode);
+    });
+  }
+
+  private CompletableFuture<HttpResponse<String>> send(HttpRequest request) {
+    return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  private HttpRequest.Builder post(String path, String form) {
+    return request(path).header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(form));
+  }
+
+  private HttpRequest.Builder request(String path) {
+    return HttpRequest.newBuilder(base.resolve(base.getPath() + path)).timeout(timeout);
+  }
+
+  private static String form(String... namesAndValues) {
+    Map<String, String> fields = new LinkedHashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      fields.put(namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return fields.entrySet().stream()
+                 .map(field -> field.getKey() + "=" + URLEncoder.encode(field.getValue(), StandardCharsets.UTF_8))
+                 .collect(Collectors.joining("&"));
+  }
+
+  private static JsonNode read(String body) {
+    try {
+      return MAPPER.readTree(body);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * A user's current access and refresh token.
+   */
+  private static final class Tokens {
+
+    private final String access;
+
+    private final String refresh;
+
+    private Tokens(String access, String refresh) {
+      this.access = access;
+      this.refresh = refresh;
+    }
+  }
+}
@@ -0,0 +1,281 @@
+
+package com.kdma.auth.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.kdma.auth.AuthApplication;
+import com.kdma.auth.service.FakeSmtpServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Starts the application on its in-memory H2 database, with e-mails going to an in-process SMTP server, and drives it
+ * with a mix of operations arriving at a fixed average rate, then writes the latency percentiles, throughput and
+ * error rates of each operation as JSON.
+ *
+ * <p>
+ * Arrivals follow a Poisson process whatever the server's response times, the way independent clients arrive in
+ * production, so a slow server builds up requests in flight instead of being sent fewer. Latencies are measured from
+ * when each request was due. A warmup at the same rate runs first and is not reported.
+ * </p>
+ *
+ * <p>
+ * Arguments are {@code name=value} options, see {@link #DEFAULTS}, and {@code --property=value} application
+ * properties, which override the ones the driver sets.
+ * </p>
+ */
+public final class LoadDriver {
+
+  /** The options and their defaults. */
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+  static {
+    DEFAULTS.put("rate", "50");
+    DEFAULTS.put("duration", "60s");
+    DEFAULTS.put("warmup", "15s");
+    DEFAULTS.put("users", "100");
+    DEFAULTS.put("mix", "check_token=50,user=20,password_grant=12,refresh_grant=10,register=4,password_reset=4");
+    DEFAULTS.put("timeout", "30s");
+    DEFAULTS.put("seed", "42");
+    DEFAULTS.put("report", "target/loadtest-report.json");
+  }
+
+  private static final String CLIENT_ID = "gigy";
+
+  private static final String CLIENT_SECRET = "secret";
+
+  /** Password of the seeded users, hashed like the development data. */
+  private static final String PASSWORD = "password";
+
+  private static final String PASSWORD_HASH = "$2a$10$D4OLKI6yy68crm.3imC9X.P2xqKHs5TloWUcr6z5XdOqnTrAK84ri";
+
+  private final double rate;
+
+  private final Map<Operation, Integer> mix;
+
+  private final Random random;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+
+  private LoadDriver(double rate, Map<Operation, Integer> mix, long seed) {
+    this.rate = rate;
+    this.mix = mix;
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Runs the load test.
+   *
+   * @param args the options and application properties
+   * @throws IOException if the report cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+    Map<String, String> properties = new LinkedHashMap<>();
+    for (String arg : args) {
+      String[] option = arg.replaceFirst("^--", "").split("=", 2);
+      if (arg.startsWith("--")) {
+        properties.put(option[0], option.length > 1 ? option[1] : "");
+      } else if (option.length == 2 && DEFAULTS.containsKey(option[0])) {
+        options.put(option[0], option[1]);
+      } else {
+        throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + DEFAULTS.keySet());
+      }
+    }
+    double rate = Double.parseDouble(options.get("rate"));
+    Duration duration = DurationStyle.detectAndParse(options.get("duration"));
+    Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+    Duration timeout = DurationStyle.detectAndParse(options.get("timeout"));
+    int userCount = Integer.parseInt(options.get("users"));
+    Map<Operation, Integer> mix = Operation.parseMix(options.get("mix"));
+    LoadDriver driver = new LoadDriver(rate, mix, Long.parseLong(options.get("seed")));
+
+    try (FakeSmtpServer smtp = new FakeSmtpServer();
+        ConfigurableApplicationContext context = start(smtp, properties)) {
+      String[] users = seedUsers(context.getBean(DataSource.class), userCount);
+      int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+      String contextPath = context.getEnvironment().getProperty("server.servlet.context-path", "");
+      AuthClient client = new AuthClient(URI.create("http://localhost:" + port + contextPath), CLIENT_ID,
+                                         CLIENT_SECRET, users, PASSWORD, timeout);
+
+      System.out.printf("Signing in %d users%n", userCount);
+      for (int user = 0; user < userCount; user++) {
+        int status = client.passwordGrant(user).join();
+        if (status != 200) {
+          throw new IllegalStateException("Password grant for " + users[user] + " answered " + status);
+        }
+      }
+      System.out.printf("Warming up for %s at %.1f requests per second%n", warmup, rate);
+      driver.run(client, warmup, timeout);
+      System.out.printf("Measuring for %s at %.1f requests per second%n", duration, rate);
+      Instant startedAt = Instant.now();
+      Map<Operation, OperationStats> results = driver.run(client, duration, timeout);
+
+      Map<String, Object> report = driver.report(results, startedAt, duration, warmup, userCount, smtp);
+      Path file = Paths.get(options.get("report"));
+      if (file.getParent() != null) {
+        Files.createDirectories(file.getParent());
+      }
+      new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+      print(results, duration);
+      System.out.printf("Report written to %s%n", file.toAbsolutePath());
+    }
+  }
+
+  private static ConfigurableApplicationContext start(FakeSmtpServer smtp, Map<String, String> overrides) {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("server.port", "0");
+    properties.put("spring.mail.host", "localhost");
+    properties.put("spring.mail.port", Integer.toString(smtp.getPort()));
+    properties.put("spring.mail.properties.mail.smtp.auth", "false");
+    properties.put("spring.mail.properties.mail.smtp.starttls.enable", "false");
+    properties.put("spring.jpa.show-sql", "false");
+    properties.put("logging.level.com.kdma.auth", "WARN");
+    properties.putAll(overrides);
+    // As arguments, so they override application.properties
+    List<String> args = new ArrayList<>();
+    properties.forEach((name, value) -> args.add("--" + name + "=" + value));
+    return new SpringApplicationBuilder(AuthApplication.class).run(args.toArray(new String[0]));
+  }
+
+  private static String[] seedUsers(DataSource dataSource, int count) {
+    String[] users = new String[count];
+    List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      users[i] = "load-user-" + i + "@example.com";
+      rows.add(new Object[] {users[i], PASSWORD_HASH});
+    }
+    new JdbcTemplate(dataSource).batchUpdate("insert into users (email, password, role, enabled) "
+                                             + "values (?, ?, 'USER', true)", rows);
+    return users;
+  }
+
+  private Map<Operation, OperationStats> run(AuthClient client, Duration duration, Duration timeout) {
+    Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    mix.keySet().forEach(operation -> stats.put(operation, new OperationStats()));
+    int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+    maxInFlight.set(inFlight.get());
+
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    long due = start;
+    while (true) {
+      due += (long) (-Math.log(1 - random.nextDouble()) / rate * TimeUnit.SECONDS.toNanos(1));
+      if (due - end >= 0) {
+        break;
+      }
+      for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+        LockSupport.parkNanos(wait);
+      }
+      Operation operation = pick(random.nextInt(totalWeight));
+      int user = random.nextInt(client.getUsers());
+      long dueAt = due;
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      CompletableFuture<Integer> response;
+      try {
+        response = client.execute(operation, user);
+      } catch (RuntimeException e) {
+        response = new CompletableFuture<>();
+        response.completeExceptionally(e);
+      }
+      response.whenComplete((status, failure) -> {
+        long latency = System.nanoTime() - dueAt;
+        if (failure != null) {
+          Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+              ? failure.getCause() : failure;
+          stats.get(operation).record(latency, cause.getClass().getSimpleName(), false);
+        } else {
+          stats.get(operation).record(latency, Integer.toString(status), status == 200);
+        }
+        inFlight.decrementAndGet();
+      });
+    }
+
+    // Requests still in flight after the timeout will not complete
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (inFlight.get() > 0 && deadline - System.nanoTime() > 0) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    return stats;
+  }
+
+  private Operation pick(int ticket) {
+    int remaining = ticket;
+    for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+      remaining -= entry.getValue();
+      if (remaining < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new IllegalStateException("Ticket " + ticket + " is beyond the mix");
+  }
+
+  private Map<String, Object> report(Map<Operation, OperationStats> results, Instant startedAt, Duration duration,
+                                     Duration warmup, int users, FakeSmtpServer smtp) {
+    double seconds = duration.toNanos() / 1e9;
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("startedAt", startedAt.toString());
+    report.put("rate", rate);
+    report.put("durationSeconds", seconds);
+    report.put("warmupSeconds", warmup.toNanos() / 1e9);
+    report.put("users", users);
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    mix.forEach((operation, weight) -> weights.put(operation.key(), weight));
+    report.put("mix", weights);
+    report.put("maxInFlight", maxInFlight.get());
+    report.put("incomplete", inFlight.get());
+    report.put("emailsReceived", smtp.getRecipients().size());
+
+    OperationStats total = new OperationStats();
+    Map<String, Object> operations = new LinkedHashMap<>();
+    results.forEach((operation, stats) -> {
+      total.add(stats);
+      operations.put(operation.key(), stats.summarize(seconds));
+    });
+    report.put("total", total.summarize(seconds));
+    report.put("operations", operations);
+    return report;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void print(Map<Operation, OperationStats> results, Duration duration) {
+    double seconds = duration.toNanos() / 1e9;
+    System.out.printf("%n%-16s %8s %8s %9s %9s %9s %9s %9s %9s%n", "Operation", "Count", "Errors", "Per sec",
+                      "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "Max ms");
+    results.forEach((operation, stats) -> {
+      Map<String, Object> summary = stats.summarize(seconds);
+      Map<String, Object> latency = (Map<String, Object>) summary.get("latencyMillis");
+      System.out.printf("%-16s %8d %7.2f%% %9.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n", operation.key(),
+                        stats.getCount(), (double) summary.get("errorRate") * 100, summary.get("throughput"),
+                        latency.get("p50"), latency.get("p95"), latency.get("p99"), latency.get("p99.9"),
+                        latency.get("max"));
+    });
+  }
+}
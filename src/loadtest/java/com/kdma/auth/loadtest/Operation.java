@@ -0,0 +1,63 @@
+
+package com.kdma.auth.loadtest;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What the load driver does to the server, named in the mix by the lower case name.
+ */
+public enum Operation {
+
+  /** Password grant on {@code /oauth/token}. Returns the user's current token after the first grant. */
+  PASSWORD_GRANT,
+
+  /** Refresh grant on {@code /oauth/token}, replacing the user's access token. */
+  REFRESH_GRANT,
+
+  /** Introspection of a user's access token on {@code /oauth/check_token}. */
+  CHECK_TOKEN,
+
+  /** {@code /user} with a user's access token. */
+  USER,
+
+  /** Registration of a new user: the form, then posting it. */
+  REGISTER,
+
+  /** Password reset for a user: the form, then posting it. */
+  PASSWORD_RESET;
+
+  /**
+   * Gets the name used in the mix and the report.
+   *
+   * @return the name
+   */
+  public String key() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Parses a mix such as {@code check_token=60,user=20,password_grant=10}. Operations left out are not run.
+   *
+   * @param mix the mix
+   * @return the weight of each operation in the mix
+   */
+  public static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Mix entries are operation=weight, not " + entry);
+      }
+      int weight = Integer.parseInt(parts[1].trim());
+      if (weight > 0) {
+        weights.put(valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), weight);
+      }
+    }
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("The mix runs no operation: " + mix);
+    }
+    return weights;
+  }
+}
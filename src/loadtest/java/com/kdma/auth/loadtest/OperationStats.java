@@ -0,0 +1,95 @@
+
+package com.kdma.auth.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latencies and outcomes of one operation. Latencies are measured from when the request was due, not when it was
+ * sent, so a server that falls behind shows up in the percentiles instead of slowing the arrivals down.
+ */
+public class OperationStats {
+
+  private static final double[] PERCENTILES = {50, 95, 99, 99.9};
+
+  private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+
+  private final LongAdder errors = new LongAdder();
+
+  private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+  /**
+   * Records a completed request.
+   *
+   * @param latencyNanos the time from when the request was due until it completed
+   * @param outcome the HTTP status, or what went wrong
+   * @param success whether the outcome is the expected one
+   */
+  public void record(long latencyNanos, String outcome, boolean success) {
+    latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), latencies.getHighestTrackableValue()));
+    outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+    if (!success) {
+      errors.increment();
+    }
+  }
+
+  public long getCount() {
+    return latencies.getTotalCount();
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * Adds another operation's results to these.
+   *
+   * @param other the other operation's results
+   */
+  public void add(OperationStats other) {
+    latencies.add(other.latencies);
+    errors.add(other.getErrors());
+    other.outcomes.forEach((outcome, count) -> outcomes.computeIfAbsent(outcome, o -> new LongAdder())
+                                                        .add(count.sum()));
+  }
+
+  /**
+   * Summarizes the results for the report.
+   *
+   * @param seconds the seconds the results were collected over
+   * @return the summary
+   */
+  public Map<String, Object> summarize(double seconds) {
+    Map<String, Object> summary = new LinkedHashMap<>();
+    long count = getCount();
+    summary.put("count", count);
+    summary.put("errors", getErrors());
+    summary.put("errorRate", count == 0 ? 0 : (double) getErrors() / count);
+    summary.put("throughput", count / seconds);
+
+    Map<String, Object> latency = new LinkedHashMap<>();
+    for (double percentile : PERCENTILES) {
+      latency.put("p" + (percentile == Math.rint(percentile) ? Integer.toString((int) percentile)
+          : Double.toString(percentile)), millis(latencies.getValueAtPercentile(percentile)));
+    }
+    latency.put("max", millis(latencies.getMaxValue()));
+    latency.put("mean", millis(latencies.getMean()));
+    summary.put("latencyMillis", latency);
+
+    Map<String, Long> byOutcome = new TreeMap<>();
+    outcomes.forEach((outcome, n) -> byOutcome.put(outcome, n.sum()));
+    summary.put("outcomes", byOutcome);
+    return summary;
+  }
+
+  private static double millis(double micros) {
+    return Math.round(micros) / 1000.0;
+  }
+}
@@ -0,0 +1,55 @@
+
+package com.kdma.auth;
+
+import java.time.Duration;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.client")
+public class ClientProperties {
+
+  private final Cache cache = new Cache();
+
+  private final SecretCache secretCache = new SecretCache();
+
+  @Getter
+  @Setter
+  public static class Cache {
+
+    /** Whether the OAuth2 clients are cached in front of the database. */
+    private boolean enabled = true;
+
+    /** Maximum number of clients kept in memory. */
+    private long maximumSize = 1_000;
+
+    /**
+     * How long a client is cached before it is read again. Evicting through the {@code clients} endpoint applies a
+     * change at once; this bounds how long a change made directly in the database goes unnoticed.
+     */
+    private Duration timeToLive = Duration.ofMinutes(1);
+  }
+
+  @Getter
+  @Setter
+  public static class SecretCache {
+
+    /** Whether client secrets that were verified are remembered, so clients are not hashed on every request. */
+    private boolean enabled = true;
+
+    /** Maximum number of verified secrets remembered. */
+    private long maximumSize = 1_000;
+
+    /**
+     * How long a verified secret is remembered. Entries stop matching as soon as the client's stored secret changes,
+     * so this mostly bounds how long a secret that is no longer used stays in memory.
+     */
+    private Duration timeToLive = Duration.ofMinutes(1);
+  }
+}
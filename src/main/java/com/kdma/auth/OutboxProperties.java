@@ -0,0 +1,48 @@
+
+package com.kdma.auth;
+
+import java.time.Duration;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.outbox")
+public class OutboxProperties {
+
+  /** Whether queued e-mails are sent. When disabled they stay in the outbox until it is enabled again. */
+  private boolean enabled = true;
+
+  /** Delay between the end of one look at the outbox and the start of the next. */
+  private Duration pollInterval = Duration.ofSeconds(1);
+
+  /** E-mails sent over one SMTP connection. */
+  private int batchSize = 50;
+
+  /** Threads sending batches at the same time. */
+  private int threads = 2;
+
+  /** Attempts at sending an e-mail before it is dropped. */
+  private int maxAttempts = 8;
+
+  /** Wait before the first retry; it doubles with every further attempt. */
+  private Duration initialBackoff = Duration.ofSeconds(30);
+
+  /** Longest wait between two attempts. */
+  private Duration maxBackoff = Duration.ofHours(1);
+
+  /** How long a batch may take to send before another instance may pick its e-mails up again. */
+  private Duration claimTimeout = Duration.ofMinutes(5);
+
+  /**
+   * Base64 AES key, 16, 24 or 32 bytes, encrypting the links of queued e-mails, which carry verification tokens. Must
+   * be the same on every instance sharing the outbox. Without one a key is generated that only lives as long as the
+   * process.
+   */
+  private String linkKey;
+}
@@ -0,0 +1,29 @@
+
+package com.kdma.auth;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.page-cache")
+public class PageCacheProperties {
+
+  /** Whether public pages are rendered once and served from memory. Turn off while editing templates. */
+  private boolean enabled = true;
+
+  /** Views whose output depends only on the locale, the error, logout and email parameters and the CSRF token. */
+  private Set<String> views = new LinkedHashSet<>(Arrays.asList("login", "register", "forgotten", "index",
+                                                                "logout"));
+
+  /** Rendered pages kept; beyond that, the least used pages are dropped. */
+  private int maximumSize = 256;
+}
@@ -0,0 +1,38 @@
+
+package com.kdma.auth;
+
+import java.time.Duration;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.password")
+public class PasswordProperties {
+
+  /** BCrypt strength for new hashes. When not set, it is calibrated at startup to the target latency. */
+  private Integer strength;
+
+  /** How long one hash should take on this machine, when calibrating the strength. */
+  private Duration targetLatency = Duration.ofMillis(250);
+
+  /** Lowest strength calibration may pick, however slow the machine. */
+  private int minimumStrength = 10;
+
+  /** Highest strength calibration may pick, however fast the machine. */
+  private int maximumStrength = 16;
+
+  /** Threads hashing passwords, apart from the request threads. */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /** Hashes waiting for a thread before further requests are turned away as busy. */
+  private int queueCapacity = 32;
+
+  /** Retry-After sent with a busy response. */
+  private Duration retryAfter = Duration.ofSeconds(1);
+}
@@ -0,0 +1,35 @@
+
+package com.kdma.auth;
+
+import java.time.Duration;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.reaper")
+public class ReaperProperties {
+
+  /** Whether expired rows are purged on a schedule. A run can always be started through the actuator endpoint. */
+  private boolean enabled = true;
+
+  /** Delay after startup before the first run. */
+  private Duration initialDelay = Duration.ofMinutes(1);
+
+  /** Delay between the end of one run and the start of the next. */
+  private Duration interval = Duration.ofMinutes(15);
+
+  /** Maximum number of rows removed by one statement batch. */
+  private int batchSize = 500;
+
+  /** Pause between batches, so other writers get at the table between short lock holds. */
+  private Duration pause = Duration.ofMillis(100);
+
+  /** How long a registration, password reset or e-mail change link stays valid. */
+  private Duration confirmationTokenTimeToLive = Duration.ofHours(24);
+}
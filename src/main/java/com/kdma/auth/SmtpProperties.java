@@ -0,0 +1,47 @@
+
+package com.kdma.auth;
+
+import java.time.Duration;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.smtp")
+public class SmtpProperties {
+
+  /** Connections to the mail server open at the same time, idle or in use. */
+  private int maxConnections = 2;
+
+  /** How long a send waits for a free connection before giving up. */
+  private Duration borrowTimeout = Duration.ofSeconds(10);
+
+  /** How long a connection may stay idle before it is closed rather than reused. */
+  private Duration maxIdleTime = Duration.ofSeconds(30);
+
+  /** Idle time after which a connection is checked with NOOP before it is reused. */
+  private Duration validateAfter = Duration.ofSeconds(5);
+
+  /** Messages sent over one connection before it is replaced, since some servers cap them. */
+  private int maxMessagesPerConnection = 100;
+
+  /** Time allowed to open a connection to the mail server. */
+  private Duration connectTimeout = Duration.ofSeconds(5);
+
+  /** Time allowed for the mail server to answer a command. */
+  private Duration readTimeout = Duration.ofSeconds(10);
+
+  /** Time allowed to write a command or message to the mail server. */
+  private Duration writeTimeout = Duration.ofSeconds(10);
+
+  /** Consecutive failed sends, such as refused connections or timeouts, that open the circuit. */
+  private int failureThreshold = 5;
+
+  /** How long an open circuit fails sends at once before it lets one through to try the mail server. */
+  private Duration openDuration = Duration.ofSeconds(30);
+}
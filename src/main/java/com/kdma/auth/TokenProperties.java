@@ -0,0 +1,114 @@
+
+package com.kdma.auth;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.token")
+public class TokenProperties {
+
+  /** Whether access tokens are opaque values checked against the store, or self-contained signed JWTs. */
+  private Format format = Format.OPAQUE;
+
+  /** Where tokens are kept: the database, or memory backed by a journal on local disk for single-node deployments. */
+  private Store store = Store.JDBC;
+
+  /**
+   * Whether tokens are written in the compact binary format. Turn off to keep writing Java serialization during a
+   * rolling upgrade; both formats are always read.
+   */
+  private boolean compactEncoding = true;
+
+  private final Cache cache = new Cache();
+
+  private final Jwt jwt = new Jwt();
+
+  private final Journal journal = new Journal();
+
+  private final Code code = new Code();
+
+  public enum Format {
+    OPAQUE, JWT
+  }
+
+  public enum Store {
+    JDBC, JOURNAL
+  }
+
+  @Getter
+  @Setter
+  public static class Cache {
+
+    /** Whether access token reads are cached in front of the token store. */
+    private boolean enabled = true;
+
+    /** Maximum number of access tokens kept in memory. */
+    private long maximumSize = 10_000;
+
+    /** Upper bound on how long a token is cached; never longer than the token itself is valid. */
+    private Duration timeToLive = Duration.ofMinutes(5);
+  }
+
+  @Getter
+  @Setter
+  public static class Jwt {
+
+    /** Key store holding the signing keys. Without one a key is generated that only lives as long as the process. */
+    private Resource keyStore;
+
+    private String keyStoreType = "PKCS12";
+
+    private String keyStorePassword;
+
+    /** Key aliases in rotation order: the first signs new tokens, the rest are only published and verified. */
+    private List<String> keyAliases = new ArrayList<>();
+  }
+
+  @Getter
+  @Setter
+  public static class Journal {
+
+    /** Directory holding the token snapshot and journal. Must be on local disk and used by one instance only. */
+    private Path directory = Paths.get("data", "tokens");
+
+    /** How often the journal is compacted into a snapshot, which bounds how much a restart replays. */
+    private Duration snapshotInterval = Duration.ofMinutes(5);
+
+    /** Number of striped write locks; more stripes mean less contention between concurrent writes. */
+    private int stripes = 64;
+  }
+
+  @Getter
+  @Setter
+  public static class Code {
+
+    /**
+     * Where authorization codes wait to be redeemed: memory, or the database when the code may be redeemed on another
+     * instance than the one that issued it.
+     */
+    private Store store = Store.MEMORY;
+
+    /** How long an authorization code may go unused; in the database, the reaper removes codes older than this. */
+    private Duration timeToLive = Duration.ofMinutes(10);
+
+    /** Maximum number of codes kept in memory; once reached, the codes closest to expiring are dropped. */
+    private int maximumSize = 10_000;
+
+    public enum Store {
+      MEMORY, JDBC
+    }
+  }
+}
@@ -0,0 +1,68 @@
+
+package com.kdma.auth;
+
+import java.time.Duration;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties("auth.user")
+public class UserProperties {
+
+  private final Cache cache = new Cache();
+
+  private final BulkImport bulkImport = new BulkImport();
+
+  private final Export export = new Export();
+
+  @Getter
+  @Setter
+  public static class Cache {
+
+    /** Whether user details loaded for logins and token grants are cached. */
+    private boolean enabled = true;
+
+    /** Maximum number of users kept in memory. */
+    private long maximumSize = 10_000;
+
+    /**
+     * How long a user is cached. Changes made through the application evict at once; this bounds how long a change
+     * made directly in the database goes unnoticed.
+     */
+    private Duration timeToLive = Duration.ofMinutes(5);
+  }
+
+  @Getter
+  @Setter
+  public static class BulkImport {
+
+    /** Rows written to the database in one batch. */
+    private int batchSize = 500;
+
+    /** Threads hashing imported passwords, kept below the number of cores so logins still get their share. */
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /** Row errors reported in detail; further errors are only counted. */
+    private int maxErrors = 1000;
+  }
+
+  @Getter
+  @Setter
+  public static class Export {
+
+    /** Rows fetched from the database at a time while exporting. */
+    private int fetchSize = 1000;
+
+    /**
+     * How far behind the current time an export stops. A user changed by a transaction that commits later than this
+     * would be missed by incremental exports.
+     */
+    private Duration settleTime = Duration.ofMinutes(1);
+  }
+}
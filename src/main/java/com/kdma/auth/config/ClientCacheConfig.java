@@ -0,0 +1,49 @@
+
+package com.kdma.auth.config;
+
+import com.kdma.auth.ClientProperties;
+import com.kdma.auth.service.ClientDetailsCache;
+import com.kdma.auth.service.ClientsEndpoint;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import javax.sql.DataSource;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.provider.client.JdbcClientDetailsService;
+
+@Configuration
+@ConditionalOnProperty(name = "auth.client.cache.enabled", havingValue = "true", matchIfMissing = true)
+public class ClientCacheConfig {
+
+  /**
+   * Cache of the OAuth2 clients registered in the database.
+   *
+   * @param properties the client properties
+   * @param dataSource the data source
+   * @param meterRegistry the meter registry
+   * @return the client details cache
+   */
+  @Bean
+  public ClientDetailsCache clientDetailsCache(ClientProperties properties, DataSource dataSource,
+                                               MeterRegistry meterRegistry) {
+    ClientProperties.Cache cache = properties.getCache();
+    ClientDetailsCache clientDetailsCache = new ClientDetailsCache(new JdbcClientDetailsService(dataSource),
+                                                                   cache.getMaximumSize(), cache.getTimeToLive());
+    clientDetailsCache.bindTo(meterRegistry);
+    return clientDetailsCache;
+  }
+
+  /**
+   * Endpoint evicting changed clients from the cache.
+   *
+   * @param clientDetailsCache the client details cache
+   * @return the endpoint
+   */
+  @Bean
+  public ClientsEndpoint clientsEndpoint(ClientDetailsCache clientDetailsCache) {
+    return new ClientsEndpoint(clientDetailsCache);
+  }
+}
@@ -1,22 +1,122 @@
 
 package com.kdma.auth.config;
 
+import com.kdma.auth.TokenProperties;
+import com.kdma.auth.token.CachingTokenStore;
+import com.kdma.auth.token.CompactJdbcTokenStore;
+import com.kdma.auth.token.JournaledTokenStore;
+import com.kdma.auth.token.JwtKeySet;
+import com.kdma.auth.token.MeteredTokenStore;
+import com.kdma.auth.token.SelfContainedTokenStore;
+import com.kdma.auth.token.SignedJwtAccessTokenConverter;
+import com.kdma.auth.token.TokenCodec;
+import com.kdma.auth.token.UserTokenStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
 import javax.sql.DataSource;
 
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.security.oauth2.provider.token.TokenStore;
-import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
 
+@Slf4j
 @Configuration
 public class JdbcTokenStoreConfig {
 
   @Autowired
   private DataSource dataSource;
 
+  /**
+   * Token store, optionally reading self-contained access tokens locally and fronted by a read-through cache. Calls
+   * that reach the database or journal are timed.
+   *
+   * @param properties the token properties
+   * @param meterRegistry the meter registry
+   * @param jwtKeySet the JWT keys, when issuing self-contained tokens
+   * @param journaledTokenStore the in-memory store, when tokens are not kept in the database
+   * @return the token store
+   */
+  @Bean
+  @Primary
+  public TokenStore tokenStore(TokenProperties properties, MeterRegistry meterRegistry,
+                               ObjectProvider<JwtKeySet> jwtKeySet,
+                               ObjectProvider<JournaledTokenStore> journaledTokenStore) {
+    UserTokenStore tokenStore = journaledTokenStore.getIfAvailable();
+    if (tokenStore == null) {
+      CompactJdbcTokenStore jdbcTokenStore =
+          new CompactJdbcTokenStore(dataSource, new TokenCodec(properties.isCompactEncoding()));
+      jdbcTokenStore.bindTo(meterRegistry);
+      tokenStore = jdbcTokenStore;
+    }
+    tokenStore = new MeteredTokenStore(tokenStore, meterRegistry);
+    if (properties.getFormat() == TokenProperties.Format.JWT) {
+      tokenStore = new SelfContainedTokenStore(tokenStore, new SignedJwtAccessTokenConverter(jwtKeySet.getObject()));
+    }
+
+    TokenProperties.Cache cache = properties.getCache();
+    if (!cache.isEnabled()) {
+      return tokenStore;
+    }
+    CachingTokenStore cachingTokenStore =
+        new CachingTokenStore(tokenStore, cache.getMaximumSize(), cache.getTimeToLive());
+    cachingTokenStore.bindTo(meterRegistry);
+    return cachingTokenStore;
+  }
+
+  /**
+   * In-memory token store recovered from, and written through to, a journal on local disk.
+   *
+   * @param properties the token properties
+   * @return the journaled token store
+   * @throws IOException if the snapshot or journal cannot be read
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(name = "auth.token.store", havingValue = "journal")
+  public JournaledTokenStore journaledTokenStore(TokenProperties properties) throws IOException {
+    TokenProperties.Journal journal = properties.getJournal();
+    return new JournaledTokenStore(journal.getDirectory(), new TokenCodec(properties.isCompactEncoding()),
+                                   journal.getStripes(), journal.getSnapshotInterval());
+  }
+
+  /**
+   * Keys for signing self-contained access tokens and publishing them as a key set.
+   *
+   * @param properties the token properties
+   * @return the JWT key set
+   * @throws IOException if the key store cannot be read
+   * @throws GeneralSecurityException if the key store cannot be loaded
+   */
   @Bean
-  public TokenStore tokenStore() {
-    return new JdbcTokenStore(dataSource);
+  @ConditionalOnProperty(name = "auth.token.format", havingValue = "jwt")
+  public JwtKeySet jwtKeySet(TokenProperties properties) throws IOException, GeneralSecurityException {
+    TokenProperties.Jwt jwt = properties.getJwt();
+    if (jwt.getKeyStore() == null) {
+      log.warn("No JWT key store configured. Generated a signing key that is lost on restart and not shared "
+               + "with other instances.");
+      return JwtKeySet.generate();
+    }
+    if (jwt.getKeyAliases().isEmpty()) {
+      throw new IllegalStateException("auth.token.jwt.key-aliases must name the signing key");
+    }
+    char[] password = jwt.getKeyStorePassword() == null ? new char[0] : jwt.getKeyStorePassword().toCharArray();
+    KeyStore keyStore = KeyStore.getInstance(jwt.getKeyStoreType());
+    try (InputStream in = jwt.getKeyStore().getInputStream()) {
+      keyStore.load(in, password);
+    }
+    JwtKeySet keySet = JwtKeySet.fromKeyStore(keyStore, password, jwt.getKeyAliases());
+    log.info("Signing access tokens with JWT key {}", keySet.getSigningKey().getKeyId());
+    return keySet;
   }
 }
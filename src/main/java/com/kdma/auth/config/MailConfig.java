@@ -0,0 +1,59 @@
+
+package com.kdma.auth.config;
+
+import com.kdma.auth.SmtpProperties;
+import com.kdma.auth.service.CircuitBreaker;
+import com.kdma.auth.service.PooledMailSender;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Clock;
+import java.util.Properties;
+
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(MailProperties.class)
+public class MailConfig {
+
+  /**
+   * Mail sender keeping connections to the mail server open between sends, in place of the one Spring Boot would
+   * configure from the same spring.mail properties. Timeouts set there take precedence over the auth.smtp ones.
+   *
+   * @param mailProperties the spring.mail properties
+   * @param properties the SMTP pool properties
+   * @param meterRegistry the meter registry
+   * @return the mail sender
+   */
+  @Bean(destroyMethod = "close")
+  public PooledMailSender mailSender(MailProperties mailProperties, SmtpProperties properties,
+                                     MeterRegistry meterRegistry) {
+    CircuitBreaker circuitBreaker = new CircuitBreaker(properties.getFailureThreshold(),
+                                                       properties.getOpenDuration(), Clock.systemUTC());
+    PooledMailSender sender = new PooledMailSender(properties, circuitBreaker);
+    sender.setHost(mailProperties.getHost());
+    if (mailProperties.getPort() != null) {
+      sender.setPort(mailProperties.getPort());
+    }
+    sender.setUsername(mailProperties.getUsername());
+    sender.setPassword(mailProperties.getPassword());
+    sender.setProtocol(mailProperties.getProtocol());
+    if (mailProperties.getDefaultEncoding() != null) {
+      sender.setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+    }
+
+    String prefix = "mail." + mailProperties.getProtocol() + ".";
+    Properties javaMailProperties = new Properties();
+    javaMailProperties.setProperty(prefix + "connectiontimeout",
+                                   Long.toString(properties.getConnectTimeout().toMillis()));
+    javaMailProperties.setProperty(prefix + "timeout", Long.toString(properties.getReadTimeout().toMillis()));
+    javaMailProperties.setProperty(prefix + "writetimeout", Long.toString(properties.getWriteTimeout().toMillis()));
+    javaMailProperties.putAll(mailProperties.getProperties());
+    sender.setJavaMailProperties(javaMailProperties);
+    sender.bindTo(meterRegistry);
+    return sender;
+  }
+}
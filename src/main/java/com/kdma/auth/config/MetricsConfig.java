@@ -0,0 +1,23 @@
+
+package com.kdma.auth.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+  /**
+   * Times the service methods annotated with {@link io.micrometer.core.annotation.Timed}.
+   *
+   * @param meterRegistry the meter registry
+   * @return the timed aspect
+   */
+  @Bean
+  public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+    return new TimedAspect(meterRegistry);
+  }
+}
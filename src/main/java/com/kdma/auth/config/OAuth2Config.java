@@ -1,20 +1,32 @@
 
 package com.kdma.auth.config;
 
+import com.kdma.auth.ClientProperties;
+import com.kdma.auth.TokenProperties;
+import com.kdma.auth.service.CachingSecretEncoder;
+import com.kdma.auth.service.ClientDetailsCache;
+import com.kdma.auth.token.ExpiringAuthorizationCodeServices;
+import com.kdma.auth.token.JwtKeySet;
+import com.kdma.auth.token.SignedJwtAccessTokenConverter;
+import com.kdma.auth.token.SingleUseJdbcAuthorizationCodeServices;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
 import javax.sql.DataSource;
 
-import org.springframework.context.annotation.Bean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.config.annotation.configurers.ClientDetailsServiceConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.AuthorizationServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableAuthorizationServer;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerEndpointsConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerSecurityConfigurer;
+import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
 import org.springframework.security.oauth2.provider.token.TokenStore;
 
 @Configuration
@@ -30,6 +42,18 @@ public class OAuth2Config extends AuthorizationServerConfigurerAdapter {
 
   private final AuthenticationManager authenticationManager;
 
+  private final ObjectProvider<JwtKeySet> jwtKeySet;
+
+  private final MeterRegistry meterRegistry;
+
+  private final ObjectProvider<ClientDetailsCache> clientDetailsCache;
+
+  private final PasswordEncoder passwordEncoder;
+
+  private final ClientProperties clientProperties;
+
+  private final TokenProperties tokenProperties;
+
   /**
    * Instantiates a new o auth 2 config.
    *
@@ -37,23 +61,41 @@ public class OAuth2Config extends AuthorizationServerConfigurerAdapter {
    * @param tokenStore the token store
    * @param dataSource the data source
    * @param authenticationManager the authentication manager
+   * @param jwtKeySet the JWT keys, when issuing self-contained tokens
+   * @param meterRegistry the meter registry
+   * @param clientDetailsCache the client cache, when clients are cached
+   * @param passwordEncoder the password encoder
+   * @param clientProperties the client properties
+   * @param tokenProperties the token properties
    */
   public OAuth2Config(UserDetailsService userService, TokenStore tokenStore, DataSource dataSource,
-                      @Lazy AuthenticationManager authenticationManager) {
+                      @Lazy AuthenticationManager authenticationManager, ObjectProvider<JwtKeySet> jwtKeySet,
+                      MeterRegistry meterRegistry, ObjectProvider<ClientDetailsCache> clientDetailsCache,
+                      PasswordEncoder passwordEncoder, ClientProperties clientProperties,
+                      TokenProperties tokenProperties) {
     this.userService = userService;
     this.tokenStore = tokenStore;
     this.dataSource = dataSource;
     this.authenticationManager = authenticationManager;
-  }
-
-  @Bean
-  public BCryptPasswordEncoder passwordEncoder() {
-    return new BCryptPasswordEncoder();
+    this.jwtKeySet = jwtKeySet;
+    this.meterRegistry = meterRegistry;
+    this.clientDetailsCache = clientDetailsCache;
+    this.passwordEncoder = passwordEncoder;
+    this.clientProperties = clientProperties;
+    this.tokenProperties = tokenProperties;
   }
 
   @Override
   public void configure(AuthorizationServerSecurityConfigurer security) throws Exception {
     security.tokenKeyAccess("permitAll()").checkTokenAccess("isAuthenticated()");
+    ClientProperties.SecretCache secretCache = clientProperties.getSecretCache();
+    if (secretCache.isEnabled()) {
+      // Not a bean, so users' passwords are still checked on every login
+      CachingSecretEncoder secretEncoder = new CachingSecretEncoder(passwordEncoder, secretCache.getMaximumSize(),
+                                                                    secretCache.getTimeToLive());
+      secretEncoder.bindTo(meterRegistry);
+      security.passwordEncoder(secretEncoder);
+    }
   }
 
   @Override
@@ -61,11 +103,32 @@ public class OAuth2Config extends AuthorizationServerConfigurerAdapter {
     configurer.authenticationManager(authenticationManager);
     configurer.userDetailsService(userService);
     configurer.tokenStore(tokenStore);
+    configurer.authorizationCodeServices(authorizationCodeServices());
+    configurer.exceptionTranslator(new PasswordHashingBusyTranslator());
+    configurer.addInterceptor(new OAuthEndpointMetrics(meterRegistry));
+    // Not a bean, so the stock token key endpoint stays out of the way of the key set endpoint
+    jwtKeySet.ifAvailable(keySet -> configurer.tokenEnhancer(new SignedJwtAccessTokenConverter(keySet)));
   }
 
   @Override
   public void configure(ClientDetailsServiceConfigurer clients) throws Exception {
-    clients.jdbc(dataSource);
+    ClientDetailsCache cache = clientDetailsCache.getIfAvailable();
+    if (cache != null) {
+      clients.withClientDetails(cache.clientDetailsService());
+    } else {
+      clients.jdbc(dataSource);
+    }
+  }
+
+  private AuthorizationCodeServices authorizationCodeServices() {
+    TokenProperties.Code code = tokenProperties.getCode();
+    if (code.getStore() == TokenProperties.Code.Store.JDBC) {
+      return new SingleUseJdbcAuthorizationCodeServices(dataSource, code.getTimeToLive());
+    }
+    ExpiringAuthorizationCodeServices codeServices =
+        new ExpiringAuthorizationCodeServices(code.getTimeToLive(), code.getMaximumSize());
+    codeServices.bindTo(meterRegistry);
+    return codeServices;
   }
 
 }
@@ -0,0 +1,97 @@
+
+package com.kdma.auth.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.oauth2.common.util.OAuth2Utils;
+import org.springframework.security.oauth2.provider.endpoint.AuthorizationEndpoint;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Times requests to the OAuth2 endpoints as {@code auth.oauth.requests}, tagged with the endpoint, the client, the
+ * grant type and the response status.
+ *
+ * <p>
+ * The endpoints only see requests that passed client authentication, so the client tag is the authenticated client
+ * and stays within the registered clients. The grant type comes from the request, so values other than the standard
+ * grants are recorded as {@code other}.
+ * </p>
+ */
+public class OAuthEndpointMetrics implements HandlerInterceptor {
+
+  private static final String START = OAuthEndpointMetrics.class.getName() + ".START";
+
+  private static final String NONE = "none";
+
+  private static final Set<String> GRANT_TYPES = new HashSet<>(Arrays.asList(
+      "authorization_code", "password", "client_credentials", "refresh_token", "implicit"));
+
+  private final MeterRegistry registry;
+
+  /**
+   * Instantiates a new OAuth endpoint metrics interceptor.
+   *
+   * @param registry the meter registry
+   */
+  public OAuthEndpointMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    request.setAttribute(START, System.nanoTime());
+    return true;
+  }
+
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                              Exception ex) {
+    Object start = request.getAttribute(START);
+    if (!(start instanceof Long)) {
+      return;
+    }
+    Timer.builder("auth.oauth.requests")
+         .tag("endpoint", endpoint(request))
+         .tag("client_id", clientId(request, handler))
+         .tag("grant_type", grantType(request))
+         .tag("status", Integer.toString(response.getStatus()))
+         .description("Time taken by the OAuth2 endpoints")
+         .register(registry)
+         .record(System.nanoTime() - (Long) start, TimeUnit.NANOSECONDS);
+  }
+
+  private static String endpoint(HttpServletRequest request) {
+    Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    return pattern == null ? NONE : pattern.toString();
+  }
+
+  private static String clientId(HttpServletRequest request, Object handler) {
+    // On the authorization endpoint the principal is the user, and the client named in the request is unchecked
+    if (handler instanceof HandlerMethod
+        && AuthorizationEndpoint.class.isAssignableFrom(((HandlerMethod) handler).getBeanType())) {
+      return NONE;
+    }
+    Principal principal = request.getUserPrincipal();
+    return principal == null ? NONE : principal.getName();
+  }
+
+  private static String grantType(HttpServletRequest request) {
+    String grantType = request.getParameter(OAuth2Utils.GRANT_TYPE);
+    if (grantType == null) {
+      return NONE;
+    }
+    return GRANT_TYPES.contains(grantType) ? grantType : "other";
+  }
+}
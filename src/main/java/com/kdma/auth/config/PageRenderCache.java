@@ -0,0 +1,212 @@
+
+package com.kdma.auth.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kdma.auth.PageCacheProperties;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.ViewResolver;
+import org.springframework.web.servlet.support.RequestContextUtils;
+import org.springframework.web.util.HtmlUtils;
+
+/**
+ * Serves the public pages from memory instead of running them through Thymeleaf and the layout dialect on every GET.
+ *
+ * <p>
+ * Their output only depends on the locale, the {@code error}, {@code logout} and {@code email} parameters, and the
+ * CSRF token. Each page is rendered once per view, locale and values of those parameters with a placeholder token, and
+ * the session's token is put in place of the placeholder when the page is served. Requests carrying any other
+ * parameter are rendered as usual, so made-up parameters cannot fill the cache. Responses carry a strong ETag over the
+ * final page, so a browser coming back within the same session gets a 304.
+ * </p>
+ */
+@Slf4j
+@Component
+public class PageRenderCache implements HandlerInterceptor, MeterBinder {
+
+  private static final String CACHE_NAME = "pages";
+
+  private static final List<String> KEY_PARAMETERS = Arrays.asList("error", "logout", "email");
+
+  /** The locale change parameter, covered by the locale. */
+  private static final String LOCALE_PARAMETER = "lang";
+
+  private static final String PLACEHOLDER = "pageRenderCacheCsrfTokenPlaceholder";
+
+  private static final String CACHE_CONTROL = "private, no-cache";
+
+  private final ViewResolver viewResolver;
+
+  private final PageCacheProperties properties;
+
+  private final Cache<String, String[]> pages;
+
+  /**
+   * Instantiates a new page render cache.
+   *
+   * @param viewResolver the Thymeleaf view resolver rendering the pages
+   * @param properties the page cache properties
+   */
+  public PageRenderCache(@Qualifier("thymeleafViewResolver") ViewResolver viewResolver,
+                         PageCacheProperties properties) {
+    this.viewResolver = viewResolver;
+    this.properties = properties;
+    this.pages = Caffeine.newBuilder()
+                         .maximumSize(properties.getMaximumSize())
+                         .recordStats()
+                         .build();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, pages, CACHE_NAME);
+  }
+
+  @Override
+  public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                         ModelAndView modelAndView) {
+    if (!properties.isEnabled() || modelAndView == null || !modelAndView.isReference()
+        || !HttpMethod.GET.matches(request.getMethod())
+        || !properties.getViews().contains(modelAndView.getViewName())
+        || !isEmpty(RequestContextUtils.getInputFlashMap(request))
+        || !request.getParameterMap().keySet().stream()
+                   .allMatch(name -> KEY_PARAMETERS.contains(name) || LOCALE_PARAMETER.equals(name))) {
+      return;
+    }
+    String viewName = modelAndView.getViewName();
+    Locale locale = RequestContextUtils.getLocale(request);
+    String key = viewName + '|' + locale.toLanguageTag() + keyParameters(request);
+    modelAndView.setView(new CachedView(key, viewName, locale));
+  }
+
+  private final class CachedView implements View {
+
+    private final String key;
+
+    private final String viewName;
+
+    private final Locale locale;
+
+    private CachedView(String key, String viewName, Locale locale) {
+      this.key = key;
+      this.viewName = viewName;
+      this.locale = locale;
+    }
+
+    @Override
+    public String getContentType() {
+      return MediaType.TEXT_HTML_VALUE + ";charset=UTF-8";
+    }
+
+    @Override
+    public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response)
+        throws Exception {
+      String[] parts = pages.getIfPresent(key);
+      if (parts == null) {
+        parts = renderPage(model, request, response).split(Pattern.quote(PLACEHOLDER), -1);
+        pages.put(key, parts);
+        log.debug("Cached page {}", key);
+      }
+
+      String page = parts[0];
+      if (parts.length > 1) {
+        // Asking for the token saves it in the session, as rendering the form would
+        CsrfToken token = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
+        page = String.join(token != null ? HtmlUtils.htmlEscape(token.getToken()) : "", parts);
+      }
+      byte[] body = page.getBytes(StandardCharsets.UTF_8);
+
+      response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+      String etag = "\"0" + DigestUtils.md5DigestAsHex(body) + "\"";
+      if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+        return;
+      }
+      response.setContentType(getContentType());
+      response.setContentLength(body.length);
+      response.getOutputStream().write(body);
+    }
+
+    private String renderPage(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response)
+        throws Exception {
+      View view = viewResolver.resolveViewName(viewName, locale);
+      CsrfToken token = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
+      HttpServletRequest placeholderRequest = request;
+      if (token != null) {
+        CsrfToken placeholder = new DefaultCsrfToken(token.getHeaderName(), token.getParameterName(), PLACEHOLDER);
+        placeholderRequest = new HttpServletRequestWrapper(request) {
+          @Override
+          public Object getAttribute(String name) {
+            return CsrfToken.class.getName().equals(name) || token.getParameterName().equals(name) ? placeholder
+                : super.getAttribute(name);
+          }
+        };
+      }
+      StringWriter output = new StringWriter();
+      PrintWriter writer = new PrintWriter(output);
+      view.render(model, placeholderRequest, new HttpServletResponseWrapper(response) {
+        @Override
+        public PrintWriter getWriter() {
+          return writer;
+        }
+
+        @Override
+        public void flushBuffer() {
+          // The page is written to the real response once complete
+        }
+      });
+      writer.flush();
+      return output.toString();
+    }
+  }
+
+  private static boolean isEmpty(Map<?, ?> map) {
+    return map == null || map.isEmpty();
+  }
+
+  private static String keyParameters(HttpServletRequest request) {
+    StringBuilder key = new StringBuilder();
+    for (String name : KEY_PARAMETERS) {
+      String[] values = request.getParameterValues(name);
+      if (values != null) {
+        // Length prefixed, so no value can pass for another parameter
+        key.append('|').append(name);
+        for (String value : values) {
+          key.append('|').append(value.length()).append(':').append(value);
+        }
+      }
+    }
+    return key.toString();
+  }
+}
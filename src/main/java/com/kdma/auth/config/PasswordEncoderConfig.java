@@ -0,0 +1,49 @@
+
+package com.kdma.auth.config;
+
+import com.kdma.auth.PasswordProperties;
+import com.kdma.auth.service.BoundedPasswordEncoder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PasswordEncoderConfig {
+
+  /**
+   * Password encoder for users and client secrets, hashing on its own bounded pool of threads. Unless a strength is
+   * configured, it is calibrated to the target latency on this machine.
+   *
+   * @param properties the password properties
+   * @param meterRegistry the meter registry
+   * @return the password encoder
+   */
+  @Bean(destroyMethod = "close")
+  public BoundedPasswordEncoder passwordEncoder(PasswordProperties properties, MeterRegistry meterRegistry) {
+    int strength = properties.getStrength() != null ? properties.getStrength()
+        : BoundedPasswordEncoder.calibrate(properties.getTargetLatency(), properties.getMinimumStrength(),
+                                           properties.getMaximumStrength());
+    BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(strength, properties.getThreads(),
+                                                                properties.getQueueCapacity(),
+                                                                properties.getRetryAfter());
+    encoder.bindTo(meterRegistry);
+    return encoder;
+  }
+
+  /**
+   * Answers requests the password encoder turned away with 503, ahead of the security filters.
+   *
+   * @return the filter registration
+   */
+  @Bean
+  public FilterRegistrationBean<PasswordHashingBusyFilter> passwordHashingBusyFilter() {
+    FilterRegistrationBean<PasswordHashingBusyFilter> registration =
+        new FilterRegistrationBean<>(new PasswordHashingBusyFilter());
+    registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+    return registration;
+  }
+}
@@ -0,0 +1,37 @@
+
+package com.kdma.auth.config;
+
+import com.kdma.auth.service.PasswordHashingBusyException;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Answers requests turned away by the password encoder with 503 and a Retry-After header. Sits in front of the
+ * security filters, so form logins and client authentication are covered as well as controllers.
+ */
+public class PasswordHashingBusyFilter extends OncePerRequestFilter {
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    try {
+      chain.doFilter(request, response);
+    } catch (ServletException | IOException | RuntimeException e) {
+      PasswordHashingBusyException busy = PasswordHashingBusyException.find(e);
+      if (busy == null || response.isCommitted()) {
+        throw e;
+      }
+      response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, busy.getRetryAfter().getSeconds())));
+      response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), busy.getMessage());
+    }
+  }
+}
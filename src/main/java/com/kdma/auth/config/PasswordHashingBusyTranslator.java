@@ -0,0 +1,51 @@
+
+package com.kdma.auth.config;
+
+import com.kdma.auth.service.PasswordHashingBusyException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.security.oauth2.provider.error.DefaultWebResponseExceptionTranslator;
+import org.springframework.security.oauth2.provider.error.WebResponseExceptionTranslator;
+
+/**
+ * Translates errors on the token endpoint, which handles them itself. A password grant turned away by the password
+ * encoder is answered with 503, {@code temporarily_unavailable} and a Retry-After header; anything else as usual.
+ */
+public class PasswordHashingBusyTranslator implements WebResponseExceptionTranslator<OAuth2Exception> {
+
+  private final WebResponseExceptionTranslator<OAuth2Exception> delegate = new DefaultWebResponseExceptionTranslator();
+
+  @Override
+  public ResponseEntity<OAuth2Exception> translate(Exception e) throws Exception {
+    PasswordHashingBusyException busy = PasswordHashingBusyException.find(e);
+    if (busy == null) {
+      return delegate.translate(e);
+    }
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, busy.getRetryAfter().getSeconds())));
+    return new ResponseEntity<>(new TemporarilyUnavailableException(busy.getMessage()), headers,
+                                HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
+  static class TemporarilyUnavailableException extends OAuth2Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    TemporarilyUnavailableException(String message) {
+      super(message);
+    }
+
+    @Override
+    public String getOAuth2ErrorCode() {
+      return "temporarily_unavailable";
+    }
+
+    @Override
+    public int getHttpErrorCode() {
+      return HttpStatus.SERVICE_UNAVAILABLE.value();
+    }
+  }
+}
@@ -15,9 +15,11 @@ public class ResourceServerConfig extends ResourceServerConfigurerAdapter {
   public void configure(HttpSecurity http) throws Exception {
     http
         // These paths are secured by this SecurityFilterChain
-        .requestMatchers().antMatchers("/user", "/users").and()
+        .requestMatchers()
+        .antMatchers("/user", "/users", "/users/**", "/tokenreaper", "/prometheus", "/clients", "/clients/**").and()
         // These from the above are secured by the following way
-        .authorizeRequests().anyRequest().authenticated();
+        .authorizeRequests().antMatchers("/tokenreaper", "/prometheus", "/clients", "/clients/**").hasRole("ADMIN")
+        .anyRequest().authenticated();
   }
 
   @Override
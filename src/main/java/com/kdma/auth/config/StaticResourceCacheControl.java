@@ -0,0 +1,69 @@
+
+package com.kdma.auth.config;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.springframework.web.servlet.resource.VersionPathStrategy;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * Sets the cache control of static resources. The content versioned URL the templates currently link to changes with
+ * the content, so clients may keep its response for good; every other URL, the plain one included, is revalidated.
+ *
+ * <p>
+ * Done before the resource handler runs, which leaves the header alone as it has no cache control of its own. The
+ * resource chain cannot tell the handler apart from the resources it resolves, since it caches transformed resources by
+ * their description, which a versioned and a plain request share.
+ * </p>
+ */
+class StaticResourceCacheControl implements HandlerInterceptor {
+
+  /** CacheControl in Spring 5.1 has no immutable directive. */
+  static final String IMMUTABLE = "max-age=31536000, public, immutable";
+
+  private static final String REVALIDATE = CacheControl.noCache().getHeaderValue();
+
+  private final VersionPathStrategy versionStrategy;
+
+  private final ObjectProvider<ResourceUrlProvider> resourceUrlProvider;
+
+  private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+  /**
+   * Instantiates a new static resource cache control.
+   *
+   * @param versionStrategy the strategy the resource chain versions the URLs with
+   * @param resourceUrlProvider the provider of the versioned URLs linked to
+   */
+  StaticResourceCacheControl(VersionPathStrategy versionStrategy,
+                             ObjectProvider<ResourceUrlProvider> resourceUrlProvider) {
+    this.versionStrategy = versionStrategy;
+    this.resourceUrlProvider = resourceUrlProvider;
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    response.setHeader(HttpHeaders.CACHE_CONTROL, isCurrentVersion(request) ? IMMUTABLE : REVALIDATE);
+    return true;
+  }
+
+  /**
+   * Whether the request is for the versioned URL of the current content. A version of content since changed, or a
+   * made-up one, is not found and must not be kept.
+   */
+  private boolean isCurrentVersion(HttpServletRequest request) {
+    String path = urlPathHelper.getLookupPathForRequest(request);
+    String version = versionStrategy.extractVersion(path);
+    if (version == null) {
+      return false;
+    }
+    String plainPath = versionStrategy.removeVersion(path, version);
+    return path.equals(resourceUrlProvider.getObject().getForLookupPath(plainPath));
+  }
+}
@@ -0,0 +1,50 @@
+
+package com.kdma.auth.config;
+
+import com.kdma.auth.UserProperties;
+import com.kdma.auth.service.NullUserInfoCache;
+import com.kdma.auth.service.SnapshotUserCache;
+import com.kdma.auth.service.UserInfoCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.cache.NullUserCache;
+
+@Configuration
+public class UserCacheConfig {
+
+  /**
+   * Cache of the user details loaded for logins and token grants.
+   *
+   * @param properties the user properties
+   * @param meterRegistry the meter registry
+   * @return the user cache
+   */
+  @Bean
+  public UserCache userCache(UserProperties properties, MeterRegistry meterRegistry) {
+    UserProperties.Cache cache = properties.getCache();
+    if (!cache.isEnabled()) {
+      return new NullUserCache();
+    }
+    SnapshotUserCache userCache = new SnapshotUserCache(cache.getMaximumSize(), cache.getTimeToLive());
+    userCache.bindTo(meterRegistry);
+    return userCache;
+  }
+
+  /**
+   * Cache of what {@code /user} publishes, removed together with the user details.
+   *
+   * @param userCache the user cache
+   * @return the user info cache
+   */
+  @Bean
+  public UserInfoCache userInfoCache(UserCache userCache) {
+    if (userCache instanceof SnapshotUserCache) {
+      return ((SnapshotUserCache) userCache).userInfoCache();
+    }
+    return new NullUserInfoCache();
+  }
+}
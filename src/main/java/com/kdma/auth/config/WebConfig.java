@@ -5,22 +5,49 @@ import com.kdma.auth.AuthProperties;
 
 import java.util.Locale;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.i18n.LocaleChangeInterceptor;
 import org.springframework.web.servlet.i18n.SessionLocaleResolver;
+import org.springframework.web.servlet.resource.ContentVersionStrategy;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.ResourceUrlEncodingFilter;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+import org.springframework.web.servlet.resource.VersionStrategy;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+  /** Static resources, served outside the security filters with content versioned URLs. */
+  public static final String STATIC_RESOURCES = "/css/**";
+
   private final AuthProperties properties;
 
-  public WebConfig(AuthProperties properties) {
+  private final ObjectProvider<PageRenderCache> pageRenderCache;
+
+  private final ObjectProvider<ResourceUrlProvider> resourceUrlProvider;
+
+  private final VersionStrategy versionStrategy = new ContentVersionStrategy();
+
+  /**
+   * Instantiates a new web config.
+   *
+   * @param properties the auth properties
+   * @param pageRenderCache the page render cache, absent from web slice tests
+   * @param resourceUrlProvider the provider of the versioned static resource URLs
+   */
+  public WebConfig(AuthProperties properties, ObjectProvider<PageRenderCache> pageRenderCache,
+                   ObjectProvider<ResourceUrlProvider> resourceUrlProvider) {
     this.properties = properties;
+    this.pageRenderCache = pageRenderCache;
+    this.resourceUrlProvider = resourceUrlProvider;
   }
 
   @Override
@@ -35,6 +62,29 @@ public class WebConfig implements WebMvcConfigurer {
   @Override
   public void addInterceptors(InterceptorRegistry registry) {
     registry.addInterceptor(localeChangeInterceptor());
+    // Absent from web slice tests, which render the views as the controllers left them
+    pageRenderCache.ifAvailable(registry::addInterceptor);
+    registry.addInterceptor(new StaticResourceCacheControl(versionStrategy, resourceUrlProvider))
+            .addPathPatterns(STATIC_RESOURCES);
+  }
+
+  @Override
+  public void addResourceHandlers(ResourceHandlerRegistry registry) {
+    registry.addResourceHandler(STATIC_RESOURCES)
+            .addResourceLocations("classpath:/static/css/")
+            .resourceChain(true)
+            .addResolver(new EncodedResourceResolver())
+            .addResolver(new VersionResourceResolver().addVersionStrategy(versionStrategy, "/**"));
+  }
+
+  /**
+   * Rewrites links to static resources in the templates to their content versioned URLs.
+   *
+   * @return the resource URL encoding filter
+   */
+  @Bean
+  public ResourceUrlEncodingFilter resourceUrlEncodingFilter() {
+    return new ResourceUrlEncodingFilter();
   }
 
   /**
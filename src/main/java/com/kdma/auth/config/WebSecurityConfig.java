@@ -52,7 +52,7 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
       // Set login page
       .formLogin().loginPage(LOGIN).permitAll().defaultSuccessUrl(PROFILE).and()
       // These requests are permitted without authorization
-      .authorizeRequests().antMatchers("/", "/css/*", "/health", 
+      .authorizeRequests().antMatchers("/", "/health", 
           LOGIN, REGISTER, CONFIRM, CONFIRM_REDIRECT, FORGOTTEN, VERIFY, ERROR)
           .permitAll()
       // These requests are secured by the following way
@@ -65,7 +65,8 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
   @Override
   public void configure(WebSecurity web) throws Exception {
-    web.ignoring().antMatchers(HttpMethod.OPTIONS, "/**");
+    web.ignoring().antMatchers(HttpMethod.OPTIONS, "/**")
+       .antMatchers(WebConfig.STATIC_RESOURCES);
   }
 
   @Override
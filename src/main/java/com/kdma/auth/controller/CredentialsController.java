@@ -198,11 +198,9 @@ public class CredentialsController {
   @GetMapping("/verifyEmail")
   public ModelAndView showVerifyEmailPage(ModelAndView modelAndView, @RequestParam("token") String token,
                                           Locale locale) {
-    Optional<User> optionalUser = accountService.getUserForToken(token);
+    Optional<User> optionalUser = accountService.verifyEmail(token);
 
     optionalUser.ifPresentOrElse(user -> {
-      accountService.verifyEmail(user);
-
       modelAndView.addObject(SUCCESS_MESSAGE,
                              messages.getMessage("email.verificationSuccess", new Object[] {
                                                                                              user.getEmail()
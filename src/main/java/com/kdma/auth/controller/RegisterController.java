@@ -130,7 +130,7 @@ public class RegisterController {
     }
 
     Optional<User> optUser = accountService.getUserForToken(token);
-    optUser.ifPresentOrElse(user -> modelAndView.addObject("confirmationToken", user.getConfirmationToken()),
+    optUser.ifPresentOrElse(user -> modelAndView.addObject("confirmationToken", token),
                             () -> {
                               log.debug("No user found that matches this token: {}", token);
                               modelAndView.addObject("invalidToken",
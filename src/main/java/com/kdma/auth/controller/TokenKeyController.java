@@ -0,0 +1,39 @@
+
+package com.kdma.auth.controller;
+
+import com.kdma.auth.token.JwtKeySet;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Publishes the public keys that verify self-contained access tokens as a JSON Web Key Set, so resource servers can
+ * validate tokens locally.
+ */
+@RestController
+@ConditionalOnProperty(name = "auth.token.format", havingValue = "jwt")
+public class TokenKeyController {
+
+  private final JwtKeySet keySet;
+
+  public TokenKeyController(JwtKeySet keySet) {
+    this.keySet = keySet;
+  }
+
+  /**
+   * Return the key set. Access is governed by the authorization server's token key access rule.
+   *
+   * @return the key set
+   */
+  @GetMapping(value = "/oauth/token_key", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Map<String, Object>> getKeySet() {
+    return ResponseEntity.ok().cacheControl(CacheControl.maxAge(5, TimeUnit.MINUTES)).body(keySet.toJwks());
+  }
+}
@@ -1,28 +1,57 @@
 
 package com.kdma.auth.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kdma.auth.model.DataFormat;
+import com.kdma.auth.model.ImportReport;
 import com.kdma.auth.model.User;
+import com.kdma.auth.model.UserFilter;
+import com.kdma.auth.model.UserInfo;
+import com.kdma.auth.model.UserSummary;
 import com.kdma.auth.repository.UserRepository;
+import com.kdma.auth.service.UserExportService;
+import com.kdma.auth.service.UserImportService;
+import com.kdma.auth.service.UserInfoCache;
+import com.kdma.auth.service.UserListingService;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.time.Instant;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.context.MessageSource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserCache;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 /**
  * The Class UserController.
@@ -41,33 +70,70 @@ public class UserController {
 
   private static final String WARNING_MESSAGE = "warningMessage";
 
+  private static final String NDJSON = "application/x-ndjson";
+
+  private static final String CSV = "text/csv";
+
+  static final String EXPORT_WATERMARK = "X-Export-Watermark";
+
   private final UserRepository repository;
 
   private final MessageSource messages;
 
+  private final UserCache userCache;
+
+  private final UserInfoCache userInfoCache;
+
+  private final UserListingService listingService;
+
+  private final UserImportService importService;
+
+  private final UserExportService exportService;
+
+  private final ObjectWriter lineWriter;
+
   /**
    * User Controller.
    *
    * @param repository the repository
    * @param messages the messages
+   * @param userCache the user cache
+   * @param userInfoCache the user info cache
+   * @param listingService the user listing service
+   * @param importService the user import service
+   * @param exportService the user export service
+   * @param objectMapper the object mapper
    */
-  public UserController(UserRepository repository, MessageSource messages) {
+  public UserController(UserRepository repository, MessageSource messages, UserCache userCache,
+                        UserInfoCache userInfoCache, UserListingService listingService,
+                        UserImportService importService, UserExportService exportService,
+                        ObjectMapper objectMapper) {
     this.repository = repository;
     this.messages = messages;
+    this.userCache = userCache;
+    this.userInfoCache = userInfoCache;
+    this.listingService = listingService;
+    this.importService = importService;
+    this.exportService = exportService;
+    this.lineWriter = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
   }
 
   /**
-   * Return the User.
+   * Return the User, with its id in place of the e-mail address. Tagged with the user version, so a client sending it
+   * back in If-None-Match gets 304; while the user is cached, without any query.
    *
    * @param principal          contains the security context
    * @return the user
    */
   @GetMapping("/user")
-  public User getUser(Principal principal) {
-    Optional<User> optUser = repository.findByEmail(principal.getName());
-    User user = optUser.orElseThrow(() -> new UsernameNotFoundException("User for principal not found"));
-    user.setEmail(Long.toString(user.getId()));
-    return user;
+  public ResponseEntity<UserInfo> getUser(Principal principal) {
+    UserInfo userInfo = userInfoCache.getUserInfo(principal.getName());
+    if (userInfo == null) {
+      userInfo = repository.findInfoByEmail(principal.getName())
+                           .orElseThrow(() -> new UsernameNotFoundException("User for principal not found"));
+      userInfoCache.putUserInfo(principal.getName(), userInfo);
+    }
+    return ResponseEntity.ok().eTag(userInfo.getETag()).cacheControl(CacheControl.noCache()).body(userInfo);
   }
 
   /**
@@ -97,6 +163,7 @@ public class UserController {
     Optional<User> optUser = repository.findByEmail(principal.getName());
     User user = optUser.orElseThrow(() -> new UsernameNotFoundException("User for principal not found"));
     repository.delete(user);
+    userCache.removeUserFromCache(user.getUsername());
     ModelAndView modelAndView = new ModelAndView("redirect:/" + DELETE_SUCCESS);
     modelAndView.addObject("success", true);
     return modelAndView;
@@ -130,10 +197,114 @@ public class UserController {
     return new ModelAndView("redirect:/" + PROFILE);
   }
 
+  /**
+   * Return a page of users, in id order. When the page is full, a Link header points to the next one.
+   *
+   * @param filter the conditions on the users
+   * @param after the last id of the previous page
+   * @param size the page size
+   * @return the users
+   */
   @Secured("ROLE_ADMIN")
   @GetMapping("/users")
-  public List<User> getAllUsers() {
-    log.debug("Accessing list of all users");
-    return repository.findAll();
+  public ResponseEntity<List<UserSummary>> getAllUsers(UserFilter filter,
+                                                       @RequestParam(value = "after", defaultValue = "0") long after,
+                                                       @RequestParam(value = "size", defaultValue = "100") int size) {
+    log.debug("Accessing page of users after {}", after);
+    List<UserSummary> users = listingService.page(filter, after, size);
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    if (!users.isEmpty() && users.size() >= Math.min(size, UserListingService.MAX_PAGE_SIZE)) {
+      String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                                               .replaceQueryParam("after", users.get(users.size() - 1).getId())
+                                               .toUriString();
+      response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+    }
+    return response.body(users);
+  }
+
+  /**
+   * Stream all users as newline-delimited JSON, in id order, without holding them in memory.
+   *
+   * @param filter the conditions on the users
+   * @param response the response
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Secured("ROLE_ADMIN")
+  @GetMapping(value = "/users", produces = NDJSON)
+  public void streamAllUsers(UserFilter filter, HttpServletResponse response) throws IOException {
+    log.debug("Streaming all users");
+    response.setContentType(NDJSON);
+    OutputStream out = response.getOutputStream();
+    try {
+      listingService.stream(filter, user -> {
+        try {
+          lineWriter.writeValue(out, user);
+          out.write('\n');
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Import users in bulk from CSV or newline-delimited JSON, read as it is uploaded.
+   *
+   * @param request the request
+   * @param confirm whether the users are imported disabled and sent a confirmation e-mail
+   * @param locale the locale
+   * @return the import report, with the rows that could not be imported
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Secured("ROLE_ADMIN")
+  @PostMapping(value = "/users/import", consumes = {CSV, NDJSON})
+  public ImportReport importUsers(HttpServletRequest request,
+                                  @RequestParam(value = "confirm", defaultValue = "false") boolean confirm,
+                                  Locale locale) throws IOException {
+    MediaType contentType = MediaType.parseMediaType(request.getContentType());
+    Charset charset = contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+    DataFormat format = contentType.isCompatibleWith(MediaType.parseMediaType(NDJSON))
+        ? DataFormat.NDJSON : DataFormat.CSV;
+    log.debug("Importing users from {}", contentType);
+    return importService.importUsers(new InputStreamReader(request.getInputStream(), charset), format, confirm,
+                                     locale);
+  }
+
+  /**
+   * Export users as CSV or newline-delimited JSON, written as they are read, gzipped if the client accepts it. The
+   * response carries a watermark; passed back as {@code since}, the next export only has the users changed after it.
+   *
+   * @param since the watermark of a previous export, to export only the users changed since
+   * @param format csv or ndjson
+   * @param request the request
+   * @param response the response
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Secured("ROLE_ADMIN")
+  @GetMapping("/users/export")
+  public void exportUsers(@RequestParam(value = "since", required = false) Instant since,
+                          @RequestParam(value = "format", defaultValue = "ndjson") String format,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+    DataFormat dataFormat;
+    try {
+      dataFormat = DataFormat.valueOf(format.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown export format " + format);
+    }
+    Instant until = exportService.watermark();
+    response.setContentType(dataFormat.getContentType() + ";charset=UTF-8");
+    response.setHeader(EXPORT_WATERMARK, until.toString());
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream(), 8192);
+      exportService.export(since, until, dataFormat, out);
+      out.finish();
+    } else {
+      exportService.export(since, until, dataFormat, response.getOutputStream());
+    }
   }
 }
@@ -0,0 +1,182 @@
+
+package com.kdma.auth.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+/**
+ * Immutable copy of an OAuth2 client as it was parsed from its registration, safe to keep in a cache and share between
+ * threads.
+ */
+public final class ClientSnapshot implements ClientDetails {
+
+  static final long serialVersionUID = 1L;
+
+  private static final String AUTO_APPROVE_ALL = "true";
+
+  private final String clientId;
+
+  private final String clientSecret;
+
+  private final boolean secretRequired;
+
+  private final boolean scoped;
+
+  private final Set<String> resourceIds;
+
+  private final Set<String> scope;
+
+  private final Set<String> autoApproveScopes;
+
+  private final Set<String> authorizedGrantTypes;
+
+  private final Set<String> registeredRedirectUri;
+
+  private final List<GrantedAuthority> authorities;
+
+  private final Integer accessTokenValiditySeconds;
+
+  private final Integer refreshTokenValiditySeconds;
+
+  private final Map<String, Object> additionalInformation;
+
+  private ClientSnapshot(ClientDetails client) {
+    this.clientId = client.getClientId();
+    this.clientSecret = client.getClientSecret();
+    this.secretRequired = client.isSecretRequired();
+    this.scoped = client.isScoped();
+    this.resourceIds = copy(client.getResourceIds());
+    this.scope = copy(client.getScope());
+    this.autoApproveScopes = autoApproveScopes(client);
+    this.authorizedGrantTypes = copy(client.getAuthorizedGrantTypes());
+    this.registeredRedirectUri = copy(client.getRegisteredRedirectUri());
+    this.authorities = client.getAuthorities() == null ? Collections.emptyList()
+        : Collections.unmodifiableList(new ArrayList<>(client.getAuthorities()));
+    this.accessTokenValiditySeconds = client.getAccessTokenValiditySeconds();
+    this.refreshTokenValiditySeconds = client.getRefreshTokenValiditySeconds();
+    this.additionalInformation = client.getAdditionalInformation() == null ? Collections.emptyMap()
+        : Collections.unmodifiableMap(new LinkedHashMap<>(client.getAdditionalInformation()));
+  }
+
+  /**
+   * Takes a snapshot of the client as it is now.
+   *
+   * @param client the client
+   * @return the snapshot
+   */
+  public static ClientSnapshot of(ClientDetails client) {
+    return client instanceof ClientSnapshot ? (ClientSnapshot) client : new ClientSnapshot(client);
+  }
+
+  private static Set<String> copy(Collection<String> values) {
+    return values == null ? Collections.emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(values));
+  }
+
+  private static Set<String> autoApproveScopes(ClientDetails client) {
+    if (client instanceof BaseClientDetails) {
+      return copy(((BaseClientDetails) client).getAutoApproveScopes());
+    }
+    Set<String> approved = new LinkedHashSet<>();
+    if (client.getScope() != null) {
+      client.getScope().stream().filter(client::isAutoApprove).forEach(approved::add);
+    }
+    return Collections.unmodifiableSet(approved);
+  }
+
+  @Override
+  public String getClientId() {
+    return clientId;
+  }
+
+  @Override
+  public Set<String> getResourceIds() {
+    return resourceIds;
+  }
+
+  @Override
+  public boolean isSecretRequired() {
+    return secretRequired;
+  }
+
+  @Override
+  public String getClientSecret() {
+    return clientSecret;
+  }
+
+  @Override
+  public boolean isScoped() {
+    return scoped;
+  }
+
+  @Override
+  public Set<String> getScope() {
+    return scope;
+  }
+
+  @Override
+  public Set<String> getAuthorizedGrantTypes() {
+    return authorizedGrantTypes;
+  }
+
+  @Override
+  public Set<String> getRegisteredRedirectUri() {
+    return registeredRedirectUri;
+  }
+
+  @Override
+  public Collection<GrantedAuthority> getAuthorities() {
+    return authorities;
+  }
+
+  @Override
+  public Integer getAccessTokenValiditySeconds() {
+    return accessTokenValiditySeconds;
+  }
+
+  @Override
+  public Integer getRefreshTokenValiditySeconds() {
+    return refreshTokenValiditySeconds;
+  }
+
+  @Override
+  public boolean isAutoApprove(String scope) {
+    for (String approved : autoApproveScopes) {
+      // Patterns, as in the client's registration
+      if (approved.equals(AUTO_APPROVE_ALL) || scope.matches(approved)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Map<String, Object> getAdditionalInformation() {
+    return additionalInformation;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof ClientSnapshot && clientId.equals(((ClientSnapshot) other).clientId);
+  }
+
+  @Override
+  public int hashCode() {
+    return clientId.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "ClientSnapshot[clientId=" + clientId + ", scope=" + scope + ", authorizedGrantTypes="
+           + authorizedGrantTypes + "]";
+  }
+}
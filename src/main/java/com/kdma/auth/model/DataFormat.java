@@ -0,0 +1,20 @@
+
+package com.kdma.auth.model;
+
+/**
+ * The file formats users are imported and exported in.
+ */
+public enum DataFormat {
+  CSV("text/csv"),
+  NDJSON("application/x-ndjson");
+
+  private final String contentType;
+
+  DataFormat(String contentType) {
+    this.contentType = contentType;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+}
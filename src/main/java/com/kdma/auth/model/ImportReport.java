@@ -0,0 +1,89 @@
+
+package com.kdma.auth.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * Outcome of a bulk user import: how many rows were read, imported and rejected, and why, for the first few rejected
+ * rows.
+ */
+@Getter
+public class ImportReport {
+
+  private long rows;
+
+  private long imported;
+
+  private long failed;
+
+  private boolean errorsTruncated;
+
+  private final List<RowError> errors = new ArrayList<>();
+
+  private final int maxErrors;
+
+  /**
+   * Instantiates a new import report.
+   *
+   * @param maxErrors the number of row errors reported in detail
+   */
+  public ImportReport(int maxErrors) {
+    this.maxErrors = maxErrors;
+  }
+
+  public List<RowError> getErrors() {
+    return Collections.unmodifiableList(errors);
+  }
+
+  /**
+   * Counts a row read from the file.
+   */
+  public void rowRead() {
+    rows++;
+  }
+
+  /**
+   * Counts rows written to the database.
+   *
+   * @param count the number of rows
+   */
+  public void imported(int count) {
+    imported += count;
+  }
+
+  /**
+   * Records a rejected row.
+   *
+   * @param line the line number in the file
+   * @param email the e-mail address on the row, if it could be read
+   * @param message why the row was rejected
+   */
+  public void failed(long line, String email, String message) {
+    failed++;
+    if (errors.size() < maxErrors) {
+      errors.add(new RowError(line, email, message));
+    } else {
+      errorsTruncated = true;
+    }
+  }
+
+  @Getter
+  public static class RowError {
+
+    private final long line;
+
+    private final String email;
+
+    private final String message;
+
+    RowError(long line, String email, String message) {
+      this.line = line;
+      this.email = email;
+      this.message = message;
+    }
+  }
+}
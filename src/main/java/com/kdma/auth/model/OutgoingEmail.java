@@ -0,0 +1,38 @@
+
+package com.kdma.auth.model;
+
+import lombok.Getter;
+
+/**
+ * An e-mail to be sent: a message and a link, laid out by the mail template.
+ */
+@Getter
+public class OutgoingEmail {
+
+  private final String to;
+
+  private final String from;
+
+  private final String subject;
+
+  private final String message;
+
+  private final String link;
+
+  /**
+   * Instantiates a new outgoing email.
+   *
+   * @param to the recipient
+   * @param from the sender
+   * @param subject the subject
+   * @param message the message
+   * @param link the link
+   */
+  public OutgoingEmail(String to, String from, String subject, String message, String link) {
+    this.to = to;
+    this.from = from;
+    this.subject = subject;
+    this.message = message;
+    this.link = link;
+  }
+}
@@ -1,6 +1,7 @@
 
 package com.kdma.auth.model;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -12,7 +13,10 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Version;
 import javax.validation.constraints.Email;
 
 import lombok.Getter;
@@ -55,19 +59,40 @@ public class User implements UserDetails {
   @Column(name = "enabled", nullable = false)
   private boolean enabled;
 
-  @Column(name = "confirmation_token")
-  private String confirmationToken;
+  @Version
+  @Column(name = "version", nullable = false)
+  private long version;
+
+  @Column(name = "updated_at", nullable = false)
+  private Instant updatedAt;
+
+  /**
+   * Records when the user changed, for incremental exports.
+   */
+  @PrePersist
+  @PreUpdate
+  void touch() {
+    updatedAt = Instant.now();
+  }
 
   // User Details
 
   @Override
   public Collection<? extends GrantedAuthority> getAuthorities() {
-    List<GrantedAuthority> authorities = new ArrayList<>();
+    return authoritiesOf(getRole());
+  }
 
-    Role roleName = this.getRole();
-    authorities.add(new SimpleGrantedAuthority("ROLE_" + roleName));
+  /**
+   * The authorities granted to a role. Administrators are users as well.
+   *
+   * @param role the role
+   * @return the authorities
+   */
+  public static List<GrantedAuthority> authoritiesOf(Role role) {
+    List<GrantedAuthority> authorities = new ArrayList<>();
+    authorities.add(new SimpleGrantedAuthority("ROLE_" + role));
 
-    if (roleName == Role.ADMIN) {
+    if (role == Role.ADMIN) {
       authorities.add(new SimpleGrantedAuthority("ROLE_USER"));
     }
     return authorities;
@@ -0,0 +1,31 @@
+
+package com.kdma.auth.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Optional conditions on the users listed to an administrator. Conditions left null match every user.
+ */
+@Getter
+@Setter
+public class UserFilter {
+
+  private Boolean enabled;
+
+  private Role role;
+
+  private String emailPrefix;
+
+  /**
+   * The e-mail prefix as a LIKE pattern, with wildcards in the prefix itself escaped.
+   *
+   * @return the pattern, or null when there is no prefix
+   */
+  public String getEmailPattern() {
+    if (emailPrefix == null || emailPrefix.isEmpty()) {
+      return null;
+    }
+    return emailPrefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+  }
+}
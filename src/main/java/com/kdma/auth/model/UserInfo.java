@@ -0,0 +1,83 @@
+
+package com.kdma.auth.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * What resource servers get from {@code /user}: the user id, in place of the e-mail address, and the authorities.
+ * Read straight from the columns it needs and immutable, so it can be cached between requests.
+ */
+public final class UserInfo {
+
+  private final long id;
+
+  private final Role role;
+
+  private final boolean enabled;
+
+  private final long version;
+
+  /**
+   * Instantiates a new user info. Used as a constructor expression in queries.
+   *
+   * @param id the user id
+   * @param role the role
+   * @param enabled whether the user is enabled
+   * @param version the version of the user
+   */
+  public UserInfo(long id, Role role, boolean enabled, long version) {
+    this.id = id;
+    this.role = role;
+    this.enabled = enabled;
+    this.version = version;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * The user id, published as the e-mail address so resource servers never see the real one.
+   *
+   * @return the user id
+   */
+  public String getEmail() {
+    return Long.toString(id);
+  }
+
+  public String getUsername() {
+    return Long.toString(id);
+  }
+
+  public Role getRole() {
+    return role;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public List<GrantedAuthority> getAuthorities() {
+    return Collections.unmodifiableList(User.authoritiesOf(role));
+  }
+
+  @JsonIgnore
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * The entity tag of this user info, which changes whenever the user does.
+   *
+   * @return the entity tag, without quotes
+   */
+  @JsonIgnore
+  public String getETag() {
+    return id + "." + version;
+  }
+}
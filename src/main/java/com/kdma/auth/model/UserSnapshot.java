@@ -0,0 +1,107 @@
+
+package com.kdma.auth.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * Immutable copy of what is needed to authenticate a {@link User}, safe to keep in a cache and share between threads.
+ *
+ * <p>
+ * Deliberately not a CredentialsContainer: the authentication manager erases the credentials of such principals after
+ * a login, which would wipe the password of the cached copy.
+ * </p>
+ */
+public final class UserSnapshot implements UserDetails {
+
+  static final long serialVersionUID = 1L;
+
+  private final long id;
+
+  private final String username;
+
+  private final String password;
+
+  private final boolean enabled;
+
+  private final List<GrantedAuthority> authorities;
+
+  private UserSnapshot(long id, String username, String password, boolean enabled,
+                       List<GrantedAuthority> authorities) {
+    this.id = id;
+    this.username = username;
+    this.password = password;
+    this.enabled = enabled;
+    this.authorities = authorities;
+  }
+
+  /**
+   * Takes a snapshot of the user as it is now.
+   *
+   * @param user the user
+   * @return the snapshot
+   */
+  public static UserSnapshot of(User user) {
+    return new UserSnapshot(user.getId(), user.getUsername(), user.getPassword(), user.isEnabled(),
+                            Collections.unmodifiableList(new ArrayList<>(user.getAuthorities())));
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  @Override
+  public Collection<? extends GrantedAuthority> getAuthorities() {
+    return authorities;
+  }
+
+  @Override
+  public String getPassword() {
+    return password;
+  }
+
+  @Override
+  public String getUsername() {
+    return username;
+  }
+
+  @Override
+  public boolean isAccountNonExpired() {
+    return true;
+  }
+
+  @Override
+  public boolean isAccountNonLocked() {
+    return true;
+  }
+
+  @Override
+  public boolean isCredentialsNonExpired() {
+    return true;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof UserSnapshot && username.equals(((UserSnapshot) other).username);
+  }
+
+  @Override
+  public int hashCode() {
+    return username.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "UserSnapshot[id=" + id + ", username=" + username + ", enabled=" + enabled + "]";
+  }
+}
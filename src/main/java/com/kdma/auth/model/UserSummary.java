@@ -0,0 +1,56 @@
+
+package com.kdma.auth.model;
+
+/**
+ * What administrators get when listing users: the columns they manage, never the password hash. Read straight from
+ * those columns and immutable, so listing users loads no entities.
+ */
+public final class UserSummary {
+
+  private final long id;
+
+  private final String email;
+
+  private final Role role;
+
+  private final boolean enabled;
+
+  private final String pendingEmail;
+
+  /**
+   * Instantiates a new user summary. Used as a constructor expression in queries.
+   *
+   * @param id the user id
+   * @param email the e-mail address
+   * @param role the role
+   * @param enabled whether the user is enabled
+   * @param pendingEmail the e-mail address waiting to be verified, or null
+   */
+  public UserSummary(long id, String email, Role role, boolean enabled, String pendingEmail) {
+    this.id = id;
+    this.email = email;
+    this.role = role;
+    this.enabled = enabled;
+    this.pendingEmail = pendingEmail;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public Role getRole() {
+    return role;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getPendingEmail() {
+    return pendingEmail;
+  }
+}
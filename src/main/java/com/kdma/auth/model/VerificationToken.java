@@ -0,0 +1,55 @@
+
+package com.kdma.auth.model;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.hibernate.annotations.GenericGenerator;
+
+/**
+ * A link sent to a user by e-mail, to confirm a registration, a password reset or an e-mail change. Only a hash of
+ * the token is stored, so the table cannot be used to act for its users.
+ */
+@Entity
+@Table(name = "verification_tokens")
+@Getter
+@Setter
+public class VerificationToken {
+
+  /**
+   * What a token lets its holder do.
+   */
+  public enum Purpose {
+    REGISTRATION, PASSWORD_RESET, EMAIL_CHANGE
+  }
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.AUTO, generator = "nativeGenerator")
+  @GenericGenerator(name = "nativeGenerator", strategy = "native")
+  @Column(name = "id", nullable = false, updatable = false)
+  private long id;
+
+  @Column(name = "token_hash", nullable = false, updatable = false)
+  private String tokenHash;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "purpose", nullable = false, updatable = false)
+  private Purpose purpose;
+
+  @Column(name = "user_id", nullable = false, updatable = false)
+  private long userId;
+
+  @Column(name = "expires_at", nullable = false)
+  private Instant expiresAt;
+}
@@ -1,11 +1,24 @@
 
 package com.kdma.auth.repository;
 
+import com.kdma.auth.model.Role;
 import com.kdma.auth.model.User;
+import com.kdma.auth.model.UserInfo;
+import com.kdma.auth.model.UserSummary;
 
+import io.micrometer.core.annotation.Timed;
+
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -22,16 +35,20 @@ public interface UserRepository extends JpaRepository<User, Long> {
    *          users email
    * @return User with the given email address or empty.
    */
+  @Timed("auth.repository")
   Optional<User> findByEmail(String email);
 
   /**
-   * Find a user by confirmation token.
+   * Read what {@code /user} publishes about a user, without loading the entity.
    * 
-   * @param confirmationToken
-   *          the users confirmation token.
-   * @return User with the given token or empty.
+   * @param email
+   *          users email
+   * @return The user info for the given email address or empty.
    */
-  Optional<User> findByConfirmationToken(String confirmationToken);
+  @Query("select new com.kdma.auth.model.UserInfo(u.id, u.role, u.enabled, u.version) from User u"
+         + " where u.email = :email")
+  @Timed("auth.repository")
+  Optional<UserInfo> findInfoByEmail(@Param("email") String email);
 
   /**
    * Find a user by id.
@@ -40,5 +57,54 @@ public interface UserRepository extends JpaRepository<User, Long> {
    *          the users Id.
    * @return User with the given id or empty.
    */
+  @Timed("auth.repository")
   Optional<User> findById(Long id);
+
+  /**
+   * Find the next page of users after the given id, in id order. Null conditions match every user.
+   *
+   * @param after
+   *          the last id of the previous page, or 0 for the first page
+   * @param enabled
+   *          whether the users are enabled, or null
+   * @param role
+   *          the users role, or null
+   * @param emailPattern
+   *          LIKE pattern for the users email, or null
+   * @param pageable
+   *          the page size; the page number must be 0
+   * @return The users on the page.
+   */
+  @Query("select new com.kdma.auth.model.UserSummary(u.id, u.email, u.role, u.enabled, u.pendingEmail)"
+         + " from User u where u.id > :after"
+         + " and (:enabled is null or u.enabled = :enabled)"
+         + " and (:role is null or u.role = :role)"
+         + " and (:emailPattern is null or u.email like :emailPattern escape '\\')"
+         + " order by u.id")
+  @Timed("auth.repository")
+  List<UserSummary> findPageAfter(@Param("after") long after, @Param("enabled") Boolean enabled,
+                                  @Param("role") Role role, @Param("emailPattern") String emailPattern,
+                                  Pageable pageable);
+
+  /**
+   * Stream all users in id order, fetched from the database a chunk at a time. Must be called within a transaction,
+   * and the stream closed. Null conditions match every user.
+   *
+   * @param enabled
+   *          whether the users are enabled, or null
+   * @param role
+   *          the users role, or null
+   * @param emailPattern
+   *          LIKE pattern for the users email, or null
+   * @return The users.
+   */
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+  @Query("select new com.kdma.auth.model.UserSummary(u.id, u.email, u.role, u.enabled, u.pendingEmail)"
+         + " from User u where (:enabled is null or u.enabled = :enabled)"
+         + " and (:role is null or u.role = :role)"
+         + " and (:emailPattern is null or u.email like :emailPattern escape '\\')"
+         + " order by u.id")
+  @Timed("auth.repository")
+  Stream<UserSummary> streamAll(@Param("enabled") Boolean enabled, @Param("role") Role role,
+                                @Param("emailPattern") String emailPattern);
 }
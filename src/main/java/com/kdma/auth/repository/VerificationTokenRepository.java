@@ -0,0 +1,80 @@
+
+package com.kdma.auth.repository;
+
+import com.kdma.auth.model.User;
+import com.kdma.auth.model.VerificationToken;
+
+import io.micrometer.core.annotation.Timed;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * VerificationTokenRepository interface. Uses Spring JPA Repository.
+ */
+@Repository
+public interface VerificationTokenRepository extends JpaRepository<VerificationToken, Long> {
+
+  /**
+   * Find the user a token was issued to, through the unique index on the token hash.
+   *
+   * @param tokenHash
+   *          the hash of the token
+   * @param purposes
+   *          the purposes the token may have been issued for
+   * @param now
+   *          the current time; expired tokens match no user
+   * @return The user the token was issued to or empty.
+   */
+  @Query("select u from VerificationToken t, User u where t.tokenHash = :tokenHash and t.purpose in :purposes"
+         + " and t.expiresAt > :now and u.id = t.userId")
+  @Timed("auth.repository")
+  Optional<User> findUser(@Param("tokenHash") String tokenHash,
+                          @Param("purposes") Collection<VerificationToken.Purpose> purposes,
+                          @Param("now") Instant now);
+
+  /**
+   * Delete a token that has not expired and was issued for one of the given purposes. Of concurrent deletes of one
+   * token, only one deletes it.
+   *
+   * @param tokenHash
+   *          the hash of the token
+   * @param purposes
+   *          the purposes the token may have been issued for
+   * @param now
+   *          the current time; expired tokens are not deleted
+   * @return The number of tokens deleted, 0 or 1.
+   */
+  @Transactional
+  @Modifying
+  @Query("delete from VerificationToken t where t.tokenHash = :tokenHash and t.purpose in :purposes"
+         + " and t.expiresAt > :now")
+  @Timed("auth.repository")
+  int deleteByTokenHash(@Param("tokenHash") String tokenHash,
+                        @Param("purposes") Collection<VerificationToken.Purpose> purposes,
+                        @Param("now") Instant now);
+
+  /**
+   * Delete the tokens issued to a user for any of the given purposes.
+   *
+   * @param userId
+   *          the users id
+   * @param purposes
+   *          the purposes
+   * @return The number of tokens deleted.
+   */
+  @Transactional
+  @Modifying
+  @Query("delete from VerificationToken t where t.userId = :userId and t.purpose in :purposes")
+  @Timed("auth.repository")
+  int deleteByUser(@Param("userId") long userId,
+                   @Param("purposes") Collection<VerificationToken.Purpose> purposes);
+}
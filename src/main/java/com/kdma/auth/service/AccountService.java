@@ -41,14 +41,23 @@ public interface AccountService {
   boolean isUserRegistered(User user);
 
   /**
-   * Gets the user for token.
+   * Gets the user a registration or password reset token was issued to.
    *
    * @param token
    *          the token
-   * @return the user for token
+   * @return the user for token, or empty if the token is unknown or expired
    */
   Optional<User> getUserForToken(String token);
 
+  /**
+   * Gets the user an e-mail change token was issued to.
+   *
+   * @param token
+   *          the token
+   * @return the user for token, or empty if the token is unknown or expired
+   */
+  Optional<User> getUserForEmailVerification(String token);
+
   /**
    * Reset password.
    *
@@ -88,11 +97,12 @@ public interface AccountService {
   boolean changeEmail(String username, String password, String newEmail, Locale locale);
 
   /**
-   * Verify email.
+   * Verify email: use up an e-mail change token and make the pending e-mail address the user's e-mail address.
    *
-   * @param user
-   *          the user
+   * @param token
+   *          the e-mail change token
+   * @return the user with the new e-mail address, or empty if the token is unknown, expired or used already
    */
-  void verifyEmail(User user);
+  Optional<User> verifyEmail(String token);
 
 }
@@ -3,18 +3,22 @@ package com.kdma.auth.service;
 
 import com.kdma.auth.AuthProperties;
 import com.kdma.auth.model.User;
+import com.kdma.auth.model.VerificationToken.Purpose;
 import com.kdma.auth.repository.UserRepository;
 
+import io.micrometer.core.annotation.Timed;
+
 import java.util.Locale;
 import java.util.Optional;
-import java.util.UUID;
 
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.context.MessageSource;
+import org.springframework.security.core.userdetails.UserCache;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * The Class AccountServiceImpl.
@@ -40,6 +44,12 @@ public class AccountServiceImpl implements AccountService {
   /** The messages. */
   private final MessageSource messages;
 
+  /** The user cache, evicted on every change to a user. */
+  private final UserCache userCache;
+
+  /** The tokens sent to users by e-mail. */
+  private final VerificationTokenService verificationTokens;
+
   /**
    * Instantiates a new account service impl.
    *
@@ -53,14 +63,21 @@ public class AccountServiceImpl implements AccountService {
    *          the properties
    * @param messages
    *          the messages
+   * @param userCache
+   *          the user cache
+   * @param verificationTokens
+   *          the verification token service
    */
   public AccountServiceImpl(UserRepository userRepository, EmailService emailService,
-                            BCryptPasswordEncoder passwordEncoder, AuthProperties properties, MessageSource messages) {
+                            BCryptPasswordEncoder passwordEncoder, AuthProperties properties, MessageSource messages,
+                            UserCache userCache, VerificationTokenService verificationTokens) {
     this.userRepository = userRepository;
     this.emailService = emailService;
     this.passwordEncoder = passwordEncoder;
     this.properties = properties;
     this.messages = messages;
+    this.userCache = userCache;
+    this.verificationTokens = verificationTokens;
   }
 
   /*
@@ -70,6 +87,8 @@ public class AccountServiceImpl implements AccountService {
    * java.util.Locale)
    */
   @Override
+  @Transactional
+  @Timed("auth.account")
   public void registerUser(final User user, final Locale locale) {
     log.debug("Register new user...");
 
@@ -81,14 +100,14 @@ public class AccountServiceImpl implements AccountService {
     // disable until confirmed via email
     u.setEnabled(false);
 
-    u.setConfirmationToken(UUID.randomUUID().toString());
-
-    userRepository.save(user);
+    User saved = userRepository.save(u);
+    userCache.removeUserFromCache(user.getUsername());
+    String token = verificationTokens.issue(saved, Purpose.REGISTRATION);
 
     log.debug("Sending confirmation token to the selected email: {}", user.getEmail());
     log.debug("Sending confirmation token from: {}", properties.getEmailFrom());
     String message = messages.getMessage("email.registration", null, locale);
-    String link = properties.getRedirectionUrl() + "/confirmRedirect?token=" + user.getConfirmationToken();
+    String link = properties.getRedirectionUrl() + "/confirmRedirect?token=" + token;
     emailService.prepareAndSend(user.getEmail(), properties.getEmailFrom(), "Registration confirmation", message,
                                 link);
   }
@@ -99,11 +118,13 @@ public class AccountServiceImpl implements AccountService {
    * @see com.kdma.auth.service.AccountService#confirmUser(java.lang.String, java.lang.String)
    */
   @Override
+  @Transactional
+  @Timed("auth.account")
   public void confirmUser(String token, String password) {
-    log.debug("Confirm user with token: {}", token);
+    log.debug("Confirm user with token");
 
-    // find the user with the given reset token
-    Optional<User> optUser = userRepository.findByConfirmationToken(token);
+    // use up the token, so a second submission of it finds no user
+    Optional<User> optUser = verificationTokens.consume(token, Purpose.REGISTRATION, Purpose.PASSWORD_RESET);
     User user = optUser.orElseThrow(() -> new UsernameNotFoundException("No user found for token"));
 
     // set user password
@@ -111,9 +132,10 @@ public class AccountServiceImpl implements AccountService {
 
     // enable the user
     user.setEnabled(true);
-    user.setConfirmationToken("");
 
     userRepository.save(user);
+    verificationTokens.revoke(user, Purpose.REGISTRATION, Purpose.PASSWORD_RESET);
+    userCache.removeUserFromCache(user.getUsername());
   }
 
   /*
@@ -134,7 +156,17 @@ public class AccountServiceImpl implements AccountService {
    */
   @Override
   public Optional<User> getUserForToken(String token) {
-    return userRepository.findByConfirmationToken(token);
+    return verificationTokens.findUser(token, Purpose.REGISTRATION, Purpose.PASSWORD_RESET);
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see com.kdma.auth.service.AccountService#getUserForEmailVerification(java.lang.String)
+   */
+  @Override
+  public Optional<User> getUserForEmailVerification(String token) {
+    return verificationTokens.findUser(token, Purpose.EMAIL_CHANGE);
   }
 
   /*
@@ -144,24 +176,23 @@ public class AccountServiceImpl implements AccountService {
    * java.util.Locale)
    */
   @Override
+  @Transactional
+  @Timed("auth.account")
   public void resetPassword(final User user, final Locale locale) {
     log.debug("Resetting password for user: {}", user.getEmail());
 
     Optional<User> optUser = userRepository.findByEmail(user.getEmail());
     User usr = optUser.orElseThrow(() -> new UsernameNotFoundException("No user found with this email"));
 
-    // Generate random 36-character string token for confirmation link
-    usr.setConfirmationToken(UUID.randomUUID().toString());
+    // Generate random token for confirmation link
+    String token = verificationTokens.issue(usr, Purpose.PASSWORD_RESET);
 
     // send email with confirmation token
     log.debug("Sending confirmation token to the selected email address: {}", user.getEmail());
     String message = messages.getMessage("email.resetPassword", null, locale);
-    String link = properties.getRedirectionUrl() + "/confirmRedirect?token=" + usr.getConfirmationToken();
+    String link = properties.getRedirectionUrl() + "/confirmRedirect?token=" + token;
 
     emailService.prepareAndSend(usr.getEmail(), properties.getEmailFrom(), "Password reset", message, link);
-
-    // update user entity
-    userRepository.save(usr);
   }
 
   /*
@@ -171,6 +202,7 @@ public class AccountServiceImpl implements AccountService {
    * java.lang.String)
    */
   @Override
+  @Timed("auth.account")
   public boolean changePassword(String username, String oldPassword, String newPassword) {
     log.debug("Changing password for user: {}", username);
     Optional<User> optUser = userRepository.findByEmail(username);
@@ -186,6 +218,7 @@ public class AccountServiceImpl implements AccountService {
     if (passwordMatch) {
       user.setPassword(passwordEncoder.encode(newPassword));
       userRepository.save(user);
+      userCache.removeUserFromCache(username);
       return true;
     }
 
@@ -200,6 +233,8 @@ public class AccountServiceImpl implements AccountService {
    * java.lang.String, java.util.Locale)
    */
   @Override
+  @Transactional
+  @Timed("auth.account")
   public boolean changeEmail(String username, String password, String newEmail, Locale locale) {
     log.debug("Changing e-mail for user: {}", username);
 
@@ -221,20 +256,20 @@ public class AccountServiceImpl implements AccountService {
     log.debug("Current password matches: {}", passwordMatch);
     if (passwordMatch) {
       user.setPendingEmail(newEmail);
+      userRepository.save(user);
+      userCache.removeUserFromCache(username);
 
-      // Generate random 36-character string token for confirmation link
-      user.setConfirmationToken(UUID.randomUUID().toString());
+      // Generate random token for confirmation link
+      String token = verificationTokens.issue(user, Purpose.EMAIL_CHANGE);
 
       // send email with confirmation token
-      log.debug("Sending verification token {} to the selected email: {}", user.getConfirmationToken(), newEmail);
+      log.debug("Sending verification token to the selected email: {}", newEmail);
 
       String message = messages.getMessage("email.verification", null, locale);
-      String link = properties.getRedirectionUrl() + "/verifyEmail?token=" + user.getConfirmationToken();
+      String link = properties.getRedirectionUrl() + "/verifyEmail?token=" + token;
 
       emailService.prepareAndSend(newEmail, properties.getEmailFrom(), "E-mail change", message, link);
 
-      userRepository.save(user);
-
       return true;
     }
     // passwords do not match
@@ -244,19 +279,32 @@ public class AccountServiceImpl implements AccountService {
   /*
    * (non-Javadoc)
    * 
-   * @see com.kdma.auth.service.AccountService#verifyEmail(com.kdma.auth.model.User)
+   * @see com.kdma.auth.service.AccountService#verifyEmail(java.lang.String)
    */
   @Override
-  public void verifyEmail(User user) {
+  @Transactional
+  @Timed("auth.account")
+  public Optional<User> verifyEmail(String token) {
+    log.debug("Verify e-mail with token");
+
+    // use up the token, so a second request with it finds no user
+    Optional<User> optUser = verificationTokens.consume(token, Purpose.EMAIL_CHANGE);
+    if (!optUser.isPresent() || optUser.get().getPendingEmail() == null) {
+      return Optional.empty();
+    }
+    User user = optUser.get();
     log.debug("Verifying e-mail {}", user.getPendingEmail());
 
     // Set new e-mail
+    final String previousEmail = user.getEmail();
     user.setEmail(user.getPendingEmail());
     user.setPendingEmail(null);
-    user.setConfirmationToken("");
 
     // Save user
     userRepository.save(user);
+    userCache.removeUserFromCache(previousEmail);
+    userCache.removeUserFromCache(user.getEmail());
+    return optUser;
   }
 
 }
@@ -0,0 +1,200 @@
+
+package com.kdma.auth.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * BCrypt password encoder that hashes on a small pool of its own threads instead of the request threads.
+ *
+ * <p>
+ * A login storm then takes at most as many cores as there are hashing threads, and requests which do not hash a
+ * password are still served. The queue in front of the pool is bounded: once it is full, further hashes are turned
+ * away at once with a {@link PasswordHashingBusyException}.
+ * </p>
+ *
+ * <p>
+ * Hashes weaker than the configured strength are reported as needing an upgrade, so the authentication provider
+ * re-hashes them on the next successful login. Upgrades are skipped while hashes are queued, to leave the pool to
+ * logins.
+ * </p>
+ */
+@Slf4j
+public class BoundedPasswordEncoder extends BCryptPasswordEncoder implements MeterBinder, Closeable {
+
+  static final Pattern BCRYPT = Pattern.compile("\\A\\$2[aby]?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+
+  private static final String CALIBRATION_SAMPLE = "calibration-sample";
+
+  private static final int CALIBRATION_ROUNDS = 3;
+
+  private final int strength;
+
+  private final ThreadPoolExecutor executor;
+
+  private final Duration retryAfter;
+
+  private volatile Timer encodeTimer;
+
+  private volatile Timer matchesTimer;
+
+  private volatile Counter rejected;
+
+  /**
+   * Instantiates a new bounded password encoder.
+   *
+   * @param strength the BCrypt strength of new hashes
+   * @param threads the number of hashing threads
+   * @param queueCapacity the number of hashes that may wait for a thread
+   * @param retryAfter when a client turned away should try again
+   */
+  public BoundedPasswordEncoder(int strength, int threads, int queueCapacity, Duration retryAfter) {
+    this(strength, new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(queueCapacity), daemonThreads()),
+         retryAfter);
+  }
+
+  BoundedPasswordEncoder(int strength, ThreadPoolExecutor executor, Duration retryAfter) {
+    super(strength);
+    this.strength = strength;
+    this.executor = executor;
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * Finds the strongest BCrypt strength that hashes within the target latency on this machine. One strength more
+   * doubles the work, so a few hashes at the minimum strength are enough to tell.
+   *
+   * @param targetLatency how long one hash should take
+   * @param minimumStrength the lowest strength to pick
+   * @param maximumStrength the highest strength to pick
+   * @return the calibrated strength
+   */
+  public static int calibrate(Duration targetLatency, int minimumStrength, int maximumStrength) {
+    BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(minimumStrength);
+    encoder.encode(CALIBRATION_SAMPLE);
+    long fastest = Long.MAX_VALUE;
+    for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+      long start = System.nanoTime();
+      encoder.encode(CALIBRATION_SAMPLE);
+      fastest = Math.min(fastest, System.nanoTime() - start);
+    }
+
+    int strength = minimumStrength;
+    long latency = fastest;
+    while (strength < maximumStrength && latency * 2 <= targetLatency.toNanos()) {
+      strength++;
+      latency *= 2;
+    }
+    log.info("Calibrated BCrypt strength {}: {} ms per hash at strength {}, about {} ms at strength {}", strength,
+             TimeUnit.NANOSECONDS.toMillis(fastest), minimumStrength, TimeUnit.NANOSECONDS.toMillis(latency),
+             strength);
+    return strength;
+  }
+
+  public int getStrength() {
+    return strength;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    encodeTimer = Timer.builder("auth.password.hashing").tag("operation", "encode")
+                       .description("Time to hash a password, including the wait for a hashing thread")
+                       .register(registry);
+    matchesTimer = Timer.builder("auth.password.hashing").tag("operation", "matches")
+                        .description("Time to check a password, including the wait for a hashing thread")
+                        .register(registry);
+    rejected = Counter.builder("auth.password.hashing.rejected")
+                      .description("Passwords turned away because the hashing queue was full").register(registry);
+    Gauge.builder("auth.password.hashing.queue", executor, e -> e.getQueue().size())
+         .description("Passwords waiting for a hashing thread").register(registry);
+    Gauge.builder("auth.password.strength", this, BoundedPasswordEncoder::getStrength)
+         .description("BCrypt strength of new hashes").register(registry);
+  }
+
+  @Override
+  public String encode(CharSequence rawPassword) {
+    return execute(() -> super.encode(rawPassword), encodeTimer);
+  }
+
+  @Override
+  public boolean matches(CharSequence rawPassword, String encodedPassword) {
+    return execute(() -> super.matches(rawPassword, encodedPassword), matchesTimer);
+  }
+
+  @Override
+  public boolean upgradeEncoding(String encodedPassword) {
+    if (encodedPassword == null || !executor.getQueue().isEmpty()) {
+      return false;
+    }
+    Matcher matcher = BCRYPT.matcher(encodedPassword);
+    return matcher.matches() && Integer.parseInt(matcher.group(1)) < strength;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  private <T> T execute(Callable<T> task, Timer timer) {
+    long start = System.nanoTime();
+    Future<T> future;
+    try {
+      future = executor.submit(task);
+    } catch (RejectedExecutionException e) {
+      Counter counter = rejected;
+      if (counter != null) {
+        counter.increment();
+      }
+      log.debug("Hashing queue is full, turning a request away");
+      throw new PasswordHashingBusyException(retryAfter);
+    }
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a password hash", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Password hashing failed", e.getCause());
+    } finally {
+      if (timer != null) {
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  private static ThreadFactory daemonThreads() {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, "password-hashing-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
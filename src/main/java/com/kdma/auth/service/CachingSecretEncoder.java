@@ -0,0 +1,115 @@
+
+package com.kdma.auth.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Password encoder for client secrets that remembers, for a short while, which secrets it has already verified, so a
+ * client authenticating many times a second, such as a resource server checking tokens, is not hashed with BCrypt on
+ * every request.
+ *
+ * <p>
+ * A successful check is remembered as an HMAC of the stored hash and the presented secret, under a random key held
+ * only by this instance: neither the secret nor a plain digest of it is kept in memory. Because the stored hash is
+ * part of the key, changing a client's secret makes its entries useless at once. Failed checks are not remembered and
+ * always go to the delegate.
+ * </p>
+ *
+ * <p>
+ * Meant for client authentication only. User passwords are checked by the delegate on every login.
+ * </p>
+ */
+public class CachingSecretEncoder implements PasswordEncoder, MeterBinder {
+
+  private static final String CACHE_NAME = "clientSecrets";
+
+  private static final String ALGORITHM = "HmacSHA256";
+
+  private static final int KEY_LENGTH = 32;
+
+  private final PasswordEncoder delegate;
+
+  private final SecretKeySpec key;
+
+  private final Cache<String, Boolean> verified;
+
+  /**
+   * Instantiates a new caching secret encoder.
+   *
+   * @param delegate the encoder checking secrets that are not remembered
+   * @param maximumSize the maximum number of verified secrets remembered
+   * @param timeToLive how long a verified secret is remembered
+   */
+  public CachingSecretEncoder(PasswordEncoder delegate, long maximumSize, Duration timeToLive) {
+    byte[] secret = new byte[KEY_LENGTH];
+    new SecureRandom().nextBytes(secret);
+    this.delegate = delegate;
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+    this.verified = Caffeine.newBuilder()
+                            .maximumSize(maximumSize)
+                            .expireAfterWrite(timeToLive)
+                            .recordStats()
+                            .build();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, verified, CACHE_NAME);
+  }
+
+  @Override
+  public String encode(CharSequence rawPassword) {
+    return delegate.encode(rawPassword);
+  }
+
+  @Override
+  public boolean matches(CharSequence rawPassword, String encodedPassword) {
+    if (rawPassword == null || encodedPassword == null) {
+      return delegate.matches(rawPassword, encodedPassword);
+    }
+    String digest = digest(rawPassword, encodedPassword);
+    if (verified.getIfPresent(digest) != null) {
+      return true;
+    }
+    boolean matches = delegate.matches(rawPassword, encodedPassword);
+    if (matches) {
+      verified.put(digest, Boolean.TRUE);
+    }
+    return matches;
+  }
+
+  @Override
+  public boolean upgradeEncoding(String encodedPassword) {
+    return delegate.upgradeEncoding(encodedPassword);
+  }
+
+  private String digest(CharSequence rawPassword, String encodedPassword) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+      // Hashes never contain a NUL, so the stored hash and the secret cannot run into each other
+      mac.update((byte) 0);
+      mac.update(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(mac.doFinal());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(ALGORITHM + " is not available", e);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+
+package com.kdma.auth.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Fails calls to an unhealthy dependency at once instead of letting each of them wait for a timeout.
+ *
+ * <p>
+ * The circuit opens after a number of consecutive failures. While open, calls are refused until the open duration
+ * has passed; then a single trial call is let through, and its outcome closes the circuit again or keeps it open for
+ * another period.
+ * </p>
+ */
+public class CircuitBreaker {
+
+  /**
+   * The state of the circuit.
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureThreshold;
+
+  private final Duration openDuration;
+
+  private final Clock clock;
+
+  private State state = State.CLOSED;
+
+  private int failures;
+
+  private Instant retryAt = Instant.MIN;
+
+  /**
+   * Instantiates a new circuit breaker.
+   *
+   * @param failureThreshold the consecutive failures that open the circuit
+   * @param openDuration how long the circuit stays open before a trial call
+   * @param clock the clock
+   */
+  public CircuitBreaker(int failureThreshold, Duration openDuration, Clock clock) {
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+    this.clock = clock;
+  }
+
+  /**
+   * Checks whether a call may go ahead. Once the open duration has passed, the first caller is let through as the
+   * trial call and the others are refused until its outcome is recorded.
+   *
+   * @return true if the call may go ahead
+   */
+  public synchronized boolean allowRequest() {
+    if (state == State.OPEN && !clock.instant().isBefore(retryAt)) {
+      state = State.HALF_OPEN;
+      return true;
+    }
+    return state == State.CLOSED;
+  }
+
+  /**
+   * Records a successful call, which closes the circuit.
+   */
+  public synchronized void recordSuccess() {
+    state = State.CLOSED;
+    failures = 0;
+  }
+
+  /**
+   * Records a failed call, which opens the circuit when it is the trial call or one failure too many.
+   */
+  public synchronized void recordFailure() {
+    failures++;
+    if (state == State.HALF_OPEN || failures >= failureThreshold) {
+      state = State.OPEN;
+      retryAt = clock.instant().plus(openDuration);
+    }
+  }
+
+  /**
+   * Records a call that was let through but says nothing about the dependency, such as one that never reached it. It
+   * counts neither way; when it was the trial call, the next caller makes the trial instead.
+   */
+  public synchronized void recordIgnored() {
+    if (state == State.HALF_OPEN) {
+      state = State.OPEN;
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Gets when calls will be let through again.
+   *
+   * @return the time of the next trial call while the circuit is open, otherwise now
+   */
+  public synchronized Instant getRetryAt() {
+    Instant now = clock.instant();
+    return state == State.CLOSED || retryAt.isBefore(now) ? now : retryAt;
+  }
+}
@@ -0,0 +1,113 @@
+
+package com.kdma.auth.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.kdma.auth.model.ClientSnapshot;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.ClientRegistrationException;
+
+/**
+ * Bounded, time-limited cache of the OAuth2 clients, loaded from another {@link ClientDetailsService} and kept as
+ * {@link ClientSnapshot}s, so every client-authenticated request does not read and parse the client's row again.
+ *
+ * <p>
+ * Concurrent lookups of a client that is not cached load it once. Unknown clients are not cached, so guessing client
+ * ids cannot fill the cache. Removals through {@link #evict(String)} and {@link #evictAll()} are counted as
+ * {@code auth.client.cache.invalidations}.
+ * </p>
+ *
+ * <p>
+ * Not a {@link ClientDetailsService} itself, so it does not compete with the one the authorization server registers;
+ * see {@link #clientDetailsService()}.
+ * </p>
+ */
+public class ClientDetailsCache implements MeterBinder {
+
+  private static final String CACHE_NAME = "clients";
+
+  private final LoadingCache<String, ClientSnapshot> cache;
+
+  private final LongAdder invalidations = new LongAdder();
+
+  /**
+   * Instantiates a new client details cache.
+   *
+   * @param delegate where clients are loaded from
+   * @param maximumSize the maximum number of cached clients
+   * @param timeToLive how long a client is cached
+   */
+  public ClientDetailsCache(ClientDetailsService delegate, long maximumSize, Duration timeToLive) {
+    this.cache = Caffeine.newBuilder()
+                         .maximumSize(maximumSize)
+                         .expireAfterWrite(timeToLive)
+                         .recordStats()
+                         .build(clientId -> ClientSnapshot.of(delegate.loadClientByClientId(clientId)));
+  }
+
+  /**
+   * The client details service backed by this cache.
+   *
+   * @return the client details service
+   */
+  public ClientDetailsService clientDetailsService() {
+    return this::loadClientByClientId;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    FunctionCounter.builder("auth.client.cache.invalidations", invalidations, LongAdder::sum)
+                   .description("Cached clients removed because the client changed").register(registry);
+  }
+
+  /**
+   * Loads a client, from the cache when it is there.
+   *
+   * @param clientId the client id
+   * @return the client
+   * @throws ClientRegistrationException if there is no such client
+   */
+  public ClientDetails loadClientByClientId(String clientId) {
+    return cache.get(clientId);
+  }
+
+  /**
+   * The ids of the clients currently cached.
+   *
+   * @return the client ids, sorted
+   */
+  public Set<String> getClientIds() {
+    return new TreeSet<>(cache.asMap().keySet());
+  }
+
+  /**
+   * Removes a client, so that the next request reads it again.
+   *
+   * @param clientId the client id
+   */
+  public void evict(String clientId) {
+    cache.invalidate(clientId);
+    invalidations.increment();
+  }
+
+  /**
+   * Removes all clients.
+   */
+  public void evictAll() {
+    invalidations.add(cache.estimatedSize());
+    cache.invalidateAll();
+  }
+}
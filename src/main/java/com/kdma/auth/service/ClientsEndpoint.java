@@ -0,0 +1,51 @@
+
+package com.kdma.auth.service;
+
+import java.util.Set;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+/**
+ * Actuator endpoint listing the clients in the {@link ClientDetailsCache}. Deleting a client, or all of them, makes the
+ * next request read it again, after its registration was changed in the database.
+ */
+@Endpoint(id = "clients")
+public class ClientsEndpoint {
+
+  private final ClientDetailsCache cache;
+
+  public ClientsEndpoint(ClientDetailsCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * The cached clients.
+   *
+   * @return the client ids
+   */
+  @ReadOperation
+  public Set<String> cached() {
+    return cache.getClientIds();
+  }
+
+  /**
+   * Evicts all clients.
+   */
+  @DeleteOperation
+  public void evictAll() {
+    cache.evictAll();
+  }
+
+  /**
+   * Evicts one client.
+   *
+   * @param clientId the client id
+   */
+  @DeleteOperation
+  public void evict(@Selector String clientId) {
+    cache.evict(clientId);
+  }
+}
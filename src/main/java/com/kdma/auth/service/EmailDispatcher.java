@@ -0,0 +1,344 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.OutboxProperties;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import javax.sql.DataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sends the e-mails queued in the outbox by {@link EmailService}.
+ *
+ * <p>
+ * Due e-mails are claimed by pushing their next attempt past the claim timeout, so several instances can share the
+ * outbox and an instance that dies mid-send only delays its e-mails. Claimed e-mails are sent in batches over one
+ * SMTP connection each, by a fixed number of threads. Sent e-mails are deleted; the others are retried with
+ * exponential backoff, and dropped after the last attempt. E-mails the mail sender refused to try because the mail
+ * server is down are put back until it is tried again, without using up an attempt.
+ * </p>
+ */
+@Slf4j
+@Service
+public class EmailDispatcher {
+
+  private static final String SELECT_DUE_SQL =
+      "select id from email_outbox where next_attempt_at <= ? order by next_attempt_at, id";
+
+  private static final String CLAIM_SQL =
+      "update email_outbox set next_attempt_at = ? where id = ? and next_attempt_at <= ?";
+
+  private static final String SELECT_CLAIMED_SQL = "select id, recipient, sender, subject, message, link, created_at, "
+                                                   + "attempts from email_outbox where id in (:ids)";
+
+  private static final String DELETE_SQL = "delete from email_outbox where id = ?";
+
+  private static final String RETRY_SQL =
+      "update email_outbox set attempts = ?, next_attempt_at = ?, last_error = ? where id = ?";
+
+  private static final String DEFER_SQL = "update email_outbox set next_attempt_at = ? where id = ?";
+
+  private static final int MAX_ERROR_LENGTH = 1024;
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+  private final JavaMailSender mailSender;
+
+  private final MailContentBuilder mailContentBuilder;
+
+  private final LinkCipher linkCipher;
+
+  private final OutboxProperties properties;
+
+  private final MeterRegistry meterRegistry;
+
+  private final ThreadPoolExecutor senders;
+
+  private final Timer sendTimer;
+
+  private final Timer deliveryTimer;
+
+  private final AtomicLong depth = new AtomicLong();
+
+  /**
+   * Instantiates a new email dispatcher.
+   *
+   * @param dataSource the data source
+   * @param mailSender the mail sender
+   * @param mailContentBuilder the mail content builder
+   * @param linkCipher the link cipher
+   * @param properties the outbox properties
+   * @param meterRegistry the meter registry
+   */
+  public EmailDispatcher(DataSource dataSource, JavaMailSender mailSender, MailContentBuilder mailContentBuilder,
+                         LinkCipher linkCipher, OutboxProperties properties, MeterRegistry meterRegistry) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.jdbcTemplate.setMaxRows(properties.getBatchSize() * properties.getThreads());
+    this.namedJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    this.mailSender = mailSender;
+    this.mailContentBuilder = mailContentBuilder;
+    this.linkCipher = linkCipher;
+    this.properties = properties;
+    this.meterRegistry = meterRegistry;
+    // invokeAll never hands over more batches than there are threads, so the queue cannot overflow
+    this.senders = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(), 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(properties.getThreads()), daemonThreads());
+    this.sendTimer = Timer.builder("auth.email.send").description("Time to send one batch of e-mails over SMTP")
+                          .register(meterRegistry);
+    this.deliveryTimer = Timer.builder("auth.email.delivery")
+                              .description("Time from queuing an e-mail to handing it to the mail server")
+                              .register(meterRegistry);
+    Gauge.builder("auth.email.outbox.depth", depth, AtomicLong::get)
+         .description("E-mails waiting in the outbox, as of the last look at it").register(meterRegistry);
+  }
+
+  /**
+   * Sends due e-mails on the configured schedule, unless sending is disabled.
+   */
+  @Scheduled(initialDelayString = "#{@outboxProperties.pollInterval.toMillis()}",
+             fixedDelayString = "#{@outboxProperties.pollInterval.toMillis()}")
+  public void scheduledDispatch() {
+    if (properties.isEnabled()) {
+      dispatch();
+    }
+  }
+
+  /**
+   * Sends every e-mail that is due by now.
+   *
+   * @return the number of e-mails sent
+   */
+  public synchronized int dispatch() {
+    int capacity = properties.getBatchSize() * properties.getThreads();
+    int sent = 0;
+    while (true) {
+      List<Entry> claimed = claim();
+      if (claimed.isEmpty()) {
+        break;
+      }
+      List<Callable<Integer>> batches = new ArrayList<>();
+      for (int from = 0; from < claimed.size(); from += properties.getBatchSize()) {
+        List<Entry> batch = claimed.subList(from, Math.min(from + properties.getBatchSize(), claimed.size()));
+        batches.add(() -> send(batch));
+      }
+      try {
+        for (Future<Integer> result : senders.invokeAll(batches)) {
+          sent += result.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.warn("E-mail dispatcher interrupted, stopping early");
+        break;
+      } catch (ExecutionException e) {
+        log.error("Sending a batch of e-mails failed", e.getCause());
+      }
+      if (claimed.size() < capacity) {
+        break;
+      }
+    }
+    depth.set(jdbcTemplate.queryForObject("select count(*) from email_outbox", Long.class));
+    return sent;
+  }
+
+  /**
+   * Stops the sending threads.
+   */
+  @PreDestroy
+  public void close() {
+    senders.shutdown();
+  }
+
+  private List<Entry> claim() {
+    Timestamp now = Timestamp.from(Instant.now());
+    Timestamp claimedUntil = Timestamp.from(Instant.now().plus(properties.getClaimTimeout()));
+    List<Long> due = jdbcTemplate.queryForList(SELECT_DUE_SQL, Long.class, now);
+    if (due.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Object[]> claims = due.stream().map(id -> new Object[] {claimedUntil, id, now}).collect(Collectors.toList());
+    int[] counts = jdbcTemplate.batchUpdate(CLAIM_SQL, claims);
+    List<Long> ids = new ArrayList<>();
+    for (int i = 0; i < counts.length; i++) {
+      // Nothing updated means another instance claimed the e-mail first
+      if (counts[i] != 0) {
+        ids.add(due.get(i));
+      }
+    }
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return namedJdbcTemplate.query(SELECT_CLAIMED_SQL, Collections.singletonMap("ids", ids), (rs, row) -> {
+      Entry entry = new Entry();
+      entry.id = rs.getLong("id");
+      entry.to = rs.getString("recipient");
+      entry.from = rs.getString("sender");
+      entry.subject = rs.getString("subject");
+      entry.message = rs.getString("message");
+      entry.link = rs.getString("link");
+      entry.createdAt = rs.getTimestamp("created_at").toInstant();
+      entry.attempts = rs.getInt("attempts");
+      return entry;
+    });
+  }
+
+  private int send(List<Entry> batch) {
+    Map<MimeMessage, Entry> messages = new LinkedHashMap<>();
+    for (Entry entry : batch) {
+      try {
+        messages.put(prepare(entry), entry);
+      } catch (MessagingException | RuntimeException e) {
+        failed(entry, e);
+      }
+    }
+    if (messages.isEmpty()) {
+      return 0;
+    }
+
+    Map<Object, Exception> failures = Collections.emptyMap();
+    final long start = System.nanoTime();
+    try {
+      mailSender.send(messages.keySet().toArray(new MimeMessage[0]));
+    } catch (MailCircuitOpenException e) {
+      defer(messages.values(), e.getRetryAt());
+      return 0;
+    } catch (MailConnectionUnavailableException e) {
+      // Every connection was busy; the next poll tries again without counting an attempt
+      defer(messages.values(), Instant.now());
+      return 0;
+    } catch (MailSendException e) {
+      failures = e.getFailedMessages().isEmpty() ? everyMessage(messages, e) : e.getFailedMessages();
+    } catch (MailException e) {
+      failures = everyMessage(messages, e);
+    }
+    sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    List<Object[]> delivered = new ArrayList<>();
+    Instant now = Instant.now();
+    for (Map.Entry<MimeMessage, Entry> message : messages.entrySet()) {
+      Exception failure = failures.get(message.getKey());
+      if (failure == null) {
+        delivered.add(new Object[] {message.getValue().id});
+        deliveryTimer.record(Duration.between(message.getValue().createdAt, now));
+      } else {
+        failed(message.getValue(), failure);
+      }
+    }
+    if (!delivered.isEmpty()) {
+      jdbcTemplate.batchUpdate(DELETE_SQL, delivered);
+      meterRegistry.counter("auth.email.messages", "outcome", "sent").increment(delivered.size());
+    }
+    log.debug("Sent {} of {} e-mails", delivered.size(), batch.size());
+    return delivered.size();
+  }
+
+  private MimeMessage prepare(Entry entry) throws MessagingException {
+    MimeMessage mimeMessage = mailSender.createMimeMessage();
+    MimeMessageHelper messageHelper = new MimeMessageHelper(mimeMessage);
+    messageHelper.setFrom(entry.from);
+    messageHelper.setTo(entry.to);
+    messageHelper.setSubject(entry.subject);
+    messageHelper.setText(mailContentBuilder.build(entry.message, linkCipher.decrypt(entry.link)), true);
+    return mimeMessage;
+  }
+
+  private void failed(Entry entry, Exception failure) {
+    int attempts = entry.attempts + 1;
+    if (attempts >= properties.getMaxAttempts()) {
+      log.warn("Dropping e-mail {} to {} after {} attempts: {}", entry.subject, entry.to, attempts,
+               failure.getMessage());
+      jdbcTemplate.update(DELETE_SQL, entry.id);
+      meterRegistry.counter("auth.email.messages", "outcome", "dropped").increment();
+      return;
+    }
+    Duration backoff = properties.getInitialBackoff().multipliedBy(1L << Math.min(attempts - 1, 30));
+    if (backoff.compareTo(properties.getMaxBackoff()) > 0) {
+      backoff = properties.getMaxBackoff();
+    }
+    log.debug("Cannot send e-mail {} to {}, retrying in {}: {}", entry.subject, entry.to, backoff,
+              failure.getMessage());
+    String error = String.valueOf(failure.getMessage());
+    jdbcTemplate.update(RETRY_SQL, attempts, Timestamp.from(Instant.now().plus(backoff)),
+                        error.substring(0, Math.min(error.length(), MAX_ERROR_LENGTH)), entry.id);
+    meterRegistry.counter("auth.email.messages", "outcome", "retried").increment();
+  }
+
+  private void defer(Collection<Entry> batch, Instant retryAt) {
+    log.debug("Mail server unavailable, deferring {} e-mails until {}", batch.size(), retryAt);
+    List<Object[]> deferred = batch.stream().map(entry -> new Object[] {Timestamp.from(retryAt), entry.id})
+                                   .collect(Collectors.toList());
+    jdbcTemplate.batchUpdate(DEFER_SQL, deferred);
+    meterRegistry.counter("auth.email.messages", "outcome", "deferred").increment(batch.size());
+  }
+
+  private static Map<Object, Exception> everyMessage(Map<MimeMessage, Entry> messages, Exception failure) {
+    Map<Object, Exception> failures = new LinkedHashMap<>();
+    messages.keySet().forEach(message -> failures.put(message, failure));
+    return failures;
+  }
+
+  private static ThreadFactory daemonThreads() {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, "email-dispatcher-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private static final class Entry {
+
+    private long id;
+
+    private String to;
+
+    private String from;
+
+    private String subject;
+
+    private String message;
+
+    private String link;
+
+    private Instant createdAt;
+
+    private int attempts;
+  }
+}
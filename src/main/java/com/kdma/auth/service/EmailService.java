@@ -1,32 +1,45 @@
 
 package com.kdma.auth.service;
 
+import com.kdma.auth.model.OutgoingEmail;
+
+import io.micrometer.core.annotation.Timed;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
 import lombok.extern.slf4j.Slf4j;
 
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
-import org.springframework.mail.javamail.MimeMessagePreparator;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+/**
+ * Queues e-mails in the outbox table, for the {@link EmailDispatcher} to send in the background. Queuing joins the
+ * caller's transaction, so an e-mail is sent if and only if the change it reports is committed, and no request waits
+ * on the mail server. Links are encrypted by the {@link LinkCipher}, as they carry verification tokens.
+ */
 @Slf4j
 @Service
 public class EmailService {
 
-  private final JavaMailSender mailSender;
+  private static final String INSERT = "insert into email_outbox (recipient, sender, subject, message, link) "
+                                       + "values (?, ?, ?, ?, ?)";
+
+  private final JdbcTemplate jdbcTemplate;
 
-  private final MailContentBuilder mailContentBuilder;
+  private final LinkCipher linkCipher;
 
   /**
    * Instantiates a new email service.
    *
-   * @param mailSender the mail sender
-   * @param mailContentBuilder the mail content builder
+   * @param dataSource the data source
+   * @param linkCipher the link cipher
    */
-  public EmailService(JavaMailSender mailSender, MailContentBuilder mailContentBuilder) {
-    super();
-    this.mailSender = mailSender;
-    this.mailContentBuilder = mailContentBuilder;
+  public EmailService(DataSource dataSource, LinkCipher linkCipher) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.linkCipher = linkCipher;
   }
 
   /**
@@ -38,20 +51,29 @@ public class EmailService {
    * @param message the message
    * @param link the link
    */
-  @Async
+  @Timed("auth.email.queue")
   public void prepareAndSend(String to, String from, String subject, String message, String link) {
-    MimeMessagePreparator messagePreparator = mimeMessage -> {
-      MimeMessageHelper messageHelper = new MimeMessageHelper(mimeMessage);
-      messageHelper.setFrom(from);
-      messageHelper.setTo(to);
-      messageHelper.setSubject(subject);
-
-      String content = mailContentBuilder.build(message, link);
-      messageHelper.setText(content, true);
-    };
-
-    log.debug("Sending mail....");
-    mailSender.send(messagePreparator);
+    queue(Collections.singletonList(new OutgoingEmail(to, from, subject, message, link)));
+  }
+
+  /**
+   * Queues e-mails with one batch of inserts.
+   *
+   * @param emails the e-mails
+   */
+  @Timed("auth.email.queue")
+  public void queue(List<OutgoingEmail> emails) {
+    if (emails.isEmpty()) {
+      return;
+    }
+    jdbcTemplate.batchUpdate(INSERT, emails, emails.size(), (statement, email) -> {
+      statement.setString(1, email.getTo());
+      statement.setString(2, email.getFrom());
+      statement.setString(3, email.getSubject());
+      statement.setString(4, email.getMessage());
+      statement.setString(5, linkCipher.encrypt(email.getLink()));
+    });
+    log.debug("Queued {} e-mails", emails.size());
   }
 
 }
@@ -0,0 +1,111 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.OutboxProperties;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Encrypts the links of queued e-mails, which carry verification tokens, so the outbox never holds a usable token in
+ * clear. Links are encrypted with AES-GCM under the outbox key and written as {@code enc:} followed by the IV and the
+ * ciphertext in Base64. Values without the prefix, queued before links were encrypted, are read as they are.
+ */
+@Slf4j
+@Component
+public class LinkCipher {
+
+  static final String PREFIX = "enc:";
+
+  private static final String ALGORITHM = "AES";
+
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+  private static final int IV_LENGTH = 12;
+
+  private static final int TAG_BITS = 128;
+
+  private static final int GENERATED_KEY_LENGTH = 32;
+
+  private final SecretKeySpec key;
+
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * Instantiates a new link cipher.
+   *
+   * @param properties the outbox properties
+   */
+  public LinkCipher(OutboxProperties properties) {
+    byte[] secret;
+    if (properties.getLinkKey() == null) {
+      log.warn("No outbox link key configured. Generated one that is lost on restart and not shared with other "
+               + "instances, so e-mails queued before a restart cannot be sent.");
+      secret = new byte[GENERATED_KEY_LENGTH];
+      random.nextBytes(secret);
+    } else {
+      secret = Base64.getDecoder().decode(properties.getLinkKey());
+    }
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+    // Fail at startup rather than on the first e-mail when the key has the wrong length
+    decrypt(encrypt(""));
+  }
+
+  /**
+   * Encrypts a link.
+   *
+   * @param link the link, may be null
+   * @return the encrypted link, or null
+   */
+  public String encrypt(String link) {
+    if (link == null) {
+      return null;
+    }
+    byte[] iv = new byte[IV_LENGTH];
+    random.nextBytes(iv);
+    try {
+      Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+      byte[] encrypted = cipher.doFinal(link.getBytes(StandardCharsets.UTF_8));
+      return PREFIX + Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + encrypted.length).put(iv)
+                                                                   .put(encrypted).array());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot encrypt the link", e);
+    }
+  }
+
+  /**
+   * Decrypts a link.
+   *
+   * @param value the encrypted link, may be null
+   * @return the link, or null
+   * @throws IllegalArgumentException if the link was encrypted with another key or was tampered with
+   */
+  public String decrypt(String value) {
+    if (value == null || !value.startsWith(PREFIX)) {
+      return value;
+    }
+    byte[] bytes = Base64.getDecoder().decode(value.substring(PREFIX.length()));
+    if (bytes.length < IV_LENGTH) {
+      throw new IllegalArgumentException("Encrypted link too short");
+    }
+    try {
+      Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, bytes, 0, IV_LENGTH));
+      return new String(cipher.doFinal(bytes, IV_LENGTH, bytes.length - IV_LENGTH), StandardCharsets.UTF_8);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("Cannot decrypt the link: " + e.getMessage(), e);
+    }
+  }
+}
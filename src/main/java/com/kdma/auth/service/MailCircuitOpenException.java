@@ -0,0 +1,31 @@
+
+package com.kdma.auth.service;
+
+import java.time.Instant;
+
+import org.springframework.mail.MailSendException;
+
+/**
+ * Thrown instead of sending while the mail server is considered down. Nothing was attempted, so the messages should
+ * be sent again once the circuit lets calls through rather than counted as failed attempts.
+ */
+public class MailCircuitOpenException extends MailSendException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Instant retryAt;
+
+  /**
+   * Instantiates a new mail circuit open exception.
+   *
+   * @param retryAt when sending will be tried again
+   */
+  public MailCircuitOpenException(Instant retryAt) {
+    super("Mail server is unavailable, not sending until " + retryAt);
+    this.retryAt = retryAt;
+  }
+
+  public Instant getRetryAt() {
+    return retryAt;
+  }
+}
@@ -0,0 +1,33 @@
+
+package com.kdma.auth.service;
+
+import org.springframework.mail.MailSendException;
+
+/**
+ * Thrown when no connection to the mail server came free in time, because all of them were busy with other sends.
+ * Nothing was attempted and the mail server may well be fine, so the messages should be sent again later rather than
+ * counted as failed attempts.
+ */
+public class MailConnectionUnavailableException extends MailSendException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Instantiates a new mail connection unavailable exception.
+   *
+   * @param msg the detail message
+   */
+  public MailConnectionUnavailableException(String msg) {
+    super(msg);
+  }
+
+  /**
+   * Instantiates a new mail connection unavailable exception.
+   *
+   * @param msg the detail message
+   * @param cause the cause
+   */
+  public MailConnectionUnavailableException(String msg, Throwable cause) {
+    super(msg, cause);
+  }
+}
@@ -1,17 +1,44 @@
 
 package com.kdma.auth.service;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import lombok.extern.slf4j.Slf4j;
+
 import org.springframework.stereotype.Service;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
+import org.unbescape.html.HtmlEscape;
 
 /**
- * The Class MailContentBuilder.
+ * Renders the body of outgoing e-mails.
+ *
+ * <p>
+ * Every e-mail of a kind renders to the same HTML apart from its link, so the template is rendered once per message
+ * with a placeholder for the link, and later e-mails only have their escaped link put in place of the placeholder.
+ * The first rendering is checked against a full one; a template whose output depends on the link in any other way
+ * is always rendered in full.
+ * </p>
  */
+@Slf4j
 @Service
 public class MailContentBuilder {
 
-  private TemplateEngine templateEngine;
+  private static final String TEMPLATE = "mail/mail";
+
+  private static final String PLACEHOLDER = "mailContentBuilderLinkPlaceholder";
+
+  private static final String SAMPLE_LINK = "https://example.com/sample?a=1&b=<2>";
+
+  private static final int MAX_SKELETONS = 256;
+
+  private final TemplateEngine templateEngine;
+
+  private final Map<String, String[]> skeletons = new ConcurrentHashMap<>();
+
+  private volatile Boolean substitutable;
 
   /**
    * Instantiates a new mail content builder.
@@ -33,10 +60,40 @@ public class MailContentBuilder {
    * @return the string
    */
   public String build(String message, String link) {
+    if (link == null || !isSubstitutable(message)) {
+      return render(message, link);
+    }
+    String[] parts = skeletons.get(message);
+    if (parts == null) {
+      parts = skeleton(message);
+      // Messages come from the message bundle, the bound only guards against a caller passing free text
+      if (skeletons.size() < MAX_SKELETONS) {
+        skeletons.put(message, parts);
+      }
+    }
+    return String.join(HtmlEscape.escapeHtml4Xml(link), parts);
+  }
+
+  private boolean isSubstitutable(String message) {
+    if (substitutable == null) {
+      String full = render(message, SAMPLE_LINK);
+      substitutable = full.equals(String.join(HtmlEscape.escapeHtml4Xml(SAMPLE_LINK), skeleton(message)));
+      if (!substitutable) {
+        log.info("Template {} does not just insert the link, rendering it in full for every e-mail", TEMPLATE);
+      }
+    }
+    return substitutable;
+  }
+
+  private String[] skeleton(String message) {
+    return render(message, PLACEHOLDER).split(Pattern.quote(PLACEHOLDER), -1);
+  }
+
+  private String render(String message, String link) {
     Context context = new Context();
     context.setVariable("message", message);
     context.setVariable("link", link);
 
-    return templateEngine.process("mail/mail", context);
+    return templateEngine.process(TEMPLATE, context);
   }
 }
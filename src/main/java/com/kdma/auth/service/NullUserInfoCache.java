@@ -0,0 +1,20 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.model.UserInfo;
+
+/**
+ * User info cache that caches nothing, for when the user cache is disabled.
+ */
+public class NullUserInfoCache implements UserInfoCache {
+
+  @Override
+  public UserInfo getUserInfo(String username) {
+    return null;
+  }
+
+  @Override
+  public void putUserInfo(String username, UserInfo userInfo) {
+    // nothing is cached
+  }
+}
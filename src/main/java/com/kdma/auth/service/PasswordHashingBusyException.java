@@ -0,0 +1,44 @@
+
+package com.kdma.auth.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when too many passwords are waiting to be hashed already. The request should be answered with 503 and a
+ * Retry-After header rather than queued behind them.
+ */
+public class PasswordHashingBusyException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Duration retryAfter;
+
+  /**
+   * Instantiates a new password hashing busy exception.
+   *
+   * @param retryAfter when the client should try again
+   */
+  public PasswordHashingBusyException(Duration retryAfter) {
+    super("Too many passwords are being checked, try again later");
+    this.retryAfter = retryAfter;
+  }
+
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+
+  /**
+   * Finds the busy exception behind an exception, however deeply wrapped.
+   *
+   * @param exception the exception
+   * @return the busy exception, or null when the exception has another cause
+   */
+  public static PasswordHashingBusyException find(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof PasswordHashingBusyException) {
+        return (PasswordHashingBusyException) cause;
+      }
+    }
+    return null;
+  }
+}
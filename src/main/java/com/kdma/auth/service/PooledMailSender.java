@@ -0,0 +1,247 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.SmtpProperties;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+/**
+ * Mail sender that keeps authenticated connections to the mail server open between sends, instead of paying for the
+ * TCP, STARTTLS and AUTH round trips on every call.
+ *
+ * <p>
+ * Idle connections are reused newest first, so a burst can warm up several of them and the extra ones age out once
+ * it is over. A connection idle for a few seconds is checked with NOOP before it is reused, and one idle for too long
+ * or used for too many messages is closed. A {@link CircuitBreaker} fails sends at once while the mail server keeps
+ * refusing connections or timing out; rejected recipients, and sends that gave up waiting for a connection to come
+ * free, do not count against it.
+ * </p>
+ */
+@Slf4j
+public class PooledMailSender extends JavaMailSenderImpl {
+
+  private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+  private final SmtpProperties properties;
+
+  private final CircuitBreaker circuitBreaker;
+
+  private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+
+  private final Semaphore permits;
+
+  private Counter opened;
+
+  /**
+   * Instantiates a new pooled mail sender. Server and session settings are set as for {@link JavaMailSenderImpl}.
+   *
+   * @param properties the SMTP properties
+   * @param circuitBreaker the circuit breaker guarding the mail server
+   */
+  public PooledMailSender(SmtpProperties properties, CircuitBreaker circuitBreaker) {
+    this.properties = properties;
+    this.circuitBreaker = circuitBreaker;
+    this.permits = new Semaphore(properties.getMaxConnections(), true);
+  }
+
+  /**
+   * Binds the connection and circuit metrics to a registry.
+   *
+   * @param registry the registry
+   */
+  public void bindTo(MeterRegistry registry) {
+    opened = Counter.builder("auth.smtp.connections.opened").description("Connections opened to the mail server")
+                    .register(registry);
+    Gauge.builder("auth.smtp.connections.idle", idle, BlockingDeque::size)
+         .description("Open connections to the mail server waiting to be reused").register(registry);
+    Gauge.builder("auth.smtp.circuit.open", circuitBreaker, c -> c.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+         .description("Whether sends are failing at once because the mail server is down").register(registry);
+  }
+
+  @Override
+  protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) {
+    if (!circuitBreaker.allowRequest()) {
+      throw new MailCircuitOpenException(circuitBreaker.getRetryAt());
+    }
+    Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+    Connection connection;
+    try {
+      connection = borrow();
+    } catch (MailConnectionUnavailableException ex) {
+      // Waiting on the pool says nothing about the mail server
+      circuitBreaker.recordIgnored();
+      throw ex;
+    } catch (AuthenticationFailedException ex) {
+      circuitBreaker.recordFailure();
+      throw new MailAuthenticationException(ex);
+    } catch (MessagingException ex) {
+      circuitBreaker.recordFailure();
+      for (int i = 0; i < mimeMessages.length; i++) {
+        failedMessages.put(original(mimeMessages, originalMessages, i), ex);
+      }
+      throw new MailSendException("Mail server connection failed", ex, failedMessages);
+    }
+
+    MessagingException broken = null;
+    try {
+      for (int i = 0; i < mimeMessages.length; i++) {
+        Object original = original(mimeMessages, originalMessages, i);
+        if (broken != null) {
+          failedMessages.put(original, broken);
+          continue;
+        }
+        try {
+          send(connection, mimeMessages[i]);
+        } catch (SendFailedException ex) {
+          // The server turned the recipients down but is otherwise fine
+          failedMessages.put(original, ex);
+        } catch (MessagingException ex) {
+          // A timeout or dropped connection, the messages after it would only wait for the same
+          failedMessages.put(original, ex);
+          broken = ex;
+        }
+      }
+    } catch (RuntimeException ex) {
+      // The connection may be left in the middle of a message
+      discard(connection);
+      circuitBreaker.recordIgnored();
+      throw ex;
+    }
+
+    if (broken == null) {
+      release(connection);
+      circuitBreaker.recordSuccess();
+    } else {
+      discard(connection);
+      circuitBreaker.recordFailure();
+    }
+    if (!failedMessages.isEmpty()) {
+      throw new MailSendException(failedMessages);
+    }
+  }
+
+  /**
+   * Closes the idle connections. Connections in use are closed as they are given back.
+   */
+  public void close() {
+    for (Connection connection = idle.pollFirst(); connection != null; connection = idle.pollFirst()) {
+      closeQuietly(connection);
+    }
+  }
+
+  private void send(Connection connection, MimeMessage mimeMessage) throws MessagingException {
+    if (mimeMessage.getSentDate() == null) {
+      mimeMessage.setSentDate(new Date());
+    }
+    String messageId = mimeMessage.getMessageID();
+    mimeMessage.saveChanges();
+    if (messageId != null) {
+      // Preserve an explicitly set message id, saveChanges replaces it
+      mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+    }
+    Address[] addresses = mimeMessage.getAllRecipients();
+    connection.transport.sendMessage(mimeMessage, addresses != null ? addresses : new Address[0]);
+    connection.messages++;
+  }
+
+  private Connection borrow() throws MessagingException {
+    try {
+      if (!permits.tryAcquire(properties.getBorrowTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new MailConnectionUnavailableException("No connection to the mail server came free within "
+                                                     + properties.getBorrowTimeout());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new MailConnectionUnavailableException("Interrupted waiting for a connection to the mail server", ex);
+    }
+    try {
+      for (Connection connection = idle.pollFirst(); connection != null; connection = idle.pollFirst()) {
+        if (isReusable(connection)) {
+          return connection;
+        }
+        closeQuietly(connection);
+      }
+      Connection connection = new Connection(connectTransport());
+      if (opened != null) {
+        opened.increment();
+      }
+      log.debug("Opened a connection to the mail server");
+      return connection;
+    } catch (MessagingException | RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  private boolean isReusable(Connection connection) {
+    long idleNanos = System.nanoTime() - connection.releasedAt;
+    if (idleNanos > properties.getMaxIdleTime().toNanos()) {
+      return false;
+    }
+    // isConnected sends NOOP, which is only worth it once the server may have dropped the connection
+    return idleNanos <= properties.getValidateAfter().toNanos() || connection.transport.isConnected();
+  }
+
+  private void release(Connection connection) {
+    if (connection.messages >= properties.getMaxMessagesPerConnection()) {
+      discard(connection);
+      return;
+    }
+    connection.releasedAt = System.nanoTime();
+    idle.offerFirst(connection);
+    permits.release();
+  }
+
+  private void discard(Connection connection) {
+    closeQuietly(connection);
+    permits.release();
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      connection.transport.close();
+    } catch (MessagingException ex) {
+      log.debug("Cannot close connection to the mail server cleanly: {}", ex.getMessage());
+    }
+  }
+
+  private static Object original(MimeMessage[] mimeMessages, Object[] originalMessages, int index) {
+    return originalMessages != null ? originalMessages[index] : mimeMessages[index];
+  }
+
+  private static final class Connection {
+
+    private final Transport transport;
+
+    private int messages;
+
+    private long releasedAt;
+
+    private Connection(Transport transport) {
+      this.transport = transport;
+    }
+  }
+}
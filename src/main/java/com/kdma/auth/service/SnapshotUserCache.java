@@ -0,0 +1,153 @@
+
+package com.kdma.auth.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kdma.auth.model.UserInfo;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Bounded, time-limited cache of user details keyed by e-mail address exactly as stored.
+ *
+ * <p>
+ * Keys are not case-folded: e-mail addresses are stored and looked up as they were entered, so addresses differing
+ * only in case may belong to different users. Every change to a user made through the application removes the
+ * entry, and removes it again once the change commits. Besides the usual cache statistics, the age
+ * of every entry served is recorded as {@code auth.user.cache.staleness}, and removals as
+ * {@code auth.user.cache.invalidations}.
+ * </p>
+ *
+ * <p>
+ * What {@code /user} publishes about a user is cached alongside, see {@link #userInfoCache()}, and removed with it.
+ * </p>
+ */
+public class SnapshotUserCache implements UserCache, MeterBinder {
+
+  private static final String CACHE_NAME = "users";
+
+  private static final String USER_INFO_CACHE_NAME = "userInfos";
+
+  private final Cache<String, CachedUser> cache;
+
+  private final Cache<String, UserInfo> userInfos;
+
+  private final LongAdder invalidations = new LongAdder();
+
+  private volatile Timer staleness;
+
+  /**
+   * Instantiates a new snapshot user cache.
+   *
+   * @param maximumSize the maximum number of cached users
+   * @param timeToLive how long a user is cached
+   */
+  public SnapshotUserCache(long maximumSize, Duration timeToLive) {
+    this.cache = Caffeine.newBuilder()
+                         .maximumSize(maximumSize)
+                         .expireAfterWrite(timeToLive)
+                         .recordStats()
+                         .build();
+    this.userInfos = Caffeine.newBuilder()
+                             .maximumSize(maximumSize)
+                             .expireAfterWrite(timeToLive)
+                             .recordStats()
+                             .build();
+  }
+
+  /**
+   * The user info cache backed by this cache, so that removing a user removes both.
+   *
+   * @return the user info cache
+   */
+  public UserInfoCache userInfoCache() {
+    return new UserInfoCache() {
+
+      @Override
+      public UserInfo getUserInfo(String username) {
+        return userInfos.getIfPresent(username);
+      }
+
+      @Override
+      public void putUserInfo(String username, UserInfo userInfo) {
+        userInfos.put(username, userInfo);
+      }
+    };
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    CaffeineCacheMetrics.monitor(registry, userInfos, USER_INFO_CACHE_NAME);
+    staleness = Timer.builder("auth.user.cache.staleness").description("Age of cached user details when served")
+                     .register(registry);
+    FunctionCounter.builder("auth.user.cache.invalidations", invalidations, LongAdder::sum)
+                   .description("Cached user details removed because the user changed").register(registry);
+  }
+
+  @Override
+  public UserDetails getUserFromCache(String username) {
+    CachedUser cached = cache.getIfPresent(username);
+    if (cached == null) {
+      return null;
+    }
+    Timer timer = staleness;
+    if (timer != null) {
+      timer.record(System.nanoTime() - cached.loadedAt, TimeUnit.NANOSECONDS);
+    }
+    return cached.user;
+  }
+
+  @Override
+  public void putUserInCache(UserDetails user) {
+    cache.put(user.getUsername(), new CachedUser(user));
+  }
+
+  @Override
+  public void removeUserFromCache(String username) {
+    if (username == null) {
+      return;
+    }
+    invalidate(username);
+    invalidations.increment();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      // A concurrent login before the commit still reads the old row and would cache it again
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+        @Override
+        public void afterCommit() {
+          invalidate(username);
+        }
+      });
+    }
+  }
+
+  private void invalidate(String username) {
+    cache.invalidate(username);
+    userInfos.invalidate(username);
+  }
+
+  private static final class CachedUser {
+
+    private final UserDetails user;
+
+    private final long loadedAt = System.nanoTime();
+
+    CachedUser(UserDetails user) {
+      this.user = user;
+    }
+  }
+}
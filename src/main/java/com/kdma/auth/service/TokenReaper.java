@@ -0,0 +1,207 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.ReaperProperties;
+import com.kdma.auth.TokenProperties;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Purges expired access tokens, refresh tokens, authorization codes and verification tokens, and clears the pending
+ * e-mail addresses of users who never verified them.
+ *
+ * <p>
+ * Expired rows are found through the indexed expiry columns, never by decoding tokens. Each table is worked through
+ * in batches of at most {@link ReaperProperties#getBatchSize()} keys, pausing between batches, so no statement holds
+ * locks on more than one batch of rows. Every delete checks the expiry again, so a row rewritten since it was selected
+ * is kept.
+ * </p>
+ */
+@Slf4j
+@Service
+public class TokenReaper {
+
+  private static final String ACCESS_TOKENS = "oauth_access_token";
+
+  private static final String REFRESH_TOKENS = "oauth_refresh_token";
+
+  private static final String CODES = "oauth_code";
+
+  private static final String VERIFICATION_TOKENS = "verification_tokens";
+
+  private static final String PENDING_EMAILS = "users";
+
+  private static final String SELECT_EXPIRED_ACCESS_TOKENS_SQL =
+      "select authentication_id from oauth_access_token where expiration < ?";
+
+  private static final String DELETE_EXPIRED_ACCESS_TOKEN_SQL =
+      "delete from oauth_access_token where authentication_id = ? and expiration < ?";
+
+  private static final String SELECT_EXPIRED_REFRESH_TOKENS_SQL =
+      "select token_id from oauth_refresh_token where expiration < ?";
+
+  private static final String DELETE_EXPIRED_REFRESH_TOKEN_SQL =
+      "delete from oauth_refresh_token where token_id = ? and expiration < ?";
+
+  private static final String SELECT_EXPIRED_CODES_SQL = "select code from oauth_code where created_at < ?";
+
+  private static final String DELETE_EXPIRED_CODE_SQL = "delete from oauth_code where code = ? and created_at < ?";
+
+  private static final String SELECT_UNVERIFIED_PENDING_EMAILS_SQL = "select t.user_id from verification_tokens t "
+      + "join users u on u.user_id = t.user_id where t.purpose = 'EMAIL_CHANGE' and t.expires_at < ? "
+      + "and u.pending_email is not null";
+
+  private static final String CLEAR_UNVERIFIED_PENDING_EMAIL_SQL = "update users set pending_email = null, "
+      + "updated_at = CURRENT_TIMESTAMP where user_id = ? and not exists (select 1 from verification_tokens t "
+      + "where t.user_id = users.user_id and t.purpose = 'EMAIL_CHANGE' and t.expires_at >= ?)";
+
+  private static final String SELECT_EXPIRED_VERIFICATION_TOKENS_SQL =
+      "select id from verification_tokens where expires_at < ?";
+
+  private static final String DELETE_EXPIRED_VERIFICATION_TOKEN_SQL =
+      "delete from verification_tokens where id = ? and expires_at < ?";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final ReaperProperties properties;
+
+  private final TokenProperties tokenProperties;
+
+  private final MeterRegistry meterRegistry;
+
+  private final Timer timer;
+
+  @Getter
+  private volatile Report lastReport;
+
+  /**
+   * Instantiates a new token reaper.
+   *
+   * @param dataSource the data source
+   * @param properties the reaper properties
+   * @param tokenProperties the token properties, with the lifetime of authorization codes
+   * @param meterRegistry the meter registry
+   */
+  public TokenReaper(DataSource dataSource, ReaperProperties properties, TokenProperties tokenProperties,
+                     MeterRegistry meterRegistry) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.properties = properties;
+    this.tokenProperties = tokenProperties;
+    this.meterRegistry = meterRegistry;
+    this.timer = Timer.builder("auth.reaper.run").description("Time taken by a run of the token reaper")
+                      .register(meterRegistry);
+  }
+
+  /**
+   * Runs the reaper on the configured schedule, unless it is disabled.
+   */
+  @Scheduled(initialDelayString = "#{@reaperProperties.initialDelay.toMillis()}",
+             fixedDelayString = "#{@reaperProperties.interval.toMillis()}")
+  public void scheduledRun() {
+    if (properties.isEnabled()) {
+      run();
+    }
+  }
+
+  /**
+   * Purges everything that has expired by now.
+   *
+   * @return the report of this run
+   */
+  public synchronized Report run() {
+    Instant now = Instant.now();
+    final long start = System.nanoTime();
+    jdbcTemplate.setMaxRows(properties.getBatchSize());
+
+    Map<String, Integer> removed = new LinkedHashMap<>();
+    removed.put(ACCESS_TOKENS, reap(ACCESS_TOKENS, SELECT_EXPIRED_ACCESS_TOKENS_SQL, DELETE_EXPIRED_ACCESS_TOKEN_SQL,
+                                    now));
+    removed.put(REFRESH_TOKENS, reap(REFRESH_TOKENS, SELECT_EXPIRED_REFRESH_TOKENS_SQL,
+                                     DELETE_EXPIRED_REFRESH_TOKEN_SQL, now));
+    removed.put(CODES, reap(CODES, SELECT_EXPIRED_CODES_SQL, DELETE_EXPIRED_CODE_SQL,
+                            now.minus(tokenProperties.getCode().getTimeToLive())));
+    // Pending e-mail addresses first, while the expired tokens still say whose to clear
+    removed.put(PENDING_EMAILS, reap(PENDING_EMAILS, SELECT_UNVERIFIED_PENDING_EMAILS_SQL,
+                                     CLEAR_UNVERIFIED_PENDING_EMAIL_SQL, now));
+    removed.put(VERIFICATION_TOKENS, reap(VERIFICATION_TOKENS, SELECT_EXPIRED_VERIFICATION_TOKENS_SQL,
+                                          DELETE_EXPIRED_VERIFICATION_TOKEN_SQL, now));
+
+    Duration duration = Duration.ofNanos(System.nanoTime() - start);
+    timer.record(duration);
+    lastReport = new Report(now, duration, removed);
+    log.debug("Reaped {} in {} ms", removed, duration.toMillis());
+    return lastReport;
+  }
+
+  private int reap(String table, String selectSql, String deleteSql, Instant cutoff) {
+    Timestamp before = Timestamp.from(cutoff);
+    int total = 0;
+    while (true) {
+      List<Object[]> batch = jdbcTemplate.queryForList(selectSql, Object.class, before).stream()
+                                         .map(key -> new Object[] {key, before}).collect(Collectors.toList());
+      if (batch.isEmpty()) {
+        break;
+      }
+      int removed = 0;
+      for (int count : jdbcTemplate.batchUpdate(deleteSql, batch)) {
+        removed += Math.max(count, 0);
+      }
+      total += removed;
+      meterRegistry.counter("auth.reaper.removed", "table", table).increment(removed);
+      if (batch.size() < properties.getBatchSize() || removed == 0 || !pause()) {
+        break;
+      }
+    }
+    return total;
+  }
+
+  private boolean pause() {
+    try {
+      Thread.sleep(properties.getPause().toMillis());
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Token reaper interrupted, stopping early");
+      return false;
+    }
+  }
+
+  /**
+   * Outcome of one run of the reaper.
+   */
+  @Getter
+  public static class Report {
+
+    private final Instant startedAt;
+
+    private final long durationMillis;
+
+    /** Rows removed, or pending e-mail addresses cleared, per table. */
+    private final Map<String, Integer> removed;
+
+    Report(Instant startedAt, Duration duration, Map<String, Integer> removed) {
+      this.startedAt = startedAt;
+      this.durationMillis = duration.toMillis();
+      this.removed = Collections.unmodifiableMap(removed);
+    }
+  }
+}
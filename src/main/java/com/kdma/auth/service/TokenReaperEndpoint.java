@@ -0,0 +1,42 @@
+
+package com.kdma.auth.service;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint showing what the last run of the {@link TokenReaper} removed and how long it took. Posting to it
+ * starts a run straight away.
+ */
+@Component
+@Endpoint(id = "tokenreaper")
+public class TokenReaperEndpoint {
+
+  private final TokenReaper reaper;
+
+  public TokenReaperEndpoint(TokenReaper reaper) {
+    this.reaper = reaper;
+  }
+
+  /**
+   * The report of the last run.
+   *
+   * @return the report, or null before the first run
+   */
+  @ReadOperation
+  public TokenReaper.Report lastRun() {
+    return reaper.getLastReport();
+  }
+
+  /**
+   * Runs the reaper now.
+   *
+   * @return the report of this run
+   */
+  @WriteOperation
+  public TokenReaper.Report run() {
+    return reaper.run();
+  }
+}
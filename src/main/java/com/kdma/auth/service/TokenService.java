@@ -7,6 +7,7 @@ public interface TokenService {
    * Revoke access and refresh tokens for user with given username.
    *
    * @param username the username
+   * @return the number of tokens revoked
    */
-  public void revokeTokens(String username);
+  public int revokeTokens(String username);
 }
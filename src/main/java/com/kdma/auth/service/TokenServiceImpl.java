@@ -1,7 +1,9 @@
 
 package com.kdma.auth.service;
 
-import java.util.Collection;
+import com.kdma.auth.token.UserTokenStore;
+
+import io.micrometer.core.annotation.Timed;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -9,6 +11,7 @@ import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.provider.token.TokenStore;
 import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * The TokenService implementation.
@@ -24,20 +27,29 @@ public class TokenServiceImpl implements TokenService {
   }
 
   @Override
-  public void revokeTokens(String username) {
+  @Transactional
+  @Timed("auth.token.revoke")
+  public int revokeTokens(String username) {
     log.debug("Revoking tokens for {}", username);
-    if (!(tokenStore instanceof JdbcTokenStore)) {
-      log.debug("Token store is not an instance of JdbcTokenStore.  Cannot revoke tokens.");
-      return;
-    }
-    Collection<OAuth2AccessToken> tokens = ((JdbcTokenStore) tokenStore).findTokensByUserName(username);
-
-    for (OAuth2AccessToken token : tokens) {
-      log.debug("Revoking access token {}", token);
-      tokenStore.removeAccessToken(token);
-      log.debug("Revoking refresh token {}", token.getRefreshToken());
-      tokenStore.removeRefreshToken(token.getRefreshToken());
+    int revoked;
+    if (tokenStore instanceof UserTokenStore) {
+      revoked = ((UserTokenStore) tokenStore).removeTokensByUserName(username);
+    } else if (tokenStore instanceof JdbcTokenStore) {
+      revoked = 0;
+      for (OAuth2AccessToken token : ((JdbcTokenStore) tokenStore).findTokensByUserName(username)) {
+        log.debug("Revoking access token {}", token);
+        tokenStore.removeAccessToken(token);
+        log.debug("Revoking refresh token {}", token.getRefreshToken());
+        tokenStore.removeRefreshToken(token.getRefreshToken());
+        revoked += 2;
+      }
+    } else {
+      log.warn("Token store {} cannot find tokens by username.  Cannot revoke tokens for {}.",
+               tokenStore.getClass().getName(), username);
+      return 0;
     }
+    log.debug("Revoked {} tokens for {}", revoked, username);
+    return revoked;
   }
 
 }
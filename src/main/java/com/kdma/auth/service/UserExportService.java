@@ -0,0 +1,197 @@
+
+package com.kdma.auth.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kdma.auth.UserProperties;
+import com.kdma.auth.model.DataFormat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import javax.sql.DataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+/**
+ * Exports users for reporting and migration, read with a forward-only JDBC cursor and written out row by row, so
+ * memory use does not depend on the number of users.
+ *
+ * <p>
+ * Every export covers the users changed up to a watermark, a little before it started. Passing that watermark to the
+ * next export exports only the users changed since. Users deleted in between are not reported; a full export shows
+ * which users remain.
+ * </p>
+ */
+@Slf4j
+@Service
+public class UserExportService {
+
+  private static final String COLUMNS = "select user_id, email, role, enabled, pending_email, "
+                                        + "exists (select 1 from verification_tokens t where t.user_id = users.user_id "
+                                        + "and t.purpose = 'REGISTRATION') as awaiting_confirmation, updated_at "
+                                        + "from users ";
+
+  private static final String SELECT_ALL = COLUMNS + "where updated_at <= ? order by user_id";
+
+  private static final String SELECT_CHANGED =
+      COLUMNS + "where updated_at > ? and updated_at <= ? order by updated_at, user_id";
+
+  private static final String CSV_HEADER = "id,email,role,enabled,pending_email,awaiting_confirmation,updated_at\n";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final ObjectMapper objectMapper;
+
+  private final UserProperties.Export properties;
+
+  /**
+   * Instantiates a new user export service.
+   *
+   * @param dataSource the data source
+   * @param objectMapper the object mapper
+   * @param userProperties the user properties
+   */
+  public UserExportService(DataSource dataSource, ObjectMapper objectMapper, UserProperties userProperties) {
+    this.properties = userProperties.getExport();
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.jdbcTemplate.setFetchSize(properties.getFetchSize());
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * The watermark an export starting now runs up to: the current time less the settle time.
+   *
+   * @return the watermark
+   */
+  public Instant watermark() {
+    return Instant.now().minus(properties.getSettleTime());
+  }
+
+  /**
+   * Writes the users changed after one watermark, up to another.
+   *
+   * @param since the watermark of the previous export, or null to export all users
+   * @param until the watermark of this export
+   * @param format the format to write
+   * @param out where to write
+   * @return the number of users written
+   * @throws IOException if the users cannot be written
+   */
+  public long export(Instant since, Instant until, DataFormat format, OutputStream out) throws IOException {
+    RowWriter writer = format == DataFormat.CSV ? new CsvWriter(out) : new JsonWriter(out);
+    long[] count = new long[1];
+    RowCallbackHandler handler = rs -> {
+      try {
+        writer.write(rs);
+        count[0]++;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    };
+    try {
+      if (since == null) {
+        jdbcTemplate.query(SELECT_ALL, handler, Timestamp.from(until));
+      } else {
+        jdbcTemplate.query(SELECT_CHANGED, handler, Timestamp.from(since), Timestamp.from(until));
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    writer.flush();
+    log.debug("Exported {} users changed after {} up to {}", count[0], since, until);
+    return count[0];
+  }
+
+  private interface RowWriter {
+
+    void write(ResultSet rs) throws IOException, SQLException;
+
+    void flush() throws IOException;
+  }
+
+  private final class JsonWriter implements RowWriter {
+
+    private final JsonGenerator generator;
+
+    JsonWriter(OutputStream out) throws IOException {
+      generator = objectMapper.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void write(ResultSet rs) throws IOException, SQLException {
+      generator.writeStartObject();
+      generator.writeNumberField("id", rs.getLong("user_id"));
+      generator.writeStringField("email", rs.getString("email"));
+      generator.writeStringField("role", rs.getString("role"));
+      generator.writeBooleanField("enabled", rs.getBoolean("enabled"));
+      generator.writeStringField("pendingEmail", rs.getString("pending_email"));
+      generator.writeBooleanField("awaitingConfirmation", rs.getBoolean("awaiting_confirmation"));
+      generator.writeStringField("updatedAt", rs.getTimestamp("updated_at").toInstant().toString());
+      generator.writeEndObject();
+      generator.writeRaw('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+      generator.flush();
+    }
+  }
+
+  private static final class CsvWriter implements RowWriter {
+
+    private final Writer writer;
+
+    CsvWriter(OutputStream out) throws IOException {
+      writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      writer.write(CSV_HEADER);
+    }
+
+    @Override
+    public void write(ResultSet rs) throws IOException, SQLException {
+      writer.write(Long.toString(rs.getLong("user_id")));
+      writer.write(',');
+      writer.write(quote(rs.getString("email")));
+      writer.write(',');
+      writer.write(quote(rs.getString("role")));
+      writer.write(',');
+      writer.write(Boolean.toString(rs.getBoolean("enabled")));
+      writer.write(',');
+      writer.write(quote(rs.getString("pending_email")));
+      writer.write(',');
+      writer.write(Boolean.toString(rs.getBoolean("awaiting_confirmation")));
+      writer.write(',');
+      writer.write(rs.getTimestamp("updated_at").toInstant().toString());
+      writer.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writer.flush();
+    }
+
+    private static String quote(String value) {
+      if (value == null) {
+        return "";
+      }
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+        return value;
+      }
+      return '"' + value.replace("\"", "\"\"") + '"';
+    }
+  }
+}
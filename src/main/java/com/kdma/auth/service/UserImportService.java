@@ -0,0 +1,406 @@
+
+package com.kdma.auth.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kdma.auth.AuthProperties;
+import com.kdma.auth.UserProperties;
+import com.kdma.auth.model.DataFormat;
+import com.kdma.auth.model.ImportReport;
+import com.kdma.auth.model.OutgoingEmail;
+import com.kdma.auth.model.Role;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.context.MessageSource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+/**
+ * Imports users in bulk from CSV, with a header row, or newline-delimited JSON, with the same names as keys: email,
+ * and password or password_hash (a BCrypt hash), and optionally role.
+ *
+ * <p>
+ * The file is read a batch at a time, so memory use does not depend on its size. Passwords in a batch are hashed in
+ * parallel on a pool of their own, and the batch is written with one JDBC batch insert. A row that cannot be imported
+ * is reported and skipped; the rest of the file is still imported. Users to be confirmed are imported disabled, and
+ * their confirmation e-mails queued.
+ * </p>
+ */
+@Slf4j
+@Service
+public class UserImportService {
+
+  private static final Pattern EMAIL = Pattern.compile("[^@\\s]+@[^@\\s]+");
+
+  private static final int MAX_EMAIL_LENGTH = 128;
+
+  private static final String INSERT = "insert into users (email, password, role, enabled, updated_at, version) "
+                                       + "values (?, ?, ?, ?, ?, 0)";
+
+  private static final String INSERT_TOKEN = "insert into verification_tokens (token_hash, purpose, user_id, "
+                                             + "expires_at) select ?, 'REGISTRATION', user_id, ? from users "
+                                             + "where email = ?";
+
+  private static final String EMAIL_COLUMN = "email";
+
+  private static final String PASSWORD_COLUMN = "password";
+
+  private static final String PASSWORD_HASH_COLUMN = "password_hash";
+
+  private static final String ROLE_COLUMN = "role";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+  private final BCryptPasswordEncoder hasher;
+
+  private final EmailService emailService;
+
+  private final VerificationTokenService verificationTokens;
+
+  private final AuthProperties authProperties;
+
+  private final MessageSource messages;
+
+  private final ObjectMapper objectMapper;
+
+  private final UserProperties.BulkImport properties;
+
+  private final ForkJoinPool hashingPool;
+
+  /**
+   * Instantiates a new user import service.
+   *
+   * @param dataSource the data source
+   * @param passwordEncoder the password encoder, whose strength imported passwords are hashed with
+   * @param emailService the email service
+   * @param verificationTokens the verification token service
+   * @param authProperties the auth properties
+   * @param messages the messages
+   * @param objectMapper the object mapper
+   * @param userProperties the user properties
+   */
+  public UserImportService(DataSource dataSource, BoundedPasswordEncoder passwordEncoder, EmailService emailService,
+                           VerificationTokenService verificationTokens, AuthProperties authProperties,
+                           MessageSource messages, ObjectMapper objectMapper, UserProperties userProperties) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    this.hasher = new BCryptPasswordEncoder(passwordEncoder.getStrength());
+    this.emailService = emailService;
+    this.verificationTokens = verificationTokens;
+    this.authProperties = authProperties;
+    this.messages = messages;
+    this.objectMapper = objectMapper;
+    this.properties = userProperties.getBulkImport();
+    this.hashingPool = new ForkJoinPool(properties.getParallelism());
+  }
+
+  /**
+   * Imports the users in the file.
+   *
+   * @param reader the file
+   * @param format the format of the file
+   * @param confirm whether users are imported disabled and sent a confirmation e-mail, rather than enabled
+   * @param locale the locale of the confirmation e-mails
+   * @return the import report
+   * @throws IOException if the file cannot be read
+   */
+  public ImportReport importUsers(Reader reader, DataFormat format, boolean confirm, Locale locale)
+      throws IOException {
+    ImportReport report = new ImportReport(properties.getMaxErrors());
+    BufferedReader lines = new BufferedReader(reader);
+    List<String> header = null;
+    List<Row> batch = new ArrayList<>(properties.getBatchSize());
+    long number = 0;
+    String line;
+    while ((line = lines.readLine()) != null) {
+      number++;
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      if (format == DataFormat.CSV && header == null) {
+        header = parseCsvLine(line).stream().map(name -> name.trim().toLowerCase(Locale.ROOT))
+                                   .collect(Collectors.toList());
+        if (!header.contains(EMAIL_COLUMN)) {
+          report.failed(number, null, "The header row has no email column");
+          return report;
+        }
+        continue;
+      }
+
+      report.rowRead();
+      Row row;
+      try {
+        row = format == DataFormat.CSV ? csvRow(number, header, line) : jsonRow(number, line);
+      } catch (IOException | IllegalArgumentException e) {
+        report.failed(number, null, "Cannot read the row: " + e.getMessage());
+        continue;
+      }
+      String problem = row.problem(confirm);
+      if (problem != null) {
+        report.failed(number, row.email, problem);
+        continue;
+      }
+      batch.add(row);
+      if (batch.size() >= properties.getBatchSize()) {
+        write(batch, confirm, locale, report);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      write(batch, confirm, locale, report);
+    }
+    log.info("Imported {} of {} users, {} rejected", report.getImported(), report.getRows(), report.getFailed());
+    return report;
+  }
+
+  /**
+   * Stops the hashing threads.
+   */
+  @PreDestroy
+  public void close() {
+    hashingPool.shutdown();
+  }
+
+  private void write(List<Row> batch, boolean confirm, Locale locale, ImportReport report) {
+    Map<String, Row> rows = new LinkedHashMap<>();
+    for (Row row : batch) {
+      if (rows.putIfAbsent(row.email, row) != null) {
+        report.failed(row.line, row.email, "The e-mail address is already on an earlier row");
+      }
+    }
+    Set<String> existing = new HashSet<>(namedJdbcTemplate.queryForList(
+        "select email from users where email in (:emails)", Collections.singletonMap("emails", rows.keySet()),
+        String.class));
+    List<Row> toInsert = new ArrayList<>(rows.size());
+    for (Row row : rows.values()) {
+      if (existing.contains(row.email)) {
+        report.failed(row.line, row.email, "A user with this e-mail address already exists");
+      } else {
+        toInsert.add(row);
+      }
+    }
+    if (toInsert.isEmpty()) {
+      return;
+    }
+
+    hash(toInsert);
+    Timestamp now = Timestamp.from(Instant.now());
+    try {
+      jdbcTemplate.batchUpdate(INSERT, toInsert, toInsert.size(), (statement, row) -> {
+        statement.setString(1, row.email);
+        statement.setString(2, row.passwordHash);
+        statement.setString(3, row.role.name());
+        statement.setBoolean(4, !confirm);
+        statement.setTimestamp(5, now);
+      });
+      report.imported(toInsert.size());
+    } catch (DataAccessException e) {
+      log.debug("Batch insert failed, inserting the rows one by one", e);
+      toInsert = insertOneByOne(toInsert, confirm, now, report);
+    }
+
+    if (confirm && !toInsert.isEmpty()) {
+      issueTokens(toInsert);
+      String message = messages.getMessage("email.registration", null, locale);
+      emailService.queue(toInsert.stream().map(row -> confirmation(row, message)).collect(Collectors.toList()));
+    }
+  }
+
+  private void issueTokens(List<Row> rows) {
+    Timestamp expiry = Timestamp.from(verificationTokens.expiry());
+    for (Row row : rows) {
+      row.confirmationToken = verificationTokens.newToken();
+    }
+    jdbcTemplate.batchUpdate(INSERT_TOKEN, rows, rows.size(), (statement, row) -> {
+      statement.setString(1, VerificationTokenService.hash(row.confirmationToken));
+      statement.setTimestamp(2, expiry);
+      statement.setString(3, row.email);
+    });
+  }
+
+  private List<Row> insertOneByOne(List<Row> rows, boolean confirm, Timestamp now, ImportReport report) {
+    List<Row> inserted = new ArrayList<>(rows.size());
+    for (Row row : rows) {
+      try {
+        jdbcTemplate.update(INSERT, row.email, row.passwordHash, row.role.name(), !confirm, now);
+        inserted.add(row);
+      } catch (DuplicateKeyException e) {
+        report.failed(row.line, row.email, "A user with this e-mail address already exists");
+      } catch (DataAccessException e) {
+        report.failed(row.line, row.email, "Cannot store the user: " + e.getMostSpecificCause().getMessage());
+      }
+    }
+    report.imported(inserted.size());
+    return inserted;
+  }
+
+  private void hash(List<Row> rows) {
+    List<Row> toHash = rows.stream().filter(row -> row.password != null).collect(Collectors.toList());
+    if (toHash.isEmpty()) {
+      return;
+    }
+    try {
+      hashingPool.submit(() -> toHash.parallelStream().forEach(row -> {
+        row.passwordHash = hasher.encode(row.password);
+        row.password = null;
+      })).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while hashing imported passwords", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Hashing imported passwords failed", e.getCause());
+    }
+  }
+
+  private OutgoingEmail confirmation(Row row, String message) {
+    String link = authProperties.getRedirectionUrl() + "/confirmRedirect?token=" + row.confirmationToken;
+    return new OutgoingEmail(row.email, authProperties.getEmailFrom(), "Registration confirmation", message, link);
+  }
+
+  private Row csvRow(long line, List<String> header, String text) {
+    List<String> values = parseCsvLine(text);
+    Map<String, String> fields = new HashMap<>();
+    for (int i = 0; i < header.size() && i < values.size(); i++) {
+      fields.put(header.get(i), values.get(i));
+    }
+    return Row.of(line, fields);
+  }
+
+  private Row jsonRow(long line, String text) throws IOException {
+    Map<String, Object> json = objectMapper.readValue(text, new TypeReference<Map<String, Object>>() {});
+    Map<String, String> fields = new HashMap<>();
+    json.forEach((name, value) -> fields.put(name.toLowerCase(Locale.ROOT), value == null ? null : value.toString()));
+    if (fields.containsKey("passwordhash")) {
+      fields.putIfAbsent(PASSWORD_HASH_COLUMN, fields.get("passwordhash"));
+    }
+    return Row.of(line, fields);
+  }
+
+  /**
+   * Splits a CSV line into its values. Values may be quoted, with quotes inside doubled, but may not span lines.
+   *
+   * @param line the line
+   * @return the values
+   */
+  static List<String> parseCsvLine(String line) {
+    List<String> values = new ArrayList<>();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          value.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          value.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        values.add(value.toString());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("unterminated quoted value");
+    }
+    values.add(value.toString());
+    return values;
+  }
+
+  private static final class Row {
+
+    private final long line;
+
+    private final String email;
+
+    private final String roleName;
+
+    private Role role = Role.USER;
+
+    private String password;
+
+    private String passwordHash;
+
+    private String confirmationToken;
+
+    private Row(long line, String email, String roleName, String password, String passwordHash) {
+      this.line = line;
+      this.email = email;
+      this.roleName = roleName;
+      this.password = password;
+      this.passwordHash = passwordHash;
+    }
+
+    static Row of(long line, Map<String, String> fields) {
+      String password = fields.get(PASSWORD_COLUMN);
+      return new Row(line, blankToNull(fields.get(EMAIL_COLUMN)), blankToNull(fields.get(ROLE_COLUMN)),
+                     password == null || password.isEmpty() ? null : password,
+                     blankToNull(fields.get(PASSWORD_HASH_COLUMN)));
+    }
+
+    String problem(boolean confirm) {
+      if (email == null) {
+        return "The e-mail address is missing";
+      }
+      if (email.length() > MAX_EMAIL_LENGTH || !EMAIL.matcher(email).matches()) {
+        return "The e-mail address is not valid";
+      }
+      if (password != null && passwordHash != null) {
+        return "Give either a password or a password hash, not both";
+      }
+      if (passwordHash != null && !BoundedPasswordEncoder.BCRYPT.matcher(passwordHash).matches()) {
+        return "The password hash is not a BCrypt hash";
+      }
+      if (!confirm && password == null && passwordHash == null) {
+        return "The password is missing";
+      }
+      if (roleName != null) {
+        try {
+          role = Role.valueOf(roleName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+          return "The role is not one of USER or ADMIN";
+        }
+      }
+      return null;
+    }
+
+    private static String blankToNull(String value) {
+      return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+  }
+}
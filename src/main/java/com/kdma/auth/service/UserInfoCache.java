@@ -0,0 +1,26 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.model.UserInfo;
+
+/**
+ * Cache of what {@code /user} publishes, evicted together with the user details whenever a user changes.
+ */
+public interface UserInfoCache {
+
+  /**
+   * Gets the cached user info.
+   *
+   * @param username the username
+   * @return the user info, or null when not cached
+   */
+  UserInfo getUserInfo(String username);
+
+  /**
+   * Caches the user info.
+   *
+   * @param username the username
+   * @param userInfo the user info
+   */
+  void putUserInfo(String username, UserInfo userInfo);
+}
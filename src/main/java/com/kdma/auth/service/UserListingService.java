@@ -0,0 +1,75 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.model.UserFilter;
+import com.kdma.auth.model.UserSummary;
+import com.kdma.auth.repository.UserRepository;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Lists users to administrators without loading the whole table: either a page at a time, keyed on the user id, or as
+ * a stream fetched from the database a chunk at a time. Users are read as {@link UserSummary summaries} rather than
+ * entities, so nothing is managed by the persistence context and the password hash is never loaded.
+ */
+@Slf4j
+@Service
+public class UserListingService {
+
+  /** The largest page that may be requested. */
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  private final UserRepository repository;
+
+  /**
+   * Instantiates a new user listing service.
+   *
+   * @param repository the user repository
+   */
+  public UserListingService(UserRepository repository) {
+    this.repository = repository;
+  }
+
+  /**
+   * Lists the users following the given id, in id order.
+   *
+   * @param filter the conditions on the users
+   * @param after the last id of the previous page, or 0 for the first page
+   * @param size the page size, at most {@link #MAX_PAGE_SIZE}
+   * @return the users on the page
+   */
+  public List<UserSummary> page(UserFilter filter, long after, int size) {
+    int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+    return repository.findPageAfter(after, filter.getEnabled(), filter.getRole(), filter.getEmailPattern(),
+                                    PageRequest.of(0, pageSize));
+  }
+
+  /**
+   * Hands every matching user to the consumer, in id order. Memory use does not grow with the number of users.
+   *
+   * @param filter the conditions on the users
+   * @param consumer receives the users
+   * @return the number of users streamed
+   */
+  @Transactional(readOnly = true)
+  public long stream(UserFilter filter, Consumer<UserSummary> consumer) {
+    long count = 0;
+    try (Stream<UserSummary> users = repository.streamAll(filter.getEnabled(), filter.getRole(),
+                                                          filter.getEmailPattern())) {
+      for (UserSummary user : (Iterable<UserSummary>) users::iterator) {
+        consumer.accept(user);
+        count++;
+      }
+    }
+    log.debug("Streamed {} users", count);
+    return count;
+  }
+}
@@ -2,36 +2,48 @@
 package com.kdma.auth.service;
 
 import com.kdma.auth.model.User;
+import com.kdma.auth.model.UserSnapshot;
 import com.kdma.auth.repository.UserRepository;
 
+import io.micrometer.core.annotation.Timed;
+
 import java.util.Optional;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.security.core.userdetails.UserCache;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 /**
- * The Class UserService.
+ * The Class UserService. Loads immutable snapshots of users, through the user cache, and stores passwords re-hashed
+ * at a higher strength on login.
  */
 @Slf4j
 @Service
-public class UserService implements UserDetailsService {
+public class UserService implements UserDetailsService, UserDetailsPasswordService {
 
   /** The user repository. */
   private final UserRepository userRepository;
 
+  /** The user cache. */
+  private final UserCache userCache;
+
   /**
    * Instantiates a new user service.
    *
    * @param userRepository
    *          the user repository
+   * @param userCache
+   *          the user cache
    */
-  public UserService(UserRepository userRepository) {
+  public UserService(UserRepository userRepository, UserCache userCache) {
     super();
     this.userRepository = userRepository;
+    this.userCache = userCache;
   }
 
   /*
@@ -42,11 +54,42 @@ public class UserService implements UserDetailsService {
    * String)
    */
   @Override
+  @Timed("auth.user")
   public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+    UserDetails cached = userCache.getUserFromCache(username);
+    if (cached != null) {
+      return cached;
+    }
     log.debug("Loading user details for username: {}", username);
     Optional<User> optUser = userRepository.findByEmail(username);
     User user = optUser.orElseThrow(() -> new UsernameNotFoundException("Email address not found."));
-    return user;
+    UserSnapshot snapshot = UserSnapshot.of(user);
+    userCache.putUserInCache(snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Stores a password re-hashed after a successful login. Skipped when the password changed since the login read it,
+   * so a concurrent password change is never overwritten with the old password.
+   *
+   * @param user the user as authenticated
+   * @param newPassword the re-hashed password
+   * @return the user with the new password
+   */
+  @Override
+  @Timed("auth.user")
+  public UserDetails updatePassword(UserDetails user, String newPassword) {
+    Optional<User> optUser = userRepository.findByEmail(user.getUsername());
+    if (!optUser.isPresent() || !optUser.get().getPassword().equals(user.getPassword())) {
+      log.debug("Not re-hashing the password of {}, it changed meanwhile", user.getUsername());
+      return user;
+    }
+    log.debug("Re-hashing the password of {}", user.getUsername());
+    User entity = optUser.get();
+    entity.setPassword(newPassword);
+    userRepository.save(entity);
+    userCache.removeUserFromCache(user.getUsername());
+    return UserSnapshot.of(entity);
   }
 
 }
@@ -0,0 +1,151 @@
+
+package com.kdma.auth.service;
+
+import com.kdma.auth.ReaperProperties;
+import com.kdma.auth.model.User;
+import com.kdma.auth.model.VerificationToken;
+import com.kdma.auth.repository.VerificationTokenRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Issues and checks the tokens sent to users by e-mail. A token is random, stored only as its SHA-256 hash, valid for
+ * one purpose and until it expires; expired tokens are purged by the {@link TokenReaper}.
+ */
+@Slf4j
+@Service
+public class VerificationTokenService {
+
+  private static final int TOKEN_BYTES = 32;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final VerificationTokenRepository repository;
+
+  private final ReaperProperties properties;
+
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * Instantiates a new verification token service.
+   *
+   * @param repository the verification token repository
+   * @param properties the reaper properties, with the lifetime of tokens
+   */
+  public VerificationTokenService(VerificationTokenRepository repository, ReaperProperties properties) {
+    this.repository = repository;
+    this.properties = properties;
+  }
+
+  /**
+   * Issues a token to a user, replacing any token issued to them earlier for the same purpose.
+   *
+   * @param user the user, already saved
+   * @param purpose what the token is for
+   * @return the token, to be sent to the user; it cannot be read back later
+   */
+  public String issue(User user, VerificationToken.Purpose purpose) {
+    repository.deleteByUser(user.getId(), Arrays.asList(purpose));
+    String token = newToken();
+    VerificationToken verificationToken = new VerificationToken();
+    verificationToken.setTokenHash(hash(token));
+    verificationToken.setPurpose(purpose);
+    verificationToken.setUserId(user.getId());
+    verificationToken.setExpiresAt(expiry());
+    repository.save(verificationToken);
+    log.debug("Issued a {} token to user {}", purpose, user.getId());
+    return token;
+  }
+
+  /**
+   * Finds the user a token was issued to, if it has not expired and was issued for one of the given purposes.
+   *
+   * @param token the token
+   * @param purposes the purposes accepted
+   * @return the user, or empty
+   */
+  public Optional<User> findUser(String token, VerificationToken.Purpose... purposes) {
+    return repository.findUser(hash(token), Arrays.asList(purposes), Instant.now());
+  }
+
+  /**
+   * Uses up a token: finds the user it was issued to, like {@link #findUser(String, VerificationToken.Purpose...)},
+   * and deletes it. Of concurrent uses of one token, only the one that deleted it gets the user.
+   *
+   * @param token the token
+   * @param purposes the purposes accepted
+   * @return the user, or empty if the token is unknown, expired, for another purpose or used already
+   */
+  public Optional<User> consume(String token, VerificationToken.Purpose... purposes) {
+    String tokenHash = hash(token);
+    List<VerificationToken.Purpose> accepted = Arrays.asList(purposes);
+    Instant now = Instant.now();
+    Optional<User> user = repository.findUser(tokenHash, accepted, now);
+    if (user.isPresent() && repository.deleteByTokenHash(tokenHash, accepted, now) == 1) {
+      return user;
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Revokes the tokens issued to a user for the given purposes, once one of them has been used.
+   *
+   * @param user the user
+   * @param purposes the purposes
+   */
+  public void revoke(User user, VerificationToken.Purpose... purposes) {
+    repository.deleteByUser(user.getId(), Arrays.asList(purposes));
+  }
+
+  /**
+   * When a token issued now expires.
+   *
+   * @return the expiry
+   */
+  public Instant expiry() {
+    return Instant.now().plus(properties.getConfirmationTokenTimeToLive());
+  }
+
+  /**
+   * Generates a new random token, safe to put in a URL.
+   *
+   * @return the token
+   */
+  public String newToken() {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    random.nextBytes(bytes);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * The hash a token is stored and looked up by.
+   *
+   * @param token the token
+   * @return the SHA-256 hash of the token, in hex
+   */
+  public static String hash(String token) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+      char[] hex = new char[digest.length * 2];
+      for (int i = 0; i < digest.length; i++) {
+        hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+        hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
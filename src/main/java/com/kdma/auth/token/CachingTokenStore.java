@@ -0,0 +1,326 @@
+
+package com.kdma.auth.token;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Read-through cache in front of another {@link TokenStore}.
+ *
+ * <p>
+ * Token introspection and resource requests read the same access token and authentication over and over. Both are
+ * loaded together on the first miss and kept until the token expires, is removed through this store or is evicted.
+ * Concurrent misses for the same token value wait on a single load. Everything else goes straight to the delegate.
+ * </p>
+ *
+ * <p>
+ * Cached tokens are also indexed by refresh token and by user name, so removing the tokens of a refresh token or a user
+ * only touches those tokens instead of scanning the whole cache. An index entry points at the cached instance it was
+ * made for, so removing an old instance never drops the entry of one loaded since.
+ * </p>
+ *
+ * <p>
+ * Inside a transaction, removed tokens are evicted again once it commits: a concurrent read before the commit still
+ * finds the row and would otherwise cache the removed token for the whole time to live.
+ * </p>
+ */
+@Slf4j
+public class CachingTokenStore implements UserTokenStore, MeterBinder {
+
+  private static final String CACHE_NAME = "accessTokens";
+
+  private final TokenStore delegate;
+
+  private final Cache<String, CachedToken> cache;
+
+  private final Map<String, Map<String, CachedToken>> byRefreshToken = new ConcurrentHashMap<>();
+
+  private final Map<String, Map<String, CachedToken>> byUserName = new ConcurrentHashMap<>();
+
+  /**
+   * Instantiates a new caching token store.
+   *
+   * @param delegate the store to read through to
+   * @param maximumSize the maximum number of cached tokens
+   * @param timeToLive the maximum time a token is cached, capped at its expiration
+   */
+  public CachingTokenStore(TokenStore delegate, long maximumSize, Duration timeToLive) {
+    this.delegate = delegate;
+    this.cache = Caffeine.newBuilder()
+                         .maximumSize(maximumSize)
+                         .expireAfter(new TokenExpiry(timeToLive.toNanos()))
+                         // On the removing thread, so the indexes never lag behind the cache
+                         .executor(Runnable::run)
+                         .removalListener(this::onRemoval)
+                         .recordStats()
+                         .build();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+  }
+
+  @Override
+  public OAuth2AccessToken readAccessToken(String tokenValue) {
+    CachedToken cached = cache.get(tokenValue, this::load);
+    return cached == null ? null : new DefaultOAuth2AccessToken(cached.token);
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+    return readAuthentication(token.getValue());
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(String tokenValue) {
+    CachedToken cached = cache.get(tokenValue, this::load);
+    if (cached == null || cached.authentication == null) {
+      return null;
+    }
+    // Callers set request details on the authentication, so never hand out the cached instance
+    OAuth2Authentication stored = cached.authentication;
+    OAuth2Authentication copy = new OAuth2Authentication(stored.getOAuth2Request(), stored.getUserAuthentication());
+    copy.setDetails(stored.getDetails());
+    return copy;
+  }
+
+  @Override
+  public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+    delegate.storeAccessToken(token, authentication);
+    evict(() -> cache.invalidate(token.getValue()));
+  }
+
+  @Override
+  public void removeAccessToken(OAuth2AccessToken token) {
+    delegate.removeAccessToken(token);
+    evict(() -> cache.invalidate(token.getValue()));
+  }
+
+  @Override
+  public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+    delegate.removeAccessTokenUsingRefreshToken(refreshToken);
+    String refreshValue = refreshToken.getValue();
+    evict(() -> invalidateIndexed(byRefreshToken, refreshValue));
+  }
+
+  @Override
+  public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+    return delegate.getAccessToken(authentication);
+  }
+
+  @Override
+  public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+    delegate.storeRefreshToken(refreshToken, authentication);
+  }
+
+  @Override
+  public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+    return delegate.readRefreshToken(tokenValue);
+  }
+
+  @Override
+  public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+    return delegate.readAuthenticationForRefreshToken(token);
+  }
+
+  @Override
+  public void removeRefreshToken(OAuth2RefreshToken token) {
+    delegate.removeRefreshToken(token);
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+    return delegate.findTokensByClientIdAndUserName(clientId, userName);
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+    return delegate.findTokensByClientId(clientId);
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByUserName(String userName) {
+    if (delegate instanceof UserTokenStore) {
+      return ((UserTokenStore) delegate).findTokensByUserName(userName);
+    }
+    if (delegate instanceof JdbcTokenStore) {
+      return ((JdbcTokenStore) delegate).findTokensByUserName(userName);
+    }
+    log.debug("Delegate token store cannot find tokens by username.");
+    return Collections.emptyList();
+  }
+
+  @Override
+  public int removeTokensByUserName(String userName) {
+    if (!(delegate instanceof UserTokenStore)) {
+      return UserTokenStore.super.removeTokensByUserName(userName);
+    }
+    int removed = ((UserTokenStore) delegate).removeTokensByUserName(userName);
+    evict(() -> invalidateIndexed(byUserName, userName));
+    return removed;
+  }
+
+  private static void evict(Runnable eviction) {
+    eviction.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+        @Override
+        public void afterCommit() {
+          eviction.run();
+        }
+      });
+    }
+  }
+
+  /**
+   * Runs pending cache maintenance, such as removing expired tokens.
+   */
+  void cleanUp() {
+    cache.cleanUp();
+  }
+
+  /**
+   * The number of tokens indexed by refresh token and by user name.
+   *
+   * @return the number of index entries
+   */
+  int indexSize() {
+    return byRefreshToken.values().stream().mapToInt(Map::size).sum()
+           + byUserName.values().stream().mapToInt(Map::size).sum();
+  }
+
+  private CachedToken load(String tokenValue) {
+    OAuth2AccessToken token = delegate.readAccessToken(tokenValue);
+    if (token == null) {
+      return null;
+    }
+    CachedToken cached = new CachedToken(token, delegate.readAuthentication(tokenValue));
+    if (token.isExpired()) {
+      // Never stored, so never removed either
+      return cached;
+    }
+    index(byRefreshToken, cached.refreshValue(), tokenValue, cached);
+    index(byUserName, cached.userName(), tokenValue, cached);
+    return cached;
+  }
+
+  private void onRemoval(String tokenValue, CachedToken cached, RemovalCause cause) {
+    if (tokenValue != null && cached != null) {
+      unindex(byRefreshToken, cached.refreshValue(), tokenValue, cached);
+      unindex(byUserName, cached.userName(), tokenValue, cached);
+    }
+  }
+
+  private void invalidateIndexed(Map<String, Map<String, CachedToken>> index, String key) {
+    Map<String, CachedToken> indexed = index.remove(key);
+    if (indexed != null) {
+      cache.invalidateAll(indexed.keySet());
+    }
+  }
+
+  private static void index(Map<String, Map<String, CachedToken>> index, String key, String tokenValue,
+                            CachedToken cached) {
+    if (key != null) {
+      // Only ever changed inside compute, so a plain map will do
+      index.compute(key, (k, indexed) -> {
+        Map<String, CachedToken> tokens = indexed == null ? new HashMap<>() : indexed;
+        tokens.put(tokenValue, cached);
+        return tokens;
+      });
+    }
+  }
+
+  private static void unindex(Map<String, Map<String, CachedToken>> index, String key, String tokenValue,
+                              CachedToken cached) {
+    if (key != null) {
+      index.computeIfPresent(key, (k, indexed) -> {
+        indexed.remove(tokenValue, cached);
+        return indexed.isEmpty() ? null : indexed;
+      });
+    }
+  }
+
+  /**
+   * An access token and its authentication as read from the delegate.
+   */
+  private static final class CachedToken {
+
+    private final OAuth2AccessToken token;
+
+    private final OAuth2Authentication authentication;
+
+    private CachedToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+      this.token = token;
+      this.authentication = authentication;
+    }
+
+    private String userName() {
+      return authentication == null || authentication.isClientOnly() ? null : authentication.getName();
+    }
+
+    private String refreshValue() {
+      OAuth2RefreshToken refreshToken = token.getRefreshToken();
+      return refreshToken == null ? null : refreshToken.getValue();
+    }
+  }
+
+  /**
+   * Expires entries after the configured time to live or when the token itself expires, whichever comes first.
+   */
+  private static final class TokenExpiry implements Expiry<String, CachedToken> {
+
+    private final long timeToLiveNanos;
+
+    private TokenExpiry(long timeToLiveNanos) {
+      this.timeToLiveNanos = timeToLiveNanos;
+    }
+
+    @Override
+    public long expireAfterCreate(String key, CachedToken value, long currentTime) {
+      Date expiration = value.token.getExpiration();
+      if (expiration == null) {
+        return timeToLiveNanos;
+      }
+      long remainingMillis = expiration.getTime() - System.currentTimeMillis();
+      return Math.max(0, Math.min(timeToLiveNanos, TimeUnit.MILLISECONDS.toNanos(remainingMillis)));
+    }
+
+    @Override
+    public long expireAfterUpdate(String key, CachedToken value, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(String key, CachedToken value, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
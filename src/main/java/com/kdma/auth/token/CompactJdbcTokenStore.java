@@ -0,0 +1,172 @@
+
+package com.kdma.auth.token;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.support.SqlLobValue;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
+
+/**
+ * {@link JdbcTokenStore} that persists tokens and authentications with the {@link TokenCodec} instead of Java
+ * serialization. Rows written by the plain {@link JdbcTokenStore} are still read.
+ *
+ * <p>
+ * Refresh tokens also record the user they were issued to, so all of a user's tokens can be removed with a few
+ * set-based deletes instead of one statement per token. Both kinds of token record when they expire, so expired rows
+ * can be found without deserializing them.
+ * </p>
+ */
+public class CompactJdbcTokenStore extends JdbcTokenStore implements UserTokenStore, MeterBinder {
+
+  private static final String INSERT_ACCESS_TOKEN_SQL = "insert into oauth_access_token (token_id, token, "
+      + "authentication_id, user_name, client_id, authentication, refresh_token, expiration) "
+      + "values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String INSERT_REFRESH_TOKEN_SQL = "insert into oauth_refresh_token "
+      + "(token_id, token, authentication, user_name, expiration) values (?, ?, ?, ?, ?)";
+
+  private static final String DELETE_LINKED_REFRESH_TOKENS_SQL = "delete from oauth_refresh_token where token_id in "
+      + "(select refresh_token from oauth_access_token where user_name = ?)";
+
+  private static final String DELETE_USER_REFRESH_TOKENS_SQL = "delete from oauth_refresh_token where user_name = ?";
+
+  private static final String DELETE_USER_ACCESS_TOKENS_SQL = "delete from oauth_access_token where user_name = ?";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final TokenCodec codec;
+
+  private AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+
+  private volatile Timer compactDecodeTimer;
+
+  private volatile Timer javaDecodeTimer;
+
+  /**
+   * Instantiates a new compact JDBC token store.
+   *
+   * @param dataSource the data source
+   * @param codec the token codec
+   */
+  public CompactJdbcTokenStore(DataSource dataSource, TokenCodec codec) {
+    super(dataSource);
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.codec = codec;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    compactDecodeTimer = Timer.builder("auth.token.decode").tag("format", "compact")
+                              .description("Time to decode a token or authentication read from the database")
+                              .register(registry);
+    javaDecodeTimer = Timer.builder("auth.token.decode").tag("format", "java")
+                           .description("Time to decode a token or authentication read from the database")
+                           .register(registry);
+  }
+
+  @Override
+  public void setAuthenticationKeyGenerator(AuthenticationKeyGenerator authenticationKeyGenerator) {
+    super.setAuthenticationKeyGenerator(authenticationKeyGenerator);
+    this.authenticationKeyGenerator = authenticationKeyGenerator;
+  }
+
+  @Override
+  public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+    String refreshToken = token.getRefreshToken() == null ? null : token.getRefreshToken().getValue();
+    removeAccessToken(token);
+    jdbcTemplate.update(INSERT_ACCESS_TOKEN_SQL,
+                        new Object[] {extractTokenKey(token.getValue()),
+                                      new SqlLobValue(serializeAccessToken(token)),
+                                      authenticationKeyGenerator.extractKey(authentication),
+                                      authentication.isClientOnly() ? null : authentication.getName(),
+                                      authentication.getOAuth2Request().getClientId(),
+                                      new SqlLobValue(serializeAuthentication(authentication)),
+                                      extractTokenKey(refreshToken),
+                                      toTimestamp(token.getExpiration())},
+                        new int[] {Types.VARCHAR, Types.BLOB, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BLOB,
+                                   Types.VARCHAR, Types.TIMESTAMP});
+  }
+
+  @Override
+  public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+    Date expiration = refreshToken instanceof ExpiringOAuth2RefreshToken
+        ? ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration() : null;
+    jdbcTemplate.update(INSERT_REFRESH_TOKEN_SQL,
+                        new Object[] {extractTokenKey(refreshToken.getValue()),
+                                      new SqlLobValue(serializeRefreshToken(refreshToken)),
+                                      new SqlLobValue(serializeAuthentication(authentication)),
+                                      authentication.isClientOnly() ? null : authentication.getName(),
+                                      toTimestamp(expiration)},
+                        new int[] {Types.VARCHAR, Types.BLOB, Types.BLOB, Types.VARCHAR, Types.TIMESTAMP});
+  }
+
+  /**
+   * Refresh tokens are removed before the access tokens that link rows written before refresh tokens recorded
+   * their user. Callers wanting both deletes to apply together must run this in a transaction.
+   */
+  @Override
+  public int removeTokensByUserName(String userName) {
+    int refreshTokens = jdbcTemplate.update(DELETE_LINKED_REFRESH_TOKENS_SQL, userName)
+                        + jdbcTemplate.update(DELETE_USER_REFRESH_TOKENS_SQL, userName);
+    return refreshTokens + jdbcTemplate.update(DELETE_USER_ACCESS_TOKENS_SQL, userName);
+  }
+
+  private static Timestamp toTimestamp(Date date) {
+    return date == null ? null : new Timestamp(date.getTime());
+  }
+
+  @Override
+  protected byte[] serializeAccessToken(OAuth2AccessToken token) {
+    return codec.encodeAccessToken(token);
+  }
+
+  @Override
+  protected byte[] serializeRefreshToken(OAuth2RefreshToken token) {
+    return codec.encodeRefreshToken(token);
+  }
+
+  @Override
+  protected byte[] serializeAuthentication(OAuth2Authentication authentication) {
+    return codec.encodeAuthentication(authentication);
+  }
+
+  @Override
+  protected OAuth2AccessToken deserializeAccessToken(byte[] token) {
+    return decode(token, codec::decodeAccessToken);
+  }
+
+  @Override
+  protected OAuth2RefreshToken deserializeRefreshToken(byte[] token) {
+    return decode(token, codec::decodeRefreshToken);
+  }
+
+  @Override
+  protected OAuth2Authentication deserializeAuthentication(byte[] authentication) {
+    return decode(authentication, codec::decodeAuthentication);
+  }
+
+  private <T> T decode(byte[] bytes, Function<byte[], T> decoder) {
+    // Rows still in Java serialization are timed apart, as they are the ones worth rewriting
+    Timer timer = TokenCodec.isCompact(bytes) ? compactDecodeTimer : javaDecodeTimer;
+    if (timer == null) {
+      return decoder.apply(bytes);
+    }
+    return timer.record(() -> decoder.apply(bytes));
+  }
+}
@@ -0,0 +1,205 @@
+
+package com.kdma.auth.token;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
+
+/**
+ * Authorization codes held in memory until they are redeemed or expire, for deployments where a code is redeemed on
+ * the instance that issued it.
+ *
+ * <p>
+ * Redeeming a code removes it from a concurrent map in one step, so of several concurrent attempts exactly one gets
+ * the authentication. Codes are also filed in a timing wheel by the tick they were issued in. Each time the clock
+ * moves on to a new tick, the slot the tick reuses only holds codes from a full turn of the wheel ago, which have all
+ * expired, so expiring codes never scans more than one slot per tick. Once the maximum size is reached, codes are
+ * dropped from the oldest slots first, being the closest to expiring anyway.
+ * </p>
+ *
+ * <p>
+ * Codes removed this way are counted as {@code auth.code.removed}, tagged with the reason; the number of codes waiting
+ * is {@code auth.code.active}.
+ * </p>
+ */
+public class ExpiringAuthorizationCodeServices implements AuthorizationCodeServices, MeterBinder {
+
+  static final int WHEEL_SIZE = 64;
+
+  private final RandomValueStringGenerator generator = new RandomValueStringGenerator();
+
+  private final Map<String, IssuedCode> codes = new ConcurrentHashMap<>();
+
+  private final List<Set<String>> wheel = new ArrayList<>(WHEEL_SIZE);
+
+  private final long timeToLive;
+
+  private final long tickLength;
+
+  private final int maximumSize;
+
+  private final LongSupplier clock;
+
+  private final LongAdder expired = new LongAdder();
+
+  private final LongAdder evicted = new LongAdder();
+
+  private volatile long currentTick;
+
+  /**
+   * Instantiates a new expiring authorization code services.
+   *
+   * @param timeToLive how long a code may go unused
+   * @param maximumSize the maximum number of codes kept
+   */
+  public ExpiringAuthorizationCodeServices(Duration timeToLive, int maximumSize) {
+    this(timeToLive, maximumSize, System::nanoTime);
+  }
+
+  ExpiringAuthorizationCodeServices(Duration timeToLive, int maximumSize, LongSupplier clock) {
+    this.timeToLive = timeToLive.toNanos();
+    // A code issued at the end of a tick has expired by the time its slot comes round again
+    this.tickLength = Math.max(1, (this.timeToLive + WHEEL_SIZE - 2) / (WHEEL_SIZE - 1));
+    this.maximumSize = maximumSize;
+    this.clock = clock;
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel.add(ConcurrentHashMap.newKeySet());
+    }
+    this.currentTick = tick(clock.getAsLong());
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("auth.code.active", codes, Map::size).description("Authorization codes waiting to be redeemed")
+         .register(registry);
+    FunctionCounter.builder("auth.code.removed", expired, LongAdder::sum).tag("reason", "expired")
+                   .description("Authorization codes removed without being redeemed").register(registry);
+    FunctionCounter.builder("auth.code.removed", evicted, LongAdder::sum).tag("reason", "evicted")
+                   .description("Authorization codes removed without being redeemed").register(registry);
+  }
+
+  @Override
+  public String createAuthorizationCode(OAuth2Authentication authentication) {
+    long now = clock.getAsLong();
+    advance(now);
+    if (codes.size() >= maximumSize) {
+      makeRoom();
+    }
+    long tick = tick(now);
+    IssuedCode issued = new IssuedCode(authentication, now + timeToLive, tick);
+    String code = generator.generate();
+    while (codes.putIfAbsent(code, issued) != null) {
+      code = generator.generate();
+    }
+    slot(tick).add(code);
+    return code;
+  }
+
+  @Override
+  public OAuth2Authentication consumeAuthorizationCode(String code) {
+    long now = clock.getAsLong();
+    advance(now);
+    IssuedCode issued = code == null ? null : codes.remove(code);
+    if (issued == null || issued.expiresAt - now <= 0) {
+      throw new InvalidGrantException("Invalid authorization code: " + code);
+    }
+    slot(issued.tick).remove(code);
+    return issued.authentication;
+  }
+
+  /**
+   * The number of codes waiting to be redeemed.
+   *
+   * @return the number of codes
+   */
+  public int size() {
+    return codes.size();
+  }
+
+  private void advance(long now) {
+    long tick = tick(now);
+    if (tick == currentTick) {
+      return;
+    }
+    synchronized (wheel) {
+      long from = currentTick;
+      if (tick - from <= 0) {
+        return;
+      }
+      // After a long quiet spell, one turn of the wheel covers all the slots
+      for (long t = Math.max(from + 1, tick - WHEEL_SIZE + 1); t <= tick; t++) {
+        expire(slot(t), now);
+      }
+      currentTick = tick;
+    }
+  }
+
+  private void expire(Set<String> slot, long now) {
+    for (Iterator<String> it = slot.iterator(); it.hasNext(); ) {
+      String code = it.next();
+      IssuedCode issued = codes.get(code);
+      if (issued == null) {
+        it.remove();
+      } else if (issued.expiresAt - now <= 0) {
+        it.remove();
+        if (codes.remove(code, issued)) {
+          expired.increment();
+        }
+      }
+    }
+  }
+
+  private void makeRoom() {
+    synchronized (wheel) {
+      for (long t = currentTick - WHEEL_SIZE + 1; t <= currentTick && codes.size() >= maximumSize; t++) {
+        Set<String> slot = slot(t);
+        for (Iterator<String> it = slot.iterator(); it.hasNext() && codes.size() >= maximumSize; ) {
+          String code = it.next();
+          it.remove();
+          if (codes.remove(code) != null) {
+            evicted.increment();
+          }
+        }
+      }
+    }
+  }
+
+  private long tick(long nanos) {
+    return Math.floorDiv(nanos, tickLength);
+  }
+
+  private Set<String> slot(long tick) {
+    return wheel.get((int) Math.floorMod(tick, (long) WHEEL_SIZE));
+  }
+
+  private static final class IssuedCode {
+
+    private final OAuth2Authentication authentication;
+
+    private final long expiresAt;
+
+    private final long tick;
+
+    IssuedCode(OAuth2Authentication authentication, long expiresAt, long tick) {
+      this.authentication = authentication;
+      this.expiresAt = expiresAt;
+      this.tick = tick;
+    }
+  }
+}
@@ -0,0 +1,491 @@
+
+package com.kdma.auth.token;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+
+/**
+ * Token store that keeps every token in memory and makes it durable with a {@link TokenJournal} on local disk, for
+ * single-node deployments without a database.
+ *
+ * <p>
+ * Tokens are indexed by value, authentication key, user and client in concurrent maps, so reads never lock. Writes
+ * to the same token are serialized by one of a fixed set of striped locks, which keeps its indexes and journal
+ * records in the same order; writes to different tokens rarely contend. Each write is appended to the journal before
+ * the call returns. A snapshot taken on a fixed interval compacts the journal, and expired tokens are dropped then,
+ * so a restart replays one snapshot and a short journal.
+ * </p>
+ */
+@Slf4j
+public class JournaledTokenStore implements UserTokenStore, Closeable {
+
+  private static final byte PUT_ACCESS_TOKEN = 1;
+
+  private static final byte REMOVE_ACCESS_TOKEN = 2;
+
+  private static final byte PUT_REFRESH_TOKEN = 3;
+
+  private static final byte REMOVE_REFRESH_TOKEN = 4;
+
+  private final ConcurrentMap<String, AccessEntry> accessTokens = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, String> accessTokensByAuthentication = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, String> accessTokensByRefreshToken = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Set<String>> accessTokensByUserName = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Set<String>> accessTokensByClientId = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, RefreshEntry> refreshTokens = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Set<String>> refreshTokensByUserName = new ConcurrentHashMap<>();
+
+  private final AuthenticationKeyGenerator authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+
+  private final Lock[] stripes;
+
+  private final TokenCodec codec;
+
+  private final TokenJournal journal;
+
+  private final ScheduledExecutorService snapshots;
+
+  /**
+   * Instantiates a new journaled token store, recovering the tokens held in the directory.
+   *
+   * @param directory the directory for the snapshot and journal
+   * @param codec the codec tokens are written with
+   * @param stripes the number of write locks, rounded up to a power of two
+   * @param snapshotInterval how often the journal is compacted into a snapshot
+   * @throws IOException if the snapshot or journal cannot be read
+   */
+  public JournaledTokenStore(Path directory, TokenCodec codec, int stripes, Duration snapshotInterval)
+      throws IOException {
+    this.codec = codec;
+    this.stripes = new Lock[Integer.highestOneBit(Math.max(1, stripes - 1)) << 1];
+    for (int i = 0; i < this.stripes.length; i++) {
+      this.stripes[i] = new ReentrantLock();
+    }
+    this.journal = new TokenJournal(directory);
+
+    long start = System.nanoTime();
+    int records = journal.recover(this::replay);
+    log.info("Recovered {} access and {} refresh tokens from {} records in {} in {} ms", accessTokens.size(),
+             refreshTokens.size(), records, directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    this.snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "token-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = snapshotInterval.toMillis();
+    snapshots.scheduleWithFixedDelay(this::scheduledSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+    return readAuthentication(token.getValue());
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(String token) {
+    AccessEntry entry = accessTokens.get(token);
+    return entry == null ? null : entry.authentication;
+  }
+
+  @Override
+  public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+    byte[] record = pair(codec.encodeAccessToken(token), codec.encodeAuthentication(authentication));
+    Lock lock = stripe(token.getValue());
+    lock.lock();
+    try {
+      putAccessToken(token, authentication);
+      append(PUT_ACCESS_TOKEN, record);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public OAuth2AccessToken readAccessToken(String tokenValue) {
+    AccessEntry entry = accessTokens.get(tokenValue);
+    return entry == null ? null : entry.token;
+  }
+
+  @Override
+  public void removeAccessToken(OAuth2AccessToken token) {
+    removeAccessTokenByValue(token.getValue());
+  }
+
+  @Override
+  public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+    String key = authenticationKeyGenerator.extractKey(authentication);
+    String tokenValue = accessTokensByAuthentication.get(key);
+    AccessEntry entry = tokenValue == null ? null : accessTokens.get(tokenValue);
+    if (entry == null) {
+      return null;
+    }
+    if (!key.equals(entry.authenticationKey)) {
+      // Same user, but the details of the authentication changed; keep the indexes consistent
+      storeAccessToken(entry.token, authentication);
+    }
+    return entry.token;
+  }
+
+  @Override
+  public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+    byte[] record = pair(codec.encodeRefreshToken(refreshToken), codec.encodeAuthentication(authentication));
+    Lock lock = stripe(refreshToken.getValue());
+    lock.lock();
+    try {
+      putRefreshToken(refreshToken, authentication);
+      append(PUT_REFRESH_TOKEN, record);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+    RefreshEntry entry = refreshTokens.get(tokenValue);
+    return entry == null ? null : entry.token;
+  }
+
+  @Override
+  public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+    RefreshEntry entry = refreshTokens.get(token.getValue());
+    return entry == null ? null : entry.authentication;
+  }
+
+  @Override
+  public void removeRefreshToken(OAuth2RefreshToken token) {
+    removeRefreshTokenByValue(token.getValue());
+  }
+
+  @Override
+  public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+    String tokenValue = accessTokensByRefreshToken.get(refreshToken.getValue());
+    if (tokenValue != null) {
+      removeAccessTokenByValue(tokenValue);
+    }
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+    return accessTokensByUserName.getOrDefault(userName, Collections.emptySet()).stream().map(accessTokens::get)
+                                 .filter(Objects::nonNull)
+                                 .filter(entry -> clientId.equals(entry.clientId()))
+                                 .map(entry -> entry.token).collect(Collectors.toList());
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+    return tokens(accessTokensByClientId.get(clientId));
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByUserName(String userName) {
+    return tokens(accessTokensByUserName.get(userName));
+  }
+
+  @Override
+  public int removeTokensByUserName(String userName) {
+    int removed = 0;
+    for (String tokenValue : new ArrayList<>(accessTokensByUserName.getOrDefault(userName, Collections.emptySet()))) {
+      AccessEntry entry = removeAccessTokenByValue(tokenValue);
+      if (entry != null) {
+        removed++;
+        OAuth2RefreshToken refreshToken = entry.token.getRefreshToken();
+        if (refreshToken != null && removeRefreshTokenByValue(refreshToken.getValue())) {
+          removed++;
+        }
+      }
+    }
+    for (String tokenValue : new ArrayList<>(refreshTokensByUserName.getOrDefault(userName,
+                                                                                  Collections.emptySet()))) {
+      if (removeRefreshTokenByValue(tokenValue)) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Drops expired tokens, then compacts the journal into a new snapshot.
+   *
+   * @throws IOException if the snapshot cannot be written
+   */
+  public synchronized void snapshot() throws IOException {
+    final long start = System.nanoTime();
+    Date now = new Date();
+    accessTokens.values().stream().filter(entry -> entry.token.getExpiration() != null)
+                .filter(entry -> entry.token.getExpiration().before(now))
+                .forEach(entry -> removeAccessTokenByValue(entry.token.getValue()));
+    refreshTokens.values().stream().filter(entry -> entry.token instanceof ExpiringOAuth2RefreshToken)
+                 .filter(entry -> ((ExpiringOAuth2RefreshToken) entry.token).getExpiration().before(now))
+                 .forEach(entry -> removeRefreshTokenByValue(entry.token.getValue()));
+
+    journal.rotate();
+    List<byte[]> records = new ArrayList<>(accessTokens.size() + refreshTokens.size());
+    for (AccessEntry entry : accessTokens.values()) {
+      records.add(TokenJournal.frame(PUT_ACCESS_TOKEN, pair(codec.encodeAccessToken(entry.token),
+                                                            codec.encodeAuthentication(entry.authentication))));
+    }
+    for (RefreshEntry entry : refreshTokens.values()) {
+      records.add(TokenJournal.frame(PUT_REFRESH_TOKEN, pair(codec.encodeRefreshToken(entry.token),
+                                                             codec.encodeAuthentication(entry.authentication))));
+    }
+    journal.writeSnapshot(records);
+    log.debug("Wrote snapshot of {} tokens in {} ms", records.size(),
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Stops taking snapshots, writes a last one so the next start has no journal to replay, and closes the journal.
+   *
+   * @throws IOException if the snapshot or journal cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    snapshots.shutdown();
+    try {
+      snapshots.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      snapshot();
+    } finally {
+      journal.close();
+    }
+  }
+
+  private void scheduledSnapshot() {
+    try {
+      snapshot();
+    } catch (IOException | RuntimeException e) {
+      log.error("Cannot write token snapshot; the journal keeps growing until one succeeds", e);
+    }
+  }
+
+  private AccessEntry removeAccessTokenByValue(String tokenValue) {
+    Lock lock = stripe(tokenValue);
+    lock.lock();
+    try {
+      AccessEntry entry = deleteAccessToken(tokenValue);
+      if (entry != null) {
+        append(REMOVE_ACCESS_TOKEN, tokenValue.getBytes(StandardCharsets.UTF_8));
+      }
+      return entry;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean removeRefreshTokenByValue(String tokenValue) {
+    Lock lock = stripe(tokenValue);
+    lock.lock();
+    try {
+      boolean removed = deleteRefreshToken(tokenValue);
+      if (removed) {
+        append(REMOVE_REFRESH_TOKEN, tokenValue.getBytes(StandardCharsets.UTF_8));
+      }
+      return removed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void putAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+    AccessEntry entry = new AccessEntry(token, authentication, authenticationKeyGenerator.extractKey(authentication));
+    AccessEntry previous = accessTokens.put(token.getValue(), entry);
+    if (previous != null) {
+      unindex(previous);
+    }
+    accessTokensByAuthentication.put(entry.authenticationKey, token.getValue());
+    if (token.getRefreshToken() != null) {
+      accessTokensByRefreshToken.put(token.getRefreshToken().getValue(), token.getValue());
+    }
+    if (entry.userName() != null) {
+      add(accessTokensByUserName, entry.userName(), token.getValue());
+    }
+    add(accessTokensByClientId, entry.clientId(), token.getValue());
+  }
+
+  private AccessEntry deleteAccessToken(String tokenValue) {
+    AccessEntry entry = accessTokens.remove(tokenValue);
+    if (entry != null) {
+      unindex(entry);
+    }
+    return entry;
+  }
+
+  private void unindex(AccessEntry entry) {
+    String tokenValue = entry.token.getValue();
+    accessTokensByAuthentication.remove(entry.authenticationKey, tokenValue);
+    if (entry.token.getRefreshToken() != null) {
+      accessTokensByRefreshToken.remove(entry.token.getRefreshToken().getValue(), tokenValue);
+    }
+    if (entry.userName() != null) {
+      remove(accessTokensByUserName, entry.userName(), tokenValue);
+    }
+    remove(accessTokensByClientId, entry.clientId(), tokenValue);
+  }
+
+  private void putRefreshToken(OAuth2RefreshToken token, OAuth2Authentication authentication) {
+    RefreshEntry entry = new RefreshEntry(token, authentication);
+    RefreshEntry previous = refreshTokens.put(token.getValue(), entry);
+    if (previous != null && previous.userName() != null) {
+      remove(refreshTokensByUserName, previous.userName(), token.getValue());
+    }
+    if (entry.userName() != null) {
+      add(refreshTokensByUserName, entry.userName(), token.getValue());
+    }
+  }
+
+  private boolean deleteRefreshToken(String tokenValue) {
+    RefreshEntry entry = refreshTokens.remove(tokenValue);
+    if (entry != null && entry.userName() != null) {
+      remove(refreshTokensByUserName, entry.userName(), tokenValue);
+    }
+    return entry != null;
+  }
+
+  private void replay(byte type, ByteBuffer payload) {
+    switch (type) {
+      case PUT_ACCESS_TOKEN:
+        putAccessToken(codec.decodeAccessToken(next(payload)), codec.decodeAuthentication(next(payload)));
+        break;
+      case REMOVE_ACCESS_TOKEN:
+        deleteAccessToken(StandardCharsets.UTF_8.decode(payload).toString());
+        break;
+      case PUT_REFRESH_TOKEN:
+        putRefreshToken(codec.decodeRefreshToken(next(payload)), codec.decodeAuthentication(next(payload)));
+        break;
+      case REMOVE_REFRESH_TOKEN:
+        deleteRefreshToken(StandardCharsets.UTF_8.decode(payload).toString());
+        break;
+      default:
+        throw new IllegalStateException("Unknown token journal record type " + type);
+    }
+  }
+
+  private void append(byte type, byte[] payload) {
+    try {
+      journal.append(type, payload);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot write token journal", e);
+    }
+  }
+
+  private Lock stripe(String tokenValue) {
+    int hash = tokenValue.hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+  }
+
+  private Collection<OAuth2AccessToken> tokens(Set<String> tokenValues) {
+    if (tokenValues == null) {
+      return Collections.emptyList();
+    }
+    return tokenValues.stream().map(this::readAccessToken).filter(Objects::nonNull).collect(Collectors.toList());
+  }
+
+  private static void add(ConcurrentMap<String, Set<String>> index, String key, String tokenValue) {
+    index.compute(key, (k, values) -> {
+      Set<String> set = values == null ? ConcurrentHashMap.newKeySet() : values;
+      set.add(tokenValue);
+      return set;
+    });
+  }
+
+  private static void remove(ConcurrentMap<String, Set<String>> index, String key, String tokenValue) {
+    index.computeIfPresent(key, (k, values) -> {
+      values.remove(tokenValue);
+      return values.isEmpty() ? null : values;
+    });
+  }
+
+  private static byte[] pair(byte[] first, byte[] second) {
+    return ByteBuffer.allocate(8 + first.length + second.length).putInt(first.length).put(first)
+                     .putInt(second.length).put(second).array();
+  }
+
+  private static byte[] next(ByteBuffer payload) {
+    byte[] bytes = new byte[payload.getInt()];
+    payload.get(bytes);
+    return bytes;
+  }
+
+  private static String userName(OAuth2Authentication authentication) {
+    return authentication.isClientOnly() ? null : authentication.getName();
+  }
+
+  private static final class AccessEntry {
+
+    private final OAuth2AccessToken token;
+
+    private final OAuth2Authentication authentication;
+
+    private final String authenticationKey;
+
+    AccessEntry(OAuth2AccessToken token, OAuth2Authentication authentication, String authenticationKey) {
+      this.token = token;
+      this.authentication = authentication;
+      this.authenticationKey = authenticationKey;
+    }
+
+    String userName() {
+      return JournaledTokenStore.userName(authentication);
+    }
+
+    String clientId() {
+      return authentication.getOAuth2Request().getClientId();
+    }
+  }
+
+  private static final class RefreshEntry {
+
+    private final OAuth2RefreshToken token;
+
+    private final OAuth2Authentication authentication;
+
+    RefreshEntry(OAuth2RefreshToken token, OAuth2Authentication authentication) {
+      this.token = token;
+      this.authentication = authentication;
+    }
+
+    String userName() {
+      return JournaledTokenStore.userName(authentication);
+    }
+  }
+}
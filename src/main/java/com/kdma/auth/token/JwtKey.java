@@ -0,0 +1,146 @@
+
+package com.kdma.auth.token;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+import org.springframework.security.jwt.crypto.sign.EllipticCurveVerifier;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+
+/**
+ * A JWT signing key identified by its key id. Keys without a private key are retired: they are still published and
+ * still verify tokens they signed, but never sign new ones.
+ */
+public final class JwtKey {
+
+  @Getter
+  private final String keyId;
+
+  /** The JWS algorithm name, such as RS256 or ES256. */
+  @Getter
+  private final String algorithm;
+
+  @Getter
+  private final PublicKey publicKey;
+
+  @Getter
+  private final SignatureVerifier verifier;
+
+  private final PrivateKey privateKey;
+
+  private final String signatureAlgorithm;
+
+  private final String curve;
+
+  /**
+   * Instantiates a new JWT key.
+   *
+   * @param keyId the key id published as {@code kid}
+   * @param publicKey the RSA or EC public key
+   * @param privateKey the private key, or null for a verify only key
+   */
+  public JwtKey(String keyId, PublicKey publicKey, PrivateKey privateKey) {
+    this.keyId = keyId;
+    this.publicKey = publicKey;
+    this.privateKey = privateKey;
+    if (publicKey instanceof RSAPublicKey) {
+      this.algorithm = "RS256";
+      this.signatureAlgorithm = "SHA256withRSA";
+      this.curve = null;
+      this.verifier = new RsaVerifier((RSAPublicKey) publicKey);
+    } else if (publicKey instanceof ECPublicKey) {
+      int fieldSize = ((ECPublicKey) publicKey).getParams().getCurve().getField().getFieldSize();
+      String hash = fieldSize <= 256 ? "SHA256" : fieldSize <= 384 ? "SHA384" : "SHA512";
+      this.algorithm = fieldSize <= 256 ? "ES256" : fieldSize <= 384 ? "ES384" : "ES512";
+      this.curve = fieldSize <= 256 ? "P-256" : fieldSize <= 384 ? "P-384" : "P-521";
+      // JWS wants the raw R || S concatenation rather than the DER encoding
+      this.signatureAlgorithm = hash + "withECDSAinP1363Format";
+      this.verifier = new EllipticCurveVerifier((ECPublicKey) publicKey, hash + "withECDSA");
+    } else {
+      throw new IllegalArgumentException("Unsupported JWT key type " + publicKey.getAlgorithm() + " for " + keyId);
+    }
+  }
+
+  /**
+   * Whether this key can sign new tokens.
+   *
+   * @return true, if it holds a private key
+   */
+  public boolean canSign() {
+    return privateKey != null;
+  }
+
+  /**
+   * Sign the given JWS signing input.
+   *
+   * @param content the signing input
+   * @return the signature
+   */
+  public byte[] sign(byte[] content) {
+    if (privateKey == null) {
+      throw new IllegalStateException("JWT key " + keyId + " is retired and cannot sign");
+    }
+    try {
+      Signature signature = Signature.getInstance(signatureAlgorithm);
+      signature.initSign(privateKey);
+      signature.update(content);
+      return signature.sign();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot sign token with key " + keyId, e);
+    }
+  }
+
+  /**
+   * The public part of this key as a JSON Web Key.
+   *
+   * @return the JWK members
+   */
+  public Map<String, Object> toJwk() {
+    Map<String, Object> jwk = new LinkedHashMap<>();
+    jwk.put("kid", keyId);
+    jwk.put("use", "sig");
+    jwk.put("alg", algorithm);
+    if (publicKey instanceof RSAPublicKey) {
+      RSAPublicKey rsa = (RSAPublicKey) publicKey;
+      jwk.put("kty", "RSA");
+      jwk.put("n", encode(rsa.getModulus(), 0));
+      jwk.put("e", encode(rsa.getPublicExponent(), 0));
+    } else {
+      ECPublicKey ec = (ECPublicKey) publicKey;
+      int length = (ec.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+      jwk.put("kty", "EC");
+      jwk.put("crv", curve);
+      jwk.put("x", encode(ec.getW().getAffineX(), length));
+      jwk.put("y", encode(ec.getW().getAffineY(), length));
+    }
+    return jwk;
+  }
+
+  /**
+   * Base64url encode an unsigned big-endian integer, left padded to the given length.
+   */
+  private static String encode(BigInteger value, int length) {
+    byte[] bytes = value.toByteArray();
+    if (bytes.length > 1 && bytes[0] == 0) {
+      bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+    if (bytes.length < length) {
+      byte[] padded = new byte[length];
+      System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+      bytes = padded;
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+}
@@ -0,0 +1,131 @@
+
+package com.kdma.auth.token;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The keys used to sign and verify self-contained access tokens.
+ *
+ * <p>
+ * The first key signs new tokens. The others are only published and used to verify, so keys can be rotated by
+ * putting a new key first and dropping the old one once every token it signed has expired.
+ * </p>
+ */
+public final class JwtKeySet {
+
+  private final List<JwtKey> keys;
+
+  private final Map<String, JwtKey> keysById = new LinkedHashMap<>();
+
+  /**
+   * Instantiates a new JWT key set.
+   *
+   * @param keys the keys, the first of which signs new tokens
+   */
+  public JwtKeySet(List<JwtKey> keys) {
+    if (keys.isEmpty() || !keys.get(0).canSign()) {
+      throw new IllegalArgumentException("The first JWT key must have a private key to sign with");
+    }
+    this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+    for (JwtKey key : keys) {
+      if (keysById.put(key.getKeyId(), key) != null) {
+        throw new IllegalArgumentException("Duplicate JWT key id " + key.getKeyId());
+      }
+    }
+  }
+
+  /**
+   * Load keys from a key store. Aliases holding only a certificate become verify only keys.
+   *
+   * @param keyStore the loaded key store
+   * @param password the key password
+   * @param aliases the aliases to use, the first of which signs new tokens
+   * @return the key set
+   */
+  public static JwtKeySet fromKeyStore(KeyStore keyStore, char[] password, List<String> aliases) {
+    List<JwtKey> keys = new ArrayList<>();
+    try {
+      for (String alias : aliases) {
+        Certificate certificate = keyStore.getCertificate(alias);
+        if (certificate == null) {
+          throw new IllegalArgumentException("No certificate for JWT key alias " + alias);
+        }
+        Key key = keyStore.isKeyEntry(alias) ? keyStore.getKey(alias, password) : null;
+        keys.add(new JwtKey(alias, certificate.getPublicKey(), (PrivateKey) key));
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot load JWT keys from key store", e);
+    }
+    return new JwtKeySet(keys);
+  }
+
+  /**
+   * Generate a single RSA key that only lives as long as this process.
+   *
+   * @return the key set
+   */
+  public static JwtKeySet generate() {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+      generator.initialize(2048);
+      KeyPair keyPair = generator.generateKeyPair();
+      JwtKey key = new JwtKey(UUID.randomUUID().toString(), keyPair.getPublic(), keyPair.getPrivate());
+      return new JwtKeySet(Collections.singletonList(key));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot generate JWT key", e);
+    }
+  }
+
+  /**
+   * The key that signs new tokens.
+   *
+   * @return the signing key
+   */
+  public JwtKey getSigningKey() {
+    return keys.get(0);
+  }
+
+  /**
+   * Find a key by its key id.
+   *
+   * @param keyId the key id
+   * @return the key, or null if unknown
+   */
+  public JwtKey find(String keyId) {
+    return keyId == null ? null : keysById.get(keyId);
+  }
+
+  /**
+   * All keys in rotation order.
+   *
+   * @return the keys
+   */
+  public List<JwtKey> getKeys() {
+    return keys;
+  }
+
+  /**
+   * The public keys as a JSON Web Key Set.
+   *
+   * @return the key set document
+   */
+  public Map<String, Object> toJwks() {
+    List<Map<String, Object>> jwks = new ArrayList<>();
+    for (JwtKey key : keys) {
+      jwks.add(key.toJwk());
+    }
+    return Collections.singletonMap("keys", jwks);
+  }
+}
@@ -0,0 +1,154 @@
+
+package com.kdma.auth.token;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/**
+ * Times every call to another {@link UserTokenStore}, as {@code auth.token.store} tagged with the operation.
+ *
+ * <p>
+ * Meant to sit directly on the store that reads and writes the database or journal, under any cache, so a cache hit
+ * costs nothing and the timings show what a miss costs. The timers are registered up front, so a call only pays for
+ * recording the time.
+ * </p>
+ */
+public class MeteredTokenStore implements UserTokenStore {
+
+  private static final String METER_NAME = "auth.token.store";
+
+  private final UserTokenStore delegate;
+
+  private final Timer readAccessToken;
+
+  private final Timer readAuthentication;
+
+  private final Timer storeAccessToken;
+
+  private final Timer removeAccessToken;
+
+  private final Timer removeAccessTokenUsingRefreshToken;
+
+  private final Timer getAccessToken;
+
+  private final Timer storeRefreshToken;
+
+  private final Timer readRefreshToken;
+
+  private final Timer readAuthenticationForRefreshToken;
+
+  private final Timer removeRefreshToken;
+
+  private final Timer findTokens;
+
+  private final Timer removeTokensByUserName;
+
+  /**
+   * Instantiates a new metered token store.
+   *
+   * @param delegate the store to time
+   * @param registry the meter registry
+   */
+  public MeteredTokenStore(UserTokenStore delegate, MeterRegistry registry) {
+    this.delegate = delegate;
+    this.readAccessToken = timer(registry, "readAccessToken");
+    this.readAuthentication = timer(registry, "readAuthentication");
+    this.storeAccessToken = timer(registry, "storeAccessToken");
+    this.removeAccessToken = timer(registry, "removeAccessToken");
+    this.removeAccessTokenUsingRefreshToken = timer(registry, "removeAccessTokenUsingRefreshToken");
+    this.getAccessToken = timer(registry, "getAccessToken");
+    this.storeRefreshToken = timer(registry, "storeRefreshToken");
+    this.readRefreshToken = timer(registry, "readRefreshToken");
+    this.readAuthenticationForRefreshToken = timer(registry, "readAuthenticationForRefreshToken");
+    this.removeRefreshToken = timer(registry, "removeRefreshToken");
+    this.findTokens = timer(registry, "findTokens");
+    this.removeTokensByUserName = timer(registry, "removeTokensByUserName");
+  }
+
+  private static Timer timer(MeterRegistry registry, String operation) {
+    return Timer.builder(METER_NAME).tag("operation", operation)
+                .description("Time taken by the token store, including decoding what it reads")
+                .register(registry);
+  }
+
+  @Override
+  public OAuth2AccessToken readAccessToken(String tokenValue) {
+    return readAccessToken.record(() -> delegate.readAccessToken(tokenValue));
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+    return readAuthentication.record(() -> delegate.readAuthentication(token));
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(String tokenValue) {
+    return readAuthentication.record(() -> delegate.readAuthentication(tokenValue));
+  }
+
+  @Override
+  public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+    storeAccessToken.record(() -> delegate.storeAccessToken(token, authentication));
+  }
+
+  @Override
+  public void removeAccessToken(OAuth2AccessToken token) {
+    removeAccessToken.record(() -> delegate.removeAccessToken(token));
+  }
+
+  @Override
+  public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+    removeAccessTokenUsingRefreshToken.record(() -> delegate.removeAccessTokenUsingRefreshToken(refreshToken));
+  }
+
+  @Override
+  public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+    return getAccessToken.record(() -> delegate.getAccessToken(authentication));
+  }
+
+  @Override
+  public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+    storeRefreshToken.record(() -> delegate.storeRefreshToken(refreshToken, authentication));
+  }
+
+  @Override
+  public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+    return readRefreshToken.record(() -> delegate.readRefreshToken(tokenValue));
+  }
+
+  @Override
+  public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+    return readAuthenticationForRefreshToken.record(() -> delegate.readAuthenticationForRefreshToken(token));
+  }
+
+  @Override
+  public void removeRefreshToken(OAuth2RefreshToken token) {
+    removeRefreshToken.record(() -> delegate.removeRefreshToken(token));
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+    return findTokens.record(() -> delegate.findTokensByClientIdAndUserName(clientId, userName));
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+    return findTokens.record(() -> delegate.findTokensByClientId(clientId));
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByUserName(String userName) {
+    return findTokens.record(() -> delegate.findTokensByUserName(userName));
+  }
+
+  @Override
+  public int removeTokensByUserName(String userName) {
+    return removeTokensByUserName.record(() -> delegate.removeTokensByUserName(userName));
+  }
+}
@@ -0,0 +1,128 @@
+
+package com.kdma.auth.token;
+
+import java.util.Collection;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/**
+ * Token store for self-contained access tokens.
+ *
+ * <p>
+ * Access tokens are read by verifying and decoding the JWT itself, the same way a resource server would, without
+ * touching the database. Everything written still goes to the delegate, so refresh tokens, token reuse and
+ * {@link #findTokensByUserName(String)} keep working. Revoking a user's tokens removes their refresh tokens at once,
+ * but an access token already handed out stays valid until it expires. Opaque tokens issued before switching to
+ * JWTs are still read from the delegate.
+ * </p>
+ */
+public class SelfContainedTokenStore implements UserTokenStore {
+
+  private final UserTokenStore delegate;
+
+  private final SignedJwtAccessTokenConverter converter;
+
+  /**
+   * Instantiates a new self-contained token store.
+   *
+   * @param delegate the store that keeps refresh tokens and issued access tokens
+   * @param converter the converter that verifies and decodes access tokens
+   */
+  public SelfContainedTokenStore(UserTokenStore delegate, SignedJwtAccessTokenConverter converter) {
+    this.delegate = delegate;
+    this.converter = converter;
+  }
+
+  @Override
+  public OAuth2AccessToken readAccessToken(String tokenValue) {
+    if (!isJwt(tokenValue)) {
+      return delegate.readAccessToken(tokenValue);
+    }
+    OAuth2AccessToken token = converter.extractAccessToken(tokenValue, converter.decode(tokenValue));
+    if (converter.isRefreshToken(token)) {
+      throw new InvalidTokenException("Encoded token is a refresh token");
+    }
+    return token;
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+    return readAuthentication(token.getValue());
+  }
+
+  @Override
+  public OAuth2Authentication readAuthentication(String tokenValue) {
+    if (!isJwt(tokenValue)) {
+      return delegate.readAuthentication(tokenValue);
+    }
+    return converter.extractAuthentication(converter.decode(tokenValue));
+  }
+
+  @Override
+  public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+    delegate.storeAccessToken(token, authentication);
+  }
+
+  @Override
+  public void removeAccessToken(OAuth2AccessToken token) {
+    delegate.removeAccessToken(token);
+  }
+
+  @Override
+  public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+    return delegate.getAccessToken(authentication);
+  }
+
+  @Override
+  public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+    delegate.storeRefreshToken(refreshToken, authentication);
+  }
+
+  @Override
+  public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+    return delegate.readRefreshToken(tokenValue);
+  }
+
+  @Override
+  public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+    return delegate.readAuthenticationForRefreshToken(token);
+  }
+
+  @Override
+  public void removeRefreshToken(OAuth2RefreshToken token) {
+    delegate.removeRefreshToken(token);
+  }
+
+  @Override
+  public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+    delegate.removeAccessTokenUsingRefreshToken(refreshToken);
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+    return delegate.findTokensByClientIdAndUserName(clientId, userName);
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+    return delegate.findTokensByClientId(clientId);
+  }
+
+  @Override
+  public Collection<OAuth2AccessToken> findTokensByUserName(String userName) {
+    return delegate.findTokensByUserName(userName);
+  }
+
+  @Override
+  public int removeTokensByUserName(String userName) {
+    return delegate.removeTokensByUserName(userName);
+  }
+
+  private static boolean isJwt(String tokenValue) {
+    int first = tokenValue.indexOf('.');
+    return first > 0 && tokenValue.indexOf('.', first + 1) > first;
+  }
+}
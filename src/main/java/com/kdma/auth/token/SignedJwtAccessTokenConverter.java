@@ -0,0 +1,103 @@
+
+package com.kdma.auth.token;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.common.util.JsonParser;
+import org.springframework.security.oauth2.common.util.JsonParserFactory;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+/**
+ * {@link JwtAccessTokenConverter} that signs access tokens with the current key of a {@link JwtKeySet} and names it
+ * in the {@code kid} header, and verifies tokens with whichever key of the set signed them.
+ *
+ * <p>
+ * Only the access token becomes a JWT. Refresh tokens stay opaque so they can still be looked up and revoked in the
+ * token store.
+ * </p>
+ */
+public class SignedJwtAccessTokenConverter extends JwtAccessTokenConverter {
+
+  private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+  private final JwtKeySet keySet;
+
+  private final JsonParser jsonParser = JsonParserFactory.create();
+
+  /**
+   * Instantiates a new signed JWT access token converter.
+   *
+   * @param keySet the signing and verification keys
+   */
+  public SignedJwtAccessTokenConverter(JwtKeySet keySet) {
+    this.keySet = keySet;
+  }
+
+  @Override
+  public OAuth2AccessToken enhance(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+    DefaultOAuth2AccessToken result = new DefaultOAuth2AccessToken(accessToken);
+    Map<String, Object> info = new LinkedHashMap<>(accessToken.getAdditionalInformation());
+    info.putIfAbsent(TOKEN_ID, accessToken.getValue());
+    result.setAdditionalInformation(info);
+    result.setValue(encode(result, authentication));
+    return result;
+  }
+
+  @Override
+  protected String encode(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+    JwtKey key = keySet.getSigningKey();
+    Map<String, Object> header = new LinkedHashMap<>();
+    header.put("alg", key.getAlgorithm());
+    header.put("typ", "JWT");
+    header.put("kid", key.getKeyId());
+    String claims = jsonParser.formatMap(getAccessTokenConverter().convertAccessToken(accessToken, authentication));
+
+    String signingInput = encodeSegment(jsonParser.formatMap(header)) + "." + encodeSegment(claims);
+    byte[] signature = key.sign(signingInput.getBytes(StandardCharsets.US_ASCII));
+    return signingInput + "." + BASE64.encodeToString(signature);
+  }
+
+  @Override
+  protected Map<String, Object> decode(String token) {
+    Map<String, Object> claims;
+    try {
+      Map<String, String> headers = JwtHelper.headers(token);
+      JwtKey key = keySet.find(headers.get("kid"));
+      if (key == null || !key.getAlgorithm().equals(headers.get("alg"))) {
+        throw new InvalidTokenException("Token is not signed by a known key");
+      }
+      Jwt jwt = JwtHelper.decodeAndVerify(token, key.getVerifier());
+      claims = jsonParser.parseMap(jwt.getClaims());
+    } catch (InvalidTokenException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw new InvalidTokenException("Cannot decode access token", e);
+    }
+    if (claims.get(EXP) instanceof Integer) {
+      claims.put(EXP, ((Integer) claims.get(EXP)).longValue());
+    }
+    getJwtClaimsSetVerifier().verify(claims);
+    return claims;
+  }
+
+  /**
+   * Keys come from the key set, so there is no MAC key or verifier key to check.
+   */
+  @Override
+  public void afterPropertiesSet() {
+    // Nothing to do
+  }
+
+  private static String encodeSegment(String json) {
+    return BASE64.encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+}
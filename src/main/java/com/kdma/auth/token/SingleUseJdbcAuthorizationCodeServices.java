@@ -0,0 +1,61 @@
+
+package com.kdma.auth.token;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.code.JdbcAuthorizationCodeServices;
+
+/**
+ * Authorization codes in the {@code oauth_code} table, for deployments where a code may be redeemed on another
+ * instance than the one that issued it. Codes older than the time to live are refused, like in memory, and removed by
+ * the token reaper.
+ *
+ * <p>
+ * The stock implementation reads a code and then deletes it without looking at whether the delete removed anything,
+ * so two concurrent redemptions of one code could both succeed. Here only the redemption whose delete removed the
+ * unexpired row gets the authentication.
+ * </p>
+ */
+public class SingleUseJdbcAuthorizationCodeServices extends JdbcAuthorizationCodeServices {
+
+  private static final String SELECT_AUTHENTICATION_SQL =
+      "select code, authentication from oauth_code where code = ? and created_at >= ?";
+
+  private static final String DELETE_CODE_SQL = "delete from oauth_code where code = ? and created_at >= ?";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final Duration timeToLive;
+
+  /**
+   * Instantiates a new single use jdbc authorization code services.
+   *
+   * @param dataSource the data source
+   * @param timeToLive how long a code may go unused
+   */
+  public SingleUseJdbcAuthorizationCodeServices(DataSource dataSource, Duration timeToLive) {
+    super(dataSource);
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    this.timeToLive = timeToLive;
+  }
+
+  @Override
+  public OAuth2Authentication remove(String code) {
+    Timestamp issuedAfter = Timestamp.from(Instant.now().minus(timeToLive));
+    List<OAuth2Authentication> authentications = jdbcTemplate.query(
+        SELECT_AUTHENTICATION_SQL, (rs, rowNum) -> SerializationUtils.deserialize(rs.getBytes("authentication")), code,
+        issuedAfter);
+    if (authentications.isEmpty()) {
+      return null;
+    }
+    return jdbcTemplate.update(DELETE_CODE_SQL, code, issuedAfter) == 1 ? authentications.get(0) : null;
+  }
+}
@@ -0,0 +1,558 @@
+
+package com.kdma.auth.token;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+/**
+ * Compact, versioned binary format for persisted tokens and authentications.
+ *
+ * <p>
+ * Every encoded value starts with a magic byte, a format version and a record type, followed by the fields the
+ * authorization server actually needs. User principals are persisted by name and authorities only. Values holding
+ * anything the format cannot represent, such as custom principal details, fall back to Java serialization, and
+ * Java serialized values (including every row written before this format existed) are still decoded.
+ * </p>
+ */
+public class TokenCodec {
+
+  static final byte MAGIC = (byte) 0xC7;
+
+  static final byte VERSION = 1;
+
+  /** Magic, version and record type. */
+  private static final int HEADER_LENGTH = 3;
+
+  private static final byte ACCESS_TOKEN = 1;
+
+  private static final byte REFRESH_TOKEN = 2;
+
+  private static final byte AUTHENTICATION = 3;
+
+  private static final byte NULL = 0;
+
+  private static final byte STRING = 1;
+
+  private static final byte LONG = 2;
+
+  private static final byte INTEGER = 3;
+
+  private static final byte BOOLEAN = 4;
+
+  private final boolean compact;
+
+  /**
+   * Instantiates a new token codec that writes the compact format.
+   */
+  public TokenCodec() {
+    this(true);
+  }
+
+  /**
+   * Instantiates a new token codec.
+   *
+   * @param compact whether to write the compact format, or keep writing Java serialization while still reading both
+   */
+  public TokenCodec(boolean compact) {
+    this.compact = compact;
+  }
+
+  /**
+   * Encode an access token.
+   *
+   * @param token the token
+   * @return the encoded token
+   */
+  public byte[] encodeAccessToken(OAuth2AccessToken token) {
+    if (!compact) {
+      return SerializationUtils.serialize(token);
+    }
+    try {
+      Output out = new Output(ACCESS_TOKEN);
+      out.writeString(token.getValue());
+      out.writeString(token.getTokenType());
+      out.writeDate(token.getExpiration());
+      out.writeStrings(token.getScope());
+      out.writeRefreshToken(token.getRefreshToken());
+      out.writeValues(token.getAdditionalInformation());
+      return out.toByteArray();
+    } catch (UnsupportedContentException e) {
+      return SerializationUtils.serialize(token);
+    }
+  }
+
+  /**
+   * Decode an access token.
+   *
+   * @param bytes the encoded token
+   * @return the token
+   */
+  public OAuth2AccessToken decodeAccessToken(byte[] bytes) {
+    if (!isCompact(bytes)) {
+      return SerializationUtils.deserialize(bytes);
+    }
+    Input in = new Input(bytes, ACCESS_TOKEN);
+    DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(in.readString());
+    token.setTokenType(in.readString());
+    token.setExpiration(in.readDate());
+    token.setScope(in.readStrings());
+    token.setRefreshToken(in.readRefreshToken());
+    token.setAdditionalInformation(in.readValues());
+    return token;
+  }
+
+  /**
+   * Encode a refresh token.
+   *
+   * @param token the token
+   * @return the encoded token
+   */
+  public byte[] encodeRefreshToken(OAuth2RefreshToken token) {
+    if (!compact) {
+      return SerializationUtils.serialize(token);
+    }
+    try {
+      Output out = new Output(REFRESH_TOKEN);
+      out.writeRefreshToken(token);
+      return out.toByteArray();
+    } catch (UnsupportedContentException e) {
+      return SerializationUtils.serialize(token);
+    }
+  }
+
+  /**
+   * Decode a refresh token.
+   *
+   * @param bytes the encoded token
+   * @return the token
+   */
+  public OAuth2RefreshToken decodeRefreshToken(byte[] bytes) {
+    if (!isCompact(bytes)) {
+      return SerializationUtils.deserialize(bytes);
+    }
+    return new Input(bytes, REFRESH_TOKEN).readRefreshToken();
+  }
+
+  /**
+   * Encode an authentication.
+   *
+   * @param authentication the authentication
+   * @return the encoded authentication
+   */
+  public byte[] encodeAuthentication(OAuth2Authentication authentication) {
+    if (!compact) {
+      return SerializationUtils.serialize(authentication);
+    }
+    try {
+      Output out = new Output(AUTHENTICATION);
+      out.writeRequest(authentication.getOAuth2Request());
+      out.writeUserAuthentication(authentication.getUserAuthentication());
+      if (authentication.getDetails() != null) {
+        throw new UnsupportedContentException();
+      }
+      return out.toByteArray();
+    } catch (UnsupportedContentException e) {
+      return SerializationUtils.serialize(authentication);
+    }
+  }
+
+  /**
+   * Decode an authentication.
+   *
+   * @param bytes the encoded authentication
+   * @return the authentication
+   */
+  public OAuth2Authentication decodeAuthentication(byte[] bytes) {
+    if (!isCompact(bytes)) {
+      return SerializationUtils.deserialize(bytes);
+    }
+    Input in = new Input(bytes, AUTHENTICATION);
+    OAuth2Request request = in.readRequest();
+    return new OAuth2Authentication(request, in.readUserAuthentication());
+  }
+
+  /**
+   * Whether the given value was written in the compact format rather than with Java serialization.
+   *
+   * @param bytes the encoded value
+   * @return true, if compact
+   */
+  public static boolean isCompact(byte[] bytes) {
+    return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+  }
+
+  /**
+   * Thrown while encoding when a value holds something the compact format cannot represent.
+   */
+  private static class UnsupportedContentException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedContentException() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final class Output {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    Output(byte type) {
+      bytes.write(MAGIC);
+      bytes.write(VERSION);
+      bytes.write(type);
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+
+    void writeRequest(OAuth2Request request) {
+      writeString(request.getClientId());
+      writeBoolean(request.isApproved());
+      writeStrings(request.getScope());
+      writeStrings(request.getResourceIds());
+      writeString(request.getRedirectUri());
+      writeStrings(request.getResponseTypes());
+      writeStringMap(request.getRequestParameters());
+      writeStrings(AuthorityUtils.authorityListToSet(request.getAuthorities()));
+      writeValues(request.getExtensions());
+    }
+
+    void writeUserAuthentication(Authentication authentication) {
+      if (authentication == null) {
+        writeBoolean(false);
+        return;
+      }
+      if (!(authentication instanceof UsernamePasswordAuthenticationToken)) {
+        throw new UnsupportedContentException();
+      }
+      writeBoolean(true);
+      writeString(authentication.getName());
+      writeBoolean(authentication.isAuthenticated());
+      writeStrings(AuthorityUtils.authorityListToSet(authentication.getAuthorities()));
+      writeDetails(authentication.getDetails());
+    }
+
+    void writeDetails(Object details) {
+      if (details == null) {
+        writeBoolean(false);
+        return;
+      }
+      if (!(details instanceof Map)) {
+        throw new UnsupportedContentException();
+      }
+      Map<?, ?> map = (Map<?, ?>) details;
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) {
+          throw new UnsupportedContentException();
+        }
+      }
+      writeBoolean(true);
+      @SuppressWarnings("unchecked")
+      Map<String, String> strings = (Map<String, String>) map;
+      writeStringMap(strings);
+    }
+
+    void writeRefreshToken(OAuth2RefreshToken token) {
+      if (token == null) {
+        writeBoolean(false);
+        return;
+      }
+      if (!(token instanceof DefaultOAuth2RefreshToken)) {
+        throw new UnsupportedContentException();
+      }
+      writeBoolean(true);
+      writeString(token.getValue());
+      writeDate(token instanceof ExpiringOAuth2RefreshToken
+          ? ((ExpiringOAuth2RefreshToken) token).getExpiration() : null);
+    }
+
+    void writeValues(Map<String, ?> values) {
+      writeVarInt(values == null ? 0 : values.size());
+      if (values == null) {
+        return;
+      }
+      for (Map.Entry<String, ?> entry : values.entrySet()) {
+        writeString(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    void writeValue(Object value) {
+      if (value == null) {
+        writeByte(NULL);
+      } else if (value instanceof String) {
+        writeByte(STRING);
+        writeString((String) value);
+      } else if (value instanceof Long) {
+        writeByte(LONG);
+        writeLong((Long) value);
+      } else if (value instanceof Integer) {
+        writeByte(INTEGER);
+        writeVarInt((Integer) value);
+      } else if (value instanceof Boolean) {
+        writeByte(BOOLEAN);
+        writeBoolean((Boolean) value);
+      } else {
+        throw new UnsupportedContentException();
+      }
+    }
+
+    void writeStringMap(Map<String, String> map) {
+      writeVarInt(map == null ? 0 : map.size());
+      if (map == null) {
+        return;
+      }
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        writeString(entry.getKey());
+        writeString(entry.getValue());
+      }
+    }
+
+    void writeStrings(Collection<String> strings) {
+      writeVarInt(strings == null ? 0 : strings.size());
+      if (strings == null) {
+        return;
+      }
+      for (String string : strings) {
+        writeString(string);
+      }
+    }
+
+    void writeDate(Date date) {
+      writeBoolean(date != null);
+      if (date != null) {
+        writeLong(date.getTime());
+      }
+    }
+
+    /**
+     * Strings are written as their UTF-8 length plus one, so that zero can stand for null.
+     */
+    void writeString(String string) {
+      if (string == null) {
+        writeVarInt(0);
+        return;
+      }
+      byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(utf8.length + 1);
+      bytes.write(utf8, 0, utf8.length);
+    }
+
+    void writeVarInt(int value) {
+      int remaining = value;
+      while ((remaining & ~0x7F) != 0) {
+        bytes.write((remaining & 0x7F) | 0x80);
+        remaining >>>= 7;
+      }
+      bytes.write(remaining);
+    }
+
+    void writeBoolean(boolean value) {
+      bytes.write(value ? 1 : 0);
+    }
+
+    void writeByte(byte value) {
+      bytes.write(value);
+    }
+
+    void writeLong(long value) {
+      try {
+        out.writeLong(value);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private static final class Input {
+
+    private final DataInputStream in;
+
+    Input(byte[] bytes, byte type) {
+      if (bytes[1] != VERSION) {
+        throw new IllegalArgumentException("Unsupported token format version " + bytes[1]);
+      }
+      if (bytes[2] != type) {
+        throw new IllegalArgumentException("Unexpected token record type " + bytes[2]);
+      }
+      this.in = new DataInputStream(new ByteArrayInputStream(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH));
+    }
+
+    OAuth2Request readRequest() {
+      String clientId = readString();
+      boolean approved = readBoolean();
+      Set<String> scope = readStrings();
+      Set<String> resourceIds = readStrings();
+      String redirectUri = readString();
+      Set<String> responseTypes = readStrings();
+      Map<String, String> requestParameters = readStringMap();
+      List<GrantedAuthority> authorities = readAuthorities();
+      Map<String, Serializable> extensions = new LinkedHashMap<>();
+      readValues().forEach((key, value) -> extensions.put(key, (Serializable) value));
+      return new OAuth2Request(requestParameters, clientId, authorities, approved, scope, resourceIds, redirectUri,
+                               responseTypes, extensions);
+    }
+
+    Authentication readUserAuthentication() {
+      if (!readBoolean()) {
+        return null;
+      }
+      String name = readString();
+      boolean authenticated = readBoolean();
+      List<GrantedAuthority> authorities = readAuthorities();
+      UsernamePasswordAuthenticationToken authentication = authenticated
+          ? new UsernamePasswordAuthenticationToken(name, null, authorities)
+          : new UsernamePasswordAuthenticationToken(name, null);
+      if (readBoolean()) {
+        authentication.setDetails(readStringMap());
+      }
+      return authentication;
+    }
+
+    OAuth2RefreshToken readRefreshToken() {
+      if (!readBoolean()) {
+        return null;
+      }
+      String value = readString();
+      Date expiration = readDate();
+      return expiration == null ? new DefaultOAuth2RefreshToken(value)
+          : new DefaultExpiringOAuth2RefreshToken(value, expiration);
+    }
+
+    List<GrantedAuthority> readAuthorities() {
+      Set<String> names = readStrings();
+      return names.isEmpty() ? new ArrayList<>()
+          : AuthorityUtils.createAuthorityList(names.toArray(new String[0]));
+    }
+
+    Map<String, Object> readValues() {
+      int size = readVarInt();
+      Map<String, Object> values = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        values.put(readString(), readValue());
+      }
+      return values;
+    }
+
+    Object readValue() {
+      byte tag = readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          return readString();
+        case LONG:
+          return readLong();
+        case INTEGER:
+          return readVarInt();
+        case BOOLEAN:
+          return readBoolean();
+        default:
+          throw new IllegalArgumentException("Unknown value tag " + tag);
+      }
+    }
+
+    Map<String, String> readStringMap() {
+      int size = readVarInt();
+      if (size == 0) {
+        return Collections.emptyMap();
+      }
+      Map<String, String> map = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        map.put(readString(), readString());
+      }
+      return map;
+    }
+
+    Set<String> readStrings() {
+      int size = readVarInt();
+      Set<String> strings = new LinkedHashSet<>();
+      for (int i = 0; i < size; i++) {
+        strings.add(readString());
+      }
+      return strings;
+    }
+
+    Date readDate() {
+      return readBoolean() ? new Date(readLong()) : null;
+    }
+
+    String readString() {
+      int length = readVarInt();
+      if (length == 0) {
+        return null;
+      }
+      byte[] utf8 = new byte[length - 1];
+      try {
+        in.readFully(utf8);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Truncated token record", e);
+      }
+      return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = readByte();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    boolean readBoolean() {
+      return readByte() != 0;
+    }
+
+    byte readByte() {
+      try {
+        return in.readByte();
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Truncated token record", e);
+      }
+    }
+
+    long readLong() {
+      try {
+        return in.readLong();
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Truncated token record", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,205 @@
+
+package com.kdma.auth.token;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of changes to a {@link JournaledTokenStore}, compacted into a snapshot from time to time.
+ *
+ * <p>
+ * The snapshot and the journal hold the same records: a type byte, the payload length, the payload and a CRC32 of
+ * type and payload. Both are read through a memory mapping on recovery, and the snapshot is written through one. A
+ * record torn by a crash ends the journal; everything before it is kept.
+ * </p>
+ *
+ * <p>
+ * Taking a snapshot first moves the journal aside and starts a new one, then writes the snapshot while changes carry
+ * on into the new journal. Every record sets or removes one token outright, so replaying the new journal over a
+ * snapshot that already has some of its changes still ends in the right state. The old journal is only deleted once
+ * the snapshot is safely in place.
+ * </p>
+ */
+@Slf4j
+class TokenJournal implements Closeable {
+
+  private static final int HEADER_LENGTH = 5;
+
+  private static final int CRC_LENGTH = 4;
+
+  private final Path snapshot;
+
+  private final Path snapshotInProgress;
+
+  private final Path journal;
+
+  private final Path previousJournal;
+
+  private OutputStream out;
+
+  /**
+   * A record read back from the snapshot or journal.
+   */
+  interface Handler {
+
+    void record(byte type, ByteBuffer payload);
+  }
+
+  /**
+   * Instantiates a new token journal.
+   *
+   * @param directory the directory holding the snapshot and journal files
+   * @throws IOException if the directory cannot be created
+   */
+  TokenJournal(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    this.snapshot = directory.resolve("tokens.snapshot");
+    this.snapshotInProgress = directory.resolve("tokens.snapshot.tmp");
+    this.journal = directory.resolve("tokens.journal");
+    this.previousJournal = directory.resolve("tokens.journal.previous");
+  }
+
+  /**
+   * Replays the snapshot and then the journals, and opens the journal for appending.
+   *
+   * @param handler receives every record in order
+   * @return the number of records replayed
+   * @throws IOException if a file cannot be read
+   */
+  synchronized int recover(Handler handler) throws IOException {
+    Files.deleteIfExists(snapshotInProgress);
+    int records = replay(snapshot, handler) + replay(previousJournal, handler) + replay(journal, handler);
+    out = open();
+    return records;
+  }
+
+  /**
+   * Appends a record and flushes it to the operating system, so it survives the process dying.
+   *
+   * @param type the record type
+   * @param payload the record payload
+   * @throws IOException if the journal cannot be written
+   */
+  synchronized void append(byte type, byte[] payload) throws IOException {
+    out.write(frame(type, payload));
+    out.flush();
+  }
+
+  /**
+   * Starts a new journal before a snapshot is taken. If the last snapshot failed, its journal is still needed, and
+   * changes keep going to the current journal instead.
+   *
+   * @throws IOException if the journal cannot be moved
+   */
+  synchronized void rotate() throws IOException {
+    if (Files.exists(previousJournal)) {
+      return;
+    }
+    out.close();
+    Files.move(journal, previousJournal, StandardCopyOption.ATOMIC_MOVE);
+    out = open();
+  }
+
+  /**
+   * Writes the given records as the new snapshot and drops the journal it replaces.
+   *
+   * @param records the framed records, see {@link #frame(byte, byte[])}
+   * @throws IOException if the snapshot cannot be written
+   */
+  void writeSnapshot(List<byte[]> records) throws IOException {
+    long size = 0;
+    for (byte[] record : records) {
+      size += record.length;
+    }
+    try (FileChannel channel = FileChannel.open(snapshotInProgress, StandardOpenOption.CREATE,
+                                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      for (byte[] record : records) {
+        buffer.put(record);
+      }
+      buffer.force();
+    }
+    Files.move(snapshotInProgress, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    Files.deleteIfExists(previousJournal);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+    }
+  }
+
+  /**
+   * Frames a record the way it is written to the snapshot and journal.
+   *
+   * @param type the record type
+   * @param payload the record payload
+   * @return the framed record
+   */
+  static byte[] frame(byte type, byte[] payload) {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length + CRC_LENGTH);
+    buffer.put(type).putInt(payload.length).put(payload).putInt(checksum(type, ByteBuffer.wrap(payload)));
+    return buffer.array();
+  }
+
+  private OutputStream open() throws IOException {
+    return new BufferedOutputStream(
+        Files.newOutputStream(journal, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+  }
+
+  private int replay(Path file, Handler handler) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    int records = 0;
+    long valid = 0;
+    long size;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      size = channel.size();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      while (buffer.remaining() >= HEADER_LENGTH) {
+        final byte type = buffer.get();
+        int length = buffer.getInt();
+        if (length < 0 || buffer.remaining() < length + CRC_LENGTH) {
+          break;
+        }
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        buffer.position(buffer.position() + length);
+        if (buffer.getInt() != checksum(type, payload.duplicate())) {
+          break;
+        }
+        handler.record(type, payload);
+        records++;
+        valid = buffer.position();
+      }
+      if (valid < size) {
+        log.warn("Ignoring {} bytes of incomplete records at the end of {}", size - valid, file);
+        channel.truncate(valid);
+      }
+    }
+    return records;
+  }
+
+  private static int checksum(byte type, ByteBuffer payload) {
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,41 @@
+
+package com.kdma.auth.token;
+
+import java.util.Collection;
+
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+/**
+ * A {@link TokenStore} that can look up every token issued to a user, regardless of client.
+ */
+public interface UserTokenStore extends TokenStore {
+
+  /**
+   * Find all access tokens issued to the user with the given username.
+   *
+   * @param userName the username
+   * @return the access tokens, never null
+   */
+  Collection<OAuth2AccessToken> findTokensByUserName(String userName);
+
+  /**
+   * Remove every access and refresh token issued to the user with the given username. The default removes them one
+   * at a time; stores that can should do it in bulk.
+   *
+   * @param userName the username
+   * @return the number of tokens removed
+   */
+  default int removeTokensByUserName(String userName) {
+    int removed = 0;
+    for (OAuth2AccessToken token : findTokensByUserName(userName)) {
+      removeAccessToken(token);
+      removed++;
+      if (token.getRefreshToken() != null) {
+        removeRefreshToken(token.getRefreshToken());
+        removed++;
+      }
+    }
+    return removed;
+  }
+}
@@ -0,0 +1,144 @@
+
+package db.migration;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+
+/**
+ * Fills in the expiration column added by V4 for tokens stored before it existed. The expiry is only held inside the
+ * token BLOB, so every row is decoded once here; tokens that cannot be decoded, or never expire, are left without one.
+ * The class name is how Flyway versions Java migrations.
+ *
+ * <p>
+ * Tokens are read a batch at a time in the order of their ids. The BLOBs are either Java serialized or in version 1 of
+ * the compact format, which is read here rather than through the application's codec, so the migration keeps doing
+ * what it did when the codec changes.
+ * </p>
+ */
+@Slf4j
+@SuppressWarnings("checkstyle:typename")
+public class V4_1__Backfill_token_expiration extends BaseJavaMigration {
+
+  private static final int BATCH_SIZE = 500;
+
+  private static final byte MAGIC = (byte) 0xC7;
+
+  private static final byte VERSION = 1;
+
+  private static final byte ACCESS_TOKEN = 1;
+
+  private static final byte REFRESH_TOKEN = 2;
+
+  private static final int HEADER_LENGTH = 3;
+
+  @Override
+  public void migrate(Context context) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(context.getConnection(), true));
+    backfill(jdbcTemplate, "oauth_access_token", ACCESS_TOKEN);
+    backfill(jdbcTemplate, "oauth_refresh_token", REFRESH_TOKEN);
+  }
+
+  private static void backfill(JdbcTemplate jdbcTemplate, String table, byte type) {
+    String select = "select token_id, token from " + table + " where expiration is null and token_id > ? "
+                    + "order by token_id limit " + BATCH_SIZE;
+    String update = "update " + table + " set expiration = ? where token_id = ?";
+    long backfilled = 0;
+    String lastTokenId = "";
+    List<Object[]> batch;
+    do {
+      batch = jdbcTemplate.query(select, (rs, rowNum) -> row(rs, table, type), lastTokenId);
+      List<Object[]> updates = batch.stream().filter(row -> row[0] != null).collect(Collectors.toList());
+      if (!updates.isEmpty()) {
+        jdbcTemplate.batchUpdate(update, updates);
+        backfilled += updates.size();
+      }
+      if (!batch.isEmpty()) {
+        lastTokenId = (String) batch.get(batch.size() - 1)[1];
+      }
+    } while (batch.size() == BATCH_SIZE);
+    log.info("Backfilled expiration of {} tokens in {}", backfilled, table);
+  }
+
+  /**
+   * Reads a row as the parameters of its update: the expiration, or null when there is none, and the token id.
+   */
+  private static Object[] row(ResultSet rs, String table, byte type) throws SQLException {
+    String tokenId = rs.getString(1);
+    Timestamp expiration = null;
+    try {
+      Date date = expiration(rs.getBytes(2), type);
+      if (date != null) {
+        expiration = new Timestamp(date.getTime());
+      }
+    } catch (RuntimeException e) {
+      log.warn("Cannot read expiration of token {} in {}: {}", tokenId, table, e.getMessage());
+    }
+    return new Object[] {expiration, tokenId};
+  }
+
+  private static Date expiration(byte[] bytes, byte type) {
+    if (bytes.length < HEADER_LENGTH || bytes[0] != MAGIC) {
+      Object token = SerializationUtils.deserialize(bytes);
+      if (token instanceof OAuth2AccessToken) {
+        return ((OAuth2AccessToken) token).getExpiration();
+      }
+      return token instanceof ExpiringOAuth2RefreshToken ? ((ExpiringOAuth2RefreshToken) token).getExpiration()
+          : null;
+    }
+    if (bytes[1] != VERSION || bytes[2] != type) {
+      throw new IllegalArgumentException("Unexpected token format " + bytes[1] + " or record type " + bytes[2]);
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, HEADER_LENGTH,
+                                                                      bytes.length - HEADER_LENGTH));
+    try {
+      if (type == ACCESS_TOKEN) {
+        // Value and token type come before the expiration
+        skipString(in);
+        skipString(in);
+      } else {
+        if (in.readUnsignedByte() == 0) {
+          return null;
+        }
+        // The value comes before the expiration
+        skipString(in);
+      }
+      return in.readUnsignedByte() != 0 ? new Date(in.readLong()) : null;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Truncated token record", e);
+    }
+  }
+
+  /**
+   * Skips a string, written as its UTF-8 length plus one in a variable length integer and then the bytes.
+   */
+  private static void skipString(DataInputStream in) throws IOException {
+    int length = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = in.readUnsignedByte();
+      length |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    if (length > 0) {
+      in.readFully(new byte[length - 1]);
+    }
+  }
+}
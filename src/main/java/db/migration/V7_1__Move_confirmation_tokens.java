@@ -0,0 +1,96 @@
+
+package db.migration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Moves the confirmation tokens still held on users into verification_tokens, hashed. The purpose was never stored,
+ * so it is inferred: a pending e-mail address means an e-mail change, a disabled user a registration, anything else a
+ * password reset. Tokens get the default lifetime from when they were issued.
+ *
+ * <p>
+ * Users are read a batch at a time in the order of their ids. The hash and the purposes are written out here rather
+ * than taken from the application, so the migration keeps doing what it did when the application changes.
+ * </p>
+ */
+@Slf4j
+@SuppressWarnings("checkstyle:typename")
+public class V7_1__Move_confirmation_tokens extends BaseJavaMigration {
+
+  private static final int BATCH_SIZE = 500;
+
+  private static final Duration TIME_TO_LIVE = Duration.ofHours(24);
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private static final String SELECT = "select user_id, enabled, pending_email, confirmation_token, "
+                                       + "confirmation_token_created from users where confirmation_token is not null "
+                                       + "and user_id > ? order by user_id limit " + BATCH_SIZE;
+
+  private static final String INSERT = "insert into verification_tokens (token_hash, purpose, user_id, expires_at) "
+                                       + "values (?, ?, ?, ?)";
+
+  @Override
+  public void migrate(Context context) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(context.getConnection(), true));
+    Instant now = Instant.now();
+    long moved = 0;
+    long lastUserId = 0;
+    List<Object[]> tokens;
+    do {
+      tokens = jdbcTemplate.query(SELECT, (rs, rowNum) -> token(rs, now), lastUserId);
+      if (!tokens.isEmpty()) {
+        jdbcTemplate.batchUpdate(INSERT, tokens);
+        moved += tokens.size();
+        lastUserId = (Long) tokens.get(tokens.size() - 1)[2];
+      }
+    } while (tokens.size() == BATCH_SIZE);
+    log.info("Moved {} confirmation tokens to verification_tokens", moved);
+  }
+
+  private static Object[] token(ResultSet rs, Instant now) throws SQLException {
+    String purpose;
+    if (rs.getString("pending_email") != null) {
+      purpose = "EMAIL_CHANGE";
+    } else if (rs.getBoolean("enabled")) {
+      purpose = "PASSWORD_RESET";
+    } else {
+      purpose = "REGISTRATION";
+    }
+    Timestamp created = rs.getTimestamp("confirmation_token_created");
+    Instant issued = created != null ? created.toInstant() : now;
+    return new Object[] {
+        hash(rs.getString("confirmation_token")), purpose, rs.getLong("user_id"),
+        Timestamp.from(issued.plus(TIME_TO_LIVE))
+    };
+  }
+
+  private static String hash(String token) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+      char[] hex = new char[digest.length * 2];
+      for (int i = 0; i < digest.length; i++) {
+        hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+        hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
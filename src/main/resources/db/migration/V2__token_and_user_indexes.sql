@@ -0,0 +1,14 @@
+/**
+ * Indexes for the lookups JdbcTokenStore, JdbcAuthorizationCodeServices and UserRepository run on every request
+ */
+
+CREATE INDEX idx_access_token_token_id ON oauth_access_token (token_id);
+CREATE INDEX idx_access_token_user_client ON oauth_access_token (user_name, client_id);
+CREATE INDEX idx_access_token_client_id ON oauth_access_token (client_id);
+CREATE INDEX idx_access_token_refresh_token ON oauth_access_token (refresh_token);
+
+CREATE INDEX idx_refresh_token_token_id ON oauth_refresh_token (token_id);
+
+CREATE INDEX idx_code_code ON oauth_code (code);
+
+CREATE INDEX idx_users_confirmation_token ON users (confirmation_token);
@@ -0,0 +1,12 @@
+/**
+ * Record the user on refresh tokens so all of a user's tokens can be revoked with set-based deletes
+ */
+
+ALTER TABLE oauth_refresh_token ADD COLUMN user_name VARCHAR(255);
+
+UPDATE oauth_refresh_token SET user_name = (
+  SELECT MAX(oauth_access_token.user_name) FROM oauth_access_token
+  WHERE oauth_access_token.refresh_token = oauth_refresh_token.token_id
+);
+
+CREATE INDEX idx_refresh_token_user_name ON oauth_refresh_token (user_name);
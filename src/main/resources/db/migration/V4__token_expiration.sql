@@ -0,0 +1,18 @@
+/**
+ * Expiry columns so expired tokens, codes and confirmation tokens can be found without deserializing their BLOBs.
+ * Existing token rows are backfilled by V4_1.
+ */
+
+ALTER TABLE oauth_access_token ADD COLUMN expiration TIMESTAMP;
+CREATE INDEX idx_access_token_expiration ON oauth_access_token (expiration);
+
+ALTER TABLE oauth_refresh_token ADD COLUMN expiration TIMESTAMP;
+CREATE INDEX idx_refresh_token_expiration ON oauth_refresh_token (expiration);
+
+ALTER TABLE oauth_code ADD COLUMN created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP;
+CREATE INDEX idx_code_created_at ON oauth_code (created_at);
+
+UPDATE users SET confirmation_token = NULL WHERE confirmation_token = '';
+ALTER TABLE users ADD COLUMN confirmation_token_created TIMESTAMP;
+UPDATE users SET confirmation_token_created = CURRENT_TIMESTAMP WHERE confirmation_token IS NOT NULL;
+CREATE INDEX idx_users_confirmation_token_created ON users (confirmation_token_created);
@@ -0,0 +1,5 @@
+/**
+ * Optimistic lock version of users, bumped on every change and published as the ETag of /user.
+ */
+
+ALTER TABLE users ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
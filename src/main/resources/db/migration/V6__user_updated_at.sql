@@ -0,0 +1,6 @@
+/**
+ * When each user last changed, so exports can pick up only the users changed since the previous run.
+ */
+
+ALTER TABLE users ADD COLUMN updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL;
+CREATE INDEX idx_users_updated_at ON users (updated_at, user_id);
@@ -0,0 +1,8 @@
+/**
+ * Confirmation tokens now live in verification_tokens.
+ */
+
+DROP INDEX IF EXISTS idx_users_confirmation_token;
+DROP INDEX IF EXISTS idx_users_confirmation_token_created;
+ALTER TABLE users DROP COLUMN confirmation_token;
+ALTER TABLE users DROP COLUMN confirmation_token_created;
@@ -0,0 +1,17 @@
+/**
+ * Registration, password reset and e-mail change tokens, stored hashed with their purpose and expiry instead of in
+ * users.confirmation_token. Existing tokens are moved over by V7_1, then the old columns are dropped by V7_2.
+ */
+
+CREATE TABLE verification_tokens (
+  id BIGINT PRIMARY KEY auto_increment NOT NULL,
+  token_hash VARCHAR(64) NOT NULL,
+  purpose VARCHAR(16) NOT NULL,
+  user_id BIGINT NOT NULL,
+  expires_at TIMESTAMP NOT NULL,
+  CONSTRAINT fk_verification_tokens_user FOREIGN KEY (user_id) REFERENCES users (user_id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE UNIQUE INDEX idx_verification_tokens_token_hash ON verification_tokens (token_hash);
+CREATE INDEX idx_verification_tokens_user_purpose ON verification_tokens (user_id, purpose);
+CREATE INDEX idx_verification_tokens_expires_at ON verification_tokens (expires_at);
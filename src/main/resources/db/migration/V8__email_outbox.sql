@@ -0,0 +1,19 @@
+/**
+ * E-mails waiting to be sent, written in the same transaction as the change they report and sent in the background.
+ * A row is deleted once its e-mail has been sent.
+ */
+
+CREATE TABLE email_outbox (
+  id BIGINT PRIMARY KEY auto_increment NOT NULL,
+  recipient VARCHAR(128) NOT NULL,
+  sender VARCHAR(128) NOT NULL,
+  subject VARCHAR(255) NOT NULL,
+  message VARCHAR(4096) NOT NULL,
+  link VARCHAR(1024),
+  created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+  attempts INT DEFAULT 0 NOT NULL,
+  next_attempt_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL,
+  last_error VARCHAR(1024)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE INDEX idx_email_outbox_next_attempt_at ON email_outbox (next_attempt_at, id);
@@ -0,0 +1,75 @@
+
+package com.kdma.auth.config;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.web.servlet.HandlerMapping;
+
+public class OAuthEndpointMetricsTest {
+
+  private MeterRegistry registry;
+
+  private OAuthEndpointMetrics metrics;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    registry = new SimpleMeterRegistry();
+    metrics = new OAuthEndpointMetrics(registry);
+  }
+
+  @Test
+  public void testGivenTokenRequestWhenCompletedThenTimedByClientAndGrantType() {
+    MockHttpServletRequest request = request("/oauth/token", "gigy");
+    request.setParameter("grant_type", "password");
+
+    handle(request, 200);
+
+    assertThat(registry.get("auth.oauth.requests").tag("endpoint", "/oauth/token").tag("client_id", "gigy")
+                       .tag("grant_type", "password").tag("status", "200").timer().count(), is(1L));
+  }
+
+  @Test
+  public void testGivenUnknownGrantTypeWhenCompletedThenGrantTypeIsRecordedAsOther() {
+    MockHttpServletRequest request = request("/oauth/token", "gigy");
+    request.setParameter("grant_type", "made-up");
+
+    handle(request, 400);
+
+    assertThat(registry.get("auth.oauth.requests").tag("grant_type", "other").tag("status", "400").timer().count(),
+               is(1L));
+  }
+
+  @Test
+  public void testGivenCheckTokenRequestWhenCompletedThenGrantTypeIsNone() {
+    handle(request("/oauth/check_token", "resource"), 200);
+
+    assertThat(registry.get("auth.oauth.requests").tag("endpoint", "/oauth/check_token")
+                       .tag("client_id", "resource").tag("grant_type", "none").timer().count(), is(1L));
+  }
+
+  private void handle(MockHttpServletRequest request, int status) {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    metrics.preHandle(request, response, null);
+    response.setStatus(status);
+    metrics.afterCompletion(request, response, null, null);
+  }
+
+  private static MockHttpServletRequest request(String path, String clientId) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+    request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, path);
+    request.setUserPrincipal(new UsernamePasswordAuthenticationToken(clientId, null));
+    return request;
+  }
+}
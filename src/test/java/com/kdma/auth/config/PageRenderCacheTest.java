@@ -0,0 +1,143 @@
+
+package com.kdma.auth.config;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.kdma.auth.PageCacheProperties;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.i18n.FixedLocaleResolver;
+
+public class PageRenderCacheTest {
+
+  private PageCacheProperties properties;
+
+  private PageRenderCache pageRenderCache;
+
+  private int renderings;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    properties = new PageCacheProperties();
+    View view = (model, request, response) -> {
+      renderings++;
+      CsrfToken token = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
+      response.getWriter().write("<form><input name=\"_csrf\" value=\"" + token.getToken() + "\"/>"
+                                 + request.getParameter("email") + "</form>");
+    };
+    pageRenderCache = new PageRenderCache((viewName, locale) -> view, properties);
+  }
+
+  @Test
+  public void testGivenCachedPageWhenServedToAnotherSessionThenItsOwnTokenIsFilledIn() throws Exception {
+    MockHttpServletResponse first = serve(request("GET", "token-1"), "login");
+    MockHttpServletResponse second = serve(request("GET", "token-2"), "login");
+
+    assertThat(first.getContentAsString(), is("<form><input name=\"_csrf\" value=\"token-1\"/>null</form>"));
+    assertThat(second.getContentAsString(), is("<form><input name=\"_csrf\" value=\"token-2\"/>null</form>"));
+    assertThat(renderings, is(1));
+    assertThat(second.getHeader("Cache-Control"), is("private, no-cache"));
+    assertThat(second.getHeader("ETag"), is(not(first.getHeader("ETag"))));
+  }
+
+  @Test
+  public void testGivenMatchingEtagWhenServingPageThenNotModifiedIsReturned() throws Exception {
+    String etag = serve(request("GET", "token-1"), "login").getHeader("ETag");
+    MockHttpServletRequest request = request("GET", "token-1");
+    request.addHeader("If-None-Match", etag);
+
+    MockHttpServletResponse response = serve(request, "login");
+
+    assertThat(response.getStatus(), is(304));
+    assertThat(response.getContentAsString(), is(""));
+    assertThat(response.getHeader("Cache-Control"), is("private, no-cache"));
+  }
+
+  @Test
+  public void testGivenDifferentQueryStringWhenServingPageThenItIsRenderedSeparately() throws Exception {
+    MockHttpServletRequest request = request("GET", "token-1");
+    request.setQueryString("email=jane@example.com&lang=fr");
+    request.setParameter("email", "jane@example.com");
+
+    assertThat(serve(request, "register").getContentAsString(),
+               is("<form><input name=\"_csrf\" value=\"token-1\"/>jane@example.com</form>"));
+    serve(request("GET", "token-1"), "register");
+    assertThat(renderings, is(2));
+  }
+
+  @Test
+  public void testGivenParameterTheViewsDoNotReadWhenHandledThenViewIsLeftAlone() {
+    MockHttpServletRequest request = request("GET", "token-1");
+    request.setParameter("email", "jane@example.com");
+    request.setParameter("utm_source", "mail");
+    ModelAndView modelAndView = new ModelAndView("register");
+
+    pageRenderCache.postHandle(request, new MockHttpServletResponse(), null, modelAndView);
+
+    assertThat(modelAndView.getView(), is(nullValue()));
+  }
+
+  @Test
+  public void testGivenValueThatLooksLikeAnotherParameterWhenServingPageThenItIsRenderedSeparately()
+      throws Exception {
+    MockHttpServletRequest both = request("GET", "token-1");
+    both.setParameter("error", "");
+    both.setParameter("email", "x");
+    MockHttpServletRequest lookalike = request("GET", "token-1");
+    lookalike.setParameter("error", "|email|1:x");
+
+    serve(both, "login");
+    serve(lookalike, "login");
+
+    assertThat(renderings, is(2));
+  }
+
+  @Test
+  public void testGivenPostOrUnlistedViewWhenHandledThenViewIsLeftAlone() throws Exception {
+    ModelAndView post = new ModelAndView("register");
+    pageRenderCache.postHandle(request("POST", "token-1"), new MockHttpServletResponse(), null, post);
+    ModelAndView profile = new ModelAndView("profile");
+    pageRenderCache.postHandle(request("GET", "token-1"), new MockHttpServletResponse(), null, profile);
+    properties.setEnabled(false);
+    ModelAndView disabled = new ModelAndView("login");
+    pageRenderCache.postHandle(request("GET", "token-1"), new MockHttpServletResponse(), null, disabled);
+
+    assertThat(post.getView(), is(nullValue()));
+    assertThat(profile.getView(), is(nullValue()));
+    assertThat(disabled.getView(), is(nullValue()));
+  }
+
+  private MockHttpServletResponse serve(MockHttpServletRequest request, String viewName) throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    ModelAndView modelAndView = new ModelAndView(viewName);
+    pageRenderCache.postHandle(request, response, null, modelAndView);
+    modelAndView.getView().render(Collections.emptyMap(), request, response);
+    return response;
+  }
+
+  private static MockHttpServletRequest request(String method, String token) {
+    MockHttpServletRequest request = new MockHttpServletRequest(method, "/login");
+    request.setAttribute(DispatcherServlet.LOCALE_RESOLVER_ATTRIBUTE, new FixedLocaleResolver(Locale.US));
+    CsrfToken csrfToken = new DefaultCsrfToken("X-CSRF-TOKEN", "_csrf", token);
+    request.setAttribute(CsrfToken.class.getName(), csrfToken);
+    request.setAttribute("_csrf", csrfToken);
+    return request;
+  }
+}
@@ -0,0 +1,53 @@
+
+package com.kdma.auth.config;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.willThrow;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.kdma.auth.service.BoundedPasswordEncoder;
+import com.kdma.auth.service.PasswordHashingBusyException;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class PasswordHashingBusyFilterTest {
+
+  @Autowired
+  private MockMvc mvc;
+
+  @SpyBean
+  private BoundedPasswordEncoder passwordEncoder;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    // What the encoder does while its queue is full
+    willThrow(new PasswordHashingBusyException(Duration.ofSeconds(2))).given(passwordEncoder).matches(any(), anyString());
+  }
+
+  @Test
+  public void testGivenSaturatedEncoderWhenLoggingInThroughFormThenServiceUnavailableWithRetryAfter() throws Exception {
+    this.mvc.perform(post("/login").param("username", "john@example.com").param("password", "password").with(csrf()))
+            .andExpect(status().isServiceUnavailable())
+            .andExpect(header().string("Retry-After", "2"));
+  }
+}
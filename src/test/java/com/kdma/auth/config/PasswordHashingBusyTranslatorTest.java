@@ -0,0 +1,65 @@
+
+package com.kdma.auth.config;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.BDDMockito.willThrow;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.kdma.auth.service.BoundedPasswordEncoder;
+import com.kdma.auth.service.PasswordHashingBusyException;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class PasswordHashingBusyTranslatorTest {
+
+  /** Secret of the development client gigy. */
+  private static final String CLIENT_SECRET_HASH = "$2a$10$s7rR9qxaUnOJaE3J6ZSICupQxm.xTJhvScmXV.ylsI3AIY5OMXp.q";
+
+  @Autowired
+  private MockMvc mvc;
+
+  @SpyBean
+  private BoundedPasswordEncoder passwordEncoder;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    // The client is let in, the user's password is turned away as while the encoder queue is full
+    willThrow(new PasswordHashingBusyException(Duration.ofSeconds(2))).given(passwordEncoder).matches(any(), anyString());
+    willReturn(true).given(passwordEncoder).matches(any(), eq(CLIENT_SECRET_HASH));
+  }
+
+  @Test
+  public void testGivenSaturatedEncoderWhenRequestingPasswordGrantThenTemporarilyUnavailable() throws Exception {
+    this.mvc.perform(post("/oauth/token").with(httpBasic("gigy", "secret"))
+                                         .param("grant_type", "password")
+                                         .param("username", "john@example.com")
+                                         .param("password", "password"))
+            .andExpect(status().isServiceUnavailable())
+            .andExpect(header().string("Retry-After", "2"))
+            .andExpect(jsonPath("$.error", is("temporarily_unavailable")));
+  }
+}
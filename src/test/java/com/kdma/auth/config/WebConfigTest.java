@@ -0,0 +1,63 @@
+
+package com.kdma.auth.config;
+
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.kdma.auth.AuthProperties;
+import com.kdma.auth.controller.LoginController;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.resource.ResourceUrlProvider;
+
+@RunWith(SpringRunner.class)
+@WebMvcTest(value = LoginController.class, secure = false)
+public class WebConfigTest {
+
+  @Autowired
+  private MockMvc mvc;
+
+  @Autowired
+  private ResourceUrlProvider resourceUrlProvider;
+
+  @MockBean
+  private AuthProperties properties;
+
+  @Test
+  public void testGivenPlainStaticResourceUrlWhenRequestedThenClientsRevalidate() throws Exception {
+    this.mvc.perform(get("/css/style.css"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Cache-Control", "no-cache"));
+  }
+
+  @Test
+  public void testGivenVersionedStaticResourceUrlWhenRequestedAfterPlainOneThenItIsImmutable() throws Exception {
+    String versioned = resourceUrlProvider.getForLookupPath("/css/style.css");
+
+    assertThat(versioned, is(not("/css/style.css")));
+    assertThat(versioned, endsWith(".css"));
+    this.mvc.perform(get("/css/style.css"))
+            .andExpect(header().string("Cache-Control", "no-cache"));
+    this.mvc.perform(get(versioned))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Cache-Control", StaticResourceCacheControl.IMMUTABLE));
+  }
+
+  @Test
+  public void testGivenMadeUpVersionWhenRequestedThenItIsNotKept() throws Exception {
+    this.mvc.perform(get("/css/style-0123456789abcdef0123456789abcdef.css"))
+            .andExpect(status().isNotFound())
+            .andExpect(header().string("Cache-Control", "no-cache"));
+  }
+}
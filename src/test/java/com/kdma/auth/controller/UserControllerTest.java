@@ -2,21 +2,32 @@
 package com.kdma.auth.controller;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
 import static org.springframework.restdocs.operation.preprocess.Preprocessors.preprocessRequest;
 import static org.springframework.restdocs.operation.preprocess.Preprocessors.preprocessResponse;
 import static org.springframework.restdocs.operation.preprocess.Preprocessors.prettyPrint;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.kdma.auth.AuthProperties;
 import com.kdma.auth.model.Role;
-import com.kdma.auth.model.User;
+import com.kdma.auth.model.UserInfo;
+import com.kdma.auth.model.UserSummary;
 import com.kdma.auth.repository.UserRepository;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,7 +40,14 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.MessageSource;
+import org.springframework.restdocs.mockmvc.MockMvcRestDocumentationConfigurer;
 import org.springframework.restdocs.mockmvc.RestDocumentationResultHandler;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -40,12 +58,15 @@ import org.springframework.web.context.WebApplicationContext;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
-@AutoConfigureRestDocs(outputDir = "docs/snippets")
+@AutoConfigureRestDocs(outputDir = "target/docs/snippets")
 public class UserControllerTest {
 
   @Autowired
   private WebApplicationContext context;
 
+  @Autowired
+  private MockMvcRestDocumentationConfigurer restDocumentation;
+
   private MockMvc mvc;
 
   @MockBean
@@ -57,37 +78,31 @@ public class UserControllerTest {
   @MockBean
   private MessageSource messages;
 
+  @MockBean
+  private ResourceServerTokenServices tokenServices;
+
+  @Autowired
+  private UserCache userCache;
+
   /**
    * Sets the up.
    */
   @Before
   public void setUp() {
-    User user1 = new User();
-    user1.setId(1L);
-    user1.setEmail("john@example.com");
-    user1.setEnabled(true);
-    user1.setPassword("password");
-    user1.setRole(Role.ADMIN);
-
-    User user2 = new User();
-    user2.setId(1L);
-    user2.setEmail("jane@example.com");
-    user2.setEnabled(true);
-    user2.setPassword("password");
-    user2.setRole(Role.USER);
-
-    List<User> users = new ArrayList<>();
-    users.add(user1);
-    users.add(user2);
-
-    // mock repository
-    given(userRepo.findByEmail("john@example.com")).willReturn(Optional.of(user1));
-    given(userRepo.findAll()).willReturn(users);
+    List<UserSummary> users = new ArrayList<>();
+    users.add(new UserSummary(1L, "john@example.com", Role.ADMIN, true, null));
+    users.add(new UserSummary(2L, "jane@example.com", Role.USER, true, null));
+
+    // mock repository, the cached info of a previous test removed
+    userCache.removeUserFromCache("john@example.com");
+    given(userRepo.findInfoByEmail("john@example.com")).willReturn(Optional.of(new UserInfo(1L, Role.ADMIN, true, 0)));
+    given(userRepo.findPageAfter(eq(0L), isNull(), isNull(), isNull(), any())).willReturn(users);
     RestDocumentationResultHandler document =
         document("{method-name}", preprocessRequest(prettyPrint()), preprocessResponse(prettyPrint()));
 
     mvc = MockMvcBuilders.webAppContextSetup(context)
                          .apply(SecurityMockMvcConfigurers.springSecurity())
+                         .apply(restDocumentation)
                          .alwaysDo(document)
                          .build();
   }
@@ -111,11 +126,49 @@ public class UserControllerTest {
                                                          "USER", "ADMIN"
   })
   public void testGivenUserEndpointWhenGettingAllUsersAsAdminThenStatusIsOk() throws Exception {
+    // The users are a resource server path, which authenticates by token only
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client", Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    given(tokenServices.loadAuthentication("admin-token")).willReturn(new OAuth2Authentication(
+        request, new UsernamePasswordAuthenticationToken("john@example.com", null,
+                                                         AuthorityUtils.createAuthorityList("ROLE_ADMIN"))));
     // @formatter:off
-    this.mvc.perform(get("/users/"))
+    this.mvc.perform(get("/users/").header("Authorization", "Bearer admin-token"))
             .andExpect(status().isOk());
 //            .andDo(document("users-all"));
     // @formatter:on
   }
 
+  @Test
+  @WithMockUser(username = "john@example.com", roles = {
+                                                         "USER", "ADMIN"
+  })
+  public void testGivenETagOfUserWhenGettingUserAgainThenNotModifiedWithoutQuery() throws Exception {
+    String etag = this.mvc.perform(get("/user/"))
+                          .andExpect(status().isOk())
+                          .andReturn().getResponse().getHeader("ETag");
+    clearInvocations(userRepo);
+
+    this.mvc.perform(get("/user/").header("If-None-Match", etag))
+            .andExpect(status().isNotModified());
+
+    verify(userRepo, never()).findInfoByEmail(anyString());
+  }
+
+  @Test
+  @WithMockUser(username = "john@example.com", roles = {
+                                                         "USER", "ADMIN"
+  })
+  public void testGivenChangedUserWhenGettingUserWithPreviousETagThenOk() throws Exception {
+    String etag = this.mvc.perform(get("/user/"))
+                          .andExpect(status().isOk())
+                          .andReturn().getResponse().getHeader("ETag");
+    given(userRepo.findInfoByEmail("john@example.com")).willReturn(Optional.of(new UserInfo(1L, Role.ADMIN, true, 1)));
+    userCache.removeUserFromCache("john@example.com");
+
+    this.mvc.perform(get("/user/").header("If-None-Match", etag))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", is(not(etag))));
+  }
+
 }
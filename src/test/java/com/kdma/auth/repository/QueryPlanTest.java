@@ -0,0 +1,113 @@
+
+package com.kdma.auth.repository;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Runs {@code EXPLAIN} on the hot token and user queries after all migrations, and fails if any of them would scan a
+ * whole table. The statements are the ones JdbcTokenStore, JdbcAuthorizationCodeServices and UserRepository issue.
+ */
+@RunWith(SpringRunner.class)
+@JdbcTest
+public class QueryPlanTest {
+
+  private static final String TABLE_SCAN = "tableScan";
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Test
+  public void testGivenMigratedSchemaWhenReadingAccessTokenByTokenIdThenUseIndex() {
+    assertUsesIndex("select token_id, token from oauth_access_token where token_id = ?");
+    assertUsesIndex("select token_id, authentication from oauth_access_token where token_id = ?");
+    assertUsesIndex("delete from oauth_access_token where token_id = ?");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenFindingAccessTokensByUserOrClientThenUseIndex() {
+    assertUsesIndex("select token_id, token from oauth_access_token where user_name = ?");
+    assertUsesIndex("select token_id, token from oauth_access_token where client_id = ?");
+    assertUsesIndex("select token_id, token from oauth_access_token where user_name = ? and client_id = ?");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenRemovingAccessTokenByRefreshTokenThenUseIndex() {
+    assertUsesIndex("delete from oauth_access_token where refresh_token = ?");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenRevokingUsersTokensThenUseIndex() {
+    assertUsesIndex("delete from oauth_refresh_token where token_id in "
+                    + "(select refresh_token from oauth_access_token where user_name = ?)");
+    assertUsesIndex("delete from oauth_refresh_token where user_name = ?");
+    assertUsesIndex("delete from oauth_access_token where user_name = ?");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenReadingRefreshTokenThenUseIndex() {
+    assertUsesIndex("select token_id, token from oauth_refresh_token where token_id = ?");
+    assertUsesIndex("select token_id, authentication from oauth_refresh_token where token_id = ?");
+    assertUsesIndex("delete from oauth_refresh_token where token_id = ?");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenConsumingAuthorizationCodeThenUseIndex() {
+    assertUsesIndex("select code, authentication from oauth_code where code = ?");
+    assertUsesIndex("delete from oauth_code where code = ?");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenFindingUserByEmailOrVerificationTokenThenUseIndex() {
+    assertUsesIndex("select user_id, email, password, role, enabled from users where email = ?");
+    assertUsesIndex("select u.user_id, u.email from verification_tokens t, users u where t.token_hash = ? "
+                    + "and t.purpose in (?, ?) and t.expires_at > ? and u.user_id = t.user_id");
+    assertUsesIndex("delete from verification_tokens where user_id = ? and purpose in (?, ?)");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenListingUsersAfterIdThenUseIndex() {
+    assertUsesIndex("select user_id, email from users where user_id > ? order by user_id limit 100");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenExportingUsersChangedSinceWatermarkThenUseIndex() {
+    assertUsesIndex("select user_id, email from users where updated_at > ? and updated_at <= ? "
+                    + "order by updated_at, user_id");
+  }
+
+  @Test
+  public void testGivenMigratedSchemaWhenReapingExpiredRowsThenUseIndex() {
+    assertUsesIndex("select authentication_id from oauth_access_token where expiration < ?");
+    assertUsesIndex("delete from oauth_access_token where authentication_id = ? and expiration < ?");
+    assertUsesIndex("select token_id from oauth_refresh_token where expiration < ?");
+    assertUsesIndex("delete from oauth_refresh_token where token_id = ? and expiration < ?");
+    assertUsesIndex("select code from oauth_code where created_at < ?");
+    assertUsesIndex("delete from oauth_code where code = ? and created_at < ?");
+    assertUsesIndex("select t.user_id from verification_tokens t join users u on u.user_id = t.user_id "
+                    + "where t.purpose = 'EMAIL_CHANGE' and t.expires_at < ? and u.pending_email is not null");
+    assertUsesIndex("select id from verification_tokens where expires_at < ?");
+    assertUsesIndex("delete from verification_tokens where id = ? and expires_at < ?");
+  }
+
+  private void assertUsesIndex(String sql) {
+    String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, parameters(sql));
+    assertThat(sql, plan, not(containsString(TABLE_SCAN)));
+  }
+
+  private static Object[] parameters(String sql) {
+    Object[] parameters = new Object[sql.length() - sql.replace("?", "").length()];
+    for (int i = 0; i < parameters.length; i++) {
+      parameters[i] = "value";
+    }
+    return parameters;
+  }
+}
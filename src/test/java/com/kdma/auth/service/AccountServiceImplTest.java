@@ -2,14 +2,18 @@
 package com.kdma.auth.service;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import com.kdma.auth.AuthProperties;
 import com.kdma.auth.model.User;
+import com.kdma.auth.model.VerificationToken.Purpose;
 import com.kdma.auth.repository.UserRepository;
 
 import java.util.Locale;
@@ -23,6 +27,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.context.MessageSource;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 public class AccountServiceImplTest {
@@ -39,6 +45,12 @@ public class AccountServiceImplTest {
   @Mock
   private MessageSource messages;
 
+  @Mock
+  private UserCache userCache;
+
+  @Mock
+  private VerificationTokenService verificationTokens;
+
   private AuthProperties properties;
 
   private AccountService accountService;
@@ -59,7 +71,9 @@ public class AccountServiceImplTest {
     properties.setRedirectionUrl("http://www.example.com");
     properties.setEmailFrom("noreply@example.com");
 
-    accountService = new AccountServiceImpl(userRepository, emailService, bcryptPasswordEncoder, properties, messages);
+    accountService = new AccountServiceImpl(userRepository, emailService, bcryptPasswordEncoder, properties, messages,
+                                            userCache, verificationTokens);
+    given(userRepository.save(any(User.class))).willAnswer(invocation -> invocation.getArgument(0));
 
   }
 
@@ -119,10 +133,10 @@ public class AccountServiceImplTest {
 
     User user = new User();
     user.setEmail("user@example.com");
-    user.setConfirmationToken("1234");
 
     // given existing user
-    given(userRepository.findByConfirmationToken("1234")).willReturn(Optional.of(user));
+    given(verificationTokens.findUser("1234", Purpose.REGISTRATION, Purpose.PASSWORD_RESET))
+        .willReturn(Optional.of(user));
 
     // when getting user for token
     Optional<User> loadedUser = accountService.getUserForToken("1234");
@@ -180,12 +194,12 @@ public class AccountServiceImplTest {
 
     User user = new User();
     user.setEmail("user@example.com");
-    user.setConfirmationToken("1234");
     user.setEnabled(false);
     user.setPassword(null);
 
     // given existing user
-    given(userRepository.findByConfirmationToken("1234")).willReturn(Optional.of(user));
+    given(verificationTokens.consume("1234", Purpose.REGISTRATION, Purpose.PASSWORD_RESET))
+        .willReturn(Optional.of(user));
     given(bcryptPasswordEncoder.encode("password")).willReturn("encoded");
 
     // when confirming user
@@ -197,6 +211,26 @@ public class AccountServiceImplTest {
     User updatedUser = userCaptor.getValue();
     assertThat(updatedUser.isEnabled(), is(true));
     assertThat(updatedUser.getPassword(), is("encoded"));
+    verify(verificationTokens).revoke(user, Purpose.REGISTRATION, Purpose.PASSWORD_RESET);
+    verify(userCache).removeUserFromCache("user@example.com");
+
+  }
+
+  @Test
+  public void givenUsedTokenWhenConfirmingUserThenNoUserIsSaved() {
+
+    // given a token already used by a concurrent submission
+    given(verificationTokens.consume("1234", Purpose.REGISTRATION, Purpose.PASSWORD_RESET))
+        .willReturn(Optional.empty());
+
+    // when confirming user
+    try {
+      accountService.confirmUser("1234", "password");
+      throw new AssertionError("Used token confirmed a user");
+    } catch (UsernameNotFoundException e) {
+      // then expect nothing to be saved
+      verify(userRepository, never()).save(any(User.class));
+    }
 
   }
 
@@ -205,7 +239,6 @@ public class AccountServiceImplTest {
 
     User user = new User();
     user.setEmail("user@example.com");
-    user.setConfirmationToken("1234");
     user.setEnabled(true);
     user.setPassword("secret");
 
@@ -218,11 +251,9 @@ public class AccountServiceImplTest {
     // when resetting password
     accountService.resetPassword(temp, Locale.ENGLISH);
 
-    // then user was updated
-    verify(userRepository).save(userCaptor.capture());
-
-    User updatedUser = userCaptor.getValue();
-    assertThat(updatedUser.isEnabled(), is(true));
+    // then a reset token was issued and the user left enabled
+    verify(verificationTokens).issue(user, Purpose.PASSWORD_RESET);
+    assertThat(user.isEnabled(), is(true));
 
   }
 
@@ -231,12 +262,12 @@ public class AccountServiceImplTest {
 
     User user = new User();
     user.setEmail("user@example.com");
-    user.setConfirmationToken("1234");
     user.setEnabled(true);
     user.setPassword("secret");
 
     // given existing user
     given(userRepository.findByEmail("user@example.com")).willReturn(Optional.of(user));
+    given(verificationTokens.issue(user, Purpose.PASSWORD_RESET)).willReturn("1234");
 
     User temp = new User();
     temp.setEmail("user@example.com");
@@ -246,7 +277,7 @@ public class AccountServiceImplTest {
 
     // then email was sent
     verify(emailService).prepareAndSend(mailMessageCaptor.capture(), eq("noreply@example.com"), eq("Password reset"),
-                                        any(), any(String.class));
+                                        any(), eq("http://www.example.com/confirmRedirect?token=1234"));
 
     assertThat(mailMessageCaptor.getValue(), is("user@example.com"));
 
@@ -267,6 +298,7 @@ public class AccountServiceImplTest {
     boolean success = accountService.changePassword("user@example.com", "password", "secret");
 
     assertThat(success, is(true));
+    verify(userCache).removeUserFromCache("user@example.com");
   }
 
   @Test
@@ -360,4 +392,59 @@ public class AccountServiceImplTest {
                                         any(String.class));
   }
 
+  @Test
+  public void givenEmailChangeTokenWhenCheckingUserForTokenThenOnlyEmailVerificationFindsTheUser() {
+    User user = new User();
+    user.setEmail("user@example.com");
+
+    given(verificationTokens.findUser("1234", Purpose.EMAIL_CHANGE)).willReturn(Optional.of(user));
+
+    assertThat(accountService.getUserForEmailVerification("1234").get(), is(user));
+    assertThat(accountService.getUserForToken("1234").isPresent(), is(false));
+  }
+
+  @Test
+  public void givenNewUserWhenRegisteringUserThenLinkCarriesIssuedToken() {
+    User user = new User();
+    user.setEmail("user@example.com");
+
+    given(verificationTokens.issue(user, Purpose.REGISTRATION)).willReturn("1234");
+
+    accountService.registerUser(user, Locale.ENGLISH);
+
+    verify(emailService).prepareAndSend(eq("user@example.com"), eq("noreply@example.com"),
+                                        eq("Registration confirmation"), any(),
+                                        eq("http://www.example.com/confirmRedirect?token=1234"));
+  }
+
+  @Test
+  public void givenPendingEmailWhenVerifyingEmailThenBothAddressesAreEvictedFromUserCache() {
+    User user = new User();
+    user.setEmail("user@example.com");
+    user.setPendingEmail("user2@example.com");
+    given(verificationTokens.consume("1234", Purpose.EMAIL_CHANGE)).willReturn(Optional.of(user));
+
+    assertThat(accountService.verifyEmail("1234").get(), is(user));
+
+    assertThat(user.getEmail(), is("user2@example.com"));
+    assertThat(user.getPendingEmail(), is(nullValue()));
+    verify(userCache).removeUserFromCache("user@example.com");
+    verify(userCache).removeUserFromCache("user2@example.com");
+  }
+
+  @Test
+  public void givenEmailChangeTokenWhenVerifyingEmailTwiceThenOnlyFirstRequestChangesTheEmail() {
+    User user = new User();
+    user.setEmail("user@example.com");
+    user.setPendingEmail("user2@example.com");
+    // the second request finds the token used up by the first
+    given(verificationTokens.consume("1234", Purpose.EMAIL_CHANGE)).willReturn(Optional.of(user), Optional.empty());
+
+    assertThat(accountService.verifyEmail("1234").isPresent(), is(true));
+    assertThat(accountService.verifyEmail("1234").isPresent(), is(false));
+
+    verify(userRepository, times(1)).save(user);
+    assertThat(user.getEmail(), is("user2@example.com"));
+  }
+
 }
@@ -0,0 +1,96 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+public class BoundedPasswordEncoderTest {
+
+  private ThreadPoolExecutor executor;
+
+  private SimpleMeterRegistry registry;
+
+  private BoundedPasswordEncoder encoder;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+    registry = new SimpleMeterRegistry();
+    encoder = new BoundedPasswordEncoder(5, executor, Duration.ofSeconds(2));
+    encoder.bindTo(registry);
+  }
+
+  /**
+   * Stops the hashing threads.
+   */
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testGivenEncodedPasswordWhenMatchingThenOnlyTheRightPasswordMatches() {
+    String encoded = encoder.encode("password");
+
+    assertThat(encoder.matches("password", encoded), is(true));
+    assertThat(encoder.matches("wrong", encoded), is(false));
+    assertThat(registry.get("auth.password.hashing").tag("operation", "encode").timer().count(), is(1L));
+    assertThat(registry.get("auth.password.hashing").tag("operation", "matches").timer().count(), is(2L));
+  }
+
+  @Test
+  public void testGivenFullQueueWhenEncodingThenRequestIsTurnedAwayAtOnce() {
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(() -> await(release));
+    executor.execute(() -> await(release));
+
+    try {
+      encoder.encode("password");
+      fail("Expected the encoder to be busy");
+    } catch (PasswordHashingBusyException e) {
+      assertThat(e.getRetryAfter(), is(Duration.ofSeconds(2)));
+    } finally {
+      release.countDown();
+    }
+    assertThat(registry.get("auth.password.hashing.rejected").counter().count(), is(1.0));
+  }
+
+  @Test
+  public void testGivenHashesOfSeveralStrengthsWhenCheckingForUpgradeThenOnlyWeakerHashesNeedOne() {
+    assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(4).encode("password")), is(true));
+    assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(5).encode("password")), is(false));
+    assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(6).encode("password")), is(false));
+    assertThat(encoder.upgradeEncoding("plain"), is(false));
+  }
+
+  @Test
+  public void testGivenTargetLatencyWhenCalibratingThenStrengthStaysWithinBounds() {
+    assertThat(BoundedPasswordEncoder.calibrate(Duration.ZERO, 4, 8), is(4));
+    assertThat(BoundedPasswordEncoder.calibrate(Duration.ofHours(1), 4, 8), is(8));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,62 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+public class CachingSecretEncoderTest {
+
+  @Mock
+  private PasswordEncoder delegate;
+
+  private CachingSecretEncoder encoder;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    given(delegate.matches("secret", "hash")).willReturn(true);
+    given(delegate.matches("secret", "new-hash")).willReturn(false);
+    given(delegate.matches("wrong", "hash")).willReturn(false);
+
+    encoder = new CachingSecretEncoder(delegate, 10, Duration.ofMinutes(1));
+  }
+
+  @Test
+  public void testGivenVerifiedSecretWhenCheckedAgainThenDelegateIsNotAsked() {
+    assertThat(encoder.matches("secret", "hash"), is(true));
+    assertThat(encoder.matches("secret", "hash"), is(true));
+
+    verify(delegate, times(1)).matches("secret", "hash");
+  }
+
+  @Test
+  public void testGivenWrongSecretWhenCheckedAgainThenDelegateIsAskedEachTime() {
+    assertThat(encoder.matches("wrong", "hash"), is(false));
+    assertThat(encoder.matches("wrong", "hash"), is(false));
+
+    verify(delegate, times(2)).matches("wrong", "hash");
+  }
+
+  @Test
+  public void testGivenVerifiedSecretWhenStoredSecretChangesThenOldSecretIsRefused() {
+    assertThat(encoder.matches("secret", "hash"), is(true));
+
+    assertThat(encoder.matches("secret", "new-hash"), is(false));
+    verify(delegate).matches("secret", "new-hash");
+  }
+}
@@ -0,0 +1,104 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CircuitBreakerTest {
+
+  private static final Instant NOW = Instant.parse("2019-03-01T12:00:00Z");
+
+  @Mock
+  private Clock clock;
+
+  private CircuitBreaker circuitBreaker;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    given(clock.instant()).willReturn(NOW);
+    circuitBreaker = new CircuitBreaker(3, Duration.ofSeconds(30), clock);
+  }
+
+  @Test
+  public void testGivenFailuresBelowThresholdWhenRequestingThenCircuitStaysClosed() {
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordSuccess();
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordFailure();
+
+    assertThat(circuitBreaker.allowRequest(), is(true));
+    assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    assertThat(circuitBreaker.getRetryAt(), is(NOW));
+  }
+
+  @Test
+  public void testGivenThresholdReachedWhenRequestingThenRequestsAreRefusedUntilOpenDurationPassed() {
+    failThreeTimes();
+
+    assertThat(circuitBreaker.allowRequest(), is(false));
+    assertThat(circuitBreaker.getRetryAt(), is(NOW.plusSeconds(30)));
+
+    given(clock.instant()).willReturn(NOW.plusSeconds(29));
+    assertThat(circuitBreaker.allowRequest(), is(false));
+  }
+
+  @Test
+  public void testGivenOpenDurationPassedWhenRequestingThenOneTrialIsLetThroughAndItsSuccessClosesTheCircuit() {
+    failThreeTimes();
+    given(clock.instant()).willReturn(NOW.plusSeconds(30));
+
+    assertThat(circuitBreaker.allowRequest(), is(true));
+    assertThat(circuitBreaker.allowRequest(), is(false));
+    circuitBreaker.recordSuccess();
+
+    assertThat(circuitBreaker.allowRequest(), is(true));
+    assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+  }
+
+  @Test
+  public void testGivenTrialFailsWhenRequestingThenCircuitOpensForAnotherPeriod() {
+    failThreeTimes();
+    given(clock.instant()).willReturn(NOW.plusSeconds(30));
+    circuitBreaker.allowRequest();
+
+    circuitBreaker.recordFailure();
+
+    assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    assertThat(circuitBreaker.allowRequest(), is(false));
+    assertThat(circuitBreaker.getRetryAt(), is(NOW.plusSeconds(60)));
+  }
+
+  @Test
+  public void testGivenTrialIgnoredWhenRequestingThenNextCallerMakesTheTrial() {
+    failThreeTimes();
+    given(clock.instant()).willReturn(NOW.plusSeconds(30));
+    circuitBreaker.allowRequest();
+
+    circuitBreaker.recordIgnored();
+
+    assertThat(circuitBreaker.allowRequest(), is(true));
+    assertThat(circuitBreaker.allowRequest(), is(false));
+    assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+  }
+
+  private void failThreeTimes() {
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordFailure();
+  }
+}
@@ -0,0 +1,93 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.kdma.auth.model.ClientSnapshot;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.NoSuchClientException;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+public class ClientDetailsCacheTest {
+
+  @Mock
+  private ClientDetailsService delegate;
+
+  private ClientDetailsCache cache;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    BaseClientDetails client = new BaseClientDetails("gigy", null, "read,write", "password,refresh_token", null);
+    client.setClientSecret("hash");
+    client.setAutoApproveScopes(Collections.singleton("read"));
+    given(delegate.loadClientByClientId("gigy")).willReturn(client);
+    willThrow(new NoSuchClientException("No client with requested id: nobody"))
+        .given(delegate).loadClientByClientId("nobody");
+
+    cache = new ClientDetailsCache(delegate, 10, Duration.ofMinutes(1));
+  }
+
+  @Test
+  public void testGivenCachedClientWhenLoadedAgainThenDelegateIsNotAsked() {
+    ClientDetails first = cache.clientDetailsService().loadClientByClientId("gigy");
+    ClientDetails second = cache.clientDetailsService().loadClientByClientId("gigy");
+
+    assertThat(first, instanceOf(ClientSnapshot.class));
+    assertThat(second == first, is(true));
+    assertThat(first.getClientSecret(), is("hash"));
+    assertThat(first.isAutoApprove("read"), is(true));
+    assertThat(first.isAutoApprove("write"), is(false));
+    verify(delegate, times(1)).loadClientByClientId("gigy");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGivenCachedClientWhenScopeIsChangedThenItIsRefused() {
+    cache.loadClientByClientId("gigy").getScope().add("admin");
+  }
+
+  @Test
+  public void testGivenEvictedClientWhenLoadedThenDelegateIsAskedAgain() {
+    cache.loadClientByClientId("gigy");
+
+    cache.evict("gigy");
+    cache.loadClientByClientId("gigy");
+
+    verify(delegate, times(2)).loadClientByClientId("gigy");
+  }
+
+  @Test
+  public void testGivenUnknownClientWhenLoadedThenItIsNotCached() {
+    try {
+      cache.loadClientByClientId("nobody");
+      fail("Unknown client loaded");
+    } catch (NoSuchClientException e) {
+      assertThat(cache.getClientIds(), is(empty()));
+    }
+
+    cache.loadClientByClientId("gigy");
+    assertThat(cache.getClientIds(), contains("gigy"));
+  }
+}
@@ -0,0 +1,214 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.verify;
+
+import com.kdma.auth.OutboxProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringRunner.class)
+@JdbcTest
+// Sending threads need to see the queued e-mails, so each statement commits on its own
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class EmailDispatcherTest {
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private JavaMailSender mailSender;
+
+  @Mock
+  private MailContentBuilder contentBuilder;
+
+  private OutboxProperties properties;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private EmailService emailService;
+
+  private EmailDispatcher dispatcher;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    Session session = Session.getInstance(new Properties());
+    given(mailSender.createMimeMessage()).willAnswer(invocation -> new MimeMessage(session));
+    given(contentBuilder.build(anyString(), anyString())).willReturn("<p>Hello!</p>");
+
+    properties = new OutboxProperties();
+    properties.setBatchSize(2);
+    properties.setMaxAttempts(2);
+    meterRegistry = new SimpleMeterRegistry();
+    LinkCipher linkCipher = new LinkCipher(properties);
+    emailService = new EmailService(dataSource, linkCipher);
+    dispatcher = new EmailDispatcher(dataSource, mailSender, contentBuilder, linkCipher, properties, meterRegistry);
+  }
+
+  /**
+   * Stops the sending threads and empties the outbox.
+   */
+  @After
+  public void tearDown() {
+    dispatcher.close();
+    jdbcTemplate.update("delete from email_outbox");
+  }
+
+  @Test
+  public void testGivenQueuedEmailsWhenDispatchingThenTheyAreSentInBatchesAndRemoved() {
+    for (int i = 0; i < 5; i++) {
+      queue("user" + i + "@example.com");
+    }
+    List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    willAnswer(invocation -> batchSizes.add(invocation.getArguments().length)).given(mailSender)
+        .send((MimeMessage[]) any());
+
+    int sent = dispatcher.dispatch();
+
+    assertThat(sent, is(5));
+    assertThat(batchSizes.stream().mapToInt(Integer::intValue).sum(), is(5));
+    assertThat(batchSizes.stream().mapToInt(Integer::intValue).max().getAsInt(), is(2));
+    assertThat(count(), is(0));
+    assertThat(meterRegistry.counter("auth.email.messages", "outcome", "sent").count(), is(5.0));
+    assertThat(meterRegistry.timer("auth.email.send").count(), is(3L));
+    assertThat(meterRegistry.get("auth.email.outbox.depth").gauge().value(), is(0.0));
+  }
+
+  @Test
+  public void testGivenQueuedEmailWhenDispatchingThenLinkIsDecryptedForTheMessage() {
+    queue("user@example.com");
+
+    dispatcher.dispatch();
+
+    verify(contentBuilder).build("Hello!", "http://www.example.com");
+  }
+
+  @Test
+  public void testGivenOneMessageRejectedWhenDispatchingThenOnlyItIsRetriedLater() throws Exception {
+    queue("good@example.com");
+    queue("bad@example.com");
+    willAnswer(invocation -> {
+      for (Object argument : invocation.getArguments()) {
+        MimeMessage message = (MimeMessage) argument;
+        if (message.getAllRecipients()[0].equals(new InternetAddress("bad@example.com"))) {
+          throw new MailSendException(Collections.singletonMap(message, new Exception("Mailbox unavailable")));
+        }
+      }
+      return null;
+    }).given(mailSender).send((MimeMessage[]) any());
+
+    int sent = dispatcher.dispatch();
+
+    assertThat(sent, is(1));
+    Map<String, Object> retry = jdbcTemplate.queryForMap("select * from email_outbox");
+    assertThat(retry.get("RECIPIENT"), is("bad@example.com"));
+    assertThat(retry.get("ATTEMPTS"), is(1));
+    assertThat(retry.get("LAST_ERROR"), is("Mailbox unavailable"));
+    assertThat(((Timestamp) retry.get("NEXT_ATTEMPT_AT")).toInstant().compareTo(Instant.now().plusSeconds(20)),
+               is(greaterThan(0)));
+    assertThat(meterRegistry.get("auth.email.outbox.depth").gauge().value(), is(1.0));
+  }
+
+  @Test
+  public void testGivenMailServerDownWhenRetriesRunOutThenEmailIsDropped() {
+    queue("user@example.com");
+    willThrow(new MailSendException("Connection refused")).given(mailSender).send((MimeMessage[]) any());
+
+    dispatcher.dispatch();
+    assertThat(jdbcTemplate.queryForList("select attempts from email_outbox", Integer.class), contains(1));
+
+    jdbcTemplate.update("update email_outbox set next_attempt_at = ?", Timestamp.from(Instant.now().minusSeconds(1)));
+    dispatcher.dispatch();
+
+    assertThat(count(), is(0));
+    assertThat(meterRegistry.counter("auth.email.messages", "outcome", "retried").count(), is(1.0));
+    assertThat(meterRegistry.counter("auth.email.messages", "outcome", "dropped").count(), is(1.0));
+  }
+
+  @Test
+  public void testGivenMailServerCircuitOpenWhenDispatchingThenEmailIsDeferredWithoutUsingAnAttempt() {
+    queue("user@example.com");
+    Instant retryAt = Instant.now().plusSeconds(30);
+    willThrow(new MailCircuitOpenException(retryAt)).given(mailSender).send((MimeMessage[]) any());
+
+    assertThat(dispatcher.dispatch(), is(0));
+
+    Map<String, Object> deferred = jdbcTemplate.queryForMap("select * from email_outbox");
+    assertThat(deferred.get("ATTEMPTS"), is(0));
+    assertThat(((Timestamp) deferred.get("NEXT_ATTEMPT_AT")).toInstant(), is(retryAt));
+    assertThat(meterRegistry.counter("auth.email.messages", "outcome", "deferred").count(), is(1.0));
+  }
+
+  @Test
+  public void testGivenEveryConnectionBusyWhenDispatchingThenEmailIsLeftForTheNextPollWithoutUsingAnAttempt() {
+    queue("user@example.com");
+    willThrow(new MailConnectionUnavailableException("Busy")).given(mailSender).send((MimeMessage[]) any());
+
+    assertThat(dispatcher.dispatch(), is(0));
+
+    Map<String, Object> deferred = jdbcTemplate.queryForMap("select * from email_outbox");
+    assertThat(deferred.get("ATTEMPTS"), is(0));
+    assertThat(((Timestamp) deferred.get("NEXT_ATTEMPT_AT")).toInstant().isAfter(Instant.now()), is(false));
+  }
+
+  @Test
+  public void testGivenEmailClaimedByAnotherInstanceWhenDispatchingThenItIsNotSent() {
+    queue("user@example.com");
+    jdbcTemplate.update("update email_outbox set next_attempt_at = ?", Timestamp.from(Instant.now().plusSeconds(60)));
+
+    assertThat(dispatcher.dispatch(), is(0));
+    assertThat(count(), is(1));
+  }
+
+  private void queue(String to) {
+    emailService.prepareAndSend(to, "noreply@example.com", "Subject", "Hello!", "http://www.example.com");
+  }
+
+  private int count() {
+    return jdbcTemplate.queryForObject("select count(*) from email_outbox", Integer.class);
+  }
+}
@@ -1,25 +1,39 @@
 
 package com.kdma.auth.service;
 
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.verify;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
 
-import javax.mail.MessagingException;
+import com.kdma.auth.OutboxProperties;
+import com.kdma.auth.model.OutgoingEmail;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.sql.DataSource;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.Mock;
-import org.mockito.MockitoAnnotations;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessagePreparator;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
 
+@RunWith(SpringRunner.class)
+@JdbcTest
 public class EmailServiceTest {
 
-  @Mock
-  private JavaMailSender mailSender;
+  @Autowired
+  private DataSource dataSource;
 
-  @Mock
-  private MailContentBuilder contentBuilder;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private LinkCipher linkCipher;
 
   private EmailService emailService;
 
@@ -28,16 +42,31 @@ public class EmailServiceTest {
    */
   @Before
   public void setUp() {
-    MockitoAnnotations.initMocks(this);
-
-    emailService = new EmailService(mailSender, contentBuilder);
+    linkCipher = new LinkCipher(new OutboxProperties());
+    emailService = new EmailService(dataSource, linkCipher);
   }
 
   @Test
-  public void testGivenEmailServiceWhenSendingEmailThenVerifyEmailSentThroughMailSender() throws MessagingException {
+  public void testGivenEmailServiceWhenSendingEmailThenVerifyEmailIsQueuedInOutbox() {
     emailService.prepareAndSend("john@example.com", "noreply@example.com", "test", "Hello!", "http://www.example.com");
 
-    verify(mailSender).send(any(MimeMessagePreparator.class));
+    Map<String, Object> queued = jdbcTemplate.queryForMap("select * from email_outbox");
+    assertThat(queued.get("RECIPIENT"), is("john@example.com"));
+    assertThat(queued.get("SENDER"), is("noreply@example.com"));
+    assertThat(queued.get("SUBJECT"), is("test"));
+    assertThat(queued.get("MESSAGE"), is("Hello!"));
+    assertThat((String) queued.get("LINK"), not(containsString("example")));
+    assertThat(linkCipher.decrypt((String) queued.get("LINK")), is("http://www.example.com"));
+    assertThat(queued.get("ATTEMPTS"), is(0));
+  }
+
+  @Test
+  public void testGivenSeveralEmailsWhenQueuingThenAllAreQueuedInOrder() {
+    emailService.queue(Arrays.asList(new OutgoingEmail("a@example.com", "noreply@example.com", "s", "m", "l"),
+                                     new OutgoingEmail("b@example.com", "noreply@example.com", "s", "m", null)));
+
+    assertThat(jdbcTemplate.queryForList("select recipient from email_outbox order by id", String.class),
+               contains("a@example.com", "b@example.com"));
   }
 
 }
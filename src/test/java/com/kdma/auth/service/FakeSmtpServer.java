@@ -0,0 +1,176 @@
+
+package com.kdma.auth.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process SMTP server for tests. It speaks just enough SMTP for JavaMail without authentication or TLS, records
+ * what it receives, and can answer slowly or turn recipients down.
+ */
+public class FakeSmtpServer implements AutoCloseable {
+
+  private final ServerSocket serverSocket;
+
+  private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+  private final List<String> recipients = new CopyOnWriteArrayList<>();
+
+  private final List<String> commands = new CopyOnWriteArrayList<>();
+
+  private final Set<String> rejected = new CopyOnWriteArraySet<>();
+
+  private final AtomicInteger connections = new AtomicInteger();
+
+  private volatile Duration latency = Duration.ZERO;
+
+  /**
+   * Starts a server on a free port of the loopback interface.
+   *
+   * @throws IOException if no port can be bound
+   */
+  public FakeSmtpServer() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(this::accept, "fake-smtp-" + serverSocket.getLocalPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Gets the number of connections accepted so far.
+   *
+   * @return the number of connections
+   */
+  public int getConnections() {
+    return connections.get();
+  }
+
+  /**
+   * Gets the recipients of the messages received, one entry per message.
+   *
+   * @return the recipients
+   */
+  public List<String> getRecipients() {
+    return recipients;
+  }
+
+  /**
+   * Gets the commands received, in order, without their arguments.
+   *
+   * @return the commands
+   */
+  public List<String> getCommands() {
+    return commands;
+  }
+
+  /**
+   * Delays every reply, to stand in for a slow or hung mail server.
+   *
+   * @param latency the delay
+   */
+  public void setLatency(Duration latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Answers RCPT for an address with a permanent failure.
+   *
+   * @param address the address
+   */
+  public void reject(String address) {
+    rejected.add(address);
+  }
+
+  /**
+   * Stops accepting connections and drops the open ones.
+   */
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        sockets.add(socket);
+        connections.incrementAndGet();
+        Thread session = new Thread(() -> serve(socket), "fake-smtp-session-" + connections.get());
+        session.setDaemon(true);
+        session.start();
+      } catch (IOException e) {
+        // Closed
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (Socket s = socket;
+         BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+         Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+      reply(out, "220 localhost fake ESMTP");
+      String recipient = null;
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        String command = line.split(" ", 2)[0].toUpperCase(Locale.ROOT);
+        commands.add(command);
+        switch (command) {
+          case "EHLO":
+            reply(out, "250-localhost\r\n250 8BITMIME");
+            break;
+          case "RCPT":
+            String address = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+            if (rejected.contains(address)) {
+              reply(out, "550 5.1.1 Mailbox unavailable");
+            } else {
+              recipient = address;
+              reply(out, "250 OK");
+            }
+            break;
+          case "DATA":
+            reply(out, "354 End data with <CR><LF>.<CR><LF>");
+            for (String data = in.readLine(); data != null && !".".equals(data); data = in.readLine()) {
+              // Discard the message content
+            }
+            recipients.add(recipient);
+            recipient = null;
+            reply(out, "250 OK");
+            break;
+          case "QUIT":
+            reply(out, "221 Bye");
+            return;
+          default:
+            reply(out, "250 OK");
+        }
+      }
+    } catch (IOException | InterruptedException e) {
+      // Connection dropped by the client or by close
+    }
+  }
+
+  private void reply(Writer out, String reply) throws IOException, InterruptedException {
+    Thread.sleep(latency.toMillis());
+    out.write(reply + "\r\n");
+    out.flush();
+  }
+}
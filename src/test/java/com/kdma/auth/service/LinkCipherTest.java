@@ -0,0 +1,53 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import com.kdma.auth.OutboxProperties;
+
+import java.util.Base64;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LinkCipherTest {
+
+  private static final String LINK = "http://localhost:9000/auth/confirmRedirect?token=secret-token";
+
+  private OutboxProperties properties;
+
+  private LinkCipher cipher;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    properties = new OutboxProperties();
+    properties.setLinkKey(Base64.getEncoder().encodeToString(new byte[32]));
+    cipher = new LinkCipher(properties);
+  }
+
+  @Test
+  public void testGivenLinkWhenEncryptedThenTokenIsNotInClearAndDecryptsBack() {
+    String encrypted = cipher.encrypt(LINK);
+
+    assertThat(encrypted.contains("secret-token"), is(false));
+    assertThat(encrypted, not(cipher.encrypt(LINK)));
+    assertThat(new LinkCipher(properties).decrypt(encrypted), is(LINK));
+  }
+
+  @Test
+  public void testGivenLinkQueuedBeforeEncryptionWhenDecryptedThenItIsReadAsItIs() {
+    assertThat(cipher.decrypt(LINK), is(LINK));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGivenLinkEncryptedWithAnotherKeyWhenDecryptedThenItIsRefused() {
+    String encrypted = new LinkCipher(new OutboxProperties()).encrypt(LINK);
+
+    cipher.decrypt(encrypted);
+  }
+}
@@ -0,0 +1,108 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thymeleaf.IEngineConfiguration;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+import org.thymeleaf.templateresource.ITemplateResource;
+import org.thymeleaf.templateresource.StringTemplateResource;
+
+public class MailContentBuilderTest {
+
+  private CountingTemplateResolver resolver;
+
+  private TemplateEngine templateEngine;
+
+  private MailContentBuilder builder;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    resolver = new CountingTemplateResolver(null);
+    templateEngine = templateEngine(resolver);
+    builder = new MailContentBuilder(templateEngine);
+  }
+
+  @Test
+  public void testGivenSameMessageWhenBuildingThenOutputMatchesFullRenderingAndTemplateIsRenderedOnce() {
+    String link = "http://localhost:9000/auth/confirmRedirect?token=a-b_c&next=\"<x>\"";
+
+    String first = builder.build("Please confirm", "http://localhost:9000/auth/confirmRedirect?token=1");
+    builder.build("Please confirm", link);
+    String last = builder.build("Please confirm", link);
+
+    assertThat(first, containsString("href=\"http://localhost:9000/auth/confirmRedirect?token=1\""));
+    // The check against a full rendering, then the skeleton of the message
+    assertThat(resolver.renderings, is(3));
+    assertThat(last, is(fullRendering("Please confirm", link)));
+  }
+
+  @Test
+  public void testGivenMissingLinkWhenBuildingThenTemplateIsRenderedInFull() {
+    assertThat(builder.build("Hello & welcome", null), is(fullRendering("Hello & welcome", null)));
+  }
+
+  @Test
+  public void testGivenTemplateUsingLinkOtherwiseWhenBuildingThenEveryEmailIsRenderedInFull() {
+    CountingTemplateResolver dynamic =
+        new CountingTemplateResolver("<a th:href=\"${link}\" th:text=\"${#strings.length(link)}\">link</a>");
+    MailContentBuilder dynamicBuilder = new MailContentBuilder(templateEngine(dynamic));
+
+    assertThat(dynamicBuilder.build("Please confirm", "http://a"), is("<a href=\"http://a\">8</a>"));
+    assertThat(dynamicBuilder.build("Please confirm", "http://ab"), is("<a href=\"http://ab\">9</a>"));
+  }
+
+  private String fullRendering(String message, String link) {
+    Context context = new Context();
+    context.setVariable("message", message);
+    context.setVariable("link", link);
+    return templateEngine.process("mail/mail", context);
+  }
+
+  private static TemplateEngine templateEngine(CountingTemplateResolver resolver) {
+    TemplateEngine templateEngine = new TemplateEngine();
+    templateEngine.setTemplateResolver(resolver);
+    return templateEngine;
+  }
+
+  /**
+   * Resolves the application's templates, or a fixed one, without caching them so every rendering can be counted.
+   */
+  private static final class CountingTemplateResolver extends ClassLoaderTemplateResolver {
+
+    private final String content;
+
+    private int renderings;
+
+    private CountingTemplateResolver(String content) {
+      this.content = content;
+      setPrefix("templates/");
+      setSuffix(".html");
+      setTemplateMode(TemplateMode.HTML);
+      setCacheable(false);
+    }
+
+    @Override
+    protected ITemplateResource computeTemplateResource(IEngineConfiguration configuration, String ownerTemplate,
+                                                        String template, String resourceName,
+                                                        String characterEncoding,
+                                                        Map<String, Object> templateResolutionAttributes) {
+      renderings++;
+      return content != null ? new StringTemplateResource(content)
+          : super.computeTemplateResource(configuration, ownerTemplate, template, resourceName, characterEncoding,
+                                          templateResolutionAttributes);
+    }
+  }
+}
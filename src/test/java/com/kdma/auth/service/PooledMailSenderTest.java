@@ -0,0 +1,225 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.kdma.auth.SmtpProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+public class PooledMailSenderTest {
+
+  private FakeSmtpServer server;
+
+  private SmtpProperties properties;
+
+  private CircuitBreaker circuitBreaker;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private PooledMailSender sender;
+
+  /**
+   * Sets the up.
+   *
+   * @throws Exception the exception
+   */
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeSmtpServer();
+    properties = new SmtpProperties();
+    properties.setFailureThreshold(2);
+    circuitBreaker = new CircuitBreaker(properties.getFailureThreshold(), Duration.ofMinutes(1), Clock.systemUTC());
+    meterRegistry = new SimpleMeterRegistry();
+    sender = newSender();
+  }
+
+  /**
+   * Closes the connections and stops the server.
+   *
+   * @throws Exception the exception
+   */
+  @After
+  public void tearDown() throws Exception {
+    sender.close();
+    server.close();
+  }
+
+  @Test
+  public void testGivenSeveralSendsWhenSendingThenOneConnectionIsReused() throws Exception {
+    sender.send(message("a@example.com"), message("b@example.com"));
+    sender.send(message("c@example.com"));
+
+    assertThat(server.getRecipients(), contains("a@example.com", "b@example.com", "c@example.com"));
+    assertThat(server.getConnections(), is(1));
+    assertThat(server.getCommands(), not(hasItem("QUIT")));
+    assertThat(meterRegistry.counter("auth.smtp.connections.opened").count(), is(1.0));
+    assertThat(meterRegistry.get("auth.smtp.connections.idle").gauge().value(), is(1.0));
+  }
+
+  @Test
+  public void testGivenRejectedRecipientWhenSendingThenOnlyItFailsAndTheConnectionIsKept() throws Exception {
+    server.reject("bad@example.com");
+    MimeMessage bad = message("bad@example.com");
+
+    try {
+      sender.send(message("a@example.com"), bad, message("b@example.com"));
+      fail("Expected the rejected recipient to fail");
+    } catch (MailSendException e) {
+      assertThat(e.getFailedMessages().keySet(), contains(bad));
+    }
+    sender.send(message("c@example.com"));
+
+    assertThat(server.getRecipients(), contains("a@example.com", "b@example.com", "c@example.com"));
+    assertThat(server.getConnections(), is(1));
+    assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+  }
+
+  @Test
+  public void testGivenTooManyMessagesWhenSendingThenConnectionIsReplaced() throws Exception {
+    properties.setMaxMessagesPerConnection(2);
+
+    sender.send(message("a@example.com"), message("b@example.com"));
+    sender.send(message("c@example.com"));
+
+    assertThat(server.getConnections(), is(2));
+    assertThat(server.getCommands(), hasItem("QUIT"));
+  }
+
+  @Test
+  public void testGivenSlowServerWhenSendingThenSendTimesOutAndConnectionIsDropped() throws Exception {
+    sender.send(message("a@example.com"));
+    server.setLatency(Duration.ofSeconds(5));
+
+    long start = System.nanoTime();
+    try {
+      sender.send(message("b@example.com"), message("c@example.com"));
+      fail("Expected the send to time out");
+    } catch (MailSendException e) {
+      assertThat(e.getFailedMessages().size(), is(2));
+    }
+
+    assertThat(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(2)), is(lessThan(0)));
+    assertThat(meterRegistry.get("auth.smtp.connections.idle").gauge().value(), is(0.0));
+  }
+
+  @Test
+  public void testGivenServerDownWhenSendsKeepFailingThenCircuitOpensAndSendsFailAtOnce() throws Exception {
+    server.close();
+
+    for (int i = 0; i < properties.getFailureThreshold(); i++) {
+      try {
+        sender.send(message("a@example.com"));
+        fail("Expected the connection to be refused");
+      } catch (MailCircuitOpenException e) {
+        fail("Circuit opened too early");
+      } catch (MailSendException e) {
+        assertThat(e.getFailedMessages().size(), is(1));
+      }
+    }
+
+    try {
+      sender.send(message("a@example.com"));
+      fail("Expected the circuit to be open");
+    } catch (MailCircuitOpenException e) {
+      assertThat(e.getRetryAt(), is(circuitBreaker.getRetryAt()));
+    }
+    assertThat(meterRegistry.get("auth.smtp.circuit.open").gauge().value(), is(1.0));
+  }
+
+  @Test
+  public void testGivenEveryConnectionBusyWhenSendingThenWaitingTimesOutWithoutCountingAgainstTheServer()
+      throws Exception {
+    properties.setMaxConnections(1);
+    properties.setBorrowTimeout(Duration.ofMillis(100));
+    sender.close();
+    sender = newSender();
+    sender.send(message("a@example.com"));
+    server.setLatency(Duration.ofSeconds(5));
+    Thread busy = new Thread(() -> {
+      try {
+        sender.send(message("b@example.com"));
+      } catch (MessagingException | MailSendException e) {
+        // Times out on the slow server
+      }
+    });
+    busy.start();
+    Thread.sleep(100);
+
+    try {
+      sender.send(message("c@example.com"));
+      fail("Expected no connection to come free");
+    } catch (MailConnectionUnavailableException e) {
+      busy.join();
+    }
+
+    // Only the send that timed out on the server failed, one short of opening the circuit
+    assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+  }
+
+  @Test
+  public void testGivenSendThrowingRuntimeExceptionWhenSendingThenConnectionIsGivenBack() throws Exception {
+    properties.setMaxConnections(1);
+    properties.setBorrowTimeout(Duration.ofMillis(100));
+    sender.close();
+    sender = newSender();
+    MimeMessage broken = new MimeMessage(sender.getSession()) {
+      @Override
+      public Address[] getAllRecipients() {
+        throw new IllegalStateException("Broken message");
+      }
+    };
+
+    try {
+      sender.send(broken);
+      fail("Expected the send to fail");
+    } catch (IllegalStateException e) {
+      assertThat(meterRegistry.get("auth.smtp.connections.idle").gauge().value(), is(0.0));
+    }
+
+    sender.send(message("a@example.com"));
+    assertThat(server.getRecipients(), contains("a@example.com"));
+  }
+
+  private PooledMailSender newSender() {
+    PooledMailSender newSender = new PooledMailSender(properties, circuitBreaker);
+    newSender.setHost("localhost");
+    newSender.setPort(server.getPort());
+    Properties javaMailProperties = new Properties();
+    javaMailProperties.setProperty("mail.smtp.connectiontimeout", "1000");
+    javaMailProperties.setProperty("mail.smtp.timeout", "500");
+    newSender.setJavaMailProperties(javaMailProperties);
+    newSender.bindTo(meterRegistry);
+    return newSender;
+  }
+
+  private MimeMessage message(String to) throws MessagingException {
+    MimeMessage message = sender.createMimeMessage();
+    MimeMessageHelper helper = new MimeMessageHelper(message);
+    helper.setFrom("noreply@example.com");
+    helper.setTo(to);
+    helper.setSubject("Subject");
+    helper.setText("Hello!");
+    return message;
+  }
+}
@@ -0,0 +1,127 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.kdma.auth.ReaperProperties;
+import com.kdma.auth.TokenProperties;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@JdbcTest
+public class TokenReaperTest {
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private TokenReaper reaper;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    ReaperProperties properties = new ReaperProperties();
+    properties.setBatchSize(2);
+    properties.setPause(Duration.ZERO);
+    meterRegistry = new SimpleMeterRegistry();
+    reaper = new TokenReaper(dataSource, properties, new TokenProperties(), meterRegistry);
+  }
+
+  @Test
+  public void testGivenExpiredAndLiveTokensWhenRunningThenOnlyExpiredTokensAreRemovedInBatches() {
+    Instant now = Instant.now();
+    for (int i = 0; i < 5; i++) {
+      accessToken("expired-" + i, now.minusSeconds(60));
+    }
+    accessToken("live", now.plusSeconds(60));
+    accessToken("never", null);
+    refreshToken("expired", now.minusSeconds(60));
+    refreshToken("live", now.plusSeconds(60));
+
+    TokenReaper.Report report = reaper.run();
+
+    assertThat(report.getRemoved().get("oauth_access_token"), is(5));
+    assertThat(report.getRemoved().get("oauth_refresh_token"), is(1));
+    assertThat(count("oauth_access_token"), is(2));
+    assertThat(count("oauth_refresh_token"), is(1));
+    assertThat(meterRegistry.counter("auth.reaper.removed", "table", "oauth_access_token").count(), is(5.0));
+    assertThat(meterRegistry.timer("auth.reaper.run").count(), is(1L));
+    assertThat(reaper.getLastReport(), is(report));
+  }
+
+  @Test
+  public void testGivenOldAuthorizationCodeWhenRunningThenCodeIsRemoved() {
+    jdbcTemplate.update("insert into oauth_code (code, created_at) values (?, ?)", "old",
+                        Timestamp.from(Instant.now().minus(Duration.ofHours(1))));
+    jdbcTemplate.update("insert into oauth_code (code) values (?)", "new");
+
+    TokenReaper.Report report = reaper.run();
+
+    assertThat(report.getRemoved().get("oauth_code"), is(1));
+    assertThat(jdbcTemplate.queryForObject("select code from oauth_code", String.class), is("new"));
+  }
+
+  @Test
+  public void testGivenExpiredEmailChangeTokenWhenRunningThenTokenAndPendingEmailAreCleared() {
+    Instant now = Instant.now();
+    jdbcTemplate.update("insert into users (user_id, email, pending_email, enabled) values (?, ?, ?, ?)", 100,
+                        "stale@example.com", "new@example.com", true);
+    jdbcTemplate.update("insert into users (user_id, email, pending_email, enabled) values (?, ?, ?, ?)", 101,
+                        "live@example.com", "other@example.com", true);
+    verificationToken("expired", "EMAIL_CHANGE", 100, now.minusSeconds(60));
+    verificationToken("live", "EMAIL_CHANGE", 101, now.plusSeconds(60));
+    verificationToken("expired-registration", "REGISTRATION", 101, now.minusSeconds(60));
+
+    TokenReaper.Report report = reaper.run();
+
+    assertThat(report.getRemoved().get("verification_tokens"), is(2));
+    assertThat(report.getRemoved().get("users"), is(1));
+    assertThat(jdbcTemplate.queryForObject("select token_hash from verification_tokens", String.class), is("live"));
+    assertThat(jdbcTemplate.queryForObject("select pending_email from users where user_id = 100", String.class),
+               is(nullValue()));
+    assertThat(jdbcTemplate.queryForObject("select pending_email from users where user_id = 101", String.class),
+               is("other@example.com"));
+  }
+
+  private void accessToken(String authenticationId, Instant expiration) {
+    jdbcTemplate.update("insert into oauth_access_token (token_id, authentication_id, expiration) values (?, ?, ?)",
+                        authenticationId, authenticationId, expiration == null ? null : Timestamp.from(expiration));
+  }
+
+  private void refreshToken(String tokenId, Instant expiration) {
+    jdbcTemplate.update("insert into oauth_refresh_token (token_id, expiration) values (?, ?)", tokenId,
+                        Timestamp.from(expiration));
+  }
+
+  private void verificationToken(String tokenHash, String purpose, long userId, Instant expiresAt) {
+    jdbcTemplate.update("insert into verification_tokens (token_hash, purpose, user_id, expires_at) "
+                        + "values (?, ?, ?, ?)", tokenHash, purpose, userId, Timestamp.from(expiresAt));
+  }
+
+  private int count(String table) {
+    return jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+  }
+}
@@ -1,10 +1,16 @@
 
 package com.kdma.auth.service;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import com.kdma.auth.token.UserTokenStore;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,6 +27,9 @@ public class TokenServiceImplTest {
   @Mock
   private JdbcTokenStore tokenStore;
 
+  @Mock
+  private UserTokenStore userTokenStore;
+
   @Mock
   private OAuth2AccessToken accessToken;
 
@@ -55,4 +64,14 @@ public class TokenServiceImplTest {
     verify(tokenStore).removeRefreshToken(refreshToken);
   }
 
+  @Test
+  public void testGivenUserTokenStoreWhenRevokingTokensThenRemoveInBulk() {
+    given(userTokenStore.removeTokensByUserName("john@example.com")).willReturn(6);
+
+    int revoked = new TokenServiceImpl(userTokenStore).revokeTokens("john@example.com");
+
+    assertThat(revoked, is(6));
+    verify(userTokenStore, never()).removeAccessToken(any());
+  }
+
 }
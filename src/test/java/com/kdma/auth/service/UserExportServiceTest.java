@@ -0,0 +1,108 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kdma.auth.UserProperties;
+import com.kdma.auth.model.DataFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@JdbcTest
+public class UserExportServiceTest {
+
+  private static final Instant NOW = Instant.parse("2030-01-01T00:00:00Z");
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private UserExportService exportService;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    UserProperties userProperties = new UserProperties();
+    userProperties.getExport().setFetchSize(2);
+    exportService = new UserExportService(dataSource, objectMapper, userProperties);
+
+    insert(1001, "old@example.com", NOW.minus(Duration.ofHours(2)));
+    insert(1002, "changed, \"quoted\"@example.com", NOW.minus(Duration.ofMinutes(30)));
+    insert(1003, "late@example.com", NOW.plus(Duration.ofMinutes(1)));
+  }
+
+  @Test
+  public void testGivenWatermarkWhenExportingNdjsonThenOnlyUsersChangedSinceAreWritten() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    long count = exportService.export(NOW.minus(Duration.ofHours(1)), NOW, DataFormat.NDJSON, out);
+
+    assertThat(count, is(1L));
+    List<JsonNode> users = new ArrayList<>();
+    for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+      users.add(objectMapper.readTree(line));
+    }
+    assertThat(users.size(), is(1));
+    assertThat(users.get(0).get("id").asLong(), is(1002L));
+    assertThat(users.get(0).get("email").asText(), is("changed, \"quoted\"@example.com"));
+    assertThat(users.get(0).get("awaitingConfirmation").asBoolean(), is(true));
+    assertThat(users.get(0).get("updatedAt").asText(), is("2029-12-31T23:30:00Z"));
+  }
+
+  @Test
+  public void testGivenNoWatermarkWhenExportingCsvThenAllUsersUpToTheWatermarkAreWritten() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    long count = exportService.export(null, NOW, DataFormat.CSV, out);
+
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertThat(count, is((long) lines.length - 1));
+    assertThat(lines[0], is("id,email,role,enabled,pending_email,awaiting_confirmation,updated_at"));
+    List<String> exported = new ArrayList<>();
+    for (int i = 1; i < lines.length; i++) {
+      if (lines[i].startsWith("100")) {
+        exported.add(lines[i]);
+      }
+    }
+    assertThat(exported, contains("1001,old@example.com,USER,true,,false,2029-12-31T22:00:00Z",
+                                  "1002,\"changed, \"\"quoted\"\"@example.com\",USER,true,,true,"
+                                  + "2029-12-31T23:30:00Z"));
+  }
+
+  private void insert(long id, String email, Instant updatedAt) {
+    jdbcTemplate.update("insert into users (user_id, email, password, role, enabled, updated_at) "
+                        + "values (?, ?, 'x', 'USER', true, ?)", id, email, Timestamp.from(updatedAt));
+    if (id == 1002) {
+      jdbcTemplate.update("insert into verification_tokens (token_hash, purpose, user_id, expires_at) "
+                          + "values ('hash', 'REGISTRATION', ?, ?)", id, Timestamp.from(NOW));
+    }
+  }
+}
@@ -0,0 +1,157 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kdma.auth.AuthProperties;
+import com.kdma.auth.OutboxProperties;
+import com.kdma.auth.ReaperProperties;
+import com.kdma.auth.UserProperties;
+import com.kdma.auth.model.DataFormat;
+import com.kdma.auth.model.ImportReport;
+import com.kdma.auth.repository.VerificationTokenRepository;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.MessageSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@JdbcTest
+public class UserImportServiceTest {
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Mock
+  private MessageSource messages;
+
+  @Mock
+  private VerificationTokenRepository tokenRepository;
+
+  private BoundedPasswordEncoder passwordEncoder;
+
+  private LinkCipher linkCipher;
+
+  private UserImportService importService;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    AuthProperties authProperties = new AuthProperties();
+    authProperties.setRedirectionUrl("http://localhost:9000/auth");
+    authProperties.setEmailFrom("auth@example.com");
+    UserProperties userProperties = new UserProperties();
+    userProperties.getBulkImport().setBatchSize(2);
+    userProperties.getBulkImport().setParallelism(2);
+    given(messages.getMessage(eq("email.registration"), any(), any(Locale.class))).willReturn("Confirm");
+
+    passwordEncoder = new BoundedPasswordEncoder(4, 1, 1, Duration.ofSeconds(1));
+    VerificationTokenService verificationTokens = new VerificationTokenService(tokenRepository,
+                                                                               new ReaperProperties());
+    linkCipher = new LinkCipher(new OutboxProperties());
+    importService = new UserImportService(dataSource, passwordEncoder, new EmailService(dataSource, linkCipher),
+                                          verificationTokens, authProperties, messages, new ObjectMapper(),
+                                          userProperties);
+  }
+
+  /**
+   * Stops the import and hashing threads.
+   */
+  @After
+  public void tearDown() {
+    importService.close();
+    passwordEncoder.close();
+  }
+
+  @Test
+  public void testGivenCsvWithInvalidRowsWhenImportingThenValidRowsAreImportedAndOthersReported() throws IOException {
+    String hash = new BCryptPasswordEncoder(4).encode("hashed");
+    String csv = "Email,Password,Password_Hash,Role\n"
+                 + "ann@example.com,secret,,\n"
+                 + "bob@example.com,\"with,comma \"\"quoted\"\"\",,admin\n"
+                 + "ann@example.com,again,,\n"
+                 + "john@example.com,secret,,\n"
+                 + "\n"
+                 + "carol@example.com,," + hash + ",\n"
+                 + "not-an-address,secret,,\n"
+                 + "dave@example.com,,,\n"
+                 + "erin@example.com,secret,,owner\n";
+
+    ImportReport report = importService.importUsers(new StringReader(csv), DataFormat.CSV, false, Locale.US);
+
+    assertThat(report.getRows(), is(8L));
+    assertThat(report.getImported(), is(3L));
+    assertThat(report.getFailed(), is(5L));
+    assertThat(report.getErrors().stream().map(ImportReport.RowError::getLine).collect(Collectors.toList()),
+               contains(4L, 5L, 8L, 9L, 10L));
+
+    Map<String, Object> bob = jdbcTemplate.queryForMap("select * from users where email = 'bob@example.com'");
+    assertThat(bob.get("ROLE"), is("ADMIN"));
+    assertThat(bob.get("ENABLED"), is(true));
+    assertThat(passwordEncoder.matches("with,comma \"quoted\"", (String) bob.get("PASSWORD")), is(true));
+    assertThat(jdbcTemplate.queryForObject("select password from users where email = 'carol@example.com'",
+                                           String.class), is(hash));
+  }
+
+  @Test
+  public void testGivenNdjsonToConfirmWhenImportingThenUsersAreDisabledAndConfirmationsSent() throws IOException {
+    String ndjson = "{\"email\":\"frank@example.com\"}\n"
+                    + "{\"email\":\"grace@example.com\",\"role\":\"USER\"}\n"
+                    + "{not json}\n";
+
+    ImportReport report = importService.importUsers(new StringReader(ndjson), DataFormat.NDJSON, true, Locale.US);
+
+    assertThat(report.getImported(), is(2L));
+    assertThat(report.getErrors().get(0).getLine(), is(3L));
+    Map<String, Object> frank = jdbcTemplate.queryForMap("select * from users where email = 'frank@example.com'");
+    assertThat(frank.get("ENABLED"), is(false));
+    Map<String, Object> email = jdbcTemplate.queryForMap("select * from email_outbox where recipient = ?",
+                                                         "frank@example.com");
+    assertThat(email.get("SENDER"), is("auth@example.com"));
+    assertThat(email.get("SUBJECT"), is("Registration confirmation"));
+    assertThat(email.get("MESSAGE"), is("Confirm"));
+    String link = linkCipher.decrypt((String) email.get("LINK"));
+    String prefix = "http://localhost:9000/auth/confirmRedirect?token=";
+    assertThat(link.startsWith(prefix), is(true));
+    assertThat(jdbcTemplate.queryForObject("select user_id from verification_tokens where token_hash = ? "
+                                           + "and purpose = 'REGISTRATION'", Long.class,
+                                           VerificationTokenService.hash(link.substring(prefix.length()))),
+               is(frank.get("USER_ID")));
+    assertThat(jdbcTemplate.queryForObject("select count(*) from email_outbox", Integer.class), is(2));
+  }
+
+  @Test
+  public void testGivenQuotedCsvValuesWhenParsingThenQuotesAndCommasAreKept() {
+    assertThat(UserImportService.parseCsvLine("a,\"b,c\",\"d\"\"e\",,f"), contains("a", "b,c", "d\"e", "", "f"));
+  }
+}
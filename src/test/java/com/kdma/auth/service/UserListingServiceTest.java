@@ -0,0 +1,96 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kdma.auth.model.Role;
+import com.kdma.auth.model.UserFilter;
+import com.kdma.auth.model.UserSummary;
+import com.kdma.auth.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+public class UserListingServiceTest {
+
+  @Autowired
+  private UserRepository repository;
+
+  private UserListingService listingService;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    listingService = new UserListingService(repository);
+  }
+
+  @Test
+  public void testGivenDevelopmentUsersWhenPagingThenEachPageStartsAfterThePreviousOne() {
+    List<UserSummary> first = listingService.page(new UserFilter(), 0, 2);
+    List<UserSummary> second = listingService.page(new UserFilter(), first.get(1).getId(), 2);
+
+    assertThat(emails(first), contains("john@example.com", "anna@example.com"));
+    assertThat(emails(second), contains("heather@example.com"));
+    assertThat(listingService.page(new UserFilter(), second.get(0).getId(), 2), is(empty()));
+  }
+
+  @Test
+  public void testGivenFilterWhenPagingThenOnlyMatchingUsersAreListed() {
+    UserFilter admins = new UserFilter();
+    admins.setRole(Role.ADMIN);
+    UserFilter prefix = new UserFilter();
+    prefix.setEmailPrefix("an");
+    UserFilter wildcard = new UserFilter();
+    wildcard.setEmailPrefix("_");
+    UserFilter disabled = new UserFilter();
+    disabled.setEnabled(false);
+
+    assertThat(emails(listingService.page(admins, 0, 10)), contains("john@example.com"));
+    assertThat(emails(listingService.page(prefix, 0, 10)), contains("anna@example.com"));
+    assertThat(listingService.page(wildcard, 0, 10), is(empty()));
+    assertThat(listingService.page(disabled, 0, 10), is(empty()));
+  }
+
+  @Test
+  public void testGivenDevelopmentUsersWhenStreamingThenAllAreStreamedInOrder() {
+    List<UserSummary> streamed = new ArrayList<>();
+
+    long count = listingService.stream(new UserFilter(), streamed::add);
+
+    assertThat(count, is(3L));
+    assertThat(emails(streamed), contains("john@example.com", "anna@example.com", "heather@example.com"));
+  }
+
+  @Test
+  public void testGivenDevelopmentUsersWhenListingThenPasswordHashIsNotWritten() throws Exception {
+    UserSummary john = listingService.page(new UserFilter(), 0, 1).get(0);
+
+    String json = new ObjectMapper().writeValueAsString(john);
+
+    assertThat(json, containsString("\"email\":\"john@example.com\""));
+    assertThat(json, containsString("\"role\":\"ADMIN\""));
+    assertThat(json, not(containsString("password")));
+  }
+
+  private static List<String> emails(List<UserSummary> users) {
+    return users.stream().map(UserSummary::getEmail).collect(Collectors.toList());
+  }
+}
@@ -1,25 +1,40 @@
 
 package com.kdma.auth.service;
 
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import com.kdma.auth.model.Role;
 import com.kdma.auth.model.User;
+import com.kdma.auth.model.UserInfo;
+import com.kdma.auth.model.UserSnapshot;
 import com.kdma.auth.repository.UserRepository;
 
+import java.time.Duration;
 import java.util.Optional;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class UserServiceTest {
 
   @Mock
   private UserRepository userRepo;
 
+  private SnapshotUserCache userCache;
+
   private UserService userService;
 
   /**
@@ -29,7 +44,8 @@ public class UserServiceTest {
   public void setUp() {
     MockitoAnnotations.initMocks(this);
 
-    userService = new UserService(userRepo);
+    userCache = new SnapshotUserCache(100, Duration.ofMinutes(5));
+    userService = new UserService(userRepo, userCache);
   }
 
   @Test
@@ -37,10 +53,119 @@ public class UserServiceTest {
     User user = new User();
     user.setId(1L);
     user.setEmail("john@example.com");
+    user.setPassword("hash");
+    user.setRole(Role.USER);
+    user.setEnabled(true);
+
+    given(userRepo.findByEmail("john@example.com")).willReturn(Optional.of(user));
+
+    UserDetails details = userService.loadUserByUsername("john@example.com");
+    assertThat(details, instanceOf(UserSnapshot.class));
+    assertThat(((UserSnapshot) details).getId(), is(1L));
+    assertThat(details.getUsername(), is("john@example.com"));
+    assertThat(details.getPassword(), is("hash"));
+    assertThat(details.isEnabled(), is(true));
+  }
+
+  @Test
+  public void testGivenCachedUserWhenLoadingAgainThenRepositoryIsNotQueriedUntilEvicted() {
+    User user = new User();
+    user.setEmail("john@example.com");
+    user.setPassword("hash");
+    user.setRole(Role.USER);
+
+    given(userRepo.findByEmail("john@example.com")).willReturn(Optional.of(user));
+
+    userService.loadUserByUsername("john@example.com");
+    userService.loadUserByUsername("john@example.com");
+    verify(userRepo, times(1)).findByEmail("john@example.com");
+
+    user.setPassword("changed");
+    userCache.removeUserFromCache("john@example.com");
+
+    assertThat(userService.loadUserByUsername("john@example.com").getPassword(), is("changed"));
+    verify(userRepo, times(2)).findByEmail("john@example.com");
+  }
+
+  @Test
+  public void testGivenUsersWhoseEmailsDifferInCaseWhenLoadingThenEachGetsTheirOwnDetails() {
+    User lower = new User();
+    lower.setId(1L);
+    lower.setEmail("alice@example.com");
+    lower.setPassword("lower");
+    lower.setRole(Role.USER);
+    User upper = new User();
+    upper.setId(2L);
+    upper.setEmail("Alice@example.com");
+    upper.setPassword("upper");
+    upper.setRole(Role.USER);
+
+    given(userRepo.findByEmail("alice@example.com")).willReturn(Optional.of(lower));
+    given(userRepo.findByEmail("Alice@example.com")).willReturn(Optional.of(upper));
+
+    assertThat(userService.loadUserByUsername("alice@example.com").getPassword(), is("lower"));
+    assertThat(userService.loadUserByUsername("Alice@example.com").getPassword(), is("upper"));
+    assertThat(((UserSnapshot) userService.loadUserByUsername("alice@example.com")).getId(), is(1L));
+  }
+
+  @Test
+  public void testGivenUserChangedInTransactionWhenLoadedBeforeCommitThenItIsEvictedAgainAfterCommit() {
+    User user = new User();
+    user.setEmail("john@example.com");
+    user.setPassword("old");
+    user.setRole(Role.USER);
+    given(userRepo.findByEmail("john@example.com")).willReturn(Optional.of(user));
+
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      userCache.removeUserFromCache("john@example.com");
+      // A concurrent login before the commit still reads the old row
+      userService.loadUserByUsername("john@example.com");
+      user.setPassword("new");
+
+      TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    assertThat(userService.loadUserByUsername("john@example.com").getPassword(), is("new"));
+  }
+
+  @Test
+  public void testGivenAuthenticatedUserWhenUpdatingPasswordThenRehashIsSavedUnlessPasswordChanged() {
+    User user = new User();
+    user.setEmail("john@example.com");
+    user.setPassword("weak");
+    user.setRole(Role.USER);
 
     given(userRepo.findByEmail("john@example.com")).willReturn(Optional.of(user));
 
-    assertThat(userService.loadUserByUsername("john@example.com"), is(user));
+    UserDetails details = userService.loadUserByUsername("john@example.com");
+    UserDetails updated = userService.updatePassword(details, "strong");
+
+    assertThat(updated.getPassword(), is("strong"));
+    assertThat(user.getPassword(), is("strong"));
+    verify(userRepo).save(user);
+    assertThat(userService.loadUserByUsername("john@example.com").getPassword(), is("strong"));
+
+    user.setPassword("changed");
+    userService.updatePassword(details, "stale");
+
+    assertThat(user.getPassword(), is("changed"));
+    verify(userRepo, never()).save(ArgumentMatchers.argThat(saved -> "stale".equals(saved.getPassword())));
+  }
+
+  @Test
+  public void testGivenCachedUserInfoWhenUserIsRemovedFromCacheThenUserInfoIsRemovedToo() {
+    UserInfoCache userInfoCache = userCache.userInfoCache();
+    userInfoCache.putUserInfo("john@example.com", new UserInfo(1L, Role.USER, true, 3));
+
+    assertThat(userInfoCache.getUserInfo("john@example.com").getETag(), is("1.3"));
+    assertThat(userInfoCache.getUserInfo("John@example.com"), is(nullValue()));
+
+    userCache.removeUserFromCache("john@example.com");
+
+    assertThat(userInfoCache.getUserInfo("john@example.com"), is(nullValue()));
   }
 
 }
@@ -0,0 +1,110 @@
+
+package com.kdma.auth.service;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import com.kdma.auth.ReaperProperties;
+import com.kdma.auth.model.User;
+import com.kdma.auth.model.VerificationToken;
+import com.kdma.auth.model.VerificationToken.Purpose;
+import com.kdma.auth.repository.UserRepository;
+import com.kdma.auth.repository.VerificationTokenRepository;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+public class VerificationTokenServiceTest {
+
+  @Autowired
+  private VerificationTokenRepository repository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  private ReaperProperties properties;
+
+  private VerificationTokenService verificationTokens;
+
+  private User john;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    properties = new ReaperProperties();
+    verificationTokens = new VerificationTokenService(repository, properties);
+    john = userRepository.findByEmail("john@example.com").get();
+  }
+
+  @Test
+  public void testGivenIssuedTokenWhenFindingUserThenOnlyItsPurposeFindsTheUser() {
+    String token = verificationTokens.issue(john, Purpose.PASSWORD_RESET);
+
+    assertThat(verificationTokens.findUser(token, Purpose.REGISTRATION, Purpose.PASSWORD_RESET).get().getEmail(),
+               is("john@example.com"));
+    assertThat(verificationTokens.findUser(token, Purpose.EMAIL_CHANGE).isPresent(), is(false));
+    assertThat(verificationTokens.findUser("unknown", Purpose.PASSWORD_RESET).isPresent(), is(false));
+  }
+
+  @Test
+  public void testGivenIssuedTokenWhenStoredThenOnlyItsHashIsKept() {
+    String token = verificationTokens.issue(john, Purpose.REGISTRATION);
+
+    VerificationToken stored = repository.findAll().get(0);
+    assertThat(stored.getTokenHash(), is(VerificationTokenService.hash(token)));
+    assertThat(stored.getTokenHash(), is(not(token)));
+    assertThat(stored.getTokenHash().length(), is(64));
+  }
+
+  @Test
+  public void testGivenSecondTokenForSamePurposeWhenIssuedThenFirstNoLongerWorks() {
+    String first = verificationTokens.issue(john, Purpose.EMAIL_CHANGE);
+    String second = verificationTokens.issue(john, Purpose.EMAIL_CHANGE);
+
+    assertThat(verificationTokens.findUser(first, Purpose.EMAIL_CHANGE).isPresent(), is(false));
+    assertThat(verificationTokens.findUser(second, Purpose.EMAIL_CHANGE).isPresent(), is(true));
+    assertThat(repository.count(), is(1L));
+  }
+
+  @Test
+  public void testGivenExpiredOrRevokedTokenWhenFindingUserThenNoUserIsFound() {
+    properties.setConfirmationTokenTimeToLive(Duration.ofSeconds(-1));
+    String expired = verificationTokens.issue(john, Purpose.REGISTRATION);
+    properties.setConfirmationTokenTimeToLive(Duration.ofHours(1));
+    String revoked = verificationTokens.issue(john, Purpose.PASSWORD_RESET);
+    verificationTokens.revoke(john, Purpose.REGISTRATION, Purpose.PASSWORD_RESET);
+
+    assertThat(verificationTokens.findUser(expired, Purpose.REGISTRATION).isPresent(), is(false));
+    assertThat(verificationTokens.findUser(revoked, Purpose.PASSWORD_RESET).isPresent(), is(false));
+  }
+
+  @Test
+  public void testGivenIssuedTokenWhenConsumedTwiceThenOnlyFirstUseFindsTheUser() {
+    String token = verificationTokens.issue(john, Purpose.REGISTRATION);
+
+    assertThat(verificationTokens.consume(token, Purpose.EMAIL_CHANGE).isPresent(), is(false));
+    assertThat(verificationTokens.consume(token, Purpose.REGISTRATION, Purpose.PASSWORD_RESET).get().getEmail(),
+               is("john@example.com"));
+    assertThat(verificationTokens.consume(token, Purpose.REGISTRATION, Purpose.PASSWORD_RESET).isPresent(), is(false));
+    assertThat(repository.count(), is(0L));
+  }
+
+  @Test
+  public void testGivenExpiredTokenWhenConsumedThenNoUserIsFound() {
+    properties.setConfirmationTokenTimeToLive(Duration.ofSeconds(-1));
+    String expired = verificationTokens.issue(john, Purpose.PASSWORD_RESET);
+
+    assertThat(verificationTokens.consume(expired, Purpose.PASSWORD_RESET).isPresent(), is(false));
+  }
+}
@@ -0,0 +1,207 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class CachingTokenStoreTest {
+
+  @Mock
+  private TokenStore delegate;
+
+  private DefaultOAuth2AccessToken accessToken;
+
+  private OAuth2Authentication authentication;
+
+  private CachingTokenStore tokenStore;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    accessToken = new DefaultOAuth2AccessToken("access");
+    accessToken.setExpiration(new Date(System.currentTimeMillis() + 60_000));
+    accessToken.setRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client", Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    authentication = new OAuth2Authentication(request, null);
+
+    given(delegate.readAccessToken("access")).willReturn(accessToken);
+    given(delegate.readAuthentication("access")).willReturn(authentication);
+
+    tokenStore = new CachingTokenStore(delegate, 100, Duration.ofMinutes(5));
+  }
+
+  @Test
+  public void testGivenCachedTokenWhenReadingTokenAndAuthenticationThenDelegateIsReadOnce() {
+    tokenStore.readAccessToken("access");
+    tokenStore.readAccessToken("access");
+    OAuth2Authentication loaded = tokenStore.readAuthentication(accessToken);
+
+    assertThat(loaded.getOAuth2Request().getClientId(), is("client"));
+    verify(delegate, times(1)).readAccessToken("access");
+    verify(delegate, times(1)).readAuthentication("access");
+  }
+
+  @Test
+  public void testGivenUnknownTokenWhenReadingTokenThenReturnNullAndDoNotCacheMiss() {
+    assertThat(tokenStore.readAccessToken("unknown"), is(nullValue()));
+    assertThat(tokenStore.readAccessToken("unknown"), is(nullValue()));
+
+    verify(delegate, times(2)).readAccessToken("unknown");
+  }
+
+  @Test
+  public void testGivenCachedTokenWhenRemovingTokenThenNextReadGoesToDelegate() {
+    tokenStore.readAccessToken("access");
+
+    tokenStore.removeAccessToken(accessToken);
+    tokenStore.readAccessToken("access");
+
+    verify(delegate).removeAccessToken(accessToken);
+    verify(delegate, times(2)).readAccessToken("access");
+  }
+
+  @Test
+  public void testGivenCachedTokenWhenRemovingUsingRefreshTokenThenNextReadGoesToDelegate() {
+    tokenStore.readAccessToken("access");
+
+    tokenStore.removeAccessTokenUsingRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+    assertThat(tokenStore.indexSize(), is(0));
+    tokenStore.readAccessToken("access");
+
+    verify(delegate, times(2)).readAccessToken("access");
+  }
+
+  @Test
+  public void testGivenCachedTokenWhenRemovingAnotherRefreshTokenThenTokenStaysCachedAndIndexed() {
+    tokenStore.readAccessToken("access");
+
+    tokenStore.removeAccessTokenUsingRefreshToken(new DefaultOAuth2RefreshToken("other"));
+    tokenStore.readAccessToken("access");
+
+    assertThat(tokenStore.indexSize(), is(1));
+    verify(delegate, times(1)).readAccessToken("access");
+  }
+
+  @Test
+  public void testGivenCachedUserTokenWhenRemovingTokensByUserNameThenNextReadGoesToDelegate() {
+    UserTokenStore userDelegate = mock(UserTokenStore.class);
+    OAuth2Authentication userAuthentication = new OAuth2Authentication(
+        authentication.getOAuth2Request(), new UsernamePasswordAuthenticationToken("anna@example.com", null,
+                                                                                     Collections.emptyList()));
+    given(userDelegate.readAccessToken("access")).willReturn(accessToken);
+    given(userDelegate.readAuthentication("access")).willReturn(userAuthentication);
+    given(userDelegate.removeTokensByUserName("anna@example.com")).willReturn(2);
+    CachingTokenStore userTokenStore = new CachingTokenStore(userDelegate, 100, Duration.ofMinutes(5));
+    userTokenStore.readAccessToken("access");
+
+    assertThat(userTokenStore.indexSize(), is(2));
+    assertThat(userTokenStore.removeTokensByUserName("anna@example.com"), is(2));
+    assertThat(userTokenStore.indexSize(), is(0));
+    userTokenStore.readAccessToken("access");
+
+    verify(userDelegate, times(2)).readAccessToken("access");
+  }
+
+  @Test
+  public void testGivenTokenRemovedInTransactionWhenReadBeforeCommitThenItIsEvictedAgainAfterCommit() {
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      tokenStore.removeAccessToken(accessToken);
+      // A concurrent read before the commit still finds the row
+      tokenStore.readAccessToken("access");
+
+      TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    tokenStore.readAccessToken("access");
+
+    verify(delegate, times(2)).readAccessToken("access");
+  }
+
+  @Test
+  public void testGivenExpiredTokenWhenReadingTokenThenTokenIsNotCached() {
+    accessToken.setExpiration(new Date(System.currentTimeMillis() - 1_000));
+
+    tokenStore.readAccessToken("access");
+    tokenStore.readAccessToken("access");
+
+    verify(delegate, times(2)).readAccessToken("access");
+    tokenStore.cleanUp();
+    assertThat(tokenStore.indexSize(), is(0));
+  }
+
+  @Test
+  public void testGivenCachedTokenWhenItExpiresThenItIsNoLongerIndexed() throws InterruptedException {
+    accessToken.setExpiration(new Date(System.currentTimeMillis() + 200));
+    tokenStore.readAccessToken("access");
+    assertThat(tokenStore.indexSize(), is(1));
+
+    Thread.sleep(300);
+    tokenStore.readAccessToken("access");
+    tokenStore.cleanUp();
+
+    assertThat(tokenStore.indexSize(), is(0));
+  }
+
+  @Test
+  public void testGivenConcurrentMissesWhenReadingTokenThenDelegateIsReadOnce() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    given(delegate.readAccessToken("access")).will(invocation -> {
+      loading.countDown();
+      release.await();
+      return accessToken;
+    });
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<OAuth2AccessToken> first = executor.submit(() -> tokenStore.readAccessToken("access"));
+      loading.await();
+      Future<OAuth2AccessToken> second = executor.submit(() -> tokenStore.readAccessToken("access"));
+      Future<OAuth2AccessToken> third = executor.submit(() -> tokenStore.readAccessToken("access"));
+      release.countDown();
+
+      assertThat(first.get().getValue(), is("access"));
+      assertThat(second.get().getValue(), is("access"));
+      assertThat(third.get().getValue(), is("access"));
+    } finally {
+      executor.shutdown();
+    }
+
+    verify(delegate, times(1)).readAccessToken("access");
+  }
+}
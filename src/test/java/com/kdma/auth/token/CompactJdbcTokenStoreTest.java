@@ -0,0 +1,139 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@JdbcTest
+public class CompactJdbcTokenStoreTest {
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private CompactJdbcTokenStore tokenStore;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    tokenStore = new CompactJdbcTokenStore(dataSource, new TokenCodec());
+  }
+
+  @Test
+  public void testGivenStoredTokensWhenReadingThenRoundTripThroughCodec() {
+    store("anna@example.com", "client", "access", "refresh");
+
+    assertThat(tokenStore.readAccessToken("access").getRefreshToken().getValue(), is("refresh"));
+    assertThat(tokenStore.readAuthentication("access").getName(), is("anna@example.com"));
+    assertThat(tokenStore.readAuthenticationForRefreshToken(new DefaultOAuth2RefreshToken("refresh")).getName(),
+               is("anna@example.com"));
+  }
+
+  @Test
+  public void testGivenTokensForSeveralUsersWhenRemovingByUserNameThenOnlyThatUsersTokensAreRemoved() {
+    store("anna@example.com", "client", "access-1", "refresh-1");
+    store("anna@example.com", "other", "access-2", "refresh-2");
+    store("john@example.com", "client", "access-3", "refresh-3");
+
+    int removed = tokenStore.removeTokensByUserName("anna@example.com");
+
+    assertThat(removed, is(4));
+    assertThat(tokenStore.readAccessToken("access-1"), is(nullValue()));
+    assertThat(tokenStore.readRefreshToken("refresh-2"), is(nullValue()));
+    assertThat(tokenStore.readAccessToken("access-3").getValue(), is("access-3"));
+    assertThat(tokenStore.readRefreshToken("refresh-3").getValue(), is("refresh-3"));
+  }
+
+  @Test
+  public void testGivenRefreshTokenWithoutAccessTokenWhenRemovingByUserNameThenRefreshTokenIsRemoved() {
+    store("anna@example.com", "client", "access", "refresh");
+    tokenStore.removeAccessToken(new DefaultOAuth2AccessToken("access"));
+
+    int removed = tokenStore.removeTokensByUserName("anna@example.com");
+
+    assertThat(removed, is(1));
+    assertThat(tokenStore.readRefreshToken("refresh"), is(nullValue()));
+  }
+
+  @Test
+  public void testGivenExpiringTokensWhenStoringThenExpirationIsRecordedInItsOwnColumn() {
+    Date expiration = new Date(System.currentTimeMillis() / 1000 * 1000 + 60_000);
+    OAuth2Authentication authentication = authentication("anna@example.com", "client");
+    DefaultExpiringOAuth2RefreshToken refreshToken = new DefaultExpiringOAuth2RefreshToken("refresh", expiration);
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken("access");
+    accessToken.setExpiration(expiration);
+    accessToken.setRefreshToken(refreshToken);
+
+    tokenStore.storeAccessToken(accessToken, authentication);
+    tokenStore.storeRefreshToken(refreshToken, authentication);
+
+    assertThat(jdbcTemplate.queryForObject("select expiration from oauth_access_token", Timestamp.class).getTime(),
+               is(expiration.getTime()));
+    assertThat(jdbcTemplate.queryForObject("select expiration from oauth_refresh_token", Timestamp.class).getTime(),
+               is(expiration.getTime()));
+  }
+
+  @Test
+  public void testGivenBoundRegistryWhenReadingThenDecodingIsTimedByFormat() {
+    store("anna@example.com", "client", "access-1", "refresh-1");
+    CompactJdbcTokenStore serializingStore = new CompactJdbcTokenStore(dataSource, new TokenCodec(false));
+    serializingStore.storeAccessToken(new DefaultOAuth2AccessToken("access-2"),
+                                      authentication("john@example.com", "client"));
+    MeterRegistry registry = new SimpleMeterRegistry();
+    tokenStore.bindTo(registry);
+
+    tokenStore.readAccessToken("access-1");
+    tokenStore.readAuthentication("access-1");
+    tokenStore.readAccessToken("access-2");
+
+    assertThat(registry.get("auth.token.decode").tag("format", "compact").timer().count(), is(2L));
+    assertThat(registry.get("auth.token.decode").tag("format", "java").timer().count(), is(1L));
+  }
+
+  private void store(String userName, String clientId, String accessValue, String refreshValue) {
+    OAuth2Authentication authentication = authentication(userName, clientId);
+    DefaultOAuth2RefreshToken refreshToken = new DefaultOAuth2RefreshToken(refreshValue);
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(accessValue);
+    accessToken.setRefreshToken(refreshToken);
+
+    tokenStore.storeAccessToken(accessToken, authentication);
+    tokenStore.storeRefreshToken(refreshToken, authentication);
+  }
+
+  private static OAuth2Authentication authentication(String userName, String clientId) {
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), clientId, Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(
+        userName, null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+  }
+}
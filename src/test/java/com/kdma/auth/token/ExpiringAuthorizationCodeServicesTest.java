@@ -0,0 +1,131 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class ExpiringAuthorizationCodeServicesTest {
+
+  private static final Duration TIME_TO_LIVE = Duration.ofMinutes(10);
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private ExpiringAuthorizationCodeServices codeServices;
+
+  private OAuth2Authentication authentication;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    codeServices = new ExpiringAuthorizationCodeServices(TIME_TO_LIVE, 3, clock::get);
+    codeServices.bindTo(meterRegistry);
+
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client", Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    authentication = new OAuth2Authentication(request, null);
+  }
+
+  @Test(expected = InvalidGrantException.class)
+  public void testGivenRedeemedCodeWhenRedeemedAgainThenItIsRefused() {
+    String code = codeServices.createAuthorizationCode(authentication);
+
+    assertThat(codeServices.consumeAuthorizationCode(code), is(authentication));
+    codeServices.consumeAuthorizationCode(code);
+  }
+
+  @Test
+  public void testGivenExpiredCodeWhenClockMovesOnThenItIsRemoved() {
+    String code = codeServices.createAuthorizationCode(authentication);
+
+    clock.addAndGet(TIME_TO_LIVE.toNanos() * 2);
+    codeServices.createAuthorizationCode(authentication);
+
+    assertThat(codeServices.size(), is(1));
+    assertThat(meterRegistry.get("auth.code.removed").tag("reason", "expired").functionCounter().count(), is(1.0));
+    try {
+      codeServices.consumeAuthorizationCode(code);
+      throw new AssertionError("Expired code redeemed");
+    } catch (InvalidGrantException e) {
+      assertThat(codeServices.size(), is(1));
+    }
+  }
+
+  @Test
+  public void testGivenFullServicesWhenCodeIsIssuedThenOldestCodeIsDropped() {
+    String oldest = codeServices.createAuthorizationCode(authentication);
+    clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    String older = codeServices.createAuthorizationCode(authentication);
+    String newer = codeServices.createAuthorizationCode(authentication);
+    clock.addAndGet(TimeUnit.MINUTES.toNanos(1));
+
+    String newest = codeServices.createAuthorizationCode(authentication);
+
+    assertThat(codeServices.size(), is(3));
+    assertThat(meterRegistry.get("auth.code.removed").tag("reason", "evicted").functionCounter().count(), is(1.0));
+    assertThat(codeServices.consumeAuthorizationCode(older), is(authentication));
+    assertThat(codeServices.consumeAuthorizationCode(newer), is(authentication));
+    assertThat(codeServices.consumeAuthorizationCode(newest), is(authentication));
+    try {
+      codeServices.consumeAuthorizationCode(oldest);
+      throw new AssertionError("Dropped code redeemed");
+    } catch (InvalidGrantException e) {
+      assertThat(codeServices.size(), is(0));
+    }
+  }
+
+  @Test
+  public void testGivenCodeWhenRedeemedConcurrentlyThenOnlyOneRedemptionSucceeds() throws Exception {
+    String code = codeServices.createAuthorizationCode(authentication);
+    int threads = 8;
+    CountDownLatch start = new CountDownLatch(1);
+    Callable<Boolean> redeem = () -> {
+      start.await();
+      try {
+        return codeServices.consumeAuthorizationCode(code) != null;
+      } catch (InvalidGrantException e) {
+        return false;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Boolean>> redemptions = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        redemptions.add(executor.submit(redeem));
+      }
+      start.countDown();
+
+      int succeeded = 0;
+      for (Future<Boolean> redemption : redemptions) {
+        succeeded += redemption.get() ? 1 : 0;
+      }
+      assertThat(succeeded, is(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class JournaledTokenStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+
+  private JournaledTokenStore tokenStore;
+
+  /**
+   * Sets the up.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = folder.getRoot().toPath();
+    tokenStore = open();
+  }
+
+  /**
+   * Closes the store.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @After
+  public void tearDown() throws IOException {
+    tokenStore.close();
+  }
+
+  @Test
+  public void testGivenStoredTokensWhenReadingThenTokensAreFoundByEveryIndex() {
+    OAuth2Authentication authentication = store("anna@example.com", "client", "access", "refresh");
+
+    assertThat(tokenStore.readAccessToken("access").getRefreshToken().getValue(), is("refresh"));
+    assertThat(tokenStore.readAuthentication("access").getName(), is("anna@example.com"));
+    assertThat(tokenStore.getAccessToken(authentication).getValue(), is("access"));
+    assertThat(tokenStore.readAuthenticationForRefreshToken(new DefaultOAuth2RefreshToken("refresh")).getName(),
+               is("anna@example.com"));
+    assertThat(values(tokenStore.findTokensByUserName("anna@example.com")), containsInAnyOrder("access"));
+    assertThat(values(tokenStore.findTokensByClientId("client")), containsInAnyOrder("access"));
+    assertThat(values(tokenStore.findTokensByClientIdAndUserName("other", "anna@example.com")), is(empty()));
+  }
+
+  @Test
+  public void testGivenAccessTokenWhenRemovingUsingRefreshTokenThenAccessTokenIsRemoved() {
+    store("anna@example.com", "client", "access", "refresh");
+
+    tokenStore.removeAccessTokenUsingRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+
+    assertThat(tokenStore.readAccessToken("access"), is(nullValue()));
+    assertThat(tokenStore.findTokensByUserName("anna@example.com"), is(empty()));
+    assertThat(tokenStore.readRefreshToken("refresh").getValue(), is("refresh"));
+  }
+
+  @Test
+  public void testGivenTokensForSeveralUsersWhenRemovingByUserNameThenOnlyThatUsersTokensAreRemoved() {
+    store("anna@example.com", "client", "access-1", "refresh-1");
+    store("anna@example.com", "other", "access-2", "refresh-2");
+    store("john@example.com", "client", "access-3", "refresh-3");
+
+    int removed = tokenStore.removeTokensByUserName("anna@example.com");
+
+    assertThat(removed, is(4));
+    assertThat(tokenStore.readAccessToken("access-1"), is(nullValue()));
+    assertThat(tokenStore.readRefreshToken("refresh-2"), is(nullValue()));
+    assertThat(tokenStore.readAccessToken("access-3").getValue(), is("access-3"));
+    assertThat(tokenStore.readRefreshToken("refresh-3").getValue(), is("refresh-3"));
+  }
+
+  @Test
+  public void testGivenJournaledChangesWhenReopeningThenChangesAreRecovered() throws IOException {
+    store("anna@example.com", "client", "access-1", "refresh-1");
+    store("john@example.com", "client", "access-2", "refresh-2");
+    tokenStore.removeAccessToken(new DefaultOAuth2AccessToken("access-1"));
+
+    tokenStore = reopenWithoutSnapshot();
+
+    assertThat(tokenStore.readAccessToken("access-1"), is(nullValue()));
+    assertThat(tokenStore.readRefreshToken("refresh-1").getValue(), is("refresh-1"));
+    assertThat(tokenStore.readAuthentication("access-2").getName(), is("john@example.com"));
+    assertThat(values(tokenStore.findTokensByUserName("john@example.com")), containsInAnyOrder("access-2"));
+  }
+
+  @Test
+  public void testGivenSnapshotAndLaterChangesWhenReopeningThenBothAreRecovered() throws IOException {
+    store("anna@example.com", "client", "access-1", "refresh-1");
+    tokenStore.snapshot();
+    store("john@example.com", "client", "access-2", "refresh-2");
+    tokenStore.removeRefreshToken(new DefaultOAuth2RefreshToken("refresh-1"));
+
+    tokenStore = reopenWithoutSnapshot();
+
+    assertThat(tokenStore.readAccessToken("access-1").getValue(), is("access-1"));
+    assertThat(tokenStore.readRefreshToken("refresh-1"), is(nullValue()));
+    assertThat(tokenStore.readAccessToken("access-2").getValue(), is("access-2"));
+  }
+
+  @Test
+  public void testGivenExpiredTokensWhenTakingSnapshotThenExpiredTokensAreDropped() throws IOException {
+    Date past = new Date(System.currentTimeMillis() - 60_000);
+    OAuth2Authentication authentication = authentication("anna@example.com", "client");
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken("expired");
+    accessToken.setExpiration(past);
+    tokenStore.storeAccessToken(accessToken, authentication);
+    tokenStore.storeRefreshToken(new DefaultExpiringOAuth2RefreshToken("expired-refresh", past), authentication);
+    store("anna@example.com", "client", "live", "live-refresh");
+
+    tokenStore.close();
+    tokenStore = open();
+
+    assertThat(tokenStore.readAccessToken("expired"), is(nullValue()));
+    assertThat(tokenStore.readRefreshToken("expired-refresh"), is(nullValue()));
+    assertThat(tokenStore.readAccessToken("live").getValue(), is("live"));
+  }
+
+  @Test
+  public void testGivenTornRecordAtEndOfJournalWhenReopeningThenEarlierRecordsAreRecovered() throws IOException {
+    store("anna@example.com", "client", "access", "refresh");
+    Path journal = directory.resolve("tokens.journal");
+    long size = Files.size(journal);
+    try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+      channel.truncate(size - 3);
+    }
+    tokenStore = reopenWithoutSnapshot();
+
+    assertThat(tokenStore.readAccessToken("access").getValue(), is("access"));
+    assertThat(tokenStore.readRefreshToken("refresh"), is(nullValue()));
+  }
+
+  private JournaledTokenStore open() throws IOException {
+    return new JournaledTokenStore(directory, new TokenCodec(), 4, Duration.ofHours(1));
+  }
+
+  /**
+   * Simulates the process dying: the store is abandoned without the final snapshot taken by close.
+   */
+  private JournaledTokenStore reopenWithoutSnapshot() throws IOException {
+    return open();
+  }
+
+  private OAuth2Authentication store(String userName, String clientId, String accessValue, String refreshValue) {
+    OAuth2Authentication authentication = authentication(userName, clientId);
+    DefaultOAuth2RefreshToken refreshToken = new DefaultOAuth2RefreshToken(refreshValue);
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(accessValue);
+    accessToken.setRefreshToken(refreshToken);
+
+    tokenStore.storeAccessToken(accessToken, authentication);
+    tokenStore.storeRefreshToken(refreshToken, authentication);
+    return authentication;
+  }
+
+  private static OAuth2Authentication authentication(String userName, String clientId) {
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), clientId, Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(
+        userName, null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+  }
+
+  private static List<String> values(Collection<OAuth2AccessToken> tokens) {
+    return tokens.stream().map(OAuth2AccessToken::getValue).collect(Collectors.toList());
+  }
+}
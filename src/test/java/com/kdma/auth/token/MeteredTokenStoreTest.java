@@ -0,0 +1,69 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+public class MeteredTokenStoreTest {
+
+  @Mock
+  private UserTokenStore delegate;
+
+  private MeterRegistry registry;
+
+  private MeteredTokenStore tokenStore;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    registry = new SimpleMeterRegistry();
+    tokenStore = new MeteredTokenStore(delegate, registry);
+  }
+
+  @Test
+  public void testGivenStoredTokenWhenReadingThenDelegateResultIsReturnedAndTimed() {
+    OAuth2AccessToken token = new DefaultOAuth2AccessToken("access");
+    given(delegate.readAccessToken("access")).willReturn(token);
+    given(delegate.removeTokensByUserName("anna@example.com")).willReturn(4);
+
+    assertThat(tokenStore.readAccessToken("access"), is(token));
+    assertThat(tokenStore.removeTokensByUserName("anna@example.com"), is(4));
+
+    assertThat(count("readAccessToken"), is(1L));
+    assertThat(count("removeTokensByUserName"), is(1L));
+    assertThat(count("storeAccessToken"), is(0L));
+  }
+
+  @Test
+  public void testGivenFailingDelegateWhenReadingThenFailureIsTimedAndRethrown() {
+    willThrow(new DataAccessResourceFailureException("down")).given(delegate).readAuthentication("access");
+
+    try {
+      tokenStore.readAuthentication("access");
+      fail("Expected the delegate's exception");
+    } catch (DataAccessResourceFailureException e) {
+      assertThat(count("readAuthentication"), is(1L));
+    }
+  }
+
+  private long count(String operation) {
+    return registry.get("auth.token.store").tag("operation", operation).timer().count();
+  }
+}
@@ -0,0 +1,90 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class SelfContainedTokenStoreTest {
+
+  @Mock
+  private UserTokenStore delegate;
+
+  private SignedJwtAccessTokenConverter converter;
+
+  private OAuth2Authentication authentication;
+
+  private OAuth2AccessToken jwt;
+
+  private SelfContainedTokenStore tokenStore;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client", Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(
+        "user@example.com", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+    DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken("access");
+    accessToken.setExpiration(new Date(System.currentTimeMillis() + 60_000));
+    accessToken.setRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+
+    converter = new SignedJwtAccessTokenConverter(JwtKeySet.generate());
+    jwt = converter.enhance(accessToken, authentication);
+    tokenStore = new SelfContainedTokenStore(delegate, converter);
+  }
+
+  @Test
+  public void testGivenJwtWhenReadingTokenAndAuthenticationThenDecodeWithoutDelegate() {
+    OAuth2AccessToken token = tokenStore.readAccessToken(jwt.getValue());
+    OAuth2Authentication loaded = tokenStore.readAuthentication(jwt.getValue());
+
+    assertThat(token.getValue(), is(jwt.getValue()));
+    assertThat(loaded.getName(), is("user@example.com"));
+    assertThat(loaded.getOAuth2Request().getClientId(), is("client"));
+    verify(delegate, never()).readAccessToken(anyString());
+    verify(delegate, never()).readAuthentication(anyString());
+  }
+
+  @Test
+  public void testGivenOpaqueTokenIssuedBeforeSwitchWhenReadingTokenThenReadFromDelegate() {
+    DefaultOAuth2AccessToken opaque = new DefaultOAuth2AccessToken("4c8e8a1c-6a4f-4a53-9a4e-0f3a2d1b9c77");
+    given(delegate.readAccessToken(opaque.getValue())).willReturn(opaque);
+
+    assertThat(tokenStore.readAccessToken(opaque.getValue()), is(opaque));
+  }
+
+  @Test
+  public void testGivenIssuedTokenWhenStoringThenDelegateKeepsAccessAndRefreshTokens() {
+    tokenStore.storeAccessToken(jwt, authentication);
+    tokenStore.storeRefreshToken(jwt.getRefreshToken(), authentication);
+    tokenStore.findTokensByUserName("user@example.com");
+
+    verify(delegate).storeAccessToken(jwt, authentication);
+    verify(delegate).storeRefreshToken(jwt.getRefreshToken(), authentication);
+    verify(delegate).findTokensByUserName("user@example.com");
+  }
+}
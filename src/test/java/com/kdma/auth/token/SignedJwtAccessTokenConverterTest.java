@@ -0,0 +1,133 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class SignedJwtAccessTokenConverterTest {
+
+  private DefaultOAuth2AccessToken accessToken;
+
+  private OAuth2Authentication authentication;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    accessToken = new DefaultOAuth2AccessToken("access");
+    accessToken.setExpiration(new Date(System.currentTimeMillis() + 60_000));
+    accessToken.setScope(Collections.singleton("read"));
+    accessToken.setRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client", Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    authentication = new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken(
+        "user@example.com", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+  }
+
+  @Test
+  public void testGivenRsaKeyWhenEnhancingThenAccessTokenIsSignedJwtAndRefreshTokenStaysOpaque() throws Exception {
+    SignedJwtAccessTokenConverter converter = new SignedJwtAccessTokenConverter(keySet(rsaKey("rsa")));
+
+    OAuth2AccessToken jwt = converter.enhance(accessToken, authentication);
+
+    Map<String, String> headers = JwtHelper.headers(jwt.getValue());
+    assertThat(headers.get("kid"), is("rsa"));
+    assertThat(headers.get("alg"), is("RS256"));
+    assertThat(jwt.getRefreshToken().getValue(), is("refresh"));
+    assertThat(converter.extractAuthentication(converter.decode(jwt.getValue())).getName(), is("user@example.com"));
+  }
+
+  @Test
+  public void testGivenEcKeyWhenEnhancingThenTokenIsVerifiedWithEcKey() throws Exception {
+    SignedJwtAccessTokenConverter converter = new SignedJwtAccessTokenConverter(keySet(ecKey("ec")));
+
+    OAuth2AccessToken jwt = converter.enhance(accessToken, authentication);
+
+    assertThat(JwtHelper.headers(jwt.getValue()).get("alg"), is("ES256"));
+    assertThat(converter.extractAccessToken(jwt.getValue(), converter.decode(jwt.getValue())).getScope(),
+               contains("read"));
+  }
+
+  @Test
+  public void testGivenRotatedKeysWhenDecodingTokenSignedByRetiredKeyThenTokenIsAccepted() throws Exception {
+    JwtKey old = rsaKey("old");
+    String token = new SignedJwtAccessTokenConverter(keySet(old)).enhance(accessToken, authentication).getValue();
+    JwtKey retired = new JwtKey("old", old.getPublicKey(), null);
+
+    SignedJwtAccessTokenConverter rotated = new SignedJwtAccessTokenConverter(keySet(ecKey("new"), retired));
+
+    assertThat(rotated.extractAuthentication(rotated.decode(token)).getName(), is("user@example.com"));
+    assertThat(JwtHelper.headers(rotated.enhance(accessToken, authentication).getValue()).get("kid"), is("new"));
+  }
+
+  @Test(expected = InvalidTokenException.class)
+  public void testGivenTokenSignedByUnknownKeyWhenDecodingThenThrowInvalidToken() throws Exception {
+    String token = new SignedJwtAccessTokenConverter(keySet(rsaKey("rsa"))).enhance(accessToken, authentication)
+                                                                           .getValue();
+
+    new SignedJwtAccessTokenConverter(keySet(rsaKey("other"))).decode(token);
+  }
+
+  @Test(expected = InvalidTokenException.class)
+  public void testGivenTokenSignedByOtherKeyWithSameIdWhenDecodingThenThrowInvalidToken() throws Exception {
+    String forged = new SignedJwtAccessTokenConverter(keySet(rsaKey("rsa"))).enhance(accessToken, authentication)
+                                                                            .getValue();
+
+    new SignedJwtAccessTokenConverter(keySet(rsaKey("rsa"))).decode(forged);
+  }
+
+  @Test
+  public void testGivenKeySetWhenPublishingThenEveryKeyIsListed() throws Exception {
+    JwtKeySet keySet = keySet(rsaKey("rsa"), ecKey("ec"));
+
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> keys = (List<Map<String, Object>>) keySet.toJwks().get("keys");
+
+    assertThat(keys.stream().map(key -> key.get("kid")).collect(Collectors.toList()), contains("rsa", "ec"));
+    assertThat(keys.get(0).get("kty"), is("RSA"));
+    assertThat(keys.get(1).get("crv"), is("P-256"));
+  }
+
+  private static JwtKeySet keySet(JwtKey... keys) {
+    return new JwtKeySet(Arrays.asList(keys));
+  }
+
+  private static JwtKey rsaKey(String keyId) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    KeyPair keyPair = generator.generateKeyPair();
+    return new JwtKey(keyId, keyPair.getPublic(), keyPair.getPrivate());
+  }
+
+  private static JwtKey ecKey(String keyId) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    KeyPair keyPair = generator.generateKeyPair();
+    return new JwtKey(keyId, keyPair.getPublic(), keyPair.getPrivate());
+  }
+}
@@ -0,0 +1,67 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@JdbcTest
+public class SingleUseJdbcAuthorizationCodeServicesTest {
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private SingleUseJdbcAuthorizationCodeServices codeServices;
+
+  private OAuth2Authentication authentication;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    codeServices = new SingleUseJdbcAuthorizationCodeServices(dataSource, Duration.ofMinutes(10));
+
+    OAuth2Request request = new OAuth2Request(Collections.emptyMap(), "client", Collections.emptyList(), true,
+                                              Collections.singleton("read"), null, null, null, null);
+    authentication = new OAuth2Authentication(request, null);
+  }
+
+  @Test
+  public void testGivenStoredCodeWhenRemovedTwiceThenOnlyFirstRemovalGetsAuthentication() {
+    String code = codeServices.createAuthorizationCode(authentication);
+
+    assertThat(codeServices.remove(code).getOAuth2Request().getClientId(), is("client"));
+    assertThat(codeServices.remove(code), is(nullValue()));
+  }
+
+  @Test
+  public void testGivenCodeOlderThanTimeToLiveWhenRemovedThenItIsRefused() {
+    String code = codeServices.createAuthorizationCode(authentication);
+    jdbcTemplate.update("update oauth_code set created_at = ? where code = ?",
+                        Timestamp.from(Instant.now().minus(Duration.ofMinutes(11))), code);
+
+    assertThat(codeServices.remove(code), is(nullValue()));
+  }
+}
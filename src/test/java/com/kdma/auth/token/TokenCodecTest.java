@@ -0,0 +1,149 @@
+
+package com.kdma.auth.token;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.util.SerializationUtils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class TokenCodecTest {
+
+  private TokenCodec codec;
+
+  private DefaultOAuth2AccessToken accessToken;
+
+  private OAuth2Authentication authentication;
+
+  /**
+   * Sets the up.
+   */
+  @Before
+  public void setUp() {
+    codec = new TokenCodec();
+
+    accessToken = new DefaultOAuth2AccessToken("2f1c6a3e-8f6d-4b1e-9d0a-6c1f3e2b7a90");
+    accessToken.setExpiration(new Date(1_700_000_000_000L));
+    accessToken.setScope(new HashSet<>(Arrays.asList("read", "write")));
+    accessToken.setRefreshToken(new DefaultExpiringOAuth2RefreshToken("refresh", new Date(1_800_000_000_000L)));
+    Map<String, Object> information = new LinkedHashMap<>();
+    information.put("jti", "abc");
+    information.put("iat", 1_700_000_000L);
+    accessToken.setAdditionalInformation(information);
+
+    Map<String, String> parameters = new LinkedHashMap<>();
+    parameters.put("grant_type", "password");
+    parameters.put("username", "user@example.com");
+    OAuth2Request request = new OAuth2Request(parameters, "client",
+                                              AuthorityUtils.createAuthorityList("ROLE_CLIENT"), true,
+                                              Collections.singleton("read"), Collections.singleton("auth"), null,
+                                              null, null);
+    UsernamePasswordAuthenticationToken user = new UsernamePasswordAuthenticationToken(
+        "user@example.com", null, AuthorityUtils.createAuthorityList("ROLE_USER"));
+    authentication = new OAuth2Authentication(request, user);
+  }
+
+  @Test
+  public void testGivenAccessTokenWhenEncodingThenDecodeToEqualToken() {
+    byte[] encoded = codec.encodeAccessToken(accessToken);
+    OAuth2AccessToken decoded = codec.decodeAccessToken(encoded);
+
+    assertThat(TokenCodec.isCompact(encoded), is(true));
+    assertThat(decoded, is(accessToken));
+    assertThat(decoded.getExpiration(), is(accessToken.getExpiration()));
+    assertThat(decoded.getScope(), is(accessToken.getScope()));
+    assertThat(decoded.getRefreshToken(), is(accessToken.getRefreshToken()));
+    assertThat(decoded.getAdditionalInformation(), is(accessToken.getAdditionalInformation()));
+  }
+
+  @Test
+  public void testGivenRefreshTokenWhenEncodingThenDecodeWithExpiration() {
+    OAuth2RefreshToken refreshToken = accessToken.getRefreshToken();
+
+    OAuth2RefreshToken decoded = codec.decodeRefreshToken(codec.encodeRefreshToken(refreshToken));
+
+    assertThat(decoded, instanceOf(DefaultExpiringOAuth2RefreshToken.class));
+    assertThat(((DefaultExpiringOAuth2RefreshToken) decoded).getExpiration(), is(new Date(1_800_000_000_000L)));
+  }
+
+  @Test
+  public void testGivenAuthenticationWhenEncodingThenDecodeToEqualAuthentication() {
+    OAuth2Authentication decoded = codec.decodeAuthentication(codec.encodeAuthentication(authentication));
+
+    assertThat(decoded.getOAuth2Request(), is(authentication.getOAuth2Request()));
+    assertThat(decoded.getName(), is("user@example.com"));
+    assertThat(decoded.isAuthenticated(), is(true));
+    assertThat(AuthorityUtils.authorityListToSet(decoded.getAuthorities()), contains("ROLE_USER"));
+  }
+
+  @Test
+  public void testGivenClientOnlyAuthenticationWhenEncodingThenDecodeWithoutUser() {
+    OAuth2Authentication clientOnly = new OAuth2Authentication(authentication.getOAuth2Request(), null);
+
+    OAuth2Authentication decoded = codec.decodeAuthentication(codec.encodeAuthentication(clientOnly));
+
+    assertThat(decoded.getUserAuthentication(), is(nullValue()));
+    assertThat(decoded.isClientOnly(), is(true));
+  }
+
+  @Test
+  public void testGivenJavaSerializedRowsWhenDecodingThenReadLegacyFormat() {
+    OAuth2AccessToken token = codec.decodeAccessToken(SerializationUtils.serialize(accessToken));
+    OAuth2Authentication decoded = codec.decodeAuthentication(SerializationUtils.serialize(authentication));
+
+    assertThat(token, is(accessToken));
+    assertThat(decoded.getName(), is("user@example.com"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGivenValueShorterThanTheHeaderWhenDecodingThenItIsRejected() {
+    codec.decodeAccessToken(new byte[] {TokenCodec.MAGIC, TokenCodec.VERSION});
+  }
+
+  @Test
+  public void testGivenUnsupportedAdditionalInformationWhenEncodingThenFallBackToJavaSerialization() {
+    accessToken.setAdditionalInformation(Collections.singletonMap("issued", new Date()));
+
+    byte[] encoded = codec.encodeAccessToken(accessToken);
+
+    assertThat(TokenCodec.isCompact(encoded), is(false));
+    assertThat(codec.decodeAccessToken(encoded).getAdditionalInformation(),
+               is(accessToken.getAdditionalInformation()));
+  }
+
+  @Test
+  public void testGivenCompactEncodingDisabledWhenEncodingThenWriteJavaSerialization() {
+    byte[] encoded = new TokenCodec(false).encodeAccessToken(accessToken);
+
+    assertThat(TokenCodec.isCompact(encoded), is(false));
+    assertThat(codec.decodeAccessToken(encoded), is(accessToken));
+  }
+
+  @Test
+  public void testGivenTokenAndAuthenticationWhenEncodingThenSmallerThanJavaSerialization() {
+    assertThat(codec.encodeAccessToken(accessToken).length,
+               is(lessThan(SerializationUtils.serialize(accessToken).length)));
+    assertThat(codec.encodeAuthentication(authentication).length,
+               is(lessThan(SerializationUtils.serialize(authentication).length)));
+  }
+}